@@ -0,0 +1,165 @@
+package mmcorej;
+
+/**
+ * Typed per-image metadata, as generated by CMMCore for a TaggedImage.
+ *
+ * This holds the same information that CMMCore used to write into the
+ * image's JSONObject tags, but without building a JSON map for every frame:
+ * the device metadata is kept as interned key/value arrays, the system-state
+ * cache is a SystemStateSnapshot shared with other frames, and the
+ * Core-generated tags are stored as primitives. Consumers that understand
+ * this class can read it directly (see TaggedImage.getFrameMetadata()),
+ * while TaggedImage.tags is only filled in when legacy code touches it.
+ */
+public final class FrameMetadata {
+   /**
+    * Receives the tags of a FrameMetadata in order of increasing precedence;
+    * a key that is visited more than once takes its last value.
+    */
+   public interface TagVisitor {
+      void visitString(String key, String value);
+      void visitNumber(String key, Number value);
+   }
+
+   private final String[] deviceKeys_;
+   private final String[] deviceValues_;
+   private final SystemStateSnapshot systemState_;
+
+   private final long bitDepth_;
+   private final double pixelSizeUm_;
+   private final String pixelSizeAffine_;
+   private final String roi_;
+   private final long width_;
+   private final long height_;
+   private final String pixelType_;
+   private final String channel_;
+   private final String binning_;
+
+   // Set by CMMCore after construction for multi-camera images; -1 and null
+   // when not applicable.
+   private int cameraChannelIndex_ = -1;
+   private String physicalCamera_ = null;
+
+   FrameMetadata(String[] deviceKeys, String[] deviceValues,
+         SystemStateSnapshot systemState, long bitDepth, double pixelSizeUm,
+         String pixelSizeAffine, String roi, long width, long height,
+         String pixelType, String channel, String binning) {
+      deviceKeys_ = new String[deviceKeys.length];
+      for (int i = 0; i < deviceKeys.length; ++i) {
+         deviceKeys_[i] = deviceKeys[i].intern();
+      }
+      deviceValues_ = deviceValues;
+      systemState_ = systemState;
+      bitDepth_ = bitDepth;
+      pixelSizeUm_ = pixelSizeUm;
+      pixelSizeAffine_ = pixelSizeAffine;
+      roi_ = roi;
+      width_ = width;
+      height_ = height;
+      pixelType_ = pixelType;
+      channel_ = channel;
+      binning_ = binning;
+   }
+
+   void setCameraChannelIndex(int index) {
+      cameraChannelIndex_ = index;
+   }
+
+   void setPhysicalCamera(String camera) {
+      physicalCamera_ = camera;
+   }
+
+   public SystemStateSnapshot getSystemState() {
+      return systemState_;
+   }
+
+   public long getBitDepth() {
+      return bitDepth_;
+   }
+
+   public double getPixelSizeUm() {
+      return pixelSizeUm_;
+   }
+
+   public String getPixelSizeAffine() {
+      return pixelSizeAffine_;
+   }
+
+   public String getROI() {
+      return roi_;
+   }
+
+   public long getWidth() {
+      return width_;
+   }
+
+   public long getHeight() {
+      return height_;
+   }
+
+   public String getPixelType() {
+      return pixelType_;
+   }
+
+   public int getCameraChannelIndex() {
+      return cameraChannelIndex_;
+   }
+
+   /**
+    * Look up a tag among the device metadata and the system state, in the
+    * same order of precedence as the materialized JSON tags. Core-generated
+    * tags (width, pixel type, etc.) are not searched; use the typed getters.
+    * @return the value, or null if there is no such tag
+    */
+   public String getDeviceOrStateTag(String key) {
+      String value = systemState_.get(key);
+      if (value != null) {
+         return value;
+      }
+      for (int i = 0; i < deviceKeys_.length; ++i) {
+         if (deviceKeys_[i].equals(key)) {
+            return deviceValues_[i];
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Pass every tag to the visitor, in the order in which CMMCore has
+    * always written them into TaggedImage tags.
+    */
+   public void visitTags(TagVisitor visitor) {
+      for (int i = 0; i < deviceKeys_.length; ++i) {
+         visitor.visitString(deviceKeys_[i], deviceValues_[i]);
+      }
+      for (int i = 0; i < systemState_.size(); ++i) {
+         visitor.visitString(systemState_.getKey(i), systemState_.getValue(i));
+      }
+      visitor.visitNumber("BitDepth", bitDepth_);
+      visitor.visitNumber("PixelSizeUm", pixelSizeUm_);
+      visitor.visitString("PixelSizeAffine", pixelSizeAffine_);
+      visitor.visitString("ROI", roi_);
+      visitor.visitNumber("Width", width_);
+      visitor.visitNumber("Height", height_);
+      visitor.visitString("PixelType", pixelType_);
+      visitor.visitNumber("Frame", 0);
+      visitor.visitNumber("FrameIndex", 0);
+      visitor.visitString("Position", "Default");
+      visitor.visitNumber("PositionIndex", 0);
+      visitor.visitNumber("Slice", 0);
+      visitor.visitNumber("SliceIndex", 0);
+      visitor.visitString("Channel", channel_);
+      visitor.visitNumber("ChannelIndex", 0);
+      if (binning_ != null) {
+         visitor.visitString("Binning", binning_);
+      }
+      if (cameraChannelIndex_ >= 0) {
+         visitor.visitNumber("CameraChannelIndex", cameraChannelIndex_);
+         visitor.visitNumber("ChannelIndex", cameraChannelIndex_);
+      }
+      if (physicalCamera_ != null) {
+         visitor.visitString("Camera", physicalCamera_);
+         visitor.visitString("Channel", physicalCamera_);
+      }
+   }
+}
@@ -0,0 +1,104 @@
+package mmcorej;
+
+import java.util.Iterator;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * JSONObject view of a FrameMetadata that is only filled in the first time
+ * it is accessed. Writes are tracked so that TaggedImage can tell whether
+ * the typed metadata still describes the tags.
+ */
+final class FrameMetadataTags extends JSONObject {
+   private final FrameMetadata metadata_;
+   private volatile boolean materialized_ = false;
+   private volatile boolean modified_ = false;
+
+   FrameMetadataTags(FrameMetadata metadata) {
+      super();
+      metadata_ = metadata;
+   }
+
+   boolean isModified() {
+      return modified_;
+   }
+
+   private void materialize() {
+      if (materialized_) {
+         return;
+      }
+      synchronized (this) {
+         if (materialized_) {
+            return;
+         }
+         metadata_.visitTags(new FrameMetadata.TagVisitor() {
+            @Override
+            public void visitString(String key, String value) {
+               putMaterialized(key, value);
+            }
+
+            @Override
+            public void visitNumber(String key, Number value) {
+               putMaterialized(key, value);
+            }
+         });
+         materialized_ = true;
+      }
+   }
+
+   private void putMaterialized(String key, Object value) {
+      if (value == null) {
+         return;
+      }
+      try {
+         super.put(key, value);
+      }
+      catch (JSONException e) {
+         // Skip the tag, as metadataToMap() has always done
+      }
+   }
+
+   @Override
+   public boolean has(String key) {
+      materialize();
+      return super.has(key);
+   }
+
+   @Override
+   public Iterator<String> keys() {
+      materialize();
+      return super.keys();
+   }
+
+   @Override
+   public int length() {
+      materialize();
+      return super.length();
+   }
+
+   @Override
+   public Object opt(String key) {
+      materialize();
+      return super.opt(key);
+   }
+
+   @Override
+   public JSONObject put(String key, Object value) throws JSONException {
+      materialize();
+      modified_ = true;
+      return super.put(key, value);
+   }
+
+   @Override
+   public Object remove(String key) {
+      materialize();
+      modified_ = true;
+      return super.remove(key);
+   }
+
+   @Override
+   public String toString() {
+      materialize();
+      return super.toString();
+   }
+}
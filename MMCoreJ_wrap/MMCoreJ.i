@@ -630,7 +630,6 @@
 
 
 %typemap(javaimports) CMMCore %{
-   import org.json.JSONObject;
    import java.awt.geom.Point2D;
    import java.awt.Rectangle;
    import java.util.ArrayList;
@@ -638,14 +637,22 @@
 %}
 
 %typemap(javacode) CMMCore %{
-   private JSONObject metadataToMap(Metadata md) {
-      JSONObject tags = new JSONObject();
-      for (String key:md.GetKeys()) {
-         try {
-            tags.put(key, md.GetSingleTag(key).GetValue());
-         } catch (Exception e) {} 
+   // System-state snapshot of the previous image, shared with the next one
+   // if the state has not changed in between
+   private SystemStateSnapshot lastSystemState_ = null;
+
+   private synchronized SystemStateSnapshot getSystemStateSnapshot() throws java.lang.Exception {
+      Configuration config = getSystemStateCache();
+      int size = (int) config.size();
+      String[] keys = new String[size];
+      String[] values = new String[size];
+      for (int i = 0; i < size; ++i) {
+         PropertySetting setting = config.getSetting(i);
+         keys[i] = setting.getDeviceLabel() + "-" + setting.getPropertyName();
+         values[i] = setting.getPropertyValue();
       }
-      return tags;
+      lastSystemState_ = SystemStateSnapshot.of(keys, values, lastSystemState_);
+      return lastSystemState_;
    }
 
    private String getROITag() throws java.lang.Exception {
@@ -679,79 +686,65 @@
      return "";
    }
 
-   private String getMultiCameraChannel(JSONObject tags, int cameraChannelIndex) {
-	  try {
-	  String camera = tags.getString("Core-Camera");
-	  String physCamKey = camera + "-Physical Camera " + (1 + cameraChannelIndex);
-	  if (tags.has(physCamKey)) {
-		 try {
-			return tags.getString(physCamKey);
-		 } catch (Exception e2) {
-			return null;
-		 }
-	  } else {
-		 return null;
-	  }
-	 } catch (Exception e) {
-	   return null;
-	 }
-
+   private String getMultiCameraChannel(FrameMetadata frameMd, int cameraChannelIndex) {
+      String camera = frameMd.getDeviceOrStateTag("Core-Camera");
+      if (camera == null) {
+         return null;
+      }
+      return frameMd.getDeviceOrStateTag(camera + "-Physical Camera " + (1 + cameraChannelIndex));
    }
 
    private TaggedImage createTaggedImage(Object pixels, Metadata md, int cameraChannelIndex) throws java.lang.Exception {
-      TaggedImage image = createTaggedImage(pixels, md);
-      JSONObject tags = image.tags;
-      
-      if (!tags.has("CameraChannelIndex")) {
-         tags.put("CameraChannelIndex", cameraChannelIndex);
-         tags.put("ChannelIndex", cameraChannelIndex);
+      FrameMetadata frameMd = createFrameMetadata(md);
+      if (frameMd.getDeviceOrStateTag("CameraChannelIndex") == null) {
+         frameMd.setCameraChannelIndex(cameraChannelIndex);
       }
-      if (!tags.has("Camera")) {
-         String physicalCamera = getMultiCameraChannel(tags, cameraChannelIndex);
+      if (frameMd.getDeviceOrStateTag("Camera") == null) {
+         String physicalCamera = getMultiCameraChannel(frameMd, cameraChannelIndex);
          if (physicalCamera != null) {
-            tags.put("Camera", physicalCamera);
-            tags.put("Channel",physicalCamera);
+            frameMd.setPhysicalCamera(physicalCamera);
          }
       }
-      return image;
+      return TaggedImage.fromFrameMetadata(pixels, frameMd);
    }
 
    private TaggedImage createTaggedImage(Object pixels, Metadata md) throws java.lang.Exception {
-      JSONObject tags = metadataToMap(md);
-      PropertySetting setting;
-      Configuration config = getSystemStateCache();
-      for (int i = 0; i < config.size(); ++i) {
-         setting = config.getSetting(i);
-         String key = setting.getDeviceLabel() + "-" + setting.getPropertyName();
-         String value = setting.getPropertyValue();
-          tags.put(key, value);
+      return TaggedImage.fromFrameMetadata(pixels, createFrameMetadata(md));
+   }
+
+   private FrameMetadata createFrameMetadata(Metadata md) throws java.lang.Exception {
+      StrVector mdKeys = md.GetKeys();
+      int numKeys = (int) mdKeys.size();
+      String[] keys = new String[numKeys];
+      String[] values = new String[numKeys];
+      int n = 0;
+      for (String key : mdKeys) {
+         try {
+            values[n] = md.GetSingleTag(key).GetValue();
+            keys[n] = key;
+            ++n;
+         } catch (Exception e) {}
+      }
+      if (n < numKeys) {
+         keys = java.util.Arrays.copyOf(keys, n);
+         values = java.util.Arrays.copyOf(values, n);
       }
-      tags.put("BitDepth", getImageBitDepth());
-      tags.put("PixelSizeUm", getPixelSizeUm(true));
-      tags.put("PixelSizeAffine", getPixelSizeAffineAsString());
-      tags.put("ROI", getROITag());
-      tags.put("Width", getImageWidth());
-      tags.put("Height", getImageHeight());
-      tags.put("PixelType", getPixelType());
-      tags.put("Frame", 0);
-      tags.put("FrameIndex", 0);
-      tags.put("Position", "Default");
-      tags.put("PositionIndex", 0);
-      tags.put("Slice", 0);
-      tags.put("SliceIndex", 0);
+
       String channel = getCurrentConfigFromCache(getPropertyFromCache("Core","ChannelGroup"));
       if ((channel == null) || (channel.length() == 0)) {
          channel = "Default";
       }
-      tags.put("Channel", channel);
-      tags.put("ChannelIndex", 0);
-
 
+      String binning = null;
       try {
-         tags.put("Binning", getProperty(getCameraDevice(), "Binning"));
+         binning = getProperty(getCameraDevice(), "Binning");
       } catch (Exception ex) {}
-      
-      return new TaggedImage(pixels, tags);	
+
+      return new FrameMetadata(keys, values, getSystemStateSnapshot(),
+            getImageBitDepth(), getPixelSizeUm(true),
+            getPixelSizeAffineAsString(), getROITag(),
+            getImageWidth(), getImageHeight(), getPixelType(),
+            channel, binning);
    }
 
    public TaggedImage getTaggedImage(int cameraChannelIndex) throws java.lang.Exception {
@@ -0,0 +1,68 @@
+package mmcorej;
+
+import java.util.Arrays;
+
+/**
+ * Immutable copy of the Core system-state cache, keyed by
+ * "Device-Property".
+ *
+ * Keys are interned, and a snapshot is reused for consecutive images as
+ * long as the system state does not change, so all frames of a sequence
+ * acquisition normally share a single instance.
+ */
+public final class SystemStateSnapshot {
+   private final String[] keys_;
+   private final String[] values_;
+
+   SystemStateSnapshot(String[] keys, String[] values) {
+      if (keys.length != values.length) {
+         throw new IllegalArgumentException("Keys and values differ in length");
+      }
+      keys_ = keys;
+      values_ = values;
+   }
+
+   /**
+    * Return a snapshot of the given key/value pairs, reusing
+    * {@code previous} if it holds exactly the same entries.
+    */
+   static SystemStateSnapshot of(String[] keys, String[] values,
+         SystemStateSnapshot previous) {
+      if (previous != null && previous.matches(keys, values)) {
+         return previous;
+      }
+      String[] internedKeys = new String[keys.length];
+      for (int i = 0; i < keys.length; ++i) {
+         internedKeys[i] = keys[i].intern();
+      }
+      return new SystemStateSnapshot(internedKeys, values.clone());
+   }
+
+   private boolean matches(String[] keys, String[] values) {
+      return Arrays.equals(keys_, keys) && Arrays.equals(values_, values);
+   }
+
+   public int size() {
+      return keys_.length;
+   }
+
+   public String getKey(int index) {
+      return keys_[index];
+   }
+
+   public String getValue(int index) {
+      return values_[index];
+   }
+
+   /**
+    * Return the value stored under {@code key}, or null.
+    */
+   public String get(String key) {
+      for (int i = 0; i < keys_.length; ++i) {
+         if (keys_[i].equals(key)) {
+            return values_[i];
+         }
+      }
+      return null;
+   }
+}
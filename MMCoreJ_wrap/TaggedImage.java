@@ -10,8 +10,43 @@ public class TaggedImage {
    public final Object pix;
    public JSONObject tags;
 
+   private final FrameMetadata frameMetadata_;
+   private final FrameMetadataTags frameMetadataTags_;
+
    public TaggedImage(Object pix, JSONObject tags) {
       this.pix = pix;
       this.tags = tags;
+      frameMetadata_ = null;
+      frameMetadataTags_ = null;
+   }
+
+   private TaggedImage(Object pix, FrameMetadata metadata,
+         FrameMetadataTags tags) {
+      this.pix = pix;
+      this.tags = tags;
+      frameMetadata_ = metadata;
+      frameMetadataTags_ = tags;
+   }
+
+   /**
+    * Create a TaggedImage whose tags are generated from typed metadata only
+    * when they are first accessed.
+    */
+   public static TaggedImage fromFrameMetadata(Object pix,
+         FrameMetadata metadata) {
+      return new TaggedImage(pix, metadata, new FrameMetadataTags(metadata));
+   }
+
+   /**
+    * Return the typed metadata this image was created with, provided that
+    * the tags have not since been modified or replaced.
+    * @return the metadata, or null if the tags must be used instead
+    */
+   public FrameMetadata getFrameMetadata() {
+      if (frameMetadata_ == null || tags != frameMetadataTags_ ||
+            frameMetadataTags_.isModified()) {
+         return null;
+      }
+      return frameMetadata_;
    }
 }
@@ -43,7 +43,8 @@
     [org.micromanager.display.internal RememberedChannelSettings]
     [org.micromanager PositionList]
     [org.micromanager.internal MMStudio]
-    [org.micromanager.internal.utils MDUtils ReportingUtils])
+    [org.micromanager.internal.utils MDUtils ReportingUtils]
+    [org.micromanager.internal.utils.performance LatencyTracer])
   (:gen-class
     :name org.micromanager.internal.AcquisitionEngine2010
     :implements [org.micromanager.acquisition.internal.IAcquisitionEngine2010]
@@ -154,6 +155,7 @@
 
 (defn annotate-image [img event state elapsed-time-ms]
   {:pix (:pix img)
+   :received-ns (:received-ns img)
    :tags
    (merge-with #(or %2 %1) ; only overwrite tags if generated tag is not nil
      (:tags img)
@@ -164,14 +166,29 @@
 
 (defn unwrap-tagged-image
   "Take a TaggedImage (as from core) and return a clojure data object,
-   with keys :pix and :tags."
+   with keys :pix, :tags and :received-ns (the System/nanoTime at which
+   it was received)."
   [^TaggedImage tagged-image]
-  {:pix (.pix tagged-image)
-   :tags (json-to-data (.tags tagged-image))})
+  (let [received-ns (System/nanoTime)]
+    {:pix (.pix tagged-image)
+     :tags (json-to-data (.tags tagged-image))
+     :received-ns received-ns}))
+
+(defn trace-image-latency
+  "Record when the image was received from the core, and now, in the
+   latency trace (if tracing is on)."
+  [annotated-img]
+  (let [^LatencyTracer tracer (LatencyTracer/getInstance)]
+    (when (.isActive tracer)
+      (let [uuid (get-in annotated-img [:tags "UUID"])]
+        (when-let [received-ns (:received-ns annotated-img)]
+          (.stamp tracer "Received from core" uuid (long received-ns)))
+        (.stamp tracer "Acquisition engine" uuid)))))
 
 (defn make-TaggedImage
   "Take a clojure map with keys :pix and :tags and generate a TaggedImage."
   [annotated-img]
+  (trace-image-latency annotated-img)
   (TaggedImage. (:pix annotated-img) (JSONObject. (:tags annotated-img))))
 
 ;; hardware error handling
@@ -11,7 +11,11 @@ import org.micromanager.data.PipelineErrorException;
 import org.micromanager.data.internal.DefaultImage;
 import org.micromanager.events.EventManager;
 import org.micromanager.events.internal.DefaultAcquisitionEndedEvent;
+import org.micromanager.internal.utils.DirectBufferPool;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.performance.LatencyTracer;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
+import org.micromanager.internal.utils.performance.gui.PerformanceMonitorUI;
 
 /**
  * This object spawns a new thread that receives images from the acquisition
@@ -50,6 +54,12 @@ public final class DefaultTaggedImageSink  {
    // sinkFullCallback is a way to stop production of images when/if the sink
    // can no longer accept images.
    public void start(final Runnable sinkFullCallback) {
+      final LatencyTracer tracer = LatencyTracer.getInstance();
+      tracer.begin(store_.getName());
+      PerformanceMonitor tracerPerfMon = tracer.getPerformanceMonitor();
+      if (tracerPerfMon != null) {
+         PerformanceMonitorUI.create(tracerPerfMon, "Acquisition Latency");
+      }
       Thread savingThread = new Thread("TaggedImage sink thread") {
 
          @Override
@@ -67,6 +77,12 @@ public final class DefaultTaggedImageSink  {
                      try {
                         ++imageCount;
                         DefaultImage image = new DefaultImage(tagged);
+                        if (tracer.isActive()) {
+                           tracer.stamp("Tagged image sink",
+                                 image.getMetadata().getUUID());
+                           tracer.sampleQueueDepth("Acquisition engine output",
+                                 imageProducingQueue_.size());
+                        }
                         try {
                            pipeline_.insertImage(image);
                         }
@@ -94,6 +110,10 @@ public final class DefaultTaggedImageSink  {
             }
             long t2 = System.currentTimeMillis();
             ReportingUtils.logMessage(imageCount + " images stored in " + (t2 - t1) + " ms.");
+            ReportingUtils.logMessage(
+                  DirectBufferPool.getImagePixelPool().toString());
+            ReportingUtils.logMessage(
+                  DirectBufferPool.getInstance().toString());
          }
       };
       savingThread.start();
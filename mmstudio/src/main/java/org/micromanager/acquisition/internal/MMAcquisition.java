@@ -62,6 +62,7 @@ import org.micromanager.events.AcquisitionEndedEvent;
 import org.micromanager.internal.utils.JavaUtils;
 import org.micromanager.internal.utils.MDUtils;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.performance.LatencyTracer;
 import org.micromanager.display.DisplayWindowControlsFactory;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
 import org.micromanager.data.DataProviderHasNewImageEvent;
@@ -417,6 +418,17 @@ public final class MMAcquisition extends DataViewerListener {
       catch (IOException e) {
          ReportingUtils.logError(e);
       }
+      // Freezing has finished saving, so the latency trace is now complete
+      try {
+         File trace = LatencyTracer.getInstance().finish();
+         if (trace != null) {
+            ReportingUtils.logMessage("Image latency trace written to " +
+                  trace + "\n" + LatencyTracer.getInstance().getSummary());
+         }
+      }
+      catch (IOException e) {
+         ReportingUtils.logError(e, "Failed to write image latency trace");
+      }
       if (display_ .getDisplaySettings() instanceof DefaultDisplaySettings) {
          if (store_.getSavePath() != null) {
             ( (DefaultDisplaySettings) display_.getDisplaySettings() ).
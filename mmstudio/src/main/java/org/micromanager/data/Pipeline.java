@@ -31,6 +31,51 @@ import java.util.List;
  * DataManager.copyApplicationPipeline() methods.
  */
 public interface Pipeline {
+   /**
+    * Performance statistics for one stage (Processor) of a Pipeline. The
+    * rates and times are moving averages over the last few seconds.
+    */
+   public interface StageStatistics {
+      /**
+       * @return the Processor of this stage
+       */
+      public Processor getProcessor();
+
+      /**
+       * @return the number of threads running the Processor, or 0 if the
+       * Processor is run on the thread inserting images (synchronous mode)
+       */
+      public int getNumberOfThreads();
+
+      /**
+       * @return the number of images that can wait to be processed before
+       * the previous stage blocks
+       */
+      public int getQueueCapacity();
+
+      /**
+       * @return the number of images currently waiting to be processed
+       */
+      public int getQueuedImageCount();
+
+      /**
+       * @return the total number of images processed by this stage
+       */
+      public long getProcessedImageCount();
+
+      /**
+       * @return the rate at which this stage has been processing images, in
+       * images per second
+       */
+      public double getThroughputHz();
+
+      /**
+       * @return the mean time from an image entering this stage to its
+       * processing being finished, in milliseconds
+       */
+      public double getMeanLatencyMs();
+   }
+
    /**
     * Pass a SummaryMetadata through the Pipeline to be modified by the
     * Processors in it. The resulting, updated SummaryMetadata will be set
@@ -141,4 +186,11 @@ public interface Pipeline {
     * Return the list of Processors used by this Pipeline.
     */
    public List<Processor> getProcessors();
+
+   /**
+    * Return performance statistics for each stage of the Pipeline, in the
+    * same order as getProcessors().
+    * @return a snapshot of the current statistics
+    */
+   public List<StageStatistics> getStageStatistics();
 }
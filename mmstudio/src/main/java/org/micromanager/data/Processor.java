@@ -61,4 +61,18 @@ public abstract class Processor {
     * @param context ProcessorContext that can be used to hand images to
     */
    public void cleanup(ProcessorContext context) {};
+
+   /**
+    * Return whether this Processor may process several images at the same
+    * time. A Processor should return true only if its processImage() method
+    * is thread-safe and its output for each image does not depend on the
+    * other images it has seen (as is the case for flipping or cropping).
+    * Asynchronous Pipelines may then call processImage() concurrently from
+    * several threads; the output images are still passed on in the order of
+    * the input images. The default implementation returns false.
+    * @return true if processImage() may be called concurrently
+    */
+   public boolean isStateless() {
+      return false;
+   }
 }
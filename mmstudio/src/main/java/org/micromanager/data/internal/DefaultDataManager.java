@@ -313,7 +313,9 @@ public final class DefaultDataManager implements DataManager {
       for (ProcessorFactory factory : factories) {
          processors.add(factory.createProcessor());
       }
-      return new DefaultPipeline(processors, store, isSynchronous);
+      return new DefaultPipeline(processors, store, isSynchronous,
+            DefaultPipeline.getQueueDepth(),
+            DefaultPipeline.getMaxThreadsPerStage());
    }
 
    @Override
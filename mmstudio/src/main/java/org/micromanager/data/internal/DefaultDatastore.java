@@ -46,6 +46,7 @@ import org.micromanager.internal.utils.FileDialogs;
 import org.micromanager.internal.utils.PrioritizedEventBus;
 import org.micromanager.internal.utils.ProgressBar;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.performance.LatencyTracer;
 
 
 public class DefaultDatastore implements Datastore {
@@ -211,6 +212,10 @@ public class DefaultDatastore implements Datastore {
          // TODO: log? throw exception?  just crashing is not an option...
          return;
       }
+      LatencyTracer tracer = LatencyTracer.getInstance();
+      if (tracer.isActive()) {
+         tracer.stamp("Datastore", image.getMetadata().getUUID());
+      }
       if (hasImage(image.getCoords())) {
          throw new DatastoreRewriteException();
       }
@@ -21,13 +21,16 @@
 package org.micromanager.data.internal;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import java.lang.ref.SoftReference;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
 import mmcorej.TaggedImage;
 import org.json.JSONException;
@@ -39,6 +42,7 @@ import org.micromanager.data.Coords;
 import org.micromanager.data.Image;
 import org.micromanager.data.Metadata;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
+import org.micromanager.internal.utils.DirectBufferPool;
 import org.micromanager.internal.utils.DirectBuffers;
 import org.micromanager.internal.utils.imageanalysis.ImageUtils;
 import org.micromanager.internal.utils.ReportingUtils;
@@ -55,11 +59,33 @@ import org.micromanager.internal.utils.ReportingUtils;
  * getRawPixels(), the method exposed in the Image interface to access pixel
  * data, returns an ImageJ-style array, while getPixelBuffer (which is not
  * exposed in the API) returns the raw buffer.
+ *
+ * getRawPixels() returns a new array on every call, since its callers
+ * (ImageJ processors, for instance) may modify it. Code that only needs to
+ * read the pixels should use the read-only views returned by
+ * getPixelBufferView(), getByteBufferView() and getShortBufferView(), which
+ * never copy, or, if it needs an array, getSharedRawPixels(). The shared
+ * array is created on first use and then cached (softly, so that it can be
+ * reclaimed if memory is short).
+ *
+ * Pixel buffers created from arrays keep their bytes in native order, so
+ * that they can be written to files without copying (see
+ * getPixelBytesView()). They come from DirectBufferPool's image pixel pool,
+ * and go back to it once the image, the images copied from it, and all views
+ * of its pixels have been dropped by storage, displays and everyone else.
  */
 public final class DefaultImage implements Image {
    private DefaultMetadata metadata_;
+   // When not null, supplies the metadata on first request (metadata_ is
+   // then null)
+   private Supplier<Metadata> lazyMetadata_;
    private Coords coords_;
    private Buffer rawPixels_;
+   // The bytes (in native order) underlying rawPixels_, if we allocated it
+   private ByteBuffer pixelBytes_;
+   // Heap copy of rawPixels_, created by getSharedRawPixels() and shared with
+   // copies of this image
+   private volatile SoftReference<Object> rawPixelsArray_;
 
    // Width of the image, in pixels
    int pixelWidth_;
@@ -87,13 +113,14 @@ public final class DefaultImage implements Image {
     */
    public DefaultImage(TaggedImage tagged, Coords coords, Metadata metadata)
          throws IllegalArgumentException {
-      String json = tagged.tags.toString();
+      // Convert the tags to a Gson tree directly, rather than formatting and
+      // re-parsing a JSON string for every image
       JsonElement je;
       try {
-         je = new JsonParser().parse(json);
+         je = TaggedImageTags.toGson(tagged);
       }
       catch (Exception unlikely) {
-         throw new IllegalArgumentException("Failed to parse JSON created from TaggedImage tags", unlikely);
+         throw new IllegalArgumentException("Failed to convert TaggedImage tags to JSON", unlikely);
       }
 
       if (metadata == null) {
@@ -127,8 +154,8 @@ public final class DefaultImage implements Image {
       metadata_ = (DefaultMetadata) metadata;
       coords_ = coords;
 
-      rawPixels_ = DirectBuffers.bufferFromArray(tagged.pix);
-      if (rawPixels_.capacity() == 0) {
+      setPixelsFromArray(tagged.pix);
+      if (rawPixels_ == null || rawPixels_.capacity() == 0) {
          throw new IllegalArgumentException("Pixel data has length 0");
       }
 
@@ -167,7 +194,7 @@ public final class DefaultImage implements Image {
       metadata_ = metadata == null ? new DefaultMetadata.Builder().build() :
             (DefaultMetadata) metadata;
       coords_ = coords == null ? Coordinates.builder().build() : coords;
-      rawPixels_ = DirectBuffers.bufferFromArray(pixels);
+      setPixelsFromArray(pixels);
       pixelWidth_ = format.getInteger(PropertyKey.WIDTH.key(), 0);
       pixelHeight_ = format.getInteger(PropertyKey.HEIGHT.key(), 0);
       pixelType_ = format.getStringAsEnum(PropertyKey.PIXEL_TYPE.key(),
@@ -191,7 +218,7 @@ public final class DefaultImage implements Image {
       }
       coords_ = coords;
 
-      rawPixels_ = DirectBuffers.bufferFromArray(pixels);
+      setPixelsFromArray(pixels);
       if (rawPixels_ == null || rawPixels_.capacity() < width * height) {
          throw new IllegalArgumentException("Invalid pixel data " + pixels);
       }
@@ -209,15 +236,54 @@ public final class DefaultImage implements Image {
             numComponents);
    }
 
+   /**
+    * Create an image that uses the given buffer for its pixels, without
+    * copying it, and that only creates its metadata when it is first
+    * requested. This is used to read images from memory-mapped files.
+    * @param pixels A ByteBuffer or ShortBuffer, matching the pixel type given
+    * in format; may be read-only
+    * @param format Property map containing the width, height, and pixel type
+    * @param coords Coords of the image
+    * @param metadata Called (at most once) to create the metadata
+    */
+   public DefaultImage(Buffer pixels, PropertyMap format, Coords coords,
+         Supplier<Metadata> metadata) throws IllegalArgumentException {
+      Preconditions.checkNotNull(pixels);
+      Preconditions.checkNotNull(format);
+      Preconditions.checkNotNull(metadata);
+      lazyMetadata_ = Suppliers.memoize(metadata);
+      coords_ = coords == null ? Coordinates.builder().build() : coords;
+      rawPixels_ = pixels;
+      pixelWidth_ = format.getInteger(PropertyKey.WIDTH.key(), 0);
+      pixelHeight_ = format.getInteger(PropertyKey.HEIGHT.key(), 0);
+      pixelType_ = format.getStringAsEnum(PropertyKey.PIXEL_TYPE.key(),
+            PixelType.class, null);
+      if (pixelType_ == null) {
+         throw new IllegalArgumentException("Missing pixel type");
+      }
+      if (!((pixelType_.getBytesPerComponent() == 1 &&
+               rawPixels_ instanceof ByteBuffer) ||
+            (pixelType_.getBytesPerComponent() == 2 &&
+               rawPixels_ instanceof ShortBuffer))) {
+         throw new IllegalArgumentException("Buffer type doesn't match pixel type");
+      }
+      if (pixelWidth_ * pixelHeight_ * pixelType_.getBytesPerPixel() !=
+            rawPixels_.capacity() * pixelType_.getBytesPerComponent()) {
+         throw new IllegalArgumentException("Image width, height, and pixel type do not match pixel buffer size");
+      }
+   }
+
    public DefaultImage(Image source, Coords coords, Metadata metadata) {
       metadata_ = (DefaultMetadata) metadata;
       coords_ = coords;
       if (source instanceof DefaultImage) {
          // Just copy their Buffer over directly.
          rawPixels_ = ((DefaultImage) source).getPixelBuffer();
+         pixelBytes_ = ((DefaultImage) source).pixelBytes_;
+         rawPixelsArray_ = ((DefaultImage) source).rawPixelsArray_;
       }
       else {
-         rawPixels_ = DirectBuffers.bufferFromArray(source.getRawPixels());
+         setPixelsFromArray(source.getRawPixels());
       }
       if (rawPixels_.capacity() == 0) {
          throw new IllegalArgumentException("Pixel data has length 0.");
@@ -233,8 +299,29 @@ public final class DefaultImage implements Image {
             source.getNumComponents());
    }
 
+   /**
+    * Copy pixels from an array into a direct buffer from the image pixel
+    * pool. Sets rawPixels_ to null if the array type is not supported.
+    */
+   private void setPixelsFromArray(Object pixels) {
+      pixelBytes_ = DirectBuffers.nativeBytesFromArray(pixels,
+            DirectBufferPool.getImagePixelPool());
+      if (pixels instanceof short[]) {
+         rawPixels_ = pixelBytes_.asShortBuffer();
+      }
+      else if (pixels instanceof int[]) {
+         rawPixels_ = pixelBytes_.asIntBuffer();
+      }
+      else {
+         rawPixels_ = pixelBytes_;
+      }
+   }
+
    @Override
    public Metadata getMetadata() {
+      if (lazyMetadata_ != null) {
+         return lazyMetadata_.get();
+      }
       return metadata_;
    }
 
@@ -245,7 +332,9 @@ public final class DefaultImage implements Image {
 
    @Override
    public Image copyAtCoords(Coords coords) {
-      return new DefaultImage(this, coords, metadata_);
+      DefaultImage copy = new DefaultImage(this, coords, metadata_);
+      copy.lazyMetadata_ = lazyMetadata_;
+      return copy;
    }
 
    @Override
@@ -260,44 +349,124 @@ public final class DefaultImage implements Image {
 
    /**
     * Note this returns a byte[], short[], or int[] array, not a ByteBuffer,
-    * ShortBuffer, or IntBuffer. Use getPixelBuffer() for that.
+    * ShortBuffer, or IntBuffer. Use getPixelBufferView() for that.
+    *
+    * The array is a new copy of the pixel buffer. Use getSharedRawPixels()
+    * to avoid the copy where the array is only read.
     */
    @Override
    public Object getRawPixels() {
-      return DirectBuffers.arrayFromBuffer(rawPixels_);
+      return getRawPixelsCopy();
+   }
+
+   /**
+    * Return the pixels as a byte[], short[], or int[] array that is copied
+    * from the pixel buffer on the first call, and shared by all later
+    * callers and by copies of this image. It must never be modified, nor
+    * passed to code that may modify it, such as an ImageJ ImageProcessor.
+    */
+   public Object getSharedRawPixels() {
+      SoftReference<Object> ref = rawPixelsArray_;
+      Object pixels = ref == null ? null : ref.get();
+      if (pixels == null) {
+         pixels = DirectBuffers.arrayFromBuffer(getPixelBufferView());
+         rawPixelsArray_ = new SoftReference<Object>(pixels);
+      }
+      return pixels;
+   }
+
+   /**
+    * @return getSharedRawPixels() for a DefaultImage, getRawPixels()
+    * otherwise. The array must not be modified.
+    */
+   public static Object sharedRawPixels(Image image) {
+      if (image instanceof DefaultImage) {
+         return ((DefaultImage) image).getSharedRawPixels();
+      }
+      return image.getRawPixels();
    }
 
    @Override
    public Object getRawPixelsCopy() {
-      Object original = getRawPixels();
-      Object copy;
-      int length;
-      if (original instanceof byte[]) {
-         byte[] tmp = (byte[]) original;
-         length = tmp.length;
-         copy = new byte[length];
-      }
-      else if (original instanceof short[]) {
-         short[] tmp = (short[]) original;
-         length = tmp.length;
-         copy = new short[length];
-      }
-      else if (original instanceof int[]) {
-         int[] tmp = (int[]) original;
-         length = tmp.length;
-         copy = new int[length];
+      Object copy = DirectBuffers.arrayFromBuffer(getPixelBufferView());
+      if (copy == null) {
+         throw new RuntimeException("Unrecognized pixel buffer type " +
+               rawPixels_.getClass());
       }
-      else {
-         throw new RuntimeException("Unrecognized pixel type " + original.getClass());
-      }
-      System.arraycopy(original, 0, copy, 0, length);
       return copy;
    }
 
+   /**
+    * Return the buffer holding the pixel data. For images read from a
+    * memory-mapped file this buffer is read-only.
+    */
    public Buffer getPixelBuffer() {
       return rawPixels_;
    }
 
+   /**
+    * Return a read-only view of the pixel buffer, positioned at its start.
+    * The pixel data is not copied.
+    */
+   public Buffer getPixelBufferView() {
+      if (rawPixels_ instanceof ByteBuffer) {
+         return getByteBufferView();
+      }
+      else if (rawPixels_ instanceof ShortBuffer) {
+         return getShortBufferView();
+      }
+      else if (rawPixels_ instanceof IntBuffer) {
+         IntBuffer view = ((IntBuffer) rawPixels_).asReadOnlyBuffer();
+         view.clear();
+         return view;
+      }
+      throw new UnsupportedOperationException("Unsupported pixel buffer type");
+   }
+
+   /**
+    * Return a read-only view of all of the pixel data as bytes in native
+    * byte order, or null if it is not available in this form (for example,
+    * for 16-bit images read from a memory-mapped file).
+    */
+   public ByteBuffer getPixelBytesView() {
+      if (pixelBytes_ == null) {
+         if (rawPixels_ instanceof ByteBuffer) {
+            return getByteBufferView();
+         }
+         return null;
+      }
+      ByteBuffer view = pixelBytes_.asReadOnlyBuffer().
+            order(DirectBuffers.NATIVE_ORDER);
+      view.clear();
+      return view;
+   }
+
+   /**
+    * Return a read-only view of the pixels of an image with 1 byte per
+    * component.
+    */
+   public ByteBuffer getByteBufferView() {
+      if (!(rawPixels_ instanceof ByteBuffer)) {
+         throw new UnsupportedOperationException("Pixels are not bytes");
+      }
+      ByteBuffer view = ((ByteBuffer) rawPixels_).asReadOnlyBuffer();
+      view.clear();
+      return view;
+   }
+
+   /**
+    * Return a read-only view of the pixels of an image with 2 bytes per
+    * component.
+    */
+   public ShortBuffer getShortBufferView() {
+      if (!(rawPixels_ instanceof ShortBuffer)) {
+         throw new UnsupportedOperationException("Pixels are not shorts");
+      }
+      ShortBuffer view = ((ShortBuffer) rawPixels_).asReadOnlyBuffer();
+      view.clear();
+      return view;
+   }
+
    // TODO Use ImgLib2
    @Override
    public Object getRawPixelsForComponent(int component) {
@@ -399,7 +568,7 @@ public final class DefaultImage implements Image {
       NonPropertyMapJSONFormats.coords().addToGson(jo,
             ((DefaultCoords) coords_).toPropertyMap());
       NonPropertyMapJSONFormats.metadata().addToGson(jo,
-            metadata_.toPropertyMap());
+            ((DefaultMetadata) getMetadata()).toPropertyMap());
       Gson gson = new GsonBuilder().disableHtmlEscaping().create();
       String json = gson.toJson(jo);
 
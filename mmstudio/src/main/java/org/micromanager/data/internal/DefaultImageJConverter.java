@@ -47,15 +47,17 @@ public final class DefaultImageJConverter implements ImageJConverter {
       return createProcessor(image, true);
    }
 
+   /**
+    * If shouldCopy is false, the processor shares the pixel array of the
+    * image, and must not be modified (or handed to ImageJ, which may).
+    */
    public static ImageProcessor createProcessor(Image image, boolean shouldCopy) {
       int width = image.getWidth();
       int height = image.getHeight();
       int bytesPerPixel = image.getBytesPerPixel();
       int numComponents = image.getNumComponents();
-      Object pixels = image.getRawPixels();
-      if (shouldCopy) {
-         pixels = image.getRawPixelsCopy();
-      }
+      Object pixels = shouldCopy ? image.getRawPixelsCopy() :
+            DefaultImage.sharedRawPixels(image);
       if (bytesPerPixel == 4 && numComponents == 3) {
          // Micro-Manager RGB32 images are generally composed of byte
          // arrays, but ImageJ only takes int arrays.
@@ -84,7 +86,7 @@ public final class DefaultImageJConverter implements ImageJConverter {
          return createProcessor(image);
       }
       int bytesPerPixel = image.getBytesPerPixel();
-      Object pixels = image.getRawPixels();
+      Object pixels = DefaultImage.sharedRawPixels(image);
       // This is the only multi-component image type we know how to support
       // currently.
       if (bytesPerPixel == 4 && numComponents == 3 &&
@@ -0,0 +1,134 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API implementation
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2019
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import java.util.Iterator;
+import mmcorej.FrameMetadata;
+import mmcorej.TaggedImage;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Converts TaggedImage tags to a Gson tree without going through a JSON
+ * string.
+ *
+ * Images coming straight from the Core carry typed FrameMetadata, which is
+ * read directly. Other tags are walked as a JSONObject tree. The result is
+ * the same as parsing {@code tagged.tags.toString()}; in particular, numbers
+ * are represented as they would be after a round trip through json.org's
+ * number formatting.
+ */
+final class TaggedImageTags {
+   private TaggedImageTags() {
+   }
+
+   private static final class UnsupportedValueException extends Exception {
+   }
+
+   static JsonElement toGson(TaggedImage tagged) {
+      FrameMetadata frameMetadata = tagged.getFrameMetadata();
+      if (frameMetadata != null) {
+         return frameMetadataToGson(frameMetadata);
+      }
+      try {
+         return objectToGson(tagged.tags);
+      }
+      catch (UnsupportedValueException e) {
+         // Unusual value types; let json.org decide how to format them
+         return new JsonParser().parse(tagged.tags.toString());
+      }
+   }
+
+   private static JsonObject frameMetadataToGson(FrameMetadata frameMetadata) {
+      final JsonObject jo = new JsonObject();
+      frameMetadata.visitTags(new FrameMetadata.TagVisitor() {
+         @Override
+         public void visitString(String key, String value) {
+            jo.add(key, new JsonPrimitive(value));
+         }
+
+         @Override
+         public void visitNumber(String key, Number value) {
+            jo.add(key, numberToGson(value));
+         }
+      });
+      return jo;
+   }
+
+   private static JsonObject objectToGson(JSONObject json)
+         throws UnsupportedValueException {
+      JsonObject jo = new JsonObject();
+      Iterator<String> keys = json.keys();
+      while (keys.hasNext()) {
+         String key = keys.next();
+         jo.add(key, valueToGson(json.opt(key)));
+      }
+      return jo;
+   }
+
+   private static JsonArray arrayToGson(JSONArray json)
+         throws UnsupportedValueException {
+      JsonArray ja = new JsonArray();
+      for (int i = 0; i < json.length(); ++i) {
+         ja.add(valueToGson(json.opt(i)));
+      }
+      return ja;
+   }
+
+   private static JsonElement valueToGson(Object value)
+         throws UnsupportedValueException {
+      if (value == null || JSONObject.NULL.equals(value)) {
+         return JsonNull.INSTANCE;
+      }
+      if (value instanceof String) {
+         return new JsonPrimitive((String) value);
+      }
+      if (value instanceof Number) {
+         return numberToGson((Number) value);
+      }
+      if (value instanceof Boolean) {
+         return new JsonPrimitive((Boolean) value);
+      }
+      if (value instanceof JSONObject) {
+         return objectToGson((JSONObject) value);
+      }
+      if (value instanceof JSONArray) {
+         return arrayToGson((JSONArray) value);
+      }
+      throw new UnsupportedValueException();
+   }
+
+   // json.org writes integral floating-point values below 1e7 without the
+   // trailing ".0" (larger ones use exponent notation, which it keeps).
+   private static JsonPrimitive numberToGson(Number n) {
+      if (n instanceof Double || n instanceof Float) {
+         double d = n.doubleValue();
+         if (d == Math.rint(d) && Math.abs(d) < 1e7) {
+            return new JsonPrimitive((long) d);
+         }
+      }
+      return new JsonPrimitive(n);
+   }
+}
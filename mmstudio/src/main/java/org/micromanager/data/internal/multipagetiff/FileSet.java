@@ -29,6 +29,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ThreadPoolExecutor;
 import org.micromanager.PropertyMap;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Image;
@@ -60,16 +61,23 @@ class FileSet {
    private boolean expectedImageOrder_ = true;
    private int ifdCount_ = 0;
    private final StorageMultipageTiff masterStorage_;
+   private final ThreadPoolExecutor writingExecutor_;
    int nextExpectedChannel_ = 0, nextExpectedSlice_ = 0, nextExpectedFrame_ = 0;
    int currentFrame_ = 0;
 
    
+   /**
+    * @param writingExecutor Executor on which all writes to the files of
+    *        this FileSet are performed; may be shared with other FileSets
+    */
    public FileSet(Image firstImage, StorageMultipageTiff masterStorage,
          OMEMetadata omeMetadata,
-         boolean splitByXYPosition, boolean separateMetadataFile)
+         boolean splitByXYPosition, boolean separateMetadataFile,
+         ThreadPoolExecutor writingExecutor)
       throws IOException {
       tiffWriters_ = new LinkedList<>();  
       masterStorage_ = masterStorage;
+      writingExecutor_ = writingExecutor;
       omeMetadata_ = omeMetadata;
       splitByXYPosition_ = splitByXYPosition;
       separateMetadataFile_ = separateMetadataFile;
@@ -80,13 +88,17 @@ class FileSet {
       currentTiffUUID_ = "urn:uuid:" + UUID.randomUUID().toString();
       //make first writer
       tiffWriters_.add(new MultipageTiffWriter(masterStorage_,
-            firstImage, currentTiffFilename_));
+            firstImage, currentTiffFilename_, writingExecutor_));
 
       if (separateMetadataFile_) {
          startMetadataFile();
       }
    }
 
+   public ThreadPoolExecutor getWritingExecutor() {
+      return writingExecutor_;
+   }
+
    public String getCurrentUUID() {
       return currentTiffUUID_;
    }
@@ -150,7 +162,7 @@ class FileSet {
          currentTiffUUID_ = "urn:uuid:" + UUID.randomUUID().toString();
          ifdCount_ = 0;
          tiffWriters_.add(new MultipageTiffWriter(masterStorage_,
-               img, currentTiffFilename_));
+               img, currentTiffFilename_, writingExecutor_));
          
          //Add new filename to image tags
          img = img.copyWithMetadata(img.getMetadata().
@@ -21,8 +21,10 @@
 //
 package org.micromanager.data.internal.multipagetiff;
 
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.stream.JsonReader;
 import java.io.File;
@@ -31,8 +33,10 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.List;
@@ -41,6 +45,7 @@ import javax.swing.SwingUtilities;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.Image;
@@ -65,6 +70,10 @@ public final class MultipageTiffReader {
    private static final long BIGGEST_INT_BIT = (long) Math.pow(2, 31);
    private static final char STRIP_OFFSETS = MultipageTiffWriter.STRIP_OFFSETS;
    private static final char STRIP_BYTE_COUNTS = MultipageTiffWriter.STRIP_BYTE_COUNTS;
+   private static final char WIDTH = MultipageTiffWriter.WIDTH;
+   private static final char HEIGHT = MultipageTiffWriter.HEIGHT;
+   private static final char BITS_PER_SAMPLE = MultipageTiffWriter.BITS_PER_SAMPLE;
+   private static final char SAMPLES_PER_PIXEL = MultipageTiffWriter.SAMPLES_PER_PIXEL;
 
    private static final char MM_METADATA = MultipageTiffWriter.MM_METADATA;
 
@@ -74,10 +83,27 @@ public final class MultipageTiffReader {
    // map entry, 20 bytes) and update those locations.
    static final List<String> ALLOWED_AXES = ImmutableList.of("channel", "z", "time", "position");
 
+   // Files are mapped in windows that start at multiples of this size and
+   // extend for up to twice this size (less one byte, the most that a single
+   // mapping can hold), so that any block no larger than this size fits in
+   // one window.
+   private static final long MAPPING_WINDOW_SIZE = 1L << 30;
+
+   // Keys that determine the image coords, for reading them without parsing
+   // the rest of the image metadata
+   private static final List<String> COORDS_KEYS = ImmutableList.of(
+         PropertyKey.COMPLETE_COORDS.key(),
+         PropertyKey.FRAME_INDEX.key(),
+         PropertyKey.POSITION_INDEX.key(),
+         PropertyKey.SLICE_INDEX.key(),
+         PropertyKey.CHANNEL_INDEX.key());
+
    private ByteOrder byteOrder_;
    private File file_;
    private RandomAccessFile raFile_;
    private FileChannel fileChannel_;
+   private final boolean memoryMapped_;
+   private MappedByteBuffer[] mappings_;
 
    private StorageMultipageTiff masterStorage_;
    private SummaryMetadata summaryMetadata_;
@@ -98,6 +124,7 @@ public final class MultipageTiffReader {
       masterStorage_ = masterStorage;
       summaryMetadata_ = summaryMD;
       byteOrder_ = MultipageTiffWriter.BYTE_ORDER;
+      memoryMapped_ = false;
    }
 
    public void setIndexMap(HashMap<Coords, Long> indexMap) {
@@ -113,8 +140,19 @@ public final class MultipageTiffReader {
     */
    public MultipageTiffReader(StorageMultipageTiff masterStorage, File file)
          throws IOException, InvalidIndexMapException {
+      this(masterStorage, file, false);
+   }
+
+   /**
+    * As above, optionally reading images through memory mappings of the
+    * file. Images are then backed by the mapped file rather than by copies of
+    * their pixels, and their metadata is only parsed when first requested.
+    */
+   public MultipageTiffReader(StorageMultipageTiff masterStorage, File file,
+         boolean memoryMapped) throws IOException, InvalidIndexMapException {
       masterStorage_ = masterStorage;
       file_ = file;
+      memoryMapped_ = memoryMapped;
       try {
          createFileChannel(false);
       } catch (Exception ex) {
@@ -143,6 +181,7 @@ public final class MultipageTiffReader {
     */
    public MultipageTiffReader(File file) throws IOException {
       file_ = file;
+      memoryMapped_ = false;
       try {
          createFileChannel(true);
       }
@@ -227,6 +266,12 @@ public final class MultipageTiffReader {
       long byteOffset = coordsToOffset_.get(coords);
 
       IFDData data = readIFD(byteOffset);
+      if (memoryMapped_) {
+         Image image = readMappedImage(data);
+         if (image != null) {
+            return (DefaultImage) image;
+         }
+      }
       return (DefaultImage) readImage(data);
    }
 
@@ -380,6 +425,14 @@ public final class MultipageTiffReader {
             data.pixelOffset = entry.value;
          } else if (entry.tag == STRIP_BYTE_COUNTS) {
             data.bytesPerImage = entry.value;
+         } else if (entry.tag == WIDTH) {
+            data.width = entry.value;
+         } else if (entry.tag == HEIGHT) {
+            data.height = entry.value;
+         } else if (entry.tag == BITS_PER_SAMPLE) {
+            data.bitsPerSample = entry.count == 1 ? entry.value : 0;
+         } else if (entry.tag == SAMPLES_PER_PIXEL) {
+            data.samplesPerPixel = entry.value;
          }
       }
       data.nextIFD = unsignInt(entries.getInt(numEntries * 12));
@@ -394,14 +447,163 @@ public final class MultipageTiffReader {
    }
 
    private String getString(ByteBuffer buffer) {
+      byte[] bytes;
+      if (buffer.hasArray()) {
+         bytes = buffer.array();
+      }
+      else {
+         bytes = new byte[buffer.remaining()];
+         buffer.duplicate().get(bytes);
+      }
       try {
-         return new String(buffer.array(), "UTF-8");
+         return new String(bytes, "UTF-8");
       } catch (UnsupportedEncodingException ex) {
          ReportingUtils.logError(ex);
          return "";
       }
    }
 
+   /**
+    * Return a slice of the memory-mapped file, mapping the window containing
+    * it if necessary.
+    * @return the slice, or null if the block cannot be mapped as one piece
+    */
+   private synchronized ByteBuffer getMappedBlock(long offset, long length)
+         throws IOException {
+      if (fileChannel_ == null || length > MAPPING_WINDOW_SIZE) {
+         return null;
+      }
+      if (mappings_ == null) {
+         mappings_ = new MappedByteBuffer[(int) ((fileChannel_.size() +
+               MAPPING_WINDOW_SIZE - 1) / MAPPING_WINDOW_SIZE)];
+      }
+      int window = (int) (offset / MAPPING_WINDOW_SIZE);
+      if (window >= mappings_.length) {
+         return null;
+      }
+      long windowStart = window * MAPPING_WINDOW_SIZE;
+      if (mappings_[window] == null) {
+         long windowSize = Math.min(fileChannel_.size() - windowStart,
+               Integer.MAX_VALUE);
+         mappings_[window] = fileChannel_.map(FileChannel.MapMode.READ_ONLY,
+               windowStart, windowSize);
+      }
+      ByteBuffer block = mappings_[window].duplicate();
+      int start = (int) (offset - windowStart);
+      if (start + length > block.capacity()) {
+         return null;
+      }
+      block.limit(start + (int) length).position(start);
+      return block.slice().order(byteOrder_);
+   }
+
+   /**
+    * Read an image directly from the mapped file, without copying its pixels
+    * and without parsing its metadata, which is deferred until it is
+    * requested.
+    * @return the image, or null if the image must be read by readImage()
+    * instead (pixel formats that need conversion, or files in non-native
+    * byte order)
+    */
+   private Image readMappedImage(IFDData data) throws IOException {
+      if (byteOrder_ != ByteOrder.nativeOrder() || data.samplesPerPixel != 1 ||
+            data.width < 1 || data.height < 1) {
+         return null;
+      }
+      PixelType pixelType;
+      if (data.bitsPerSample == 8) {
+         pixelType = PixelType.GRAY8;
+      }
+      else if (data.bitsPerSample == 16) {
+         pixelType = PixelType.GRAY16;
+      }
+      else {
+         return null;
+      }
+      if (data.width * data.height * pixelType.getBytesPerPixel() !=
+            data.bytesPerImage) {
+         return null;
+      }
+      ByteBuffer pixelBuffer = getMappedBlock(data.pixelOffset,
+            data.bytesPerImage);
+      final ByteBuffer mdBuffer = getMappedBlock(data.mdOffset, data.mdLength);
+      if (pixelBuffer == null || mdBuffer == null) {
+         return null;
+      }
+
+      PropertyMap formatPmap = PropertyMaps.builder().
+            putInteger(PropertyKey.WIDTH.key(), (int) data.width).
+            putInteger(PropertyKey.HEIGHT.key(), (int) data.height).
+            putEnumAsString(PropertyKey.PIXEL_TYPE.key(), pixelType).
+            build();
+      Coords coords;
+      try {
+         coords = DefaultCoords.fromPropertyMap(
+               NonPropertyMapJSONFormats.coords().fromGson(
+                     readCoordsGson(mdBuffer)));
+      }
+      catch (RuntimeException e) {
+         // Bad metadata; let readImage() deal with it
+         return null;
+      }
+
+      Supplier<Metadata> metadata = new Supplier<Metadata>() {
+         @Override
+         public Metadata get() {
+            try {
+               return DefaultMetadata.fromPropertyMap(
+                     NonPropertyMapJSONFormats.metadata().fromGson(
+                           parseJSON(mdBuffer)));
+            }
+            catch (RuntimeException e) {
+               ReportingUtils.logError(e, "Failed to read image metadata from " +
+                     file_.getName());
+               return new DefaultMetadata.Builder().build();
+            }
+         }
+      };
+
+      // The mapping is read-only, so the image cannot modify the file
+      Buffer pixels = pixelBuffer;
+      if (pixelType == PixelType.GRAY16) {
+         pixels = pixelBuffer.asShortBuffer();
+      }
+      return new DefaultImage(pixels, formatPmap, coords, metadata);
+   }
+
+   private JsonElement parseJSON(ByteBuffer buffer) {
+      JsonReader reader = new JsonReader(new StringReader(getString(buffer)));
+      reader.setLenient(true);
+      return new JsonParser().parse(reader);
+   }
+
+   /**
+    * Extract the values that determine the image coords from the image
+    * metadata, skipping over everything else.
+    */
+   private JsonObject readCoordsGson(ByteBuffer buffer) {
+      JsonObject jo = new JsonObject();
+      JsonReader reader = new JsonReader(new StringReader(getString(buffer)));
+      reader.setLenient(true);
+      JsonParser parser = new JsonParser();
+      try {
+         reader.beginObject();
+         while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (COORDS_KEYS.contains(name)) {
+               jo.add(name, parser.parse(reader));
+            }
+            else {
+               reader.skipValue();
+            }
+         }
+      }
+      catch (IOException e) {
+         throw new IllegalStateException(e);
+      }
+      return jo;
+   }
+
    private Image readImage(IFDData data) throws IOException {
       ByteBuffer pixelBuffer = ByteBuffer.allocate((int) data.bytesPerImage).order(byteOrder_);
       ByteBuffer mdBuffer = ByteBuffer.allocate((int) data.mdLength).order(byteOrder_);
@@ -536,6 +738,10 @@ public final class MultipageTiffReader {
    }
 
    public void close() throws IOException {
+      synchronized (this) {
+         // Mappings stay valid until they are garbage collected
+         mappings_ = null;
+      }
       if (fileChannel_ != null) {
          fileChannel_.close();
          fileChannel_ = null;
@@ -677,6 +883,10 @@ public final class MultipageTiffReader {
       public long mdLength;
       public long nextIFD;
       public long nextIFDOffsetLocation;
+      public long width;
+      public long height;
+      public long bitsPerSample;
+      public long samplesPerPixel;
 
       public IFDData() {}
 
@@ -35,12 +35,17 @@ import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
+import java.nio.ShortBuffer;
 import java.nio.channels.FileChannel;
-import java.util.ArrayDeque;
-import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.micromanager.PropertyMap;
 import org.micromanager.PropertyMaps;
 import org.micromanager.data.Coords;
@@ -60,6 +65,7 @@ import org.micromanager.display.internal.RememberedSettings;
 import org.micromanager.internal.MMStudio;
 import org.micromanager.internal.propertymap.MM1JSONSerializer;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
+import org.micromanager.internal.utils.DirectBufferPool;
 import org.micromanager.internal.utils.imageanalysis.ImageUtils;
 import org.micromanager.internal.utils.ReportingUtils;
 
@@ -124,11 +130,27 @@ public final class MultipageTiffWriter {
    //Reader associated with this file
    private MultipageTiffReader reader_;
    private long blankPixelsOffset_ = -1;
+   // If true, each image (IFD, pixels, and metadata) is copied into one
+   // pooled buffer and written with a single call, and written data is
+   // periodically forced to disk
+   private final boolean coalescedWrites_;
+   private final WritingStatistics writingStats_;
+   // Only accessed on the writing thread
+   private long bytesSinceForce_ = 0;
    
+   /**
+    * @param masterStorage
+    * @param firstImage
+    * @param filename
+    * @param writingExecutor Executor, created by createWritingExecutor(), on
+    *        which all writes to the file are performed, in order
+    * @throws IOException
+    */
    public MultipageTiffWriter(
             final StorageMultipageTiff masterStorage,
             final Image firstImage, 
-            final String filename)
+            final String filename,
+            final ThreadPoolExecutor writingExecutor)
          throws IOException {
       masterStorage_ = masterStorage;
       // TODO: casting to DefaultSummaryMetadata here.
@@ -180,7 +202,9 @@ public final class MultipageTiffWriter {
                "Insufficent space on disk: no room to write data");
       }
       fileChannel_ = raFile_.getChannel();
-      writingExecutor_ = masterStorage_.getWritingExecutor();
+      writingExecutor_ = writingExecutor;
+      coalescedWrites_ = masterStorage_.getCoalescedWrites();
+      writingStats_ = masterStorage_.getWritingStatistics();
       coordsToOffset_ = new HashMap<Coords, Long>();
       reader_.setFileChannel(fileChannel_);
       reader_.setIndexMap(coordsToOffset_);
@@ -220,12 +244,10 @@ public final class MultipageTiffWriter {
    //
 
    // The idea here is to recycle the direct buffers for image pixels, because
-   // allocation is slow. It is expected that we do not need a large pool,
-   // because the only aim is to avoid situations where allocation is limiting
-   // at steady state. If writing is, on average, faster than incoming images,
-   // the pool should always have a buffer ready for a new request.
-   // Ideally we would also evict unused buffers after a timeout, so as not to
-   // leak memory after writing has concluded.
+   // allocation is slow. Large buffers come from the shared DirectBufferPool
+   // and are released back to it as soon as they have been written. If
+   // writing is, on average, faster than incoming images, the pool should
+   // always have a buffer ready for a new request.
 
    private static final int BUFFER_DIRECT_THRESHOLD = 1024;
    private static ByteBuffer allocateByteBuffer(int capacity) {
@@ -235,56 +257,84 @@ public final class MultipageTiffWriter {
       return b.order(BYTE_ORDER);
    }
 
-   private static final int BUFFER_POOL_SIZE =
-         System.getProperty("sun.arch.data.model").equals("32") ? 0 : 3;
-   private static final Deque<ByteBuffer> pooledBuffers_;
-   static {
-      if (BUFFER_POOL_SIZE > 0) {
-         pooledBuffers_ = new ArrayDeque<ByteBuffer>(BUFFER_POOL_SIZE);
-      }
-      else {
-         pooledBuffers_ = null;
-      }
-   }
-   private static int pooledBufferCapacity_ = 0;
+   // Buffers from getLargeBuffer() that have not yet been recycled
+   private static final Map<ByteBuffer, DirectBufferPool.PooledBuffer>
+         largeBuffers_ =
+         new IdentityHashMap<ByteBuffer, DirectBufferPool.PooledBuffer>();
 
    private static ByteBuffer getLargeBuffer(int capacity) {
-      if (BUFFER_POOL_SIZE == 0) {
-         return allocateByteBuffer(capacity);
+      DirectBufferPool.PooledBuffer pooled =
+            DirectBufferPool.getInstance().acquire(capacity);
+      ByteBuffer b = pooled.getBuffer().order(BYTE_ORDER);
+      synchronized (largeBuffers_) {
+         largeBuffers_.put(b, pooled);
       }
-
-      synchronized (MultipageTiffWriter.class) {
-         if (capacity != pooledBufferCapacity_) {
-            pooledBuffers_.clear();
-            pooledBufferCapacity_ = capacity;
-         }
-
-         // Recycle in LIFO order (smaller images may still be in L3 cache)
-         ByteBuffer b = pooledBuffers_.pollFirst();
-         if (b != null) {
-            // Ensure correct byte order in case recycled from other source
-            b.order(BYTE_ORDER).clear();
-            return b;
-         }
-      }
-      return allocateByteBuffer(capacity);
+      return b;
    }
 
    private static void tryRecycleLargeBuffer(ByteBuffer b) {
-      // Keep up to BUFFER_POOL_SIZE direct buffers of the current size
-      if (BUFFER_POOL_SIZE == 0 || !b.isDirect()) {
-         return;
+      // Buffers not from getLargeBuffer() (such as views of image pixels)
+      // are not ours to recycle
+      DirectBufferPool.PooledBuffer pooled;
+      synchronized (largeBuffers_) {
+         pooled = largeBuffers_.remove(b);
       }
-      synchronized (MultipageTiffWriter.class) {
-         if (b.capacity() == pooledBufferCapacity_) {
-            if (pooledBuffers_.size() == BUFFER_POOL_SIZE) {
-               pooledBuffers_.removeLast(); // Discard oldest
-            }
-            pooledBuffers_.addFirst(b);
-         }
+      if (pooled != null) {
+         pooled.release();
       }
    }
 
+   //
+   // Writing executors
+   //
+
+   // Number of queued writing tasks (each image takes 2, plus one added by
+   // StorageMultipageTiff) beyond which submitting more tasks blocks
+   private static final int WRITING_QUEUE_CAPACITY = 60;
+
+   /**
+    * Create a single-threaded executor for writing tasks. Its queue is
+    * bounded, and submitting a task when the queue is full blocks until there
+    * is room, so that acquisition slows down to the speed of writing instead
+    * of filling up memory.
+    */
+   static ThreadPoolExecutor createWritingExecutor() {
+      return new ThreadPoolExecutor(1, 1, 0, TimeUnit.NANOSECONDS,
+            new ArrayBlockingQueue<Runnable>(WRITING_QUEUE_CAPACITY),
+            new RejectedExecutionHandler() {
+               // tasks may be submitted from any thread
+               private volatile boolean haveWarned_ = false;
+
+               @Override
+               public void rejectedExecution(Runnable r,
+                     ThreadPoolExecutor executor) {
+                  if (executor.isShutdown()) {
+                     throw new RejectedExecutionException(
+                           "Image stack writing has been shut down");
+                  }
+                  if (!haveWarned_) {
+                     ReportingUtils.logMessage(
+                           "Warning: writing queue is full; waiting for writing to catch up");
+                     haveWarned_ = true;
+                  }
+                  try {
+                     executor.getQueue().put(r);
+                  }
+                  catch (InterruptedException e) {
+                     Thread.currentThread().interrupt();
+                     throw new RejectedExecutionException(e);
+                  }
+                  // If the executor was shut down while we waited, its thread
+                  // may be gone and the task would never run. Take it back,
+                  // unless the thread has already taken it.
+                  if (executor.isShutdown() && executor.remove(r)) {
+                     throw new RejectedExecutionException(
+                           "Image stack writing has been shut down");
+                  }
+               }
+            });
+   }
+
    //
    //
    //
@@ -314,7 +364,14 @@ public final class MultipageTiffWriter {
          @Override
          public void run() {
             try {
-               fileChannel_.write(buffers);
+               long startNs = System.nanoTime();
+               long bytes = fileChannel_.write(buffers);
+               if (writingStats_ != null) {
+                  writingStats_.recordWrite(bytes, startNs, System.nanoTime());
+               }
+               if (coalescedWrites_) {
+                  forceIfDue(bytes);
+               }
             }
             catch (IOException e) {
                ReportingUtils.logError(e);
@@ -326,6 +383,28 @@ public final class MultipageTiffWriter {
       });
    }
 
+   // In coalesced mode, force written data to disk after this many bytes, so
+   // that dirty pages do not pile up in the OS cache and stall writing when
+   // they are eventually flushed all at once
+   private static final long FORCE_INTERVAL_BYTES = 256L * 1024 * 1024;
+
+   // Coalesced buffer capacities are rounded up to a multiple of this, so that
+   // pooled buffers can be reused even though metadata lengths vary
+   private static final int COALESCED_BUFFER_UNIT = 64 * 1024;
+
+   private void forceIfDue(long bytesWritten) throws IOException {
+      bytesSinceForce_ += bytesWritten;
+      if (bytesSinceForce_ < FORCE_INTERVAL_BYTES) {
+         return;
+      }
+      bytesSinceForce_ = 0;
+      long startNs = System.nanoTime();
+      fileChannel_.force(false);
+      if (writingStats_ != null) {
+         writingStats_.recordForce(startNs, System.nanoTime());
+      }
+   }
+
    public MultipageTiffReader getReader() {
       return reader_;
    }
@@ -471,22 +550,8 @@ public final class MultipageTiffWriter {
    }
 
    public void writeImage(Image img) throws IOException {
-      if (writingExecutor_ != null) {
-         int queueSize = writingExecutor_.getQueue().size();
-         int attemptCount = 0;
-         while (queueSize > 20) {
-            if (attemptCount == 0) {
-               ReportingUtils.logMessage("Warning: writing queue behind by " + queueSize + " images.");
-            }
-            ++attemptCount;
-            try {
-               Thread.sleep(5);
-               queueSize = writingExecutor_.getQueue().size();
-            } catch (InterruptedException ex) {
-               ReportingUtils.logError(ex);
-            }
-         }
-      }
+      // If writing has fallen behind, the writing executor makes us wait
+      // when we queue the writes
       long offset = filePosition_;
       writeIFD(img);
       addToIndexMap(img.getCoords(), offset);
@@ -607,10 +672,23 @@ public final class MultipageTiffWriter {
          charView.put(bufferPosition_/2+1,(char) (byteDepth_*8));
          charView.put(bufferPosition_/2+2,(char) (byteDepth_*8));
       }
-      buffers_.add(ifdBuffer);
-      buffers_.add(getPixelBuffer(img.getRawPixels()));
-      buffers_.add(getResolutionValuesBuffer());   
-      buffers_.add(ByteBuffer.wrap(mdBytes));
+      if (coalescedWrites_) {
+         int capacity = (totalBytes + COALESCED_BUFFER_UNIT - 1) /
+               COALESCED_BUFFER_UNIT * COALESCED_BUFFER_UNIT;
+         ByteBuffer buffer = getLargeBuffer(capacity);
+         buffer.put(ifdBuffer);
+         putPixels(img, buffer);
+         buffer.put(getResolutionValuesBuffer());
+         buffer.put(mdBytes);
+         buffer.flip();
+         buffers_.add(buffer);
+      }
+      else {
+         buffers_.add(ifdBuffer);
+         buffers_.add(getPixelBuffer(img));
+         buffers_.add(getResolutionValuesBuffer());   
+         buffers_.add(ByteBuffer.wrap(mdBytes));
+      }
       
       filePosition_ += totalBytes;
       firstIFD_ = false;
@@ -642,6 +720,47 @@ public final class MultipageTiffWriter {
       numFrames_ = n;
    }
 
+   private ByteBuffer getPixelBuffer(Image img) throws IOException {
+      if (!rgb_ && img instanceof DefaultImage) {
+         // Write straight from the image's pixel buffer (which is in native
+         // byte order, as is the file) without going through a Java array
+         DefaultImage dImg = (DefaultImage) img;
+         ByteBuffer bytes = dImg.getPixelBytesView();
+         if (bytes != null) {
+            return bytes;
+         }
+         ShortBuffer pix = dImg.getShortBufferView();
+         ByteBuffer buffer = getLargeBuffer(pix.remaining() * 2);
+         buffer.asShortBuffer().put(pix);
+         return buffer;
+      }
+      return getPixelBuffer(DefaultImage.sharedRawPixels(img));
+   }
+
+   /**
+    * Copy the pixels of an image, in file format, into dest at its current
+    * position.
+    */
+   private void putPixels(Image img, ByteBuffer dest) throws IOException {
+      if (!rgb_ && img instanceof DefaultImage) {
+         DefaultImage dImg = (DefaultImage) img;
+         ByteBuffer bytes = dImg.getPixelBytesView();
+         if (bytes != null) {
+            dest.put(bytes);
+            return;
+         }
+         ShortBuffer pix = dImg.getShortBufferView();
+         int numBytes = pix.remaining() * 2;
+         dest.asShortBuffer().put(pix);
+         dest.position(dest.position() + numBytes);
+         return;
+      }
+      ByteBuffer pixels = getPixelBuffer(DefaultImage.sharedRawPixels(img));
+      pixels.rewind();
+      dest.put(pixels);
+      tryRecycleLargeBuffer(pixels);
+   }
+
    private ByteBuffer getPixelBuffer(Object pixels) throws IOException {
       if (rgb_) {
          if (byteDepth_ == 1) {
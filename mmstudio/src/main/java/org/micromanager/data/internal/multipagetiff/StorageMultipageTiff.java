@@ -27,8 +27,10 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -37,7 +39,6 @@ import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import javax.swing.JOptionPane;
@@ -56,6 +57,9 @@ import org.micromanager.internal.MMStudio;
 import org.micromanager.internal.utils.MMException;
 import org.micromanager.internal.utils.ProgressBar;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.performance.LatencyTracer;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
+import org.micromanager.internal.utils.performance.gui.PerformanceMonitorUI;
 import org.micromanager.data.DataProviderHasNewSummaryMetadataEvent;
 import org.micromanager.display.DataViewer;
 import org.micromanager.display.DisplaySettings;
@@ -76,6 +80,12 @@ public final class StorageMultipageTiff implements Storage {
            "generate a metadata file when saving datasets as multipage TIFF files";
    private static final String SHOULD_USE_SEPARATE_FILES_FOR_POSITIONS = 
            "generate a separate multipage TIFF file for each stage position";
+   private static final String SHOULD_USE_MEMORY_MAPPED_READS =
+           "read multipage TIFF files through memory mappings";
+   private static final String SHOULD_USE_PARALLEL_WRITING =
+           "write each multipage TIFF file set on its own thread";
+   private static final String SHOULD_USE_COALESCED_WRITES =
+           "write each image to multipage TIFF files with a single call";
    private static final HashSet<String> ALLOWED_AXES = new HashSet<String>(
          Arrays.asList(Coords.CHANNEL, Coords.T, Coords.Z,
             Coords.STAGE_POSITION));
@@ -90,6 +100,10 @@ public final class StorageMultipageTiff implements Storage {
    private String directory_;
    final private boolean separateMetadataFile_;
    private boolean splitByXYPosition_ = true;
+   private final boolean memoryMappedReads_;
+   private final boolean parallelWriting_;
+   private final boolean coalescedWrites_;
+   private WritingStatistics writingStats_;
    private volatile boolean finished_ = false;
    private OMEMetadata omeMetadata_;
    private int lastFrame_ = 0;
@@ -116,7 +130,8 @@ public final class StorageMultipageTiff implements Storage {
            Boolean amInWriteMode)
          throws IOException {
       this(parent, store, dir, amInWriteMode, getShouldGenerateMetadataFile(),
-            getShouldSplitPositions());
+            getShouldSplitPositions(), getShouldUseMemoryMappedReads(),
+            getShouldUseParallelWriting(), getShouldUseCoalescedWrites());
    }
    
    /**
@@ -135,6 +150,32 @@ public final class StorageMultipageTiff implements Storage {
    public StorageMultipageTiff(Component parent, Datastore store, String dir,
          boolean amInWriteMode, boolean separateMDFile,
          boolean separateFilesForPositions) throws IOException {
+      this(parent, store, dir, amInWriteMode, separateMDFile,
+            separateFilesForPositions, false, false, false);
+   }
+
+   /**
+    * As above, but also specifying how existing files are read.
+    *
+    * @param memoryMappedReads If true, existing files are read through memory
+    *             mappings, so that images are not copied into memory and
+    *             their metadata is only parsed when needed. Mapped files
+    *             stay open until the images read from them are garbage
+    *             collected (which, on Windows, prevents deleting them).
+    * @param parallelWriting If true, each file set (one per stage position
+    *             when positions are stored in separate files) is written on
+    *             its own thread, instead of all files sharing one thread.
+    * @param coalescedWrites If true, each image is copied into a single
+    *             buffer and written with one call, and written data is
+    *             regularly flushed to disk so that the OS does not build up
+    *             large amounts of unwritten data.
+    * @throws java.io.IOException
+    */
+   public StorageMultipageTiff(Component parent, Datastore store, String dir,
+         boolean amInWriteMode, boolean separateMDFile,
+         boolean separateFilesForPositions, boolean memoryMappedReads,
+         boolean parallelWriting, boolean coalescedWrites)
+         throws IOException {
       store_ = (DefaultDatastore) store;
       parent_ = parent;
       // We must be notified of changes in the Datastore before everyone else,
@@ -142,6 +183,9 @@ public final class StorageMultipageTiff implements Storage {
       store_.registerForEvents(this, 0);
       separateMetadataFile_ = separateMDFile;
       splitByXYPosition_ = separateFilesForPositions;
+      memoryMappedReads_ = memoryMappedReads;
+      parallelWriting_ = parallelWriting;
+      coalescedWrites_ = coalescedWrites;
 
       amInWriteMode_ = amInWriteMode;
       directory_ = dir;
@@ -151,6 +195,10 @@ public final class StorageMultipageTiff implements Storage {
 
       if (amInWriteMode_) {
          positionToFileSet_ = new HashMap<>();
+         PerformanceMonitor perfMon =
+               PerformanceMonitor.createWithTimeConstantMs(1000.0);
+         PerformanceMonitorUI.create(perfMon, "Image Stack Writing Performance");
+         writingStats_ = new WritingStatistics(perfMon);
          // Create the directory now, even though we have nothing to write to
          // it, so we can detect e.g. permissions errors that would cause
          // problems later.
@@ -179,6 +227,21 @@ public final class StorageMultipageTiff implements Storage {
       }
    }
    
+   boolean getCoalescedWrites() {
+      return coalescedWrites_;
+   }
+
+   /**
+    * @return statistics to which writers report, or null if not writing
+    */
+   WritingStatistics getWritingStatistics() {
+      return writingStats_;
+   }
+
+   /**
+    * @return the writing executor shared by all file sets, or null if each
+    * file set is written by its own executor (or nothing has been written)
+    */
    public ThreadPoolExecutor getWritingExecutor() {
       return writingExecutor_;
    }
@@ -271,7 +334,7 @@ public final class StorageMultipageTiff implements Storage {
       MultipageTiffReader reader = null;
       try {
          try {
-            reader = new MultipageTiffReader(this, f);
+            reader = new MultipageTiffReader(this, f, memoryMappedReads_);
          }
          catch (InvalidIndexMapException e) {
             // Prompt to repair it.
@@ -289,7 +352,7 @@ public final class StorageMultipageTiff implements Storage {
             reader = new MultipageTiffReader(f);
             reader.close();
             // Open the file normally.
-            reader = new MultipageTiffReader(this, f);
+            reader = new MultipageTiffReader(this, f, memoryMappedReads_);
          }
          Set<Coords> readerCoords = reader.getIndexKeys();
          for (Coords coords : readerCoords) {
@@ -334,9 +397,9 @@ public final class StorageMultipageTiff implements Storage {
 
    private void writeImage(DefaultImage image, boolean waitForWritingToFinish) 
            throws MMException, InterruptedException, ExecutionException, IOException {
-      writeImage(image);
+      ThreadPoolExecutor executor = writeImage(image);
       if (waitForWritingToFinish) {
-         Future f = writingExecutor_.submit(new Runnable() {
+         Future f = executor.submit(new Runnable() {
             @Override
             public void run() {
             }
@@ -352,8 +415,10 @@ public final class StorageMultipageTiff implements Storage {
     * MultipageTiffReader.readImage() returning a coherent (i.e.
     * finished-writing) image if our getImage() method is called before writing
     * is completed.
+    * @return the executor that writes the image
     */
-   private void writeImage(DefaultImage image) throws MMException, IOException {
+   private ThreadPoolExecutor writeImage(DefaultImage image)
+         throws MMException, IOException {
       if (!amInWriteMode_) {
          ReportingUtils.showError("Tried to write image to a finished data set");
          throw new MMException("This ImageFileManager is read-only.");
@@ -364,23 +429,39 @@ public final class StorageMultipageTiff implements Storage {
          coordsToPendingImage_.put(coords, image);
       }
 
-      startWritingTask(image);
+      ThreadPoolExecutor executor = startWritingTask(image);
 
-      writingExecutor_.submit(new Runnable() {
+      final LatencyTracer tracer = LatencyTracer.getInstance();
+      final UUID uuid;
+      if (tracer.isActive()) {
+         uuid = image.getMetadata().getUUID();
+         tracer.sampleQueueDepth("TIFF writing", executor.getQueue().size());
+      }
+      else {
+         uuid = null;
+      }
+      executor.submit(new Runnable() {
          @Override
          public void run() {
             synchronized(coordsToPendingImage_) {
                coordsToPendingImage_.remove(coords);
             }
+            if (uuid != null) {
+               tracer.stamp("Written to file", uuid);
+            }
          }
       });
+      return executor;
    };
 
    /**
     * This method handles starting the process of writing images (which means
-    * that it ultimately submits a task to writingExecutor_).
+    * that it ultimately submits tasks to the writing executor of the image's
+    * FileSet).
+    * @return the writing executor of the FileSet that the image is written to
     */
-   private void startWritingTask(DefaultImage image) throws MMException, IOException {
+   private ThreadPoolExecutor startWritingTask(DefaultImage image)
+         throws MMException, IOException {
       // Update maxIndices_
       if (maxIndices_ == null) {
          maxIndices_ = image.getCoords().copy().build();
@@ -394,11 +475,10 @@ public final class StorageMultipageTiff implements Storage {
          }
       }
 
-      // initialize writing executor
-      if (writingExecutor_ == null) {
-         writingExecutor_ = new ThreadPoolExecutor(1, 1, 0,
-               TimeUnit.NANOSECONDS,
-               new LinkedBlockingQueue<java.lang.Runnable>());
+      // initialize writing executor (shared by all FileSets unless each
+      // gets its own)
+      if (writingExecutor_ == null && !parallelWriting_) {
+         writingExecutor_ = MultipageTiffWriter.createWritingExecutor();
       }
       int fileSetIndex = 0;
       if (splitByXYPosition_) {
@@ -416,7 +496,10 @@ public final class StorageMultipageTiff implements Storage {
       if (!positionToFileSet_.containsKey(fileSetIndex)) {
          positionToFileSet_.put(fileSetIndex,
                new FileSet(image, this, omeMetadata_,
-                  splitByXYPosition_, separateMetadataFile_));
+                  splitByXYPosition_, separateMetadataFile_,
+                  parallelWriting_ ?
+                     MultipageTiffWriter.createWritingExecutor() :
+                     writingExecutor_));
       }
       FileSet set = positionToFileSet_.get(fileSetIndex);
 
@@ -430,6 +513,7 @@ public final class StorageMultipageTiff implements Storage {
 
       int frame = image.getCoords().getTimePoint();
       lastFrameOpenedDataSet_ = Math.max(frame, lastFrameOpenedDataSet_);
+      return set.getWritingExecutor();
    }
 
    public Set<Coords> imageKeys() {
@@ -525,25 +609,34 @@ public final class StorageMultipageTiff implements Storage {
                progressBar.setProgress(count);
             }
          }
-         //shut down writing executor--pause here until all tasks have finished
+         //shut down writing executors--pause here until all tasks have finished
          //writing so that no attempt is made to close the dataset (and thus
          //the FileChannel) before everything has finished writing mkae sure
          //all images have finished writing if they are on seperate thread
-         if (writingExecutor_ != null && !writingExecutor_.isShutdown()) {
-            writingExecutor_.shutdown();
-            try {
+         Set<ThreadPoolExecutor> executors = Collections.newSetFromMap(
+               new IdentityHashMap<ThreadPoolExecutor, Boolean>());
+         for (FileSet p : positionToFileSet_.values()) {
+            executors.add(p.getWritingExecutor());
+         }
+         for (ThreadPoolExecutor executor : executors) {
+            executor.shutdown();
+         }
+         try {
+            for (ThreadPoolExecutor executor : executors) {
                // Wait for tasks to finish.
                int i = 0;
-               while (!writingExecutor_.awaitTermination(4, TimeUnit.SECONDS)) {
+               while (!executor.awaitTermination(4, TimeUnit.SECONDS)) {
                   ReportingUtils.logMessage("Waiting for image stack to finish writing (" + i + ")...");
                   i++;
                }
             }
-            catch (InterruptedException e) {
-               ReportingUtils.logError("File finishing thread interrupted");
-               Thread.interrupted();
-            }
          }
+         catch (InterruptedException e) {
+            ReportingUtils.logError("File finishing thread interrupted");
+            Thread.interrupted();
+         }
+         ReportingUtils.logMessage("Finished writing " + directory_ + ": " +
+               writingStats_);
       } catch (IOException ex) {
          ReportingUtils.logError(ex);
       }
@@ -974,4 +1067,34 @@ public final class StorageMultipageTiff implements Storage {
       MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class).
               putBoolean(SHOULD_USE_SEPARATE_FILES_FOR_POSITIONS, shouldSplit);
    }
+
+   public static boolean getShouldUseMemoryMappedReads() {
+      return MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class).
+              getBoolean(SHOULD_USE_MEMORY_MAPPED_READS, false);
+   }
+
+   public static void setShouldUseMemoryMappedReads(boolean shouldMap) {
+      MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class).
+              putBoolean(SHOULD_USE_MEMORY_MAPPED_READS, shouldMap);
+   }
+
+   public static boolean getShouldUseParallelWriting() {
+      return MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class).
+              getBoolean(SHOULD_USE_PARALLEL_WRITING, false);
+   }
+
+   public static void setShouldUseParallelWriting(boolean shouldParallelize) {
+      MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class).
+              putBoolean(SHOULD_USE_PARALLEL_WRITING, shouldParallelize);
+   }
+
+   public static boolean getShouldUseCoalescedWrites() {
+      return MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class).
+              getBoolean(SHOULD_USE_COALESCED_WRITES, false);
+   }
+
+   public static void setShouldUseCoalescedWrites(boolean shouldCoalesce) {
+      MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class).
+              putBoolean(SHOULD_USE_COALESCED_WRITES, shouldCoalesce);
+   }
 }
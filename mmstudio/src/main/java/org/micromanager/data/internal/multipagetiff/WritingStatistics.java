@@ -0,0 +1,106 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Multipage TIFF
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2019
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+package org.micromanager.data.internal.multipagetiff;
+
+import org.micromanager.internal.utils.DirectBufferPool;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
+
+/**
+ * Write throughput and latency of a StorageMultipageTiff, shared by all of
+ * its writers (which may be on different threads).
+ *
+ * Smoothed values are reported to a PerformanceMonitor; totals and the
+ * worst-case latency are kept for the whole dataset.
+ */
+final class WritingStatistics {
+   private static final long RATE_INTERVAL_NS = 1000000000L;
+
+   private final PerformanceMonitor perfMon_;
+
+   private long totalBytes_ = 0;
+   private long totalWrites_ = 0;
+   private long worstWriteNs_ = 0;
+   private long worstForceNs_ = 0;
+   private long firstWriteNs_ = -1;
+   private long lastWriteEndNs_ = -1;
+   private long rateIntervalStartNs_ = -1;
+   private long rateIntervalBytes_ = 0;
+
+   WritingStatistics(PerformanceMonitor perfMon) {
+      perfMon_ = perfMon;
+   }
+
+   PerformanceMonitor getPerformanceMonitor() {
+      return perfMon_;
+   }
+
+   /**
+    * Record a completed write.
+    * @param bytes number of bytes written
+    * @param startNs System.nanoTime() before the write
+    * @param endNs System.nanoTime() after the write
+    */
+   synchronized void recordWrite(long bytes, long startNs, long endNs) {
+      long latencyNs = endNs - startNs;
+      totalBytes_ += bytes;
+      ++totalWrites_;
+      if (firstWriteNs_ < 0) {
+         firstWriteNs_ = startNs;
+         rateIntervalStartNs_ = startNs;
+      }
+      lastWriteEndNs_ = endNs;
+      perfMon_.sample("Write latency (ms)", latencyNs / 1e6);
+      if (latencyNs > worstWriteNs_) {
+         worstWriteNs_ = latencyNs;
+      }
+      perfMon_.sample("Worst write latency (ms)", worstWriteNs_ / 1e6);
+
+      rateIntervalBytes_ += bytes;
+      long intervalNs = endNs - rateIntervalStartNs_;
+      if (intervalNs >= RATE_INTERVAL_NS) {
+         perfMon_.sample("Write throughput (MB/s)",
+               rateIntervalBytes_ / 1e6 / (intervalNs / 1e9));
+         DirectBufferPool.getImagePixelPool().sampleTo(perfMon_);
+         DirectBufferPool.getInstance().sampleTo(perfMon_);
+         rateIntervalStartNs_ = endNs;
+         rateIntervalBytes_ = 0;
+      }
+   }
+
+   /**
+    * Record a flush of written data to the disk.
+    */
+   synchronized void recordForce(long startNs, long endNs) {
+      long latencyNs = endNs - startNs;
+      perfMon_.sample("Flush latency (ms)", latencyNs / 1e6);
+      if (latencyNs > worstForceNs_) {
+         worstForceNs_ = latencyNs;
+      }
+   }
+
+   @Override
+   public synchronized String toString() {
+      double seconds = (lastWriteEndNs_ - firstWriteNs_) / 1e9;
+      return String.format("%d writes, %.1f MB in %.1f s (%.1f MB/s); " +
+            "worst write latency %.1f ms; worst flush latency %.1f ms",
+            totalWrites_, totalBytes_ / 1e6, seconds,
+            seconds > 0 ? totalBytes_ / 1e6 / seconds : 0.0,
+            worstWriteNs_ / 1e6, worstForceNs_ / 1e6);
+   }
+}
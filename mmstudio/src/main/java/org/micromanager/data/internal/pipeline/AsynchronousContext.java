@@ -29,11 +29,22 @@ import org.micromanager.internal.utils.ReportingUtils;
 public final class AsynchronousContext extends BaseContext {
    private boolean isFlushed_ = false;
    private LinkedBlockingQueue<ImageWrapper> inputQueue_ = null;
+   private final int queueDepth_;
 
    public AsynchronousContext(Processor processor,
          Datastore store, DefaultPipeline parent) {
+      this(processor, store, parent, 1);
+   }
+
+   /**
+    * @param queueDepth the number of images that can wait for the processor
+    * before insertImage() blocks
+    */
+   public AsynchronousContext(Processor processor,
+         Datastore store, DefaultPipeline parent, int queueDepth) {
       super(processor, store, parent);
-      inputQueue_ = new LinkedBlockingQueue<ImageWrapper>(1);
+      queueDepth_ = queueDepth;
+      inputQueue_ = new LinkedBlockingQueue<ImageWrapper>(queueDepth);
       // Create a new thread to do processing in.
       new Thread(new Runnable() {
          @Override
@@ -87,6 +98,7 @@ public final class AsynchronousContext extends BaseContext {
             isFlushed_ = false;
             try {
                processor_.processImage(wrapper.getImage(), this);
+               recordProcessed(wrapper);
             }
             catch (Exception e) {
                ReportingUtils.logError(e, "Processor failed to process image");
@@ -109,4 +121,19 @@ public final class AsynchronousContext extends BaseContext {
          ReportingUtils.logError(e, "Interrupted while passing image along pipeline");
       }
    }
+
+   @Override
+   protected int getNumberOfThreads() {
+      return 1;
+   }
+
+   @Override
+   protected int getQueueCapacity() {
+      return queueDepth_;
+   }
+
+   @Override
+   protected int getQueuedImageCount() {
+      return inputQueue_.size();
+   }
 }
@@ -26,10 +26,13 @@ import org.micromanager.data.Datastore;
 import org.micromanager.data.DatastoreFrozenException;
 import org.micromanager.data.DatastoreRewriteException;
 import org.micromanager.data.Image;
+import org.micromanager.data.Pipeline;
 import org.micromanager.data.Processor;
 import org.micromanager.data.ProcessorContext;
 import org.micromanager.data.SummaryMetadata;
 import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.performance.ExponentialSmoothing;
+import org.micromanager.internal.utils.performance.LatencyTracer;
 
 public abstract class BaseContext implements ProcessorContext {
    protected BaseContext sink_ = null;
@@ -38,6 +41,16 @@ public abstract class BaseContext implements ProcessorContext {
    protected DefaultPipeline parent_;
    protected CountDownLatch flushLatch_;
 
+   private static final double STATS_TIME_CONSTANT_MS = 3000.0;
+   // Guarded by monitor on statsLock_
+   private final Object statsLock_ = new Object();
+   private long processedCount_ = 0;
+   private long lastProcessedNs_ = -1;
+   private final ExponentialSmoothing latencyMs_ =
+         ExponentialSmoothing.createWithTimeConstantMs(STATS_TIME_CONSTANT_MS);
+   private final ExponentialSmoothing intervalMs_ =
+         ExponentialSmoothing.createWithTimeConstantMs(STATS_TIME_CONSTANT_MS);
+
    public BaseContext(Processor processor, Datastore store,
          DefaultPipeline parent) {
       processor_ = processor;
@@ -109,4 +122,54 @@ public abstract class BaseContext implements ProcessorContext {
    public SummaryMetadata getSummaryMetadata() {
       return store_.getSummaryMetadata();
    }
+
+   /**
+    * Record that an image has been processed, for statistics.
+    */
+   protected void recordProcessed(ImageWrapper wrapper) {
+      long nowNs = System.nanoTime();
+      LatencyTracer tracer = LatencyTracer.getInstance();
+      if (tracer.isActive()) {
+         String name = processor_.getClass().getSimpleName();
+         tracer.stamp("Processed by " + name,
+               wrapper.getImage().getMetadata().getUUID(), nowNs);
+         tracer.sampleQueueDepth(name + " input", getQueuedImageCount());
+      }
+      synchronized (statsLock_) {
+         ++processedCount_;
+         latencyMs_.sample((nowNs - wrapper.getCreationNs()) / 1e6);
+         if (lastProcessedNs_ >= 0) {
+            intervalMs_.sample((nowNs - lastProcessedNs_) / 1e6);
+         }
+         lastProcessedNs_ = nowNs;
+      }
+   }
+
+   /**
+    * Return the number of threads running the processor (0 if run on the
+    * caller's thread).
+    */
+   protected int getNumberOfThreads() {
+      return 0;
+   }
+
+   protected int getQueueCapacity() {
+      return 0;
+   }
+
+   protected int getQueuedImageCount() {
+      return 0;
+   }
+
+   public Pipeline.StageStatistics getStatistics() {
+      synchronized (statsLock_) {
+         double intervalMs = intervalMs_.getCount() > 0 ?
+               intervalMs_.getAverage() : 0.0;
+         return new DefaultStageStatistics(processor_,
+               getNumberOfThreads(), getQueueCapacity(),
+               getQueuedImageCount(), processedCount_,
+               intervalMs > 0.0 ? 1000.0 / intervalMs : 0.0,
+               latencyMs_.getCount() > 0 ? latencyMs_.getAverage() : 0.0);
+      }
+   }
 }
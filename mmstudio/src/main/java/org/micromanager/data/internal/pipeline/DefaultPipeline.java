@@ -22,6 +22,7 @@ package org.micromanager.data.internal.pipeline;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import org.micromanager.data.Datastore;
@@ -31,6 +32,7 @@ import org.micromanager.data.Pipeline;
 import org.micromanager.data.PipelineErrorException;
 import org.micromanager.data.Processor;
 import org.micromanager.data.SummaryMetadata;
+import org.micromanager.internal.MMStudio;
 import org.micromanager.internal.utils.ReportingUtils;
 
 public final class DefaultPipeline implements Pipeline {
@@ -42,21 +44,48 @@ public final class DefaultPipeline implements Pipeline {
    private boolean haveInsertedImages_ = false;
    private boolean amHalting_ = false;
    private boolean isHalted_ = false;
-   private final ArrayList<Exception> exceptions_;
+   // May be added to from several processor threads
+   private final List<Exception> exceptions_;
+
+   public static final int DEFAULT_QUEUE_DEPTH = 1;
+   public static final int DEFAULT_MAX_THREADS_PER_STAGE = Math.max(1,
+         Math.min(4, Runtime.getRuntime().availableProcessors()));
+   private static final String QUEUE_DEPTH = "images queued per processor";
+   private static final String MAX_THREADS_PER_STAGE =
+         "threads per stateless processor";
 
-   @SuppressWarnings("LeakingThisInConstructor")
    public DefaultPipeline(List<Processor> processors, Datastore store,
          boolean isSynchronous) {
+      this(processors, store, isSynchronous, DEFAULT_QUEUE_DEPTH,
+            DEFAULT_MAX_THREADS_PER_STAGE);
+   }
+
+   /**
+    * @param queueDepth for asynchronous pipelines, the number of images that
+    * can wait to be processed by each stage
+    * @param maxThreadsPerStage for asynchronous pipelines, the number of
+    * threads used to run each stateless Processor (see
+    * Processor.isStateless()); other Processors always get one thread
+    */
+   @SuppressWarnings("LeakingThisInConstructor")
+   public DefaultPipeline(List<Processor> processors, Datastore store,
+         boolean isSynchronous, int queueDepth, int maxThreadsPerStage) {
       processors_ = processors;
       store_ = store;
       contexts_ = new ArrayList<BaseContext>();
-      exceptions_ = new ArrayList<Exception>();
+      exceptions_ = Collections.synchronizedList(new ArrayList<Exception>());
+      queueDepth = Math.max(1, queueDepth);
       for (Processor processor : processors_) {
          if (isSynchronous) {
             contexts_.add(new SynchronousContext(processor, store_, this));
          }
+         else if (processor.isStateless() && maxThreadsPerStage > 1) {
+            contexts_.add(new ParallelContext(processor, store_, this,
+                  queueDepth, maxThreadsPerStage));
+         }
          else {
-            contexts_.add(new AsynchronousContext(processor, store_, this));
+            contexts_.add(new AsynchronousContext(processor, store_, this,
+                  queueDepth));
          }
       }
       // Chain the contexts together. The last one goes to the Datastore by
@@ -91,8 +120,10 @@ public final class DefaultPipeline implements Pipeline {
          return;
       }
       if (exceptions_.size() > 0) {
-         for (Exception ex : exceptions_) {
-            ReportingUtils.logError(ex);
+         synchronized (exceptions_) {
+            for (Exception ex : exceptions_) {
+               ReportingUtils.logError(ex);
+            }
          }
          // Currently in an error state.
          throw new PipelineErrorException();
@@ -169,7 +200,36 @@ public final class DefaultPipeline implements Pipeline {
       return processors_;
    }
 
+   @Override
+   public List<StageStatistics> getStageStatistics() {
+      List<StageStatistics> result = new ArrayList<StageStatistics>();
+      for (BaseContext context : contexts_) {
+         result.add(context.getStatistics());
+      }
+      return result;
+   }
+
    public void exceptionOccurred(Exception e) {
       exceptions_.add(e);
    }
+
+   public static int getQueueDepth() {
+      return MMStudio.getInstance().profile().getSettings(DefaultPipeline.class).
+            getInteger(QUEUE_DEPTH, DEFAULT_QUEUE_DEPTH);
+   }
+
+   public static void setQueueDepth(int queueDepth) {
+      MMStudio.getInstance().profile().getSettings(DefaultPipeline.class).
+            putInteger(QUEUE_DEPTH, queueDepth);
+   }
+
+   public static int getMaxThreadsPerStage() {
+      return MMStudio.getInstance().profile().getSettings(DefaultPipeline.class).
+            getInteger(MAX_THREADS_PER_STAGE, DEFAULT_MAX_THREADS_PER_STAGE);
+   }
+
+   public static void setMaxThreadsPerStage(int maxThreads) {
+      MMStudio.getInstance().profile().getSettings(DefaultPipeline.class).
+            putInteger(MAX_THREADS_PER_STAGE, maxThreads);
+   }
 }
@@ -0,0 +1,91 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2019
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal.pipeline;
+
+import org.micromanager.data.Pipeline;
+import org.micromanager.data.Processor;
+
+/**
+ * Snapshot of the statistics of one pipeline stage.
+ */
+final class DefaultStageStatistics implements Pipeline.StageStatistics {
+   private final Processor processor_;
+   private final int numberOfThreads_;
+   private final int queueCapacity_;
+   private final int queuedImageCount_;
+   private final long processedImageCount_;
+   private final double throughputHz_;
+   private final double meanLatencyMs_;
+
+   DefaultStageStatistics(Processor processor, int numberOfThreads,
+         int queueCapacity, int queuedImageCount, long processedImageCount,
+         double throughputHz, double meanLatencyMs) {
+      processor_ = processor;
+      numberOfThreads_ = numberOfThreads;
+      queueCapacity_ = queueCapacity;
+      queuedImageCount_ = queuedImageCount;
+      processedImageCount_ = processedImageCount;
+      throughputHz_ = throughputHz;
+      meanLatencyMs_ = meanLatencyMs;
+   }
+
+   @Override
+   public Processor getProcessor() {
+      return processor_;
+   }
+
+   @Override
+   public int getNumberOfThreads() {
+      return numberOfThreads_;
+   }
+
+   @Override
+   public int getQueueCapacity() {
+      return queueCapacity_;
+   }
+
+   @Override
+   public int getQueuedImageCount() {
+      return queuedImageCount_;
+   }
+
+   @Override
+   public long getProcessedImageCount() {
+      return processedImageCount_;
+   }
+
+   @Override
+   public double getThroughputHz() {
+      return throughputHz_;
+   }
+
+   @Override
+   public double getMeanLatencyMs() {
+      return meanLatencyMs_;
+   }
+
+   @Override
+   public String toString() {
+      return String.format("%s: %d thread(s), %d/%d queued, %d processed, " +
+            "%.1f Hz, %.1f ms latency",
+            processor_.getClass().getSimpleName(), numberOfThreads_,
+            queuedImageCount_, queueCapacity_, processedImageCount_,
+            throughputHz_, meanLatencyMs_);
+   }
+}
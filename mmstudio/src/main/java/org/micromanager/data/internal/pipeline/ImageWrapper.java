@@ -29,12 +29,22 @@ import org.micromanager.data.Image;
  */
 public final class ImageWrapper {
    private Image image_;
+   private final long creationNs_;
 
    public ImageWrapper(Image image) {
       image_ = image;
+      creationNs_ = System.nanoTime();
    }
 
    public Image getImage() {
       return image_;
    }
+
+   /**
+    * Return the time at which this wrapper was created, which is when the
+    * image was handed to a pipeline stage. Used for latency statistics.
+    */
+   public long getCreationNs() {
+      return creationNs_;
+   }
 }
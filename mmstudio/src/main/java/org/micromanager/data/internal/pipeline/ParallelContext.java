@@ -0,0 +1,199 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2019
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal.pipeline;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.micromanager.data.Datastore;
+import org.micromanager.data.Image;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.internal.utils.ReportingUtils;
+
+/**
+ * Context for a stateless Processor (see Processor.isStateless()) in an
+ * asynchronous pipeline. Images are processed by several worker threads, and
+ * the images output for each input image are passed along in the order in
+ * which the input images were received.
+ */
+public final class ParallelContext extends BaseContext {
+   // An input image (or the flush marker), and the images output for it
+   private static final class Job {
+      private final long sequenceNumber_;
+      private final ImageWrapper wrapper_;
+      private List<Image> outputs_;
+
+      Job(long sequenceNumber, ImageWrapper wrapper) {
+         sequenceNumber_ = sequenceNumber;
+         wrapper_ = wrapper;
+      }
+   }
+
+   private final LinkedBlockingQueue<Job> inputQueue_;
+   private final int queueDepth_;
+   private final int numThreads_;
+   private final AtomicLong nextInputSequenceNumber_ = new AtomicLong(0);
+   private volatile boolean isFlushed_ = false;
+
+   // Processed jobs waiting for their predecessors to be passed along
+   // Guarded by monitor on completedJobs_
+   private final Map<Long, Job> completedJobs_ = new HashMap<Long, Job>();
+   private long nextOutputSequenceNumber_ = 0;
+
+   /**
+    * @param queueDepth the number of images that can wait for a worker
+    * before insertImage() blocks
+    * @param numThreads the number of worker threads
+    */
+   public ParallelContext(Processor processor, Datastore store,
+         DefaultPipeline parent, int queueDepth, int numThreads) {
+      super(processor, store, parent);
+      queueDepth_ = queueDepth;
+      numThreads_ = numThreads;
+      inputQueue_ = new LinkedBlockingQueue<Job>(queueDepth);
+      for (int i = 0; i < numThreads; ++i) {
+         new Thread(new Runnable() {
+            @Override
+            public void run() {
+               monitorQueue();
+            }
+         }, "Processor context " + (i + 1) + " for " + processor_).start();
+      }
+   }
+
+   /**
+    * This method runs in each worker thread, and pulls images from the
+    * input queue, to feed into the processor.
+    */
+   private void monitorQueue() {
+      while (true) {
+         Job job = null;
+         try {
+            job = inputQueue_.poll(1000, TimeUnit.MILLISECONDS);
+         }
+         catch (InterruptedException e) {
+            // Ignore it.
+         }
+         if (job == null) {
+            if (isFlushed_) {
+               // All done.
+               return;
+            }
+            continue;
+         }
+         if (job.wrapper_.getImage() != null) {
+            final List<Image> outputs = new ArrayList<Image>();
+            ProcessorContext collector = new ProcessorContext() {
+               @Override
+               public void outputImage(Image image) {
+                  outputs.add(image);
+               }
+
+               @Override
+               public SummaryMetadata getSummaryMetadata() {
+                  return ParallelContext.this.getSummaryMetadata();
+               }
+            };
+            try {
+               processor_.processImage(job.wrapper_.getImage(), collector);
+            }
+            catch (Exception e) {
+               ReportingUtils.logError(e, "Processor failed to process image");
+               // Pass the exception to our parent.
+               parent_.exceptionOccurred(e);
+            }
+            job.outputs_ = outputs;
+         }
+         complete(job);
+      }
+   }
+
+   /**
+    * Pass along the results of the given job, and of any completed jobs that
+    * were waiting for it, in input order.
+    */
+   private void complete(Job job) {
+      synchronized (completedJobs_) {
+         completedJobs_.put(job.sequenceNumber_, job);
+         Job next;
+         while ((next = completedJobs_.remove(nextOutputSequenceNumber_)) !=
+               null) {
+            ++nextOutputSequenceNumber_;
+            if (next.wrapper_.getImage() == null) {
+               // Flushing: all previous images have been passed along.
+               // Cleanup the processor, then pass the flush along.
+               processor_.cleanup(this);
+               if (sink_ != null) {
+                  sink_.insertImage(next.wrapper_);
+               }
+               isFlushed_ = true;
+               if (flushLatch_ != null) {
+                  flushLatch_.countDown();
+               }
+            }
+            else {
+               for (Image image : next.outputs_) {
+                  outputImage(image);
+               }
+               recordProcessed(next.wrapper_);
+            }
+         }
+      }
+   }
+
+   /**
+    * Process an image. If the input ImageWrapper has a null image, then we
+    * flush the pipeline instead, passing the null along to the next context
+    * once all previous images have been passed along.
+    */
+   @Override
+   public void insertImage(ImageWrapper wrapper) {
+      Job job = new Job(nextInputSequenceNumber_.getAndIncrement(), wrapper);
+      try {
+         inputQueue_.put(job);
+      }
+      catch (InterruptedException e) {
+         ReportingUtils.logError(e, "Interrupted while passing image along pipeline");
+         // Drop the image, but keep the output sequence intact
+         job.outputs_ = new ArrayList<Image>();
+         complete(job);
+      }
+   }
+
+   @Override
+   protected int getNumberOfThreads() {
+      return numThreads_;
+   }
+
+   @Override
+   protected int getQueueCapacity() {
+      return queueDepth_;
+   }
+
+   @Override
+   protected int getQueuedImageCount() {
+      return inputQueue_.size();
+   }
+}
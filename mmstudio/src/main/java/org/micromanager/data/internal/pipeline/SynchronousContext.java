@@ -49,6 +49,7 @@ public final class SynchronousContext extends BaseContext {
       else {
          try {
             processor_.processImage(wrapper.getImage(), this);
+            recordProcessed(wrapper);
          }
          catch (Exception e) {
             ReportingUtils.logError(e, "Processor failed to process image");
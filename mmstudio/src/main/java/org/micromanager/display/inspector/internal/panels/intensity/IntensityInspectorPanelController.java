@@ -54,6 +54,10 @@ public class IntensityInspectorPanelController
 {
    public static final String HISTOGRAM_UPDATE_FREQUENCY = "HistogramUpdateFrequency";
    public static final String COLOR_PALETTE = "ColorPalette";
+   public static final String SAMPLE_PIXELS_FOR_LIVE_HISTOGRAMS =
+         "SamplePixelsForLiveHistograms";
+   // Every 4th pixel in x and y while images are arriving rapidly
+   private static final int FAST_STATS_SAMPLE_STRIDE = 4;
    private static final String COLOR_BLIND_FRIENDLY = "Colorblind-friendly";
    private static final String RGBCMYW = "RGBCMYW";
    private static final String CUSTOM = "Custom";
@@ -86,6 +90,8 @@ public class IntensityInspectorPanelController
          new JCheckBoxMenuItem("Logarithmic Y Axis");
    private final JCheckBoxMenuItem gearMenuUseROIItem_ =
          new JCheckBoxMenuItem("Use ROI for Histograms and Autostretch");
+   private final JCheckBoxMenuItem gearMenuSamplePixelsItem_ =
+         new JCheckBoxMenuItem("Sample Pixels for Live Histograms");
 
    private final JPanel generalControlPanel_ = new JPanel();
    private final JComboBox colorModeComboBox_ = new JComboBox();
@@ -190,6 +196,13 @@ public class IntensityInspectorPanelController
       }
 
       gearMenu_.add(gearMenuUseROIItem_);
+      gearMenu_.add(gearMenuSamplePixelsItem_);
+      gearMenuSamplePixelsItem_.setToolTipText(
+            "Compute histograms from a subset of pixels while images are " +
+            "arriving rapidly, and from all pixels once they stop changing");
+      gearMenuSamplePixelsItem_.setSelected(studio_.profile().getSettings(
+              IntensityInspectorPanelController.class).getBoolean(
+                      SAMPLE_PIXELS_FOR_LIVE_HISTOGRAMS, false));
 
       gearMenuLogYAxisItem_.addActionListener((ActionEvent e) -> {
          handleHistogramLogYAxis(gearMenuLogYAxisItem_.isSelected());
@@ -197,6 +210,13 @@ public class IntensityInspectorPanelController
       gearMenuUseROIItem_.addActionListener((ActionEvent e) -> {
          handleHistogramUseROI(gearMenuUseROIItem_.isSelected());
       });
+      gearMenuSamplePixelsItem_.addActionListener((ActionEvent e) -> {
+         boolean sample = gearMenuSamplePixelsItem_.isSelected();
+         handleHistogramSamplePixels(sample);
+         studio_.profile().getSettings(
+                 IntensityInspectorPanelController.class).putBoolean(
+                         SAMPLE_PIXELS_FOR_LIVE_HISTOGRAMS, sample);
+      });
    }
 
    private void setUpGeneralControlPanel() {
@@ -314,6 +334,13 @@ public class IntensityInspectorPanelController
       }
    }
 
+   private void handleHistogramSamplePixels(boolean sample) {
+      if (viewer_ instanceof DisplayController) {
+         ((DisplayController) viewer_).setFastStatsSampleStride(
+               sample ? FAST_STATS_SAMPLE_STRIDE : 1);
+      }
+   }
+
    private void handleHistogramUseROI(boolean useROI) {
       DisplaySettings oldSettings, newSettings;
       do {
@@ -473,6 +500,7 @@ public class IntensityInspectorPanelController
          if (histogramMenuMap_.get(updateRate) != null) {
             handleHistogramUpdateRate(histogramMenuMap_.get(updateRate));
          }
+         handleHistogramSamplePixels(gearMenuSamplePixelsItem_.isSelected());
       });
    }
 
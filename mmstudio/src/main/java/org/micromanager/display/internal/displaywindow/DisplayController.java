@@ -758,6 +758,20 @@ public final class DisplayController extends DisplayWindowAPIAdapter
       return 1e9 / intervalNs;
    }
 
+   /**
+    * Set the pixel sampling stride for approximate (faster) histograms while
+    * images are arriving rapidly, as in live mode. Exact statistics are
+    * computed when the images stop changing.
+    * @param stride 1 to always compute exact statistics
+    */
+   public void setFastStatsSampleStride(int stride) {
+      computeQueue_.setFastStatsSampleStride(stride);
+   }
+
+   public int getFastStatsSampleStride() {
+      return computeQueue_.getFastStatsSampleStride();
+   }
+
    public void setPlaybackAnimationAxes(String... axes) {
       synchronized (this) {
          playbackAxes_.clear();
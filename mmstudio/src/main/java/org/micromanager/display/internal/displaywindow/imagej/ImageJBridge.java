@@ -581,22 +581,20 @@ public final class ImageJBridge {
       if (template == null) {
          throw new IllegalStateException("Image requested from empty dataset");
       }
-      Object templatePixels = template.getRawPixels();
+      // Size the blank image from the template's format, rather than by
+      // materializing the template's pixel array
+      int numSamples = template.getWidth() * template.getHeight() *
+            template.getBytesPerPixel() / template.getBytesPerComponent();
       Object blankPixels;
-      if (templatePixels instanceof byte[]) {
-         blankPixels = new byte[((byte[]) templatePixels).length];
-      }
-      else if (templatePixels instanceof short[]) {
-         blankPixels = new short[((short[]) templatePixels).length];
-      }
-      else if (templatePixels instanceof int[]) {
-         blankPixels = new int[((int[]) templatePixels).length];
-      }
-      else if (templatePixels instanceof long[]) {
-         blankPixels = new long[((long[]) templatePixels).length];
-      }
-      else {
-         throw new UnsupportedOperationException("Pixel buffer of unknown type");
+      switch (template.getBytesPerComponent()) {
+         case 1:
+            blankPixels = new byte[numSamples];
+            break;
+         case 2:
+            blankPixels = new short[numSamples];
+            break;
+         default:
+            throw new UnsupportedOperationException("Pixel buffer of unknown type");
       }
       return new DefaultImage(blankPixels,
             template.getWidth(), template.getHeight(),
@@ -54,9 +54,10 @@ public final class CopyToImageJItem implements DisplayGearMenuPlugin, SciJavaPlu
 
    @Override
    public void onPluginSelected(DisplayWindow display) {
-      final boolean copy = false;
+      // the ImageJ window may edit the pixels, so they are always copied
+      final boolean copy = true;
       final boolean setProps = true;
-      // TODO: UI to set copy, give option to only do partial data, and multiple positions
+      // TODO: give option to only do partial data, and multiple positions
       
       DataProvider dp = display.getDataProvider();
       Coords displayPosition = display.getDisplayPosition();
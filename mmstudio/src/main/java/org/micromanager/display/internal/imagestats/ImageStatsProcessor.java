@@ -40,6 +40,7 @@ import net.imglib2.view.IntervalView;
 import net.imglib2.view.MixedTransformView;
 import net.imglib2.view.Views;
 import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultImage;
 import org.micromanager.internal.utils.ThreadFactoryFactory;
 import org.micromanager.internal.utils.performance.CPUTimer;
 import org.micromanager.internal.utils.performance.PerformanceMonitor;
@@ -56,6 +57,10 @@ public final class ImageStatsProcessor {
 
    private PerformanceMonitor perfMon_;
 
+   // Whether to use IntegerStatsKernel when possible (false only to compare
+   // against the general code)
+   private volatile boolean useKernel_ = true;
+
    public static ImageStatsProcessor create() {
       return new ImageStatsProcessor();
    }
@@ -76,6 +81,10 @@ public final class ImageStatsProcessor {
       perfMon_ = perfMon;
    }
 
+   void setUseKernel(boolean useKernel) {
+      useKernel_ = useKernel;
+   }
+
    public ImagesAndStats process(final long sequenceNumber,
          final ImageStatsRequest request,
          boolean interruptible)
@@ -124,7 +133,7 @@ public final class ImageStatsProcessor {
 
    private ImageStats computeStats(Image image,
          ImageStatsRequest request, int index)
-         throws ClassCastException
+         throws ClassCastException, InterruptedException, ExecutionException
    {
       CPUTimer cpuTimer = CPUTimer.createStarted();
 
@@ -137,6 +146,7 @@ public final class ImageStatsProcessor {
             Math.min(bitDepth, request.getMaxBinCountPowerOf2());
 
       // RGB888 images can come with an extra component in the pixel buffer.
+      // IntegerStatsKernel handles this, but the general code below does not.
       // TODO XXX Handle this case!
 
       // Determine the overlap between the ROI rect/mask and the image
@@ -180,9 +190,22 @@ public final class ImageStatsProcessor {
       }
 
       ImageStats result = null;
-      if (bytesPerSample == 1) {
+      // Without a mask, take the fast path for the common pixel formats.
+      // Sub-sampling (if requested) is only done here; masked statistics are
+      // always exact.
+      if (useKernel_ && (maskBytes == null || maskEmpty)) {
+         IntegerStatsKernel kernel = IntegerStatsKernel.create(image,
+               bitDepth, binCountPowerOf2);
+         IntegerComponentStats[] componentStats = kernel == null ? null :
+               kernel.compute(image, statsBounds, useROI, executor_,
+                     request.getSampleStride());
+         if (componentStats != null) {
+            result = ImageStats.create(index, componentStats);
+         }
+      }
+      if (result == null && bytesPerSample == 1) {
          Img<UnsignedByteType> img =
-               ArrayImgs.unsignedBytes((byte[]) image.getRawPixels(),
+               ArrayImgs.unsignedBytes((byte[]) DefaultImage.sharedRawPixels(image),
                      nComponents, image.getWidth(), image.getHeight());
          result = compute(
                clipToRect(img, nComponents, statsBounds),
@@ -190,9 +213,9 @@ public final class ImageStatsProcessor {
                nComponents, bitDepth, binCountPowerOf2,
                useROI, index);
       }
-      else if (bytesPerSample == 2) {
+      else if (result == null && bytesPerSample == 2) {
          Img<UnsignedShortType> img =
-               ArrayImgs.unsignedShorts((short[]) image.getRawPixels(),
+               ArrayImgs.unsignedShorts((short[]) DefaultImage.sharedRawPixels(image),
                      nComponents, image.getWidth(), image.getHeight());
          result = compute(
                clipToRect(img, nComponents, statsBounds),
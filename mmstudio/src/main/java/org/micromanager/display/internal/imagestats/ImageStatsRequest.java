@@ -29,23 +29,42 @@ public final class ImageStatsRequest {
    private final Coords nominalCoords_;
    private final List<Image> images_ = new ArrayList<Image>();
    private final BoundsRectAndMask roi_;
+   private final int sampleStride_;
 
    public static ImageStatsRequest create(Coords nominalCoords,
          List<Image> images,
          BoundsRectAndMask roi)
    {
-      return new ImageStatsRequest(nominalCoords, images, roi);
+      return new ImageStatsRequest(nominalCoords, images, roi, 1);
    }
 
    private ImageStatsRequest(Coords nominalCoords,
          List<Image> images,
-         BoundsRectAndMask roi)
+         BoundsRectAndMask roi,
+         int sampleStride)
    {
       Preconditions.checkNotNull(nominalCoords);
       Preconditions.checkNotNull(images);
+      Preconditions.checkArgument(sampleStride >= 1);
       nominalCoords_ = nominalCoords;
       images_.addAll(images);
       roi_ = roi;
+      sampleStride_ = sampleStride;
+   }
+
+   /**
+    * Return a copy of this request that asks for approximate statistics
+    * computed from a sub-sample of the pixels.
+    * @param sampleStride the spacing, in both x and y, of the sampled pixels;
+    * 1 to request exact statistics
+    * @return the new request
+    */
+   public ImageStatsRequest copyWithSampleStride(int sampleStride) {
+      if (sampleStride == sampleStride_) {
+         return this;
+      }
+      return new ImageStatsRequest(nominalCoords_, images_, roi_,
+            sampleStride);
    }
 
    public Coords getNominalCoords() {
@@ -75,4 +94,14 @@ public final class ImageStatsRequest {
    public byte[] getROIMask() {
       return roi_.getMask();
    }
+
+   /**
+    * Return the sampling stride. When greater than 1, statistics may be
+    * computed from every sampleStride-th pixel of every sampleStride-th row
+    * only, in which case the histogram and pixel counts reflect the sampled
+    * pixels.
+    */
+   public int getSampleStride() {
+      return sampleStride_;
+   }
 }
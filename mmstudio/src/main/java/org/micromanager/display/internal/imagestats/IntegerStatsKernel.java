@@ -0,0 +1,380 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Display implementation
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2019
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.imagestats;
+
+import com.google.common.base.Preconditions;
+import java.awt.Rectangle;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultImage;
+
+/**
+ * Computes statistics over a rectangle of an 8- or 16-bit grayscale or an
+ * RGB32 image, when there is no ROI mask.
+ *
+ * This gives the same results as the general (ImgLib2 cursor based) code in
+ * ImageStatsProcessor, but reads the pixel buffer row by row and splits
+ * large images into strips that are processed in parallel, merging the
+ * partial histograms and moments at the end.
+ *
+ * To quickly estimate the statistics (for example, during live mode), the
+ * image can be sub-sampled on a regular grid.
+ *
+ * For RGB32 images, components are in R, G, B order (the general code does
+ * not handle the 4-byte pixels of these images correctly).
+ */
+final class IntegerStatsKernel {
+   // Strips are not made smaller than this many samples, so that the
+   // overhead of running them on separate threads is negligible
+   private static final long MIN_SAMPLES_PER_STRIP = 1L << 20;
+
+   // Sample offsets of R, G and B within an RGB32 pixel
+   private static final int[] RGB32_OFFSETS = new int[] { 2, 1, 0 };
+
+   private final int nComponents_;
+   private final int samplesPerPixel_;
+   private final int[] componentOffsets_;
+   private final int sampleShift_;
+   private final int endOfRange_;
+   private final int binCount_; // Including the 2 out-of-range bins
+
+   /**
+    * Return a kernel for the given image, or null if the image's pixel
+    * format is not handled.
+    */
+   static IntegerStatsKernel create(Image image, int sampleBitDepth,
+         int binCountPowerOf2)
+   {
+      int nComponents = image.getNumComponents();
+      int bytesPerPixel = image.getBytesPerPixel();
+      if (sampleBitDepth < 1 || sampleBitDepth > 16 ||
+            binCountPowerOf2 > sampleBitDepth) {
+         return null;
+      }
+      if (nComponents == 1 && (bytesPerPixel == 1 || bytesPerPixel == 2)) {
+         return new IntegerStatsKernel(1, 1, new int[] { 0 },
+               sampleBitDepth, binCountPowerOf2);
+      }
+      if (nComponents == 3 && bytesPerPixel == 4) {
+         return new IntegerStatsKernel(3, 4, RGB32_OFFSETS,
+               sampleBitDepth, binCountPowerOf2);
+      }
+      return null;
+   }
+
+   private IntegerStatsKernel(int nComponents, int samplesPerPixel,
+         int[] componentOffsets, int sampleBitDepth, int binCountPowerOf2)
+   {
+      nComponents_ = nComponents;
+      samplesPerPixel_ = samplesPerPixel;
+      componentOffsets_ = componentOffsets;
+      // Same binning as PowerOf2BinMapper
+      sampleShift_ = sampleBitDepth - binCountPowerOf2;
+      endOfRange_ = (1 << sampleBitDepth) - 1;
+      binCount_ = (1 << binCountPowerOf2) + 2;
+   }
+
+   // Statistics for part of an image. Histogram counts fit in an int since
+   // a strip has fewer than 2^31 samples.
+   private final class Partial {
+      final int[][] histograms = new int[nComponents_][binCount_];
+      final long[] counts = new long[nComponents_];
+      final long[] minima = new long[nComponents_];
+      final long[] maxima = new long[nComponents_];
+      final long[] sums = new long[nComponents_];
+      final long[] sumsOfSquares = new long[nComponents_];
+
+      Partial() {
+         for (int component = 0; component < nComponents_; ++component) {
+            minima[component] = Long.MAX_VALUE;
+            maxima[component] = Long.MIN_VALUE;
+         }
+      }
+
+      void merge(Partial other) {
+         for (int component = 0; component < nComponents_; ++component) {
+            counts[component] += other.counts[component];
+            minima[component] = Math.min(minima[component],
+                  other.minima[component]);
+            maxima[component] = Math.max(maxima[component],
+                  other.maxima[component]);
+            sums[component] += other.sums[component];
+            sumsOfSquares[component] += other.sumsOfSquares[component];
+         }
+      }
+   }
+
+   /**
+    * Compute the statistics.
+    * @param image the image
+    * @param bounds the rectangle (within the image) to include
+    * @param isROI whether bounds is a user ROI
+    * @param executor if not null, used to process strips of large images in
+    * parallel
+    * @param sampleStride 1 to include every pixel; otherwise only every
+    * sampleStride-th pixel of every sampleStride-th row is included
+    * @return the statistics for each component, or null if the image's pixel
+    * buffer is not of the expected type
+    */
+   IntegerComponentStats[] compute(Image image, final Rectangle bounds,
+         boolean isROI, ExecutorService executor, final int sampleStride)
+         throws InterruptedException, ExecutionException
+   {
+      Preconditions.checkArgument(sampleStride >= 1);
+      final Buffer pixels = getPixels(image);
+      if (pixels == null || pixels.capacity() <
+            image.getWidth() * image.getHeight() * samplesPerPixel_) {
+         return null;
+      }
+      final int width = image.getWidth();
+
+      long samples = (long) bounds.width * bounds.height * nComponents_ /
+            ((long) sampleStride * sampleStride);
+      int nStrips = (int) Math.max(1, Math.min(
+            Math.min(Runtime.getRuntime().availableProcessors(),
+                  bounds.height),
+            samples / MIN_SAMPLES_PER_STRIP));
+      if (executor == null) {
+         nStrips = 1;
+      }
+
+      // Process all but the first strip on the executor
+      List<Future<Partial>> futures = new ArrayList<Future<Partial>>();
+      for (int strip = 1; strip < nStrips; ++strip) {
+         final int yStart = bounds.y + bounds.height * strip / nStrips;
+         final int yEnd = bounds.y + bounds.height * (strip + 1) / nStrips;
+         futures.add(executor.submit(new Callable<Partial>() {
+            @Override
+            public Partial call() {
+               return accumulate(pixels, width, bounds, yStart, yEnd,
+                     sampleStride);
+            }
+         }));
+      }
+      Partial result = accumulate(pixels, width, bounds, bounds.y,
+            bounds.y + bounds.height / nStrips, sampleStride);
+      long[][] histograms = new long[nComponents_][binCount_];
+      addHistograms(histograms, result);
+      for (Future<Partial> future : futures) {
+         Partial partial = future.get();
+         addHistograms(histograms, partial);
+         result.merge(partial);
+      }
+
+      IntegerComponentStats[] componentStats =
+            new IntegerComponentStats[nComponents_];
+      for (int component = 0; component < nComponents_; ++component) {
+         componentStats[component] = IntegerComponentStats.builder().
+               histogram(histograms[component], sampleShift_).
+               pixelCount(result.counts[component]).
+               usedROI(isROI).
+               minimum(result.minima[component]).
+               maximum(result.maxima[component]).
+               sum(result.sums[component]).
+               sumOfSquares(result.sumsOfSquares[component]).
+               build();
+      }
+      return componentStats;
+   }
+
+   private void addHistograms(long[][] histograms, Partial partial) {
+      for (int component = 0; component < nComponents_; ++component) {
+         long[] hist = histograms[component];
+         int[] partialHist = partial.histograms[component];
+         for (int bin = 0; bin < binCount_; ++bin) {
+            hist[bin] += partialHist[bin];
+         }
+      }
+   }
+
+   private Buffer getPixels(Image image) {
+      Buffer pixels;
+      if (image instanceof DefaultImage) {
+         pixels = ((DefaultImage) image).getPixelBufferView();
+      }
+      else {
+         Object array = image.getRawPixels();
+         if (array instanceof byte[]) {
+            pixels = ByteBuffer.wrap((byte[]) array);
+         }
+         else if (array instanceof short[]) {
+            pixels = ShortBuffer.wrap((short[]) array);
+         }
+         else {
+            return null;
+         }
+      }
+      boolean twoBytes = image.getBytesPerPixel() == 2;
+      if (pixels instanceof ShortBuffer && twoBytes) {
+         return pixels;
+      }
+      if (pixels instanceof ByteBuffer && !twoBytes) {
+         return pixels;
+      }
+      return null;
+   }
+
+   private Partial accumulate(Buffer pixels, int width, Rectangle bounds,
+         int yStart, int yEnd, int stride)
+   {
+      Partial partial = new Partial();
+      // Start at the first sampled row in the strip
+      int offset = (yStart - bounds.y) % stride;
+      if (offset > 0) {
+         yStart += stride - offset;
+      }
+      if (pixels instanceof ShortBuffer) {
+         accumulateMono16(((ShortBuffer) pixels).duplicate(), width, bounds,
+               yStart, yEnd, stride, partial);
+      }
+      else if (samplesPerPixel_ == 1) {
+         accumulateMono8(((ByteBuffer) pixels).duplicate(), width, bounds,
+               yStart, yEnd, stride, partial);
+      }
+      else {
+         accumulateMultiComponent8(((ByteBuffer) pixels).duplicate(), width,
+               bounds, yStart, yEnd, stride, partial);
+      }
+      return partial;
+   }
+
+   private void accumulateMono16(ShortBuffer pixels, int width,
+         Rectangle bounds, int yStart, int yEnd, int stride, Partial partial)
+   {
+      final int shift = sampleShift_;
+      final int endOfRange = endOfRange_;
+      final int overflowBin = binCount_ - 1;
+      final int[] hist = partial.histograms[0];
+      long min = partial.minima[0];
+      long max = partial.maxima[0];
+      long sum = 0;
+      long sumSq = 0;
+      short[] row = new short[bounds.width];
+      long rows = 0;
+      for (int y = yStart; y < yEnd; y += stride, ++rows) {
+         pixels.position(y * width + bounds.x);
+         pixels.get(row);
+         for (int x = 0; x < row.length; x += stride) {
+            int v = row[x] & 0xffff;
+            hist[v > endOfRange ? overflowBin : (v >> shift) + 1]++;
+            if (v < min) {
+               min = v;
+            }
+            if (v > max) {
+               max = v;
+            }
+            sum += v;
+            sumSq += (long) v * v;
+         }
+      }
+      partial.counts[0] += rows * ((bounds.width + stride - 1) / stride);
+      partial.minima[0] = min;
+      partial.maxima[0] = max;
+      partial.sums[0] += sum;
+      partial.sumsOfSquares[0] += sumSq;
+   }
+
+   private void accumulateMono8(ByteBuffer pixels, int width,
+         Rectangle bounds, int yStart, int yEnd, int stride, Partial partial)
+   {
+      final int shift = sampleShift_;
+      final int endOfRange = endOfRange_;
+      final int overflowBin = binCount_ - 1;
+      final int[] hist = partial.histograms[0];
+      long min = partial.minima[0];
+      long max = partial.maxima[0];
+      long sum = 0;
+      long sumSq = 0;
+      byte[] row = new byte[bounds.width];
+      long rows = 0;
+      for (int y = yStart; y < yEnd; y += stride, ++rows) {
+         pixels.position(y * width + bounds.x);
+         pixels.get(row);
+         for (int x = 0; x < row.length; x += stride) {
+            int v = row[x] & 0xff;
+            hist[v > endOfRange ? overflowBin : (v >> shift) + 1]++;
+            if (v < min) {
+               min = v;
+            }
+            if (v > max) {
+               max = v;
+            }
+            sum += v;
+            sumSq += v * v;
+         }
+      }
+      partial.counts[0] += rows * ((bounds.width + stride - 1) / stride);
+      partial.minima[0] = min;
+      partial.maxima[0] = max;
+      partial.sums[0] += sum;
+      partial.sumsOfSquares[0] += sumSq;
+   }
+
+   private void accumulateMultiComponent8(ByteBuffer pixels, int width,
+         Rectangle bounds, int yStart, int yEnd, int stride, Partial partial)
+   {
+      final int shift = sampleShift_;
+      final int endOfRange = endOfRange_;
+      final int overflowBin = binCount_ - 1;
+      final int spp = samplesPerPixel_;
+      byte[] row = new byte[bounds.width * spp];
+      final int step = spp * stride;
+      long rows = 0;
+      for (int y = yStart; y < yEnd; y += stride, ++rows) {
+         pixels.position((y * width + bounds.x) * spp);
+         pixels.get(row);
+         for (int component = 0; component < nComponents_; ++component) {
+            final int[] hist = partial.histograms[component];
+            long min = partial.minima[component];
+            long max = partial.maxima[component];
+            long sum = 0;
+            long sumSq = 0;
+            for (int i = componentOffsets_[component]; i < row.length;
+                  i += step) {
+               int v = row[i] & 0xff;
+               hist[v > endOfRange ? overflowBin : (v >> shift) + 1]++;
+               if (v < min) {
+                  min = v;
+               }
+               if (v > max) {
+                  max = v;
+               }
+               sum += v;
+               sumSq += v * v;
+            }
+            partial.minima[component] = min;
+            partial.maxima[component] = max;
+            partial.sums[component] += sum;
+            partial.sumsOfSquares[component] += sumSq;
+         }
+      }
+      for (int component = 0; component < nComponents_; ++component) {
+         partial.counts[component] +=
+               rows * ((bounds.width + stride - 1) / stride);
+      }
+   }
+}
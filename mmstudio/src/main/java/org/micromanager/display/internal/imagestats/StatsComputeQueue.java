@@ -86,6 +86,20 @@ public final class StatsComputeQueue {
    // Guarded by monitor on this
    private long nextStatsReadyCallAllowedNs_ = 0;
 
+   // When > 1, requests arriving in quick succession (as in live mode) get
+   // approximate stats from a sub-sample of pixels; exact stats are computed
+   // once no new request has arrived for FAST_STATS_SETTLE_NS.
+   // Guarded by monitor on this
+   private int fastStatsSampleStride_ = 1;
+   private static final long FAST_STATS_SETTLE_NS = 250000000L;
+
+   // Guarded by monitor on this
+   private long lastRequestNs_ = Long.MIN_VALUE;
+
+   // The pending exact compute following fast (sampled) stats, if any
+   // Guarded by monitor on this
+   private Future<?> exactComputeFuture_;
+
    private PerformanceMonitor perfMon_;
 
 
@@ -121,14 +135,38 @@ public final class StatsComputeQueue {
       long nowNs = System.nanoTime();
       int priority = request.getNumberOfImages();
 
+      boolean streaming = lastRequestNs_ != Long.MIN_VALUE &&
+            nowNs - lastRequestNs_ < FAST_STATS_SETTLE_NS;
+      lastRequestNs_ = nowNs;
+      if (exactComputeFuture_ != null) {
+         exactComputeFuture_.cancel(true);
+         exactComputeFuture_ = null;
+      }
+
       if (updateIntervalNs_ < Long.MAX_VALUE) {
          final long waitTargetNs = updateIntervalNs_ == Long.MAX_VALUE ?
                Long.MAX_VALUE :
                nowNs + updateIntervalNs_ - nowNs % Math.max(1, updateIntervalNs_);
 
-         submitCompute(sequenceNumber, priority, request, waitTargetNs);
-         if (perfMon_ != null) {
-            perfMon_.sampleTimeInterval("Compute submitted");
+         if (fastStatsSampleStride_ > 1 && streaming) {
+            submitCompute(sequenceNumber, priority,
+                  request.copyWithSampleStride(fastStatsSampleStride_),
+                  waitTargetNs);
+            // Replace the approximate stats with exact ones if the images
+            // stop changing. The result carries the same sequence number, so
+            // it is discarded if a newer result has been shown.
+            exactComputeFuture_ = computeExecutor_.submit(createComputeTask(
+                  sequenceNumber, priority, request,
+                  Math.max(waitTargetNs, nowNs + FAST_STATS_SETTLE_NS)));
+            if (perfMon_ != null) {
+               perfMon_.sampleTimeInterval("Fast compute submitted");
+            }
+         }
+         else {
+            submitCompute(sequenceNumber, priority, request, waitTargetNs);
+            if (perfMon_ != null) {
+               perfMon_.sampleTimeInterval("Compute submitted");
+            }
          }
       }
       if (updateIntervalNs_ > 0) {
@@ -150,7 +188,16 @@ public final class StatsComputeQueue {
             computeFutures_.get(p).cancel(true);
          }
       }
-      computeFutures_.set(priority, computeExecutor_.submit(new Runnable() {
+      computeFutures_.set(priority, computeExecutor_.submit(
+            createComputeTask(sequenceNumber, priority, request,
+                  waitTargetNs)));
+   }
+
+   private Runnable createComputeTask(final long sequenceNumber,
+         final int priority, final ImageStatsRequest request,
+         final long waitTargetNs)
+   {
+      return new Runnable() {
          @Override
          public void run() {
             // Interruptible wait for the next 'tick'
@@ -197,7 +244,7 @@ public final class StatsComputeQueue {
                storedStats_.set(priority, result);
             }
          }
-      }));
+      };
    }
 
    private void submitBypass(final long sequenceNumber, final int priority,
@@ -316,4 +363,17 @@ public final class StatsComputeQueue {
    public synchronized long getProcessIntervalNs() {
       return updateIntervalNs_;
    }
+
+   /**
+    * Set the pixel sampling stride used for approximate stats while images
+    * are arriving in quick succession.
+    * @param stride 1 to always compute exact stats
+    */
+   public synchronized void setFastStatsSampleStride(int stride) {
+      fastStatsSampleStride_ = Math.max(1, stride);
+   }
+
+   public synchronized int getFastStatsSampleStride() {
+      return fastStatsSampleStride_;
+   }
 }
\ No newline at end of file
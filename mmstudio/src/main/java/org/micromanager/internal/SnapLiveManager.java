@@ -37,9 +37,9 @@ import javax.swing.JButton;
 import javax.swing.JComponent;
 import javax.swing.SwingUtilities;
 import mmcorej.CMMCore;
+import mmcorej.FrameMetadata;
 import mmcorej.TaggedImage;
 import org.json.JSONException;
-import org.json.JSONObject;
 import org.micromanager.data.Coordinates;
 import org.micromanager.data.Coords;
 import org.micromanager.data.DatastoreFrozenException;
@@ -395,10 +395,23 @@ public final class SnapLiveManager extends DataViewerListener
                perfMon_.sample("No image in sequence buffer (%)", 100.0);
                continue;
             }
-            JSONObject tags = tagged.tags;
             int imageChannel = c;
-            if (tags.has(camName + "-CameraChannelIndex")) {
-               imageChannel = tags.getInt(camName + "-CameraChannelIndex");
+            // Prefer the typed metadata, so that the tags need not be built
+            FrameMetadata frameMetadata = tagged.getFrameMetadata();
+            if (frameMetadata != null) {
+               String index = frameMetadata.getDeviceOrStateTag(
+                     camName + "-CameraChannelIndex");
+               if (index != null) {
+                  try {
+                     imageChannel = (int) Double.parseDouble(index);
+                  }
+                  catch (NumberFormatException e) {
+                     throw new JSONException("Invalid camera channel index " + index);
+                  }
+               }
+            }
+            else if (tagged.tags.has(camName + "-CameraChannelIndex")) {
+               imageChannel = tagged.tags.getInt(camName + "-CameraChannelIndex");
             }
             if (channelsSet.contains(imageChannel)) {
                // Already provided a more recent version of this channel.
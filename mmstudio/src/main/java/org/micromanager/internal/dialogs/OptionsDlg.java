@@ -258,6 +258,42 @@ public final class OptionsDlg extends MMDialog {
             StorageMultipageTiff.setShouldSplitPositions(separateFilesForPositionsMPTiffCheckBox.isSelected());
          }
       });
+
+      final JCheckBox memoryMappedReadsMPTiffCheckBox = new JCheckBox();
+      memoryMappedReadsMPTiffCheckBox.setText("Memory-map Image Stack Files when opening them");
+      memoryMappedReadsMPTiffCheckBox.setToolTipText("Faster browsing of large datasets; files stay in use until their images are no longer needed");
+      memoryMappedReadsMPTiffCheckBox.setSelected(
+            StorageMultipageTiff.getShouldUseMemoryMappedReads());
+      memoryMappedReadsMPTiffCheckBox.addActionListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent arg0) {
+            StorageMultipageTiff.setShouldUseMemoryMappedReads(memoryMappedReadsMPTiffCheckBox.isSelected());
+         }
+      });
+
+      final JCheckBox parallelWritingMPTiffCheckBox = new JCheckBox();
+      parallelWritingMPTiffCheckBox.setText("Write Image Stack Files for each XY position in parallel");
+      parallelWritingMPTiffCheckBox.setToolTipText("Faster saving to fast or multiple disks when XY positions are saved in separate files");
+      parallelWritingMPTiffCheckBox.setSelected(
+            StorageMultipageTiff.getShouldUseParallelWriting());
+      parallelWritingMPTiffCheckBox.addActionListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent arg0) {
+            StorageMultipageTiff.setShouldUseParallelWriting(parallelWritingMPTiffCheckBox.isSelected());
+         }
+      });
+
+      final JCheckBox coalescedWritesMPTiffCheckBox = new JCheckBox();
+      coalescedWritesMPTiffCheckBox.setText("Write each image to Image Stack Files in one piece and flush regularly");
+      coalescedWritesMPTiffCheckBox.setToolTipText("Avoids long pauses when the operating system writes out large amounts of cached data");
+      coalescedWritesMPTiffCheckBox.setSelected(
+            StorageMultipageTiff.getShouldUseCoalescedWrites());
+      coalescedWritesMPTiffCheckBox.addActionListener(new ActionListener() {
+         @Override
+         public void actionPerformed(ActionEvent arg0) {
+            StorageMultipageTiff.setShouldUseCoalescedWrites(coalescedWritesMPTiffCheckBox.isSelected());
+         }
+      });
   
       final JCheckBox syncExposureMainAndMDA = new JCheckBox();
       syncExposureMainAndMDA.setText("Sync exposure between Main and MDA windows");
@@ -306,6 +342,9 @@ public final class OptionsDlg extends MMDialog {
 
       super.add(metadataFileWithMultipageTiffCheckBox, "wrap");
       super.add(separateFilesForPositionsMPTiffCheckBox, "wrap");
+      super.add(memoryMappedReadsMPTiffCheckBox, "wrap");
+      super.add(parallelWritingMPTiffCheckBox, "wrap");
+      super.add(coalescedWritesMPTiffCheckBox, "wrap");
 
       super.add(new JSeparator(), "wrap");
 
@@ -34,7 +34,11 @@ import javax.swing.JLabel;
 import javax.swing.JMenuItem;
 import javax.swing.JPopupMenu;
 import javax.swing.JScrollPane;
+import javax.swing.JSpinner;
 import javax.swing.ListSelectionModel;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import net.miginfocom.swing.MigLayout;
@@ -43,6 +47,7 @@ import org.micromanager.Studio;
 import org.micromanager.data.ProcessorConfigurator;
 import org.micromanager.data.ProcessorFactory;
 import org.micromanager.data.ProcessorPlugin;
+import org.micromanager.data.internal.pipeline.DefaultPipeline;
 import org.micromanager.events.ShutdownCommencingEvent;
 import org.micromanager.events.StartupCompleteEvent;
 import org.micromanager.events.internal.NewPluginEvent;
@@ -168,6 +173,32 @@ final public class PipelineFrame extends MMFrame
       });
       add(replayButton_);
 
+      // Take effect for pipelines created from now on
+      final JSpinner queueDepthSpinner = new JSpinner(new SpinnerNumberModel(
+            DefaultPipeline.getQueueDepth(), 1, 1000, 1));
+      queueDepthSpinner.setToolTipText("Number of images that can wait for each processor");
+      queueDepthSpinner.addChangeListener(new ChangeListener() {
+         @Override
+         public void stateChanged(ChangeEvent e) {
+            DefaultPipeline.setQueueDepth((Integer) queueDepthSpinner.getValue());
+         }
+      });
+      add(new JLabel("Images queued:"), "split 2, flowx");
+      add(queueDepthSpinner);
+
+      final JSpinner maxThreadsSpinner = new JSpinner(new SpinnerNumberModel(
+            DefaultPipeline.getMaxThreadsPerStage(), 1, 256, 1));
+      maxThreadsSpinner.setToolTipText("Maximum number of threads used by "
+            + "each processor that can handle images in parallel");
+      maxThreadsSpinner.addChangeListener(new ChangeListener() {
+         @Override
+         public void stateChanged(ChangeEvent e) {
+            DefaultPipeline.setMaxThreadsPerStage((Integer) maxThreadsSpinner.getValue());
+         }
+      });
+      add(new JLabel("Threads per processor:"), "split 2, flowx");
+      add(maxThreadsSpinner);
+
       //
       // Overall constraints
       //
@@ -0,0 +1,340 @@
+
+package org.micromanager.internal.utils;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
+
+/**
+ * Pool of direct (off-heap) byte buffers, shared by acquisition, storage and
+ * display.
+ *
+ * Allocating direct buffers is slow, and at high frame rates the memory they
+ * hold is only freed when the garbage collector happens to run, which can
+ * exhaust the direct memory limit. Buffers handed out by the pool are
+ * returned to it when their reference count drops to zero, and are then
+ * reused for requests in the same size class.
+ *
+ * There are two pools: getInstance() for staging buffers, such as those the
+ * TIFF writer fills with pixels and metadata, which are always released by
+ * their owner, and getImagePixelPool() for the pixels of images. Images are
+ * shared freely (by processors, storage, displays and event listeners), so
+ * nobody knows when the last of them is done with an image; the reference
+ * held by an image is instead released when its pixel buffer, and every view
+ * of it, has become unreachable (see acquireUntilUnreachable()).
+ */
+public final class DirectBufferPool {
+   // Buffers smaller than this are cheap to allocate and are not pooled
+   private static final int MIN_POOLED_CAPACITY = 64 * 1024;
+   // Pooled capacities are rounded up to a multiple of this
+   private static final int SIZE_CLASS_UNIT = 64 * 1024;
+   private static final long DEFAULT_MAX_IDLE_BYTES = Math.min(
+         256L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 8);
+
+   // Whether a view of a direct buffer (duplicate(), slice(),
+   // asShortBuffer(), ...) keeps the buffer it was made from reachable. This
+   // is so on Java 8. From Java 9 on, views refer only to the originally
+   // allocated buffer, which the pool keeps reachable itself, so the pool
+   // can't tell when the views of a buffer it handed out are gone.
+   private static final boolean VIEWS_KEEP_BUFFER_REACHABLE =
+         System.getProperty("java.specification.version", "").startsWith("1.");
+
+   private static final DirectBufferPool instance_ = new DirectBufferPool(
+         "Staging buffer pool", DEFAULT_MAX_IDLE_BYTES, false);
+   private static final DirectBufferPool imagePixelPool_ = new DirectBufferPool(
+         "Image pixel buffer pool", DEFAULT_MAX_IDLE_BYTES,
+         VIEWS_KEEP_BUFFER_REACHABLE);
+
+   /**
+    * A reference-counted buffer from the pool.
+    */
+   public static final class PooledBuffer {
+      private final ByteBuffer buffer_;
+      private final ByteBuffer pooled_; // Null if not pooled
+      private final Lease lease_; // Null if not pooled
+
+      private PooledBuffer(ByteBuffer buffer, ByteBuffer pooled, Lease lease) {
+         buffer_ = buffer;
+         pooled_ = pooled;
+         lease_ = lease;
+      }
+
+      /**
+       * Return the buffer, in native byte order, whose capacity is exactly
+       * the requested capacity. Its contents are undefined.
+       */
+      public ByteBuffer getBuffer() {
+         return buffer_;
+      }
+
+      /**
+       * Increment the reference count.
+       * @return this
+       */
+      public PooledBuffer retain() {
+         if (lease_ != null) {
+            lease_.pool_.retain(lease_);
+         }
+         return this;
+      }
+
+      /**
+       * Decrement the reference count, returning the buffer to the pool when
+       * it reaches zero. The buffer (and any views of it) must not be used
+       * after the last release.
+       */
+      public void release() {
+         if (lease_ != null) {
+            lease_.pool_.release(lease_, pooled_);
+         }
+      }
+   }
+
+   // Reference count of a buffer while it is handed out
+   private static final class Lease {
+      private final DirectBufferPool pool_;
+      private final int capacity_;
+      private int refCount_ = 1;
+
+      Lease(DirectBufferPool pool, ByteBuffer pooled) {
+         pool_ = pool;
+         capacity_ = pooled.capacity();
+      }
+   }
+
+   // A reference held by a buffer handed out by acquireUntilUnreachable(),
+   // released once the buffer is collected. Refers to the lease and the
+   // pooled buffer, but not to the buffer given out, which would then never
+   // become unreachable.
+   private static final class Unreachable extends PhantomReference<ByteBuffer> {
+      private final Lease lease_;
+      private final ByteBuffer pooled_;
+
+      Unreachable(PooledBuffer buffer, ReferenceQueue<ByteBuffer> queue) {
+         super(buffer.buffer_, queue);
+         lease_ = buffer.lease_;
+         pooled_ = buffer.pooled_;
+      }
+   }
+
+   private final String name_;
+   private final long maxIdleBytes_;
+   private final boolean tracksReachability_;
+   // Idle buffers by capacity, most recently returned first
+   private final Map<Integer, Deque<ByteBuffer>> idle_ =
+         new HashMap<Integer, Deque<ByteBuffer>>();
+   // Keeps the references waiting for their buffers to become unreachable
+   // reachable themselves
+   private final Set<Unreachable> unreachable_ = Collections.newSetFromMap(
+         new IdentityHashMap<Unreachable, Boolean>());
+   private final ReferenceQueue<ByteBuffer> collected_ =
+         new ReferenceQueue<ByteBuffer>();
+
+   private long idleBytes_ = 0;
+   private long outstandingBytes_ = 0;
+   private long requests_ = 0;
+   private long hits_ = 0;
+
+   /**
+    * @return the pool for staging buffers, which must always be released
+    */
+   public static DirectBufferPool getInstance() {
+      return instance_;
+   }
+
+   /**
+    * @return the pool for image pixels
+    */
+   public static DirectBufferPool getImagePixelPool() {
+      return imagePixelPool_;
+   }
+
+   DirectBufferPool(long maxIdleBytes) {
+      this("Buffer pool", maxIdleBytes, false);
+   }
+
+   DirectBufferPool(String name, long maxIdleBytes,
+         boolean tracksReachability) {
+      name_ = name;
+      maxIdleBytes_ = maxIdleBytes;
+      tracksReachability_ = tracksReachability;
+   }
+
+   /**
+    * Get a buffer of the given capacity.
+    * @param capacity the capacity in bytes
+    * @return a buffer with a reference count of 1
+    */
+   public PooledBuffer acquire(int capacity) {
+      if (capacity < MIN_POOLED_CAPACITY) {
+         return new PooledBuffer(
+               ByteBuffer.allocateDirect(capacity).order(
+                     DirectBuffers.NATIVE_ORDER), null, null);
+      }
+      int sizeClass = (capacity + SIZE_CLASS_UNIT - 1) /
+            SIZE_CLASS_UNIT * SIZE_CLASS_UNIT;
+
+      ByteBuffer pooled;
+      synchronized (this) {
+         ++requests_;
+         pooled = takeIdle(sizeClass);
+      }
+      if (pooled == null) {
+         pooled = allocate(sizeClass);
+      }
+
+      pooled.clear().limit(capacity);
+      ByteBuffer slice = pooled.slice().order(DirectBuffers.NATIVE_ORDER);
+      Lease lease = new Lease(this, pooled);
+      synchronized (this) {
+         outstandingBytes_ += sizeClass;
+      }
+      return new PooledBuffer(slice, pooled, lease);
+   }
+
+   /**
+    * Get a buffer of the given capacity for code that will not release it,
+    * such as an image. The buffer returns to the pool once it and every view
+    * of it have been garbage collected.
+    *
+    * If the pool can't tell when that is (see getImagePixelPool()), or the
+    * buffer is too small to pool, a new buffer is allocated instead.
+    * @param capacity the capacity in bytes
+    * @return a buffer in native byte order
+    */
+   public ByteBuffer acquireUntilUnreachable(int capacity) {
+      if (!tracksReachability_ || capacity < MIN_POOLED_CAPACITY) {
+         return ByteBuffer.allocateDirect(capacity).order(
+               DirectBuffers.NATIVE_ORDER);
+      }
+      PooledBuffer buffer = acquire(capacity);
+      synchronized (this) {
+         unreachable_.add(new Unreachable(buffer, collected_));
+      }
+      return buffer.getBuffer();
+   }
+
+   // Take an idle buffer of the given size class, if there is one. Caller
+   // must hold the monitor.
+   private ByteBuffer takeIdle(int sizeClass) {
+      releaseCollected();
+      Deque<ByteBuffer> deque = idle_.get(sizeClass);
+      ByteBuffer pooled = deque == null ? null : deque.pollFirst();
+      if (pooled != null) {
+         ++hits_;
+         idleBytes_ -= sizeClass;
+      }
+      return pooled;
+   }
+
+   // Release the references held by buffers that have been collected. Caller
+   // must hold the monitor.
+   private void releaseCollected() {
+      Reference<? extends ByteBuffer> ref;
+      while ((ref = collected_.poll()) != null) {
+         Unreachable unreachable = (Unreachable) ref;
+         unreachable_.remove(unreachable);
+         release(unreachable.lease_, unreachable.pooled_);
+      }
+   }
+
+   private ByteBuffer allocate(int capacity) {
+      try {
+         return ByteBuffer.allocateDirect(capacity);
+      }
+      catch (OutOfMemoryError e) {
+         synchronized (this) {
+            // allocateDirect() ran the garbage collector before giving up,
+            // which may have found buffers that we can reuse
+            ByteBuffer pooled = takeIdle(capacity);
+            if (pooled != null) {
+               return pooled;
+            }
+            // Give up our idle buffers (they will be freed by the garbage
+            // collector, which allocateDirect() triggers) and try once more
+            idle_.clear();
+            idleBytes_ = 0;
+         }
+         return ByteBuffer.allocateDirect(capacity);
+      }
+   }
+
+   private synchronized void retain(Lease lease) {
+      if (lease.refCount_ <= 0) {
+         throw new IllegalStateException("Pooled buffer already released");
+      }
+      ++lease.refCount_;
+   }
+
+   private synchronized void release(Lease lease, ByteBuffer pooled) {
+      if (lease.refCount_ <= 0) {
+         throw new IllegalStateException("Pooled buffer already released");
+      }
+      if (--lease.refCount_ > 0) {
+         return;
+      }
+      int capacity = lease.capacity_;
+      outstandingBytes_ -= capacity;
+      if (idleBytes_ + capacity > maxIdleBytes_) {
+         return; // Leave it to the garbage collector
+      }
+      Deque<ByteBuffer> deque = idle_.get(capacity);
+      if (deque == null) {
+         deque = new ArrayDeque<ByteBuffer>();
+         idle_.put(capacity, deque);
+      }
+      deque.addFirst(pooled);
+      idleBytes_ += capacity;
+   }
+
+   /**
+    * @return the fraction of pooled-size requests that reused a buffer
+    */
+   public synchronized double getHitRate() {
+      return requests_ == 0 ? 0.0 : (double) hits_ / requests_;
+   }
+
+   /**
+    * @return the number of bytes in buffers handed out and not yet returned
+    */
+   public synchronized long getOutstandingBytes() {
+      releaseCollected();
+      return outstandingBytes_;
+   }
+
+   /**
+    * @return the number of bytes in buffers waiting to be reused
+    */
+   public synchronized long getIdleBytes() {
+      releaseCollected();
+      return idleBytes_;
+   }
+
+   /**
+    * Sample the pool statistics into a performance monitor.
+    */
+   public void sampleTo(PerformanceMonitor perfMon) {
+      perfMon.sample(name_ + " hit rate (%)", 100.0 * getHitRate());
+      perfMon.sample(name_ + " outstanding (MB)",
+            getOutstandingBytes() / 1e6);
+      perfMon.sample(name_ + " idle (MB)", getIdleBytes() / 1e6);
+   }
+
+   @Override
+   public synchronized String toString() {
+      releaseCollected();
+      return String.format("%s: %d requests, %.1f%% reused; " +
+            "%.1f MB outstanding, %.1f MB idle", name_,
+            requests_, 100.0 * getHitRate(),
+            outstandingBytes_ / 1e6, idleBytes_ / 1e6);
+   }
+}
@@ -79,6 +79,54 @@ public final class DirectBuffers {
       return null;
    }
    
+   /**
+    * Copy a byte[], short[], or int[] array into a new direct buffer, in
+    * native byte order.
+    * @return the buffer, positioned at its start, or null if the array type
+    * is not supported
+    */
+   public static ByteBuffer nativeBytesFromArray(Object primitiveArray) {
+      return nativeBytesFromArray(primitiveArray, null);
+   }
+
+   /**
+    * Copy a byte[], short[], or int[] array into a direct buffer from a pool,
+    * in native byte order. The buffer returns to the pool once it and its
+    * views are unreachable (see DirectBufferPool.acquireUntilUnreachable()).
+    * @param pool the pool, or null to allocate a new buffer
+    * @return the buffer, positioned at its start, or null if the array type
+    * is not supported
+    */
+   public static ByteBuffer nativeBytesFromArray(Object primitiveArray,
+         DirectBufferPool pool) {
+      ByteBuffer bytes;
+      if (primitiveArray instanceof byte[]) {
+         byte[] array = (byte[]) primitiveArray;
+         bytes = allocateNative(array.length, pool);
+         bytes.put(array);
+      } else if (primitiveArray instanceof short[]) {
+         short[] array = (short[]) primitiveArray;
+         bytes = allocateNative(2 * array.length, pool);
+         bytes.asShortBuffer().put(array);
+      } else if (primitiveArray instanceof int[]) {
+         int[] array = (int[]) primitiveArray;
+         bytes = allocateNative(4 * array.length, pool);
+         bytes.asIntBuffer().put(array);
+      } else {
+         return null;
+      }
+      bytes.rewind();
+      return bytes;
+   }
+
+   private static ByteBuffer allocateNative(int capacity,
+         DirectBufferPool pool) {
+      if (pool == null) {
+         return ByteBuffer.allocateDirect(capacity).order(NATIVE_ORDER);
+      }
+      return pool.acquireUntilUnreachable(capacity);
+   }
+
    public static ByteBuffer bufferFromString(String string) {
       try {
          return bufferFromBytes(string.getBytes("UTF-8"));
@@ -0,0 +1,337 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Performance instrumentation
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2019
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.internal.utils.performance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the time at which each image passes each stage ("hop") of
+ * acquisition, processing and saving, so that the stage limiting the frame
+ * rate on a given setup can be found.
+ *
+ * Tracing is off unless the system property org.micromanager.latencytrace is
+ * set to a directory. Between begin() and finish(), the latency from each hop
+ * to the next is accumulated into a histogram per pair of hops, and sampled
+ * (together with queue depths) into a PerformanceMonitor. finish() writes all
+ * events as a CSV trace into the directory.
+ *
+ * Images are identified by a key, normally the image UUID (which processors
+ * usually preserve).
+ */
+public final class LatencyTracer {
+   private static final String SYSPROP = "org.micromanager.latencytrace";
+
+   private static final int MAX_EVENTS = 1000000;
+   private static final int MAX_TRACKED_IMAGES = 10000;
+   // Bin i counts latencies in [2^(i-1), 2^i) microseconds (bin 0: < 1 us)
+   private static final int HISTOGRAM_BIN_COUNT = 32;
+
+   private static final LatencyTracer instance_ =
+         new LatencyTracer(System.getProperty(SYSPROP));
+
+   private static final class Stamp {
+      private final String hop_;
+      private final long nanoTime_;
+
+      Stamp(String hop, long nanoTime) {
+         hop_ = hop;
+         nanoTime_ = nanoTime;
+      }
+   }
+
+   private static final class Event {
+      private final long nanoTime_;
+      private final boolean isQueueDepth_;
+      private final String name_;
+      private final Object key_;
+      private final double value_;
+
+      Event(long nanoTime, boolean isQueueDepth, String name, Object key,
+            double value) {
+         nanoTime_ = nanoTime;
+         isQueueDepth_ = isQueueDepth;
+         name_ = name;
+         key_ = key;
+         value_ = value;
+      }
+   }
+
+   /**
+    * Distribution of the latency between two hops.
+    */
+   public static final class Histogram {
+      private final long[] counts_ = new long[HISTOGRAM_BIN_COUNT];
+      private long count_;
+      private double sumMs_;
+      private double maxMs_;
+
+      private void add(long latencyNs) {
+         long us = Math.max(0, latencyNs / 1000);
+         int bin = Math.min(HISTOGRAM_BIN_COUNT - 1,
+               64 - Long.numberOfLeadingZeros(us));
+         ++counts_[bin];
+         ++count_;
+         double ms = latencyNs / 1e6;
+         sumMs_ += ms;
+         maxMs_ = Math.max(maxMs_, ms);
+      }
+
+      public long getCount() {
+         return count_;
+      }
+
+      public double getMeanMs() {
+         return count_ == 0 ? 0.0 : sumMs_ / count_;
+      }
+
+      public double getMaxMs() {
+         return maxMs_;
+      }
+
+      /**
+       * Return an upper bound for the given quantile, accurate to a factor
+       * of 2.
+       * @param q the quantile, between 0 and 1
+       */
+      public double getQuantileUpperBoundMs(double q) {
+         long target = (long) Math.ceil(q * count_);
+         long cumulative = 0;
+         for (int bin = 0; bin < HISTOGRAM_BIN_COUNT; ++bin) {
+            cumulative += counts_[bin];
+            if (cumulative >= target && cumulative > 0) {
+               return Math.min(maxMs_, (1L << bin) / 1000.0);
+            }
+         }
+         return maxMs_;
+      }
+   }
+
+   private final File traceDirectory_; // Null if disabled
+   private volatile boolean active_ = false;
+
+   // All guarded by monitor on this
+   private String name_;
+   private long startNs_;
+   private PerformanceMonitor perfMon_;
+   private final Map<Object, Stamp> lastStamps_ =
+         new LinkedHashMap<Object, Stamp>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Stamp> e) {
+               return size() > MAX_TRACKED_IMAGES;
+            }
+         };
+   private final Map<String, Histogram> histograms_ =
+         new LinkedHashMap<String, Histogram>();
+   private final List<Event> events_ = new ArrayList<Event>();
+   private boolean eventsTruncated_;
+
+   public static LatencyTracer getInstance() {
+      return instance_;
+   }
+
+   LatencyTracer(String traceDirectory) {
+      traceDirectory_ = traceDirectory == null || traceDirectory.isEmpty() ?
+            null : new File(traceDirectory);
+   }
+
+   public boolean isEnabled() {
+      return traceDirectory_ != null;
+   }
+
+   /**
+    * Start a new trace, discarding any previous one. Does nothing if tracing
+    * is not enabled.
+    * @param name name of the trace (e.g. the acquisition name)
+    */
+   public synchronized void begin(String name) {
+      if (!isEnabled()) {
+         return;
+      }
+      name_ = name;
+      startNs_ = System.nanoTime();
+      perfMon_ = PerformanceMonitor.createWithTimeConstantMs(1000.0);
+      lastStamps_.clear();
+      histograms_.clear();
+      events_.clear();
+      eventsTruncated_ = false;
+      active_ = true;
+   }
+
+   /**
+    * @return the performance monitor receiving the current trace's latencies
+    * and queue depths, or null if not tracing
+    */
+   public synchronized PerformanceMonitor getPerformanceMonitor() {
+      return active_ ? perfMon_ : null;
+   }
+
+   public boolean isActive() {
+      return active_;
+   }
+
+   /**
+    * Record that an image has reached the given hop now.
+    * @param hop the name of the hop
+    * @param key the identity of the image (normally its UUID); ignored if null
+    */
+   public void stamp(String hop, Object key) {
+      if (active_) {
+         stamp(hop, key, System.nanoTime());
+      }
+   }
+
+   /**
+    * Record that an image reached the given hop at the given time.
+    * @param nanoTime the time, from System.nanoTime()
+    */
+   public void stamp(String hop, Object key, long nanoTime) {
+      if (!active_ || key == null) {
+         return;
+      }
+      synchronized (this) {
+         Stamp previous = lastStamps_.put(key, new Stamp(hop, nanoTime));
+         double latencyMs = Double.NaN;
+         if (previous != null) {
+            long latencyNs = nanoTime - previous.nanoTime_;
+            latencyMs = latencyNs / 1e6;
+            String transition = previous.hop_ + " -> " + hop;
+            Histogram histogram = histograms_.get(transition);
+            if (histogram == null) {
+               histogram = new Histogram();
+               histograms_.put(transition, histogram);
+            }
+            histogram.add(latencyNs);
+            perfMon_.sample(transition + " (ms)", latencyMs);
+         }
+         addEvent(new Event(nanoTime, false, hop, key, latencyMs));
+      }
+   }
+
+   /**
+    * Record the number of images waiting in a queue.
+    */
+   public void sampleQueueDepth(String queue, int depth) {
+      if (!active_) {
+         return;
+      }
+      long nanoTime = System.nanoTime();
+      synchronized (this) {
+         perfMon_.sample(queue + " depth", depth);
+         addEvent(new Event(nanoTime, true, queue, null, depth));
+      }
+   }
+
+   private void addEvent(Event event) {
+      if (events_.size() < MAX_EVENTS) {
+         events_.add(event);
+      }
+      else {
+         eventsTruncated_ = true;
+      }
+   }
+
+   /**
+    * @return the latency histograms by pair of hops, in order of first
+    * occurrence
+    */
+   public synchronized Map<String, Histogram> getHistograms() {
+      return new LinkedHashMap<String, Histogram>(histograms_);
+   }
+
+   public synchronized String getSummary() {
+      StringBuilder sb = new StringBuilder();
+      for (Map.Entry<String, Histogram> e : histograms_.entrySet()) {
+         Histogram h = e.getValue();
+         sb.append(String.format("%s: %d images, mean %.2f ms, " +
+               "median < %.2f ms, 99%% < %.2f ms, max %.2f ms%n",
+               e.getKey(), h.getCount(), h.getMeanMs(),
+               h.getQuantileUpperBoundMs(0.5),
+               h.getQuantileUpperBoundMs(0.99), h.getMaxMs()));
+      }
+      if (eventsTruncated_) {
+         sb.append(String.format("(Trace truncated to %d events)%n",
+               MAX_EVENTS));
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Write the events of the trace as CSV. Each row is either a hop (with the
+    * latency since the image's previous hop, if any) or a queue depth.
+    */
+   synchronized void writeCSV(Writer writer) {
+      PrintWriter out = new PrintWriter(writer);
+      out.println("time_ms,type,name,image,value");
+      for (Event event : events_) {
+         out.printf("%.3f,%s,\"%s\",%s,%s%n",
+               (event.nanoTime_ - startNs_) / 1e6,
+               event.isQueueDepth_ ? "queue" : "hop",
+               event.name_.replace("\"", "\"\""),
+               event.key_ == null ? "" : event.key_,
+               Double.isNaN(event.value_) ? "" :
+                     event.isQueueDepth_ ? Long.toString((long) event.value_) :
+                     String.format("%.3f", event.value_));
+      }
+      out.flush();
+   }
+
+   /**
+    * End the current trace and write it to the trace directory.
+    * @return the file written, or null if not tracing
+    * @throws IOException if the trace could not be written
+    */
+   public synchronized File finish() throws IOException {
+      if (!active_) {
+         return null;
+      }
+      active_ = false;
+      String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(
+            new Date());
+      String name = name_ == null ? "" : name_.replaceAll("[^\\w.-]", "_");
+      if (!traceDirectory_.isDirectory() && !traceDirectory_.mkdirs()) {
+         throw new IOException("Cannot create directory " + traceDirectory_);
+      }
+      File file = new File(traceDirectory_,
+            (name.isEmpty() ? "" : name + "-") + "latency-" + timestamp +
+            ".csv");
+      Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+            StandardCharsets.UTF_8);
+      try {
+         writeCSV(writer);
+      }
+      finally {
+         writer.close();
+      }
+      lastStamps_.clear();
+      events_.clear();
+      return file;
+   }
+}
@@ -0,0 +1,135 @@
+package org.micromanager.data.internal;
+
+import ij.process.ImageProcessor;
+import java.lang.management.ManagementFactory;
+import java.nio.ShortBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pixel access of the three consumers of every frame of a live stream of
+ * 2048x2048 16-bit images: histogram statistics, the ImageJ display and the
+ * TIFF writer. "copying" has each of them copy the pixels into an array, as
+ * getRawPixels() used to do; "views" reads the statistics and file bytes
+ * from buffer views, and copies only for ImageJ, which may modify its array.
+ *
+ * Not a unit test (excluded from the test run). Run with
+ * {@code java -cp <test classpath> org.openjdk.jmh.Main PixelAccessBenchmark -prof gc}
+ * for allocation rates per operation; the main() method prints the heap
+ * allocated for a synthetic 100 fps stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PixelAccessBenchmark {
+   private static final int WIDTH = 2048;
+   private static final int HEIGHT = 2048;
+
+   private DefaultImage image_;
+
+   private static DefaultImage createImage(Random random) {
+      short[] pixels = new short[WIDTH * HEIGHT];
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = (short) random.nextInt(4096);
+      }
+      return new DefaultImage(pixels, WIDTH, HEIGHT, 2, 1,
+            new DefaultCoords.Builder().build(),
+            new DefaultMetadata.Builder().build());
+   }
+
+   @Setup
+   public void setUp() {
+      image_ = createImage(new Random(0));
+   }
+
+   private static long sum(short[] pixels) {
+      long sum = 0;
+      for (short pixel : pixels) {
+         sum += pixel & 0xffff;
+      }
+      return sum;
+   }
+
+   private static long sum(ShortBuffer pixels) {
+      long sum = 0;
+      while (pixels.hasRemaining()) {
+         sum += pixels.get() & 0xffff;
+      }
+      return sum;
+   }
+
+   static long consumeCopying(DefaultImage image) {
+      long stats = sum((short[]) image.getRawPixelsCopy());
+      ImageProcessor display =
+            DefaultImageJConverter.createProcessor(image, true);
+      short[] file = (short[]) image.getRawPixelsCopy();
+      return stats + display.getPixelCount() + file.length;
+   }
+
+   static long consumeViews(DefaultImage image) {
+      long stats = sum(image.getShortBufferView());
+      ImageProcessor display =
+            DefaultImageJConverter.createProcessor(image, true);
+      int file = image.getPixelBytesView().remaining();
+      return stats + display.getPixelCount() + file;
+   }
+
+   @Benchmark
+   public long copying() {
+      return consumeCopying(image_);
+   }
+
+   @Benchmark
+   public long views() {
+      return consumeViews(image_);
+   }
+
+   private static long allocatedBytes() {
+      return ((com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(
+                  Thread.currentThread().getId());
+   }
+
+   public static void main(String[] args) {
+      final int fps = 100;
+      final int seconds = 5;
+      DefaultImage[] frames = new DefaultImage[8];
+      Random random = new Random(0);
+      for (int i = 0; i < frames.length; ++i) {
+         frames[i] = createImage(random);
+      }
+      for (int copying = 1; copying >= 0; --copying) {
+         long check = 0;
+         // Warm up, then measure
+         for (int pass = 0; pass < 2; ++pass) {
+            long before = allocatedBytes();
+            for (int i = 0; i < fps * seconds; ++i) {
+               DefaultImage frame = frames[i % frames.length];
+               check += copying == 1 ? consumeCopying(frame) :
+                     consumeViews(frame);
+            }
+            if (pass == 1) {
+               long bytes = allocatedBytes() - before;
+               System.out.println(String.format(
+                     "%s: %.1f MB per frame, %.0f MB/s at %d fps (%d)",
+                     copying == 1 ? "copying" : "views",
+                     bytes / 1e6 / (fps * seconds), bytes / 1e6 / seconds,
+                     fps, check));
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,52 @@
+package org.micromanager.data.internal;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import mmcorej.TaggedImage;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TaggedImageTagsTest {
+   private static JsonElement viaString(TaggedImage tagged) {
+      return new JsonParser().parse(tagged.tags.toString());
+   }
+
+   @Test
+   public void testMatchesStringRoundTrip() throws Exception {
+      JSONObject inner = new JSONObject();
+      inner.put("x", 1.5);
+      inner.put("flag", true);
+      JSONObject tags = new JSONObject();
+      tags.put("Camera", "Camera-1");
+      tags.put("Width", 512);
+      tags.put("Height", 512L);
+      tags.put("PixelSizeUm", 1.0);
+      tags.put("Exposure-ms", 10.25);
+      tags.put("Huge", 1.0e20);
+      tags.put("Quote\"d", "back\\slash");
+      tags.put("Nested", inner);
+      tags.put("Keys", new JSONArray().put("a").put(2).put(JSONObject.NULL));
+      tags.put("Null", JSONObject.NULL);
+      TaggedImage tagged = new TaggedImage(new short[] {0}, tags);
+
+      JsonElement direct = TaggedImageTags.toGson(tagged);
+      JsonElement parsed = viaString(tagged);
+      assertEquals(parsed, direct);
+      for (String key : new String[] {"Width", "Height", "PixelSizeUm",
+            "Exposure-ms", "Huge"}) {
+         assertEquals(key,
+               parsed.getAsJsonObject().get(key).getAsString(),
+               direct.getAsJsonObject().get(key).getAsString());
+      }
+   }
+
+   @Test
+   public void testUnsupportedValueFallsBack() throws Exception {
+      JSONObject tags = new JSONObject();
+      tags.put("Odd", new StringBuilder("text"));
+      TaggedImage tagged = new TaggedImage(new byte[] {0}, tags);
+      assertEquals(viaString(tagged), TaggedImageTags.toGson(tagged));
+   }
+}
@@ -0,0 +1,102 @@
+package org.micromanager.data.internal.pipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.micromanager.data.Image;
+import org.micromanager.data.Pipeline;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+
+public class DefaultPipelineTest {
+   // Records the time points of the images put into it
+   private static class RecordingDatastore extends DefaultDatastore {
+      private final List<Integer> timePoints_ =
+            Collections.synchronizedList(new ArrayList<Integer>());
+
+      RecordingDatastore() {
+         super(null);
+      }
+
+      @Override
+      public void putImage(Image image) {
+         timePoints_.add(image.getCoords().getT());
+      }
+   }
+
+   // Outputs two images per input, after a random delay
+   private static class SlowStatelessProcessor extends Processor {
+      private final Random random_ = new Random(0);
+      private volatile boolean cleanedUp_ = false;
+
+      @Override
+      public void processImage(Image image, ProcessorContext context) {
+         int delayMs;
+         synchronized (random_) {
+            delayMs = random_.nextInt(10);
+         }
+         try {
+            Thread.sleep(delayMs);
+         }
+         catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         context.outputImage(image);
+         context.outputImage(image.copyAtCoords(
+               image.getCoords().copyBuilder().t(
+                     image.getCoords().getT() + 1000).build()));
+      }
+
+      @Override
+      public void cleanup(ProcessorContext context) {
+         cleanedUp_ = true;
+      }
+
+      @Override
+      public boolean isStateless() {
+         return true;
+      }
+   }
+
+   private static Image makeImage(int timePoint) {
+      return new DefaultImage(new byte[4], 2, 2, 1, 1,
+            new DefaultCoords.Builder().t(timePoint).build(),
+            new DefaultMetadata.Builder().build());
+   }
+
+   @Test
+   public void testParallelStagePreservesOrder() throws Exception {
+      RecordingDatastore store = new RecordingDatastore();
+      SlowStatelessProcessor processor = new SlowStatelessProcessor();
+      Pipeline pipeline = new DefaultPipeline(
+            Arrays.<Processor>asList(processor), store, false, 2, 4);
+      int count = 50;
+      for (int t = 0; t < count; ++t) {
+         pipeline.insertImage(makeImage(t));
+      }
+      pipeline.halt();
+      assertTrue(processor.cleanedUp_);
+
+      List<Integer> expected = new ArrayList<Integer>();
+      for (int t = 0; t < count; ++t) {
+         expected.add(t);
+         expected.add(t + 1000);
+      }
+      assertEquals(expected, store.timePoints_);
+
+      Pipeline.StageStatistics stats = pipeline.getStageStatistics().get(0);
+      assertEquals(4, stats.getNumberOfThreads());
+      assertEquals(2, stats.getQueueCapacity());
+      assertEquals(count, stats.getProcessedImageCount());
+      assertTrue(stats.getMeanLatencyMs() > 0.0);
+      assertTrue(pipeline.getExceptions().isEmpty());
+   }
+}
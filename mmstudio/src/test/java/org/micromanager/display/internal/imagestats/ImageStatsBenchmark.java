@@ -0,0 +1,92 @@
+package org.micromanager.display.internal.imagestats;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares IntegerStatsKernel with the general (ImgLib2 cursor) code in
+ * ImageStatsProcessor, for whole-image statistics of live-mode-like frames.
+ *
+ * Not a unit test (excluded from the test run); run with
+ * {@code java -cp <test classpath> org.openjdk.jmh.Main ImageStatsBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageStatsBenchmark {
+   @Param({"2048x2048x1", "2048x2048x2", "5120x5120x2", "2048x2048x4"})
+   public String format;
+
+   @Param({"true", "false"})
+   public boolean useKernel;
+
+   private ImageStatsProcessor processor_;
+   private ImageStatsRequest request_;
+
+   @Setup
+   public void setUp() {
+      String[] parts = format.split("x");
+      int width = Integer.parseInt(parts[0]);
+      int height = Integer.parseInt(parts[1]);
+      int bytesPerPixel = Integer.parseInt(parts[2]);
+      Random random = new Random(0);
+      Object pixels;
+      int numComponents = 1;
+      int bitDepth = 8;
+      if (bytesPerPixel == 2) {
+         short[] shorts = new short[width * height];
+         for (int i = 0; i < shorts.length; ++i) {
+            shorts[i] = (short) random.nextInt(4096);
+         }
+         pixels = shorts;
+         bitDepth = 12;
+      }
+      else {
+         byte[] bytes = new byte[width * height * bytesPerPixel];
+         random.nextBytes(bytes);
+         pixels = bytes;
+         numComponents = bytesPerPixel == 4 ? 3 : 1;
+      }
+      DefaultImage image = new DefaultImage(pixels, width, height, bytesPerPixel,
+            numComponents, new DefaultCoords.Builder().build(),
+            new DefaultMetadata.Builder().bitDepth(bitDepth).build());
+      // Make sure the cached pixel array is not part of the measurement
+      image.getSharedRawPixels();
+
+      processor_ = ImageStatsProcessor.create();
+      processor_.setUseKernel(useKernel);
+      request_ = ImageStatsRequest.create(new DefaultCoords.Builder().build(),
+            Collections.singletonList(image),
+            BoundsRectAndMask.unselected());
+   }
+
+   @TearDown
+   public void tearDown() {
+      processor_.shutdown();
+   }
+
+   @Benchmark
+   public ImagesAndStats process() throws InterruptedException {
+      return processor_.process(0, request_, false);
+   }
+}
@@ -0,0 +1,133 @@
+package org.micromanager.display.internal.imagestats;
+
+import java.awt.Rectangle;
+import java.util.Collections;
+import java.util.Random;
+import org.junit.After;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+
+public class ImageStatsProcessorTest {
+   private final ImageStatsProcessor processor_ = ImageStatsProcessor.create();
+
+   @After
+   public void tearDown() {
+      processor_.shutdown();
+   }
+
+   private static Image makeImage(Object pixels, int width, int height,
+         int bytesPerPixel, int numComponents, int bitDepth) {
+      return new DefaultImage(pixels, width, height, bytesPerPixel,
+            numComponents, new DefaultCoords.Builder().build(),
+            new DefaultMetadata.Builder().bitDepth(bitDepth).build());
+   }
+
+   private IntegerComponentStats compute(Image image, Rectangle roi,
+         boolean useKernel) throws Exception {
+      processor_.setUseKernel(useKernel);
+      ImageStatsRequest request = ImageStatsRequest.create(
+            new DefaultCoords.Builder().build(),
+            Collections.singletonList(image),
+            roi == null ? BoundsRectAndMask.unselected() :
+                  BoundsRectAndMask.create(roi, null));
+      return processor_.process(0, request, false).getResult().get(0).
+            getComponentStats(0);
+   }
+
+   private void assertSameStats(Image image, Rectangle roi) throws Exception {
+      IntegerComponentStats expected = compute(image, roi, false);
+      IntegerComponentStats actual = compute(image, roi, true);
+      assertArrayEquals(expected.getInRangeHistogram(),
+            actual.getInRangeHistogram());
+      assertEquals(expected.getPixelCountBelowRange(),
+            actual.getPixelCountBelowRange());
+      assertEquals(expected.getPixelCountAboveRange(),
+            actual.getPixelCountAboveRange());
+      assertEquals(expected.getHistogramBinWidth(),
+            actual.getHistogramBinWidth());
+      assertEquals(expected.getPixelCount(), actual.getPixelCount());
+      assertEquals(expected.isROIStats(), actual.isROIStats());
+      assertEquals(expected.getMinIntensity(), actual.getMinIntensity());
+      assertEquals(expected.getMaxIntensity(), actual.getMaxIntensity());
+      assertEquals(expected.getMeanIntensity(), actual.getMeanIntensity());
+      assertEquals(expected.getSumOfSquares(), actual.getSumOfSquares());
+   }
+
+   @Test
+   public void testKernelMatchesGeneral8Bit() throws Exception {
+      // Large enough to be split into strips
+      int width = 2048, height = 1500;
+      byte[] pixels = new byte[width * height];
+      new Random(1).nextBytes(pixels);
+      Image image = makeImage(pixels, width, height, 1, 1, 8);
+      assertSameStats(image, null);
+      assertSameStats(image, new Rectangle(17, 33, 1000, 1201));
+   }
+
+   @Test
+   public void testKernelMatchesGeneral16Bit() throws Exception {
+      int width = 1024, height = 2049;
+      short[] pixels = new short[width * height];
+      Random random = new Random(2);
+      for (int i = 0; i < pixels.length; ++i) {
+         // Include some values beyond the 12-bit range
+         pixels[i] = (short) random.nextInt(5000);
+      }
+      Image image = makeImage(pixels, width, height, 2, 1, 12);
+      assertSameStats(image, null);
+      assertSameStats(image, new Rectangle(1000, 5, 100, 2000));
+   }
+
+   @Test
+   public void testSampledStats() throws Exception {
+      int width = 10, height = 7, stride = 3;
+      byte[] pixels = new byte[width * height];
+      for (int y = 0; y < height; ++y) {
+         for (int x = 0; x < width; ++x) {
+            // Only pixels on the sampling grid are nonzero
+            pixels[y * width + x] = (byte) (x % stride == 0 &&
+                  y % stride == 0 ? 100 + x + y : 0);
+         }
+      }
+      Image image = makeImage(pixels, width, height, 1, 1, 8);
+      ImageStatsRequest request = ImageStatsRequest.create(
+            new DefaultCoords.Builder().build(),
+            Collections.singletonList(image),
+            BoundsRectAndMask.unselected()).copyWithSampleStride(stride);
+      IntegerComponentStats stats = processor_.process(0, request, false).
+            getResult().get(0).getComponentStats(0);
+      assertEquals(3 * 4, stats.getPixelCount());
+      assertEquals(100, stats.getMinIntensity());
+      assertEquals(100 + 9 + 6, stats.getMaxIntensity());
+   }
+
+   @Test
+   public void testRGB32Components() throws Exception {
+      int width = 3, height = 2;
+      byte[] pixels = new byte[width * height * 4];
+      for (int i = 0; i < width * height; ++i) {
+         pixels[4 * i] = (byte) (10 + i); // B
+         pixels[4 * i + 1] = (byte) (20 + i); // G
+         pixels[4 * i + 2] = (byte) (30 + i); // R
+         pixels[4 * i + 3] = (byte) 255;
+      }
+      Image image = makeImage(pixels, width, height, 4, 3, 8);
+      ImageStatsRequest request = ImageStatsRequest.create(
+            new DefaultCoords.Builder().build(),
+            Collections.singletonList(image),
+            BoundsRectAndMask.unselected());
+      ImageStats stats = processor_.process(0, request, false).getResult().
+            get(0);
+      long[] minima = { 30, 20, 10 };
+      for (int component = 0; component < 3; ++component) {
+         IntegerComponentStats cs = stats.getComponentStats(component);
+         assertEquals(6, cs.getPixelCount());
+         assertEquals(minima[component], cs.getMinIntensity());
+         assertEquals(minima[component] + 5, cs.getMaxIntensity());
+      }
+   }
+}
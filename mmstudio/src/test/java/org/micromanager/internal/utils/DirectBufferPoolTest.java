@@ -0,0 +1,82 @@
+package org.micromanager.internal.utils;
+
+import java.nio.ByteBuffer;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class DirectBufferPoolTest {
+   private static final int CAPACITY = 512 * 512 * 2;
+
+   @Test
+   public void testReleasedBufferIsReused() {
+      DirectBufferPool pool = new DirectBufferPool(16 * CAPACITY);
+      DirectBufferPool.PooledBuffer first = pool.acquire(CAPACITY);
+      assertEquals(CAPACITY, first.getBuffer().capacity());
+      assertTrue(first.getBuffer().isDirect());
+      assertEquals(CAPACITY, pool.getOutstandingBytes());
+
+      first.retain();
+      first.release();
+      assertEquals(CAPACITY, pool.getOutstandingBytes());
+      first.release();
+      assertEquals(0, pool.getOutstandingBytes());
+      assertEquals(CAPACITY, pool.getIdleBytes());
+
+      // A slightly smaller request falls in the same size class
+      DirectBufferPool.PooledBuffer second = pool.acquire(CAPACITY - 100);
+      assertEquals(CAPACITY - 100, second.getBuffer().capacity());
+      assertEquals(0.5, pool.getHitRate(), 0.0);
+      assertEquals(0, pool.getIdleBytes());
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void testDoubleReleaseThrows() {
+      DirectBufferPool pool = new DirectBufferPool(16 * CAPACITY);
+      DirectBufferPool.PooledBuffer buffer = pool.acquire(CAPACITY);
+      buffer.release();
+      buffer.release();
+   }
+
+   @Test
+   public void testIdleBytesAreLimited() {
+      DirectBufferPool pool = new DirectBufferPool(CAPACITY);
+      DirectBufferPool.PooledBuffer a = pool.acquire(CAPACITY);
+      DirectBufferPool.PooledBuffer b = pool.acquire(CAPACITY);
+      a.release();
+      b.release();
+      assertEquals(CAPACITY, pool.getIdleBytes());
+      assertEquals(0, pool.getOutstandingBytes());
+   }
+
+   @Test
+   public void testUnreachableBufferIsReused() throws InterruptedException {
+      DirectBufferPool pool = new DirectBufferPool("Test pool",
+            16 * CAPACITY, true);
+      short[] shorts = new short[CAPACITY / 2];
+      shorts[1] = -2;
+      ByteBuffer bytes = DirectBuffers.nativeBytesFromArray(shorts, pool);
+      assertEquals(CAPACITY, bytes.capacity());
+      assertEquals(-2, bytes.getShort(2));
+      assertEquals(CAPACITY, pool.getOutstandingBytes());
+
+      bytes = null;
+      for (int i = 0; i < 100 && pool.getOutstandingBytes() > 0; ++i) {
+         System.gc();
+         Thread.sleep(10);
+      }
+      assertEquals(0, pool.getOutstandingBytes());
+      assertEquals(CAPACITY, pool.getIdleBytes());
+
+      pool.acquireUntilUnreachable(CAPACITY);
+      assertEquals(0.5, pool.getHitRate(), 0.0);
+   }
+
+   @Test
+   public void testNativeBytesFromArray() {
+      short[] shorts = new short[] {1, -2, 3};
+      ByteBuffer bytes = DirectBuffers.nativeBytesFromArray(shorts);
+      assertEquals(0, bytes.position());
+      assertArrayEquals(shorts,
+            DirectBuffers.shortsFromBuffer(bytes.asShortBuffer()));
+   }
+}
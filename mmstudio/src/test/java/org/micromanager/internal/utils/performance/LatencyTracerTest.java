@@ -0,0 +1,62 @@
+package org.micromanager.internal.utils.performance;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LatencyTracerTest {
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
+   @Test
+   public void testDisabledTracerRecordsNothing() throws Exception {
+      LatencyTracer tracer = new LatencyTracer(null);
+      tracer.begin("test");
+      assertFalse(tracer.isActive());
+      tracer.stamp("A", "image");
+      assertTrue(tracer.getHistograms().isEmpty());
+      assertNull(tracer.finish());
+   }
+
+   @Test
+   public void testLatenciesAndTrace() throws Exception {
+      LatencyTracer tracer = new LatencyTracer(
+            folder.getRoot().getAbsolutePath());
+      tracer.begin("my acq");
+      assertTrue(tracer.isActive());
+      for (int i = 0; i < 10; ++i) {
+         long t = 1000000000L * i;
+         tracer.stamp("Camera", i, t);
+         tracer.stamp("Sink", i, t + 2000000); // 2 ms
+         tracer.stamp("Disk", i, t + 10000000); // 8 ms
+      }
+      tracer.sampleQueueDepth("Writing", 3);
+
+      Map<String, LatencyTracer.Histogram> histograms =
+            tracer.getHistograms();
+      assertEquals(2, histograms.size());
+      LatencyTracer.Histogram sink = histograms.get("Camera -> Sink");
+      assertEquals(10, sink.getCount());
+      assertEquals(2.0, sink.getMeanMs(), 1e-9);
+      assertEquals(8.0, histograms.get("Sink -> Disk").getMaxMs(), 1e-9);
+      // Within a factor of 2
+      double median = sink.getQuantileUpperBoundMs(0.5);
+      assertTrue(median >= 2.0 && median <= 4.0);
+
+      File file = tracer.finish();
+      assertFalse(tracer.isActive());
+      assertTrue(file.getName().startsWith("my_acq-latency-"));
+      List<String> lines = Files.readAllLines(file.toPath(),
+            StandardCharsets.UTF_8);
+      assertEquals(1 + 30 + 1, lines.size());
+      assertEquals("time_ms,type,name,image,value", lines.get(0));
+      assertTrue(lines.get(2).endsWith(",hop,\"Sink\",0,2.000"));
+      assertTrue(lines.get(31).endsWith(",queue,\"Writing\",,3"));
+   }
+}
@@ -52,6 +52,7 @@ import edu.ucsf.valelab.gaussianfit.datasettransformations.CoordinateMapper;
 import edu.ucsf.valelab.gaussianfit.spotoperations.NearestPoint2D;
 import edu.ucsf.valelab.gaussianfit.utils.DisplayUtils;
 import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
 import edu.ucsf.valelab.gaussianfit.fitting.ZCalibrator;
 import edu.ucsf.valelab.gaussianfit.data.LoadAndSave;
 import edu.ucsf.valelab.gaussianfit.spotoperations.SpotLinker;
@@ -406,6 +407,22 @@ public class DataCollectionForm extends JFrame {
       } );
    }
       
+   /**
+    * Replaces a dataset in the data table, for instance with a newer version
+    * of a dataset that is still growing.  The new dataset is added when the 
+    * old one is not in the table (anymore).
+    * Needs to be called on the EDT.
+    * @param oldRow dataset to be replaced, may be null
+    * @param newRow dataset taking its place
+    */
+   public void replaceSpotData(RowData oldRow, RowData newRow) {
+      if (oldRow != null && mainTableModel_.replaceRowData(oldRow, newRow)) {
+         return;
+      }
+      mainTableModel_.addRowData(newRow);
+      fireRowAdded();
+   }
+      
    public void fireRowAdded() {
       if (mainTable_.getRowSorter() != null) {
          mainTable_.getRowSorter().allRowsChanged();
@@ -2539,16 +2556,24 @@ public class DataCollectionForm extends JFrame {
       final int[] rows = mainTable_.getSelectedRowsSorted();
       for (int i = 0; i < rows.length; i++) {
          RowData rowData = mainTableModel_.getRow(rows[i]);
-         List<SpotData> filteredData = new ArrayList<SpotData>();
-         for (SpotData spot : rowData.spotList_) {
-            if (sf.filter(spot)) {
-               filteredData.add(new SpotData(spot));
+         boolean[] accepted = sf.filter(rowData.spotTable_);
+         int nrAccepted = 0;
+         for (boolean a : accepted) {
+            if (a) {
+               nrAccepted++;
+            }
+         }
+         int[] acceptedRows = new int[nrAccepted];
+         for (int s = 0, j = 0; s < accepted.length; s++) {
+            if (accepted[s]) {
+               acceptedRows[j++] = s;
             }
          }
+         SpotTable filteredData = rowData.spotTable_.select(acceptedRows);
          // Add transformed data to data overview window
          RowData.Builder builder = rowData.copy();
          builder.setName(rowData.getName() + "-Filtered").setMaxNrSpots(filteredData.size()).
-                 setSpotList(filteredData);
+                 setSpotTable(filteredData);
          addSpotData(builder);
       }
    }
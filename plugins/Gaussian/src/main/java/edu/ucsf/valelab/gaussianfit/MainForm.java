@@ -63,8 +63,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.IOException;
 import java.text.ParseException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -128,6 +127,7 @@ public class MainForm extends JFrame {
 
    // we are a singleton with only one window
    public static boolean WINDOWOPEN = false;
+   private static MainForm instance_ = null;
 
    private final Studio studio_;
    
@@ -182,8 +182,7 @@ public class MainForm extends JFrame {
    private JButton fitAllButton_;
    private JButton mTrackButton_;
    
-   private final int nrThreads_;
-   private final ExecutorService threadPool_;
+   private final ForkJoinPool threadPool_;
    
    private final SpotOverlay spotOverlay_;
 
@@ -196,12 +195,9 @@ public class MainForm extends JFrame {
    public MainForm(Studio studio) {
  
       studio_ = studio;
-      int nrThreads = ij.Prefs.getThreads();
-      if (nrThreads > 8) {
-         nrThreads = 8;
-      }
-      nrThreads_ = nrThreads;
-      threadPool_ = Executors.newFixedThreadPool(nrThreads_);
+      // spots are handed out to the fitting threads without locking, 
+      // so there is no point in limiting the number of threads
+      threadPool_ = new ForkJoinPool(ij.Prefs.getThreads());
 
       initComponents();
 
@@ -209,36 +205,40 @@ public class MainForm extends JFrame {
 
       UserProfile up = studio_.getUserProfile();
       Class oc = MainForm.class;
-      noiseToleranceTextField_.setText((up.getString(oc, NOISETOLERANCE, "100")));
-      photonConversionTextField_.setText(Double.toString(up.getDouble(oc, PCF, 10.41)));
-      emGainTextField_.setText(Double.toString(up.getDouble(oc, GAIN, 50.0)));
-      pixelSizeTextField_.setText(Double.toString(up.getDouble(oc, PIXELSIZE, 107.0)));
-      baseLevelTextField_.setText(Double.toString(up.getDouble(oc, BACKGROUNDLEVEL, 100.0)));
-      readNoiseTextField_.setText(Double.toString(up.getDouble(oc, READNOISE, 0.0)));
-      timeIntervalTextField_.setText(Double.toString(up.getDouble(oc, TIMEINTERVALMS, 1.0)));
-      zStepTextField_.setText(Double.toString(up.getDouble(oc, ZSTEPSIZE, 50.0)));
+      GaussianInfo saved = new GaussianInfo();
+      readFitSettings(up, saved);
+      noiseToleranceTextField_.setText(Integer.toString(saved.getNoiseTolerance()));
+      photonConversionTextField_.setText(Double.toString(saved.getPhotonConversionFactor()));
+      emGainTextField_.setText(Double.toString(saved.getGain()));
+      pixelSizeTextField_.setText(Float.toString(saved.getPixelSize()));
+      baseLevelTextField_.setText(Double.toString(saved.getBaseLevel()));
+      readNoiseTextField_.setText(Double.toString(saved.getReadNoise()));
+      timeIntervalTextField_.setText(Double.toString(saved.getTimeIntervalMs()));
+      zStepTextField_.setText(Float.toString(saved.getZStackStepSize()));
 
       pixelSizeTextField_.getDocument().addDocumentListener(new BackgroundCleaner(pixelSizeTextField_));
       emGainTextField_.getDocument().addDocumentListener(new BackgroundCleaner(emGainTextField_));
       timeIntervalTextField_.getDocument().addDocumentListener(new BackgroundCleaner(timeIntervalTextField_));
 
-      minSigmaTextField_.setText(Double.toString(up.getDouble(oc, SIGMAMIN, 100.0)));
-      maxSigmaTextField_.setText(Double.toString(up.getDouble(oc, SIGMAMAX, 200.0)));
-      minNrPhotonsTextField_.setText(Double.toString(up.getDouble(oc, NRPHOTONSMIN, 500.0)));
-      maxNrPhotonsTextField_.setText(Double.toString(up.getDouble(oc, NRPHOTONSMAX, 50000.0)));
-      filterDataCheckBoxNrPhotons_.setSelected(up.getBoolean(oc, USENRPHOTONSFILTER, false));
-      fitDimensionsComboBox1_.setSelectedIndex(up.getInt(oc, FITSHAPE, 1) - 1);
-      fitMethodComboBox1_.setSelectedIndex(up.getInt(oc, FITMODE, 0));
-      maxIterationsTextField_.setText(Integer.toString(up.getInt(oc, MAXITERATIONS, 250)));
+      minSigmaTextField_.setText(Double.toString(saved.getSigmaMin()));
+      maxSigmaTextField_.setText(Double.toString(saved.getSigmaMax()));
+      minNrPhotonsTextField_.setText(Double.toString(saved.getNrPhotonsMin()));
+      maxNrPhotonsTextField_.setText(Double.toString(saved.getNrPhotonsMax()));
+      filterDataCheckBoxNrPhotons_.setSelected(saved.getUseNrPhotonsFilter());
+      fitDimensionsComboBox1_.setSelectedIndex(saved.getShape() - 1);
+      fitMethodComboBox1_.setSelectedIndex(saved.getFitMode() - 1);
+      maxIterationsTextField_.setText(Integer.toString(saved.getMaxIterations()));
+      // the half box size loses odd box sizes
       boxSizeTextField.setText(Integer.toString(up.getInt(oc, BOXSIZE, 8)));
-      useFixedWidthInFit_.setSelected(up.getBoolean(oc, USEFIXEDWIDTH, false));
-      fixedWidthInFit_.setText(Double.toString(up.getDouble(oc, FIXEDWIDTH, 250.0)));
+      useFixedWidthInFit_.setSelected(saved.getUseFixedWidth());
+      fixedWidthInFit_.setText(Double.toString(saved.getFixedWidthNm()));
       fixedWidthInFit_.setEnabled(useFixedWidthInFit_.isSelected());
-      filterDataCheckBoxWidth_.setSelected(up.getBoolean(oc, USEFILTER, false));
+      filterDataCheckBoxWidth_.setSelected(saved.getUseWidthFilter());
       preFilterComboBox_.setSelectedIndex(up.getInt(oc, PREFILTER, 0));
-      endTrackCheckBox_.setSelected(up.getBoolean(oc, ENDTRACKBOOL, false));
-      endTrackSpinner_.setValue(up.getInt(oc, ENDTRACKINT, 0));
-      skipChannelsCheckBox_.setSelected(up.getBoolean(oc, SKIPCHANNELS, false));
+      endTrackCheckBox_.setSelected(saved.getEndTrackBool());
+      endTrackSpinner_.setValue(saved.getEndTrackAfterNFrames());
+      skipChannelsCheckBox_.setSelected(saved.getSkipChannels());
+      // the text is kept even when channels are not skipped
       channelsToSkip_.setText(up.getString(oc, CHANNELSKIPSTRING, ""));
 
       DocumentListener updateNoiseOverlay = new DocumentListener() {
@@ -278,6 +278,7 @@ public class MainForm extends JFrame {
       super.setLocation(up.getInt(oc, FRAMEXPOS, 100), up.getInt(oc, FRAMEYPOS, 100));
 
       super.setVisible(true);
+      instance_ = this;
    }
 
    private class BackgroundCleaner implements DocumentListener {
@@ -523,7 +524,8 @@ public class MainForm extends JFrame {
       
       fitMethodComboBox1_.setFont(gFont); 
       fitMethodComboBox1_.setModel(new DefaultComboBoxModel(
-              new String[] { "Simplex", "Levenberg-Marq", "Simplex-MLE", "LM-Weighted" }));
+              new String[] { "Simplex", "Levenberg-Marq", "Simplex-MLE", "LM-Weighted",
+                 "LM-Fast", "MLE-Fast" }));
       fitMethodComboBox1_.setMinimumSize(dropDownSize);    
       fitMethodComboBox1_.setMaximumSize(dropDownSize);
       getContentPane().add(fitMethodComboBox1_, "gapright push, wrap");
@@ -785,7 +787,6 @@ public class MainForm extends JFrame {
     private void fitAllButton_ActionPerformed(java.awt.event.ActionEvent evt) {
        if (ft_ == null || !ft_.isRunning()) {
           ft_ = new FitAllThread(studio_, 
-                  nrThreads_,
                   threadPool_,
                   preFilterType_, 
                   posTextField_.getText());
@@ -1117,6 +1118,85 @@ public class MainForm extends JFrame {
       }
    }
 
+   /**
+    * Copies the fit settings into the given GaussianInfo.  These are the
+    * values shown in the window when it is open, and the values saved when 
+    * it was last closed otherwise.
+    * 
+    * @param studio Instance of the Micro-Manager 2.0 api
+    * @param tT receives the settings
+    */
+   public static void getFitSettings(Studio studio, GaussianInfo tT) {
+      if (WINDOWOPEN && instance_ != null) {
+         instance_.updateValues(tT);
+         return;
+      }
+      readFitSettings(studio.getUserProfile(), tT);
+   }
+
+   /**
+    * Copies the fit settings saved in the user profile into the given
+    * GaussianInfo.  The window is filled with these values when it opens.
+    */
+   private static void readFitSettings(UserProfile up, GaussianInfo tT) {
+      Class oc = MainForm.class;
+      try {
+         tT.setNoiseTolerance(Integer.parseInt(up.getString(oc, NOISETOLERANCE, "100")));
+      } catch (NumberFormatException ex) {
+         tT.setNoiseTolerance(100);
+      }
+      tT.setPhotonConversionFactor(up.getDouble(oc, PCF, 10.41));
+      tT.setGain(up.getDouble(oc, GAIN, 50.0));
+      tT.setPixelSize(up.getDouble(oc, PIXELSIZE, 107.0).floatValue());
+      tT.setZStackStepSize(up.getDouble(oc, ZSTEPSIZE, 50.0).floatValue());
+      tT.setTimeIntervalMs(up.getDouble(oc, TIMEINTERVALMS, 1.0));
+      tT.setBaseLevel(up.getDouble(oc, BACKGROUNDLEVEL, 100.0));
+      tT.setReadNoise(up.getDouble(oc, READNOISE, 0.0));
+      tT.setUseWidthFilter(up.getBoolean(oc, USEFILTER, false));
+      tT.setSigmaMin(up.getDouble(oc, SIGMAMIN, 100.0));
+      tT.setSigmaMax(up.getDouble(oc, SIGMAMAX, 200.0));
+      tT.setUseNrPhotonsFilter(up.getBoolean(oc, USENRPHOTONSFILTER, false));
+      tT.setNrPhotonsMin(up.getDouble(oc, NRPHOTONSMIN, 500.0));
+      tT.setNrPhotonsMax(up.getDouble(oc, NRPHOTONSMAX, 50000.0));
+      tT.setMaxIterations(up.getInt(oc, MAXITERATIONS, 250));
+      tT.setHalfBoxSize(up.getInt(oc, BOXSIZE, 8) / 2);
+      tT.setShape(up.getInt(oc, FITSHAPE, 1));
+      tT.setFitMode(up.getInt(oc, FITMODE, 0) + 1);
+      tT.setUseFixedWidth(up.getBoolean(oc, USEFIXEDWIDTH, false));
+      tT.setFixedWidthNm(up.getDouble(oc, FIXEDWIDTH, 250.0));
+      tT.setEndTrackBool(up.getBoolean(oc, ENDTRACKBOOL, false));
+      tT.setEndTrackAfterNFrames(up.getInt(oc, ENDTRACKINT, 0));
+      tT.setSkipChannels(up.getBoolean(oc, SKIPCHANNELS, false));
+      if (tT.getSkipChannels()) {
+         try {
+            String[] parts = up.getString(oc, CHANNELSKIPSTRING, "").split(",");
+            int[] result = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+               result[i] = NumberUtils.displayStringToInt(parts[i]);
+            }
+            tT.setChannelsToSkip(result);
+         } catch (ParseException ex) {
+            tT.setSkipChannels(false);
+         }
+      }
+   }
+   
+   /**
+    * @param studio Instance of the Micro-Manager 2.0 api
+    * @return filter applied before looking for spots, as shown in the window
+    * when it is open, or as saved when it was last closed otherwise
+    */
+   public static FindLocalMaxima.FilterType getPreFilterType(Studio studio) {
+      if (WINDOWOPEN && instance_ != null) {
+         return instance_.preFilterType_;
+      }
+      if (studio.getUserProfile().getInt(MainForm.class, PREFILTER, 0) == 1) {
+         return FindLocalMaxima.FilterType.GAUSSIAN1_5;
+      }
+      return FindLocalMaxima.FilterType.NONE;
+   }
+
+
    public void updateValues(GaussianInfo tT) {
       try {
          tT.setNoiseTolerance(Integer.parseInt(noiseToleranceTextField_.getText()));
@@ -50,8 +50,6 @@ import java.awt.Rectangle;
  * @author nico
  */
 public class FindLocalMaxima {
-   private static final GaussianBlur FILTER = new GaussianBlur();
-   private static final ImageCalculator IMAGECALCULATOR = new ImageCalculator();
    
    public enum FilterType {
       NONE,
@@ -69,9 +67,23 @@ public class FindLocalMaxima {
     * @return Polygon with maxima 
     */
    public static Polygon FindMax(ImagePlus iPlus, int n, int threshold, FilterType filterType) {
+      return FindMax(iPlus.getProcessor(), n, threshold, filterType);
+   }
+   
+   /**
+    * Static utility function to find local maxima in the ROI of an 
+    * ImageProcessor.  Does not modify the processor, so it can be called
+    * from several threads at once, as long as each uses its own processor
+    * 
+    * @param iProc - ImageProcessor in which to look for local maxima
+    * @param n - minimum distance to other local maximum
+    * @param threshold - value below which a maximum will be rejected
+    * @param filterType - Prefilter the image.  Either none or Gaussian1_5
+    * @return Polygon with maxima 
+    */
+   public static Polygon FindMax(ImageProcessor iProc, int n, int threshold, FilterType filterType) {
       Polygon maxima = new Polygon();
 
-      ImageProcessor iProc = iPlus.getProcessor();
       Rectangle roi = iProc.getRoi();
       // HACK: need to figure out the underlying cause, but make it workable for now
       if (roi.height == 0 && roi.width ==0) {
@@ -84,11 +96,13 @@ public class FindLocalMaxima {
             // TODO: if there is an ROI, we only need to filter_ in the ROI
             ImageProcessor iProcG1 = iProc.duplicate();
             ImageProcessor iProcG5 = iProc.duplicate();
-            FILTER.blurGaussian(iProcG1, 0.4, 0.4, 0.01); 
-            FILTER.blurGaussian(iProcG5, 2.0, 2.0, 0.01);
+            // filter and calculator keep state, so they can not be shared between threads
+            GaussianBlur filter = new GaussianBlur();
+            filter.blurGaussian(iProcG1, 0.4, 0.4, 0.01); 
+            filter.blurGaussian(iProcG5, 2.0, 2.0, 0.01);
             ImagePlus p1 = new ImagePlus("G1", iProcG1);
             ImagePlus p5 = new ImagePlus("G5", iProcG5);
-            IMAGECALCULATOR.run("subtract", p1, p5);
+            new ImageCalculator().run("subtract", p1, p5);
             iProc = p1.getProcessor();
                       
             break;
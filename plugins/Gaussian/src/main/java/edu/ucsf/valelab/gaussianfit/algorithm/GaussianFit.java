@@ -33,6 +33,7 @@ package edu.ucsf.valelab.gaussianfit.algorithm;
 
 import edu.ucsf.valelab.gaussianfit.utils.GaussianUtils;
 import edu.ucsf.valelab.gaussianfit.fitting.MultiVariateGaussianFunction;
+import edu.ucsf.valelab.gaussianfit.fitting.GaussianLMFitter;
 import edu.ucsf.valelab.gaussianfit.fitting.MultiVariateGaussianMLE;
 import edu.ucsf.valelab.gaussianfit.fitting.ParametricGaussianFunction;
 import edu.ucsf.valelab.gaussianfit.utils.ReportingUtils;
@@ -90,6 +91,8 @@ public class GaussianFit {
    public static final int LEVENBERGMARQUARD = 2;
    public static final int NELDERMEADMLE = 3;
    public static final int LEVENBERGMARQUARDMLE = 4;
+   public static final int FASTLEVENBERGMARQUARD = 5;
+   public static final int FASTMLE = 6;
    public static final int CIRCLE = 1;
    public static final int ASYMMETRIC = 2;
    public static final int ELLIPSE = 3;
@@ -114,6 +117,7 @@ public class GaussianFit {
    MultiVariateGaussianMLE mGFMLE_;
    NonLinearConjugateGradientOptimizer nlcgo_;
    LevenbergMarquardtOptimizer lMO_;
+   GaussianLMFitter fastFitter_;
 
    
    /**
@@ -122,7 +126,8 @@ public class GaussianFit {
     * 
     * @param shape - fit circle (1) ellipse(2), or ellipse with varying angle (3)
     * @param fitMode - algorithm use: NelderMead (1), Levenberg Marquard (2), 
-    *                   NelderMean MLE (3), LevenberMarquard MLE(4)
+    *                   NelderMean MLE (3), LevenberMarquard MLE(4),
+    *                   GaussianLMFitter least squares (5) or MLE (6)
     * @param fixWidth - if true, do not fit the width
     * @param fixedWidth - width of the Gaussian in pixels
     */
@@ -169,6 +174,10 @@ public class GaussianFit {
          LMChecker lmChecker = new LMChecker();
          lMO_.setConvergenceChecker(lmChecker);
       }
+      // Levenberg-Marquardt with analytical derivatives, least squares or MLE
+      if (fitMode_ == FASTLEVENBERGMARQUARD || fitMode_ == FASTMLE) {
+         fastFitter_ = new GaussianLMFitter(shape_, fixedWidth_, fitMode_ == FASTMLE);
+      }
       if (fitMode_ == NELDERMEADMLE) {
          nm_ = new NelderMead();
          convergedChecker_ = new SimpleScalarValueChecker(1e-9,-1);
@@ -283,6 +292,15 @@ public class GaussianFit {
          }
       }
       
+      if (fitMode_ == FASTLEVENBERGMARQUARD || fitMode_ == FASTMLE) {
+         double[] result = fastFitter_.fit((short[]) siProc.getPixels(), 
+                 siProc.getWidth(), siProc.getHeight(), estimate.getParms(), 
+                 maxIterations);
+         if (result != null) {
+            paramsOut = result;
+         }
+      }
+      
       /*
        * not working very well....
       // gradient-MLE
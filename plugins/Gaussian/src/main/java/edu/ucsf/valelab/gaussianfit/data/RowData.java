@@ -37,6 +37,7 @@ import edu.ucsf.valelab.gaussianfit.DataCollectionForm.Coordinates;
 import edu.ucsf.valelab.gaussianfit.utils.ListUtils;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -65,6 +66,7 @@ public class RowData {
       private int nrPositions_ = 1;
       private long maxNrSpots_;
       private List<SpotData> spotList_;
+      private SpotTable spotTable_;
       private ArrayList<Double> timePoints_;
       private boolean isTrack_;
       private Coordinates coordinate_ = Coordinates.NM;
@@ -153,6 +155,13 @@ public class RowData {
 
       public Builder setSpotList(List<SpotData> spotList) {
          spotList_ = spotList;
+         spotTable_ = null;
+         return this;
+      }
+
+      public Builder setSpotTable(SpotTable spotTable) {
+         spotTable_ = spotTable;
+         spotList_ = null;
          return this;
       }
 
@@ -188,8 +197,16 @@ public class RowData {
 
    }
 
+   public final SpotTable spotTable_;  // spots, sorted by frame
+   /**
+    * Read-only view of spotTable_.  Every get (and every step of an iteration)
+    * builds a new SpotData, including its HashMap of key/values, so spots from
+    * this list can not be compared by identity, and loops over many spots
+    * should read spotTable_ instead.
+    */
    public final List<SpotData> spotList_;
    private Map<Integer, List<SpotData>> frameIndexSpotList_;
+   private Map<Integer, int[]> frameIndexRows_;
    private Map<ImageIndex, List<SpotData>> indexedSpotList_;
    public final ArrayList<Double> timePoints_;
    private String name_;             // name as it appears in the DataCollection table
@@ -237,7 +254,10 @@ public class RowData {
       nrSlices_ = b.nrSlices_;
       nrPositions_ = b.nrPositions_;
       maxNrSpots_ = b.maxNrSpots_;
-      spotList_ = new ArrayList<SpotData>(b.spotList_);
+      SpotTable spotTable = b.spotTable_ != null ? b.spotTable_ : 
+              SpotTable.fromList(b.spotList_);
+      spotTable_ = spotTable.sortedByFrame();
+      spotList_ = spotTable_.asList();
       if (b.timePoints_ != null) {
          timePoints_ = new ArrayList<Double>(b.timePoints_);
       } else {
@@ -261,13 +281,11 @@ public class RowData {
          stdX = stdPoint.x;
          stdY = stdPoint.y;
          std = Math.sqrt(stdX * stdX + stdY * stdY);
-         for (SpotData spot : spotList_) {
-            nrPhotons += spot.getIntensity();
-         }
          List<Integer> channelList = new ArrayList<Integer>();
-         for (SpotData spot : spotList_) {
-            if (!channelList.contains(spot.getChannel()) ) {
-               channelList.add(spot.getChannel());
+         for (int i = 0; i < spotTable_.size(); i++) {
+            nrPhotons += spotTable_.getIntensity(i);
+            if (!channelList.contains(spotTable_.getChannel(i)) ) {
+               channelList.add(spotTable_.getChannel(i));
             }
          }
          for (Integer i : channelList) {
@@ -293,7 +311,7 @@ public class RowData {
               setShape(shape_).setHalfSize(halfSize_).setNrChannels(nrChannels_).
               setNrFrames(nrFrames_).setNrSlices(nrSlices_).
               setNrPositions(nrPositions_).setMaxNrSpots(maxNrSpots_).
-              setSpotList(spotList_).setTimePoints(timePoints_).
+              setSpotTable(spotTable_).setTimePoints(timePoints_).
               setIsTrack(isTrack_).setCoordinate(coordinate_).setHasZ(hasZ_).
               setMinZ(minZ_).setMaxZ(maxZ_);
       return builder;
@@ -309,25 +327,56 @@ public class RowData {
          nr = nrFrames_;
       }
 
-      frameIndexSpotList_ = new HashMap<Integer, List<SpotData>>(nr);
-      indexedSpotList_ = new HashMap<ImageIndex, List<SpotData>>();
-
-      for (SpotData spot : spotList_) {
-         int frameIndex = spot.getSlice();
+      Map<Integer, RowGroup> frameRows = new HashMap<Integer, RowGroup>(nr);
+      for (int i = 0; i < spotTable_.size(); i++) {
+         int frameIndex = spotTable_.getSlice(i);
          if (useFrames) {
-            frameIndex = spot.getFrame();
+            frameIndex = spotTable_.getFrame(i);
          }
-         if (frameIndexSpotList_.get(frameIndex) == null) {
-            frameIndexSpotList_.put(frameIndex, new ArrayList<SpotData>());
-         }
-         frameIndexSpotList_.get(frameIndex).add(spot);
+         RowGroup.add(frameRows, frameIndex, i);
+      }
+      frameIndexRows_ = new HashMap<Integer, int[]>(frameRows.size());
+      frameIndexSpotList_ = new HashMap<Integer, List<SpotData>>(frameRows.size());
+      for (Map.Entry<Integer, RowGroup> entry : frameRows.entrySet()) {
+         int[] rows = entry.getValue().toArray();
+         frameIndexRows_.put(entry.getKey(), rows);
+         frameIndexSpotList_.put(entry.getKey(), spotTable_.asList(rows));
+      }
+
+      Map<ImageIndex, RowGroup> imageRows = new HashMap<ImageIndex, RowGroup>();
+      for (int i = 0; i < spotTable_.size(); i++) {
+         ImageIndex ii = new ImageIndex(spotTable_.getFrame(i), spotTable_.getSlice(i),
+                 spotTable_.getChannel(i), spotTable_.getPosition(i));
+         RowGroup.add(imageRows, ii, i);
+      }
+      indexedSpotList_ = new HashMap<ImageIndex, List<SpotData>>(imageRows.size());
+      for (Map.Entry<ImageIndex, RowGroup> entry : imageRows.entrySet()) {
+         indexedSpotList_.put(entry.getKey(),
+                 spotTable_.asList(entry.getValue().toArray()));
+      }
+   }
 
-         ImageIndex ii = new ImageIndex(spot.getFrame(), spot.getSlice(),
-                 spot.getChannel(), spot.getPosition());
-         if (indexedSpotList_.get(ii) == null) {
-            indexedSpotList_.put(ii, new ArrayList<SpotData>());
+   /**
+    * Growable list of row numbers, to group spots without boxing
+    */
+   private static class RowGroup {
+      private int[] rows_ = new int[8];
+      private int size_ = 0;
+
+      static <K> void add(Map<K, RowGroup> groups, K key, int row) {
+         RowGroup group = groups.get(key);
+         if (group == null) {
+            group = new RowGroup();
+            groups.put(key, group);
          }
-         indexedSpotList_.get(ii).add(spot);
+         if (group.size_ == group.rows_.length) {
+            group.rows_ = Arrays.copyOf(group.rows_, 2 * group.size_);
+         }
+         group.rows_[group.size_++] = row;
+      }
+
+      int[] toArray() {
+         return Arrays.copyOf(rows_, size_);
       }
    }
    
@@ -339,6 +388,21 @@ public class RowData {
    }
            
 
+   /**
+    * @return for each frame (or slice, if there are more slices than frames),
+    * the rows of its spots in spotTable_
+    */
+   public Map<Integer, int[]> getRowsIndexedByFrame() {
+      if (frameIndexRows_ == null) {
+         index();
+      }
+      return frameIndexRows_;
+   }
+
+   /**
+    * @return spots in the given image, or null if there are none.  Like 
+    * spotList_, this list builds a new SpotData on every get.
+    */
    public List<SpotData> get(int frame, int slice, int channel, int position) {
       ImageIndex ii = new ImageIndex(frame, slice, channel, position);
       if (indexedSpotList_ == null) {
@@ -348,9 +412,7 @@ public class RowData {
    }
 
    /**
-    * Return the first spot with desired properties or null if not found Uses
-    * brute force method (because I got null pointer exceptions using the
-    * indexes
+    * Return the first spot with desired properties or null if not found
     *
     * @param frame in which the desired spot is located
     * @param channel in which the desired spot is located
@@ -359,10 +421,10 @@ public class RowData {
     * @return desired spot or null if not found
     */
    public SpotData get(int frame, int channel, double xPos, double yPos) {
-      for (SpotData spot : spotList_) {
-         if (spot.getFrame() == frame && spot.getChannel() == channel
-                 && spot.getXCenter() == xPos && spot.getYCenter() == yPos) {
-            return spot;
+      for (int i = spotTable_.frameStart(frame); i < spotTable_.frameEnd(frame); i++) {
+         if (spotTable_.getChannel(i) == channel
+                 && spotTable_.getXCenter(i) == xPos && spotTable_.getYCenter(i) == yPos) {
+            return spotTable_.getSpot(i);
          }
       }
 
@@ -0,0 +1,617 @@
+/*
+Copyright (c) 2019, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.data;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Column oriented storage of spot data.
+ *
+ * Every field of SpotData is kept in a primitive array with one entry per
+ * spot, so that millions of spots take a fraction of the memory of as many
+ * SpotData objects and can be scanned without touching the heap.  Columns
+ * that hold the same value for every spot (often channel, slice, position,
+ * z and the original positions) are not stored at all.  Values that SpotData
+ * keeps under a key are stored in a column per key, with NaN for spots that
+ * do not have the key.  The image processors SpotData can cache are not
+ * stored.
+ *
+ * Tables are immutable, so derived tables can share the columns they do not
+ * change.  When spots are sorted by frame, the rows of each frame can be
+ * found directly.
+ *
+ * @author nico
+ */
+public final class SpotTable {
+
+   // integer columns
+   private static final int FRAME = 0;
+   private static final int CHANNEL = 1;
+   private static final int SLICE = 2;
+   private static final int POSITION = 3;
+   private static final int NR = 4;
+   private static final int X = 5;
+   private static final int Y = 6;
+   private static final int NRLINKS = 7;
+   private static final int ORIGINALFRAME = 8;
+   private static final int NR_INT_COLUMNS = 9;
+
+   // floating point columns
+   private static final int INTENSITY = 0;
+   private static final int BACKGROUND = 1;
+   private static final int XCENTER = 2;
+   private static final int YCENTER = 3;
+   private static final int ZCENTER = 4;
+   private static final int XORI = 5;
+   private static final int YORI = 6;
+   private static final int ZORI = 7;
+   private static final int WIDTH = 8;
+   private static final int A = 9;
+   private static final int THETA = 10;
+   private static final int SIGMA = 11;
+   private static final int NR_DOUBLE_COLUMNS = 12;
+
+   private final int size_;
+   // a column that is null has the value in the constants array for every spot
+   private final int[][] ints_;
+   private final int[] intConstants_;
+   private final double[][] doubles_;
+   private final double[] doubleConstants_;
+   // key/value columns, NaN for spots without the key
+   private final Map<String, double[]> values_;
+   // distinct frames in ascending order and the first row of each, followed
+   // by size_, or null when the spots are not sorted by frame
+   private final int[] frames_;
+   private final int[] frameStarts_;
+
+   private SpotTable(int size, int[][] ints, int[] intConstants,
+           double[][] doubles, double[] doubleConstants,
+           Map<String, double[]> values) {
+      size_ = size;
+      ints_ = ints;
+      intConstants_ = intConstants;
+      doubles_ = doubles;
+      doubleConstants_ = doubleConstants;
+      values_ = values;
+
+      // index the frames if the spots are sorted by them
+      int[] frames = ints_[FRAME];
+      int nrFrames = size_ > 0 ? 1 : 0;
+      boolean sorted = true;
+      for (int i = 1; i < size_ && sorted && frames != null; i++) {
+         if (frames[i] < frames[i - 1]) {
+            sorted = false;
+         } else if (frames[i] != frames[i - 1]) {
+            nrFrames++;
+         }
+      }
+      if (!sorted) {
+         frames_ = null;
+         frameStarts_ = null;
+      } else {
+         frames_ = new int[nrFrames];
+         frameStarts_ = new int[nrFrames + 1];
+         for (int i = 0, f = -1; i < size_; i++) {
+            int frame = getInt(FRAME, i);
+            if (f < 0 || frame != frames_[f]) {
+               f++;
+               frames_[f] = frame;
+               frameStarts_[f] = i;
+            }
+         }
+         frameStarts_[nrFrames] = size_;
+      }
+   }
+
+   /**
+    * Copies the given spots into a new table, or returns the table the list
+    * is a view of.
+    *
+    * @param spots - spots to be stored
+    * @return table holding the spots in the same order
+    */
+   public static SpotTable fromList(List<SpotData> spots) {
+      if (spots instanceof SpotList) {
+         return ((SpotList) spots).toTable();
+      }
+      Builder builder = new Builder(spots.size());
+      for (SpotData spot : spots) {
+         builder.add(spot);
+      }
+      return builder.build();
+   }
+
+   public int size() {
+      return size_;
+   }
+
+   private int getInt(int column, int row) {
+      int[] values = ints_[column];
+      return values == null ? intConstants_[column] : values[row];
+   }
+
+   private double getDouble(int column, int row) {
+      double[] values = doubles_[column];
+      return values == null ? doubleConstants_[column] : values[row];
+   }
+
+   public int getFrame(int row) {
+      return getInt(FRAME, row);
+   }
+   public int getChannel(int row) {
+      return getInt(CHANNEL, row);
+   }
+   public int getSlice(int row) {
+      return getInt(SLICE, row);
+   }
+   public int getPosition(int row) {
+      return getInt(POSITION, row);
+   }
+   public int getNr(int row) {
+      return getInt(NR, row);
+   }
+   public int getX(int row) {
+      return getInt(X, row);
+   }
+   public int getY(int row) {
+      return getInt(Y, row);
+   }
+   public int getNrLinks(int row) {
+      return getInt(NRLINKS, row);
+   }
+   public int getOriginalFrame(int row) {
+      return getInt(ORIGINALFRAME, row);
+   }
+   public double getIntensity(int row) {
+      return getDouble(INTENSITY, row);
+   }
+   public double getBackground(int row) {
+      return getDouble(BACKGROUND, row);
+   }
+   public double getXCenter(int row) {
+      return getDouble(XCENTER, row);
+   }
+   public double getYCenter(int row) {
+      return getDouble(YCENTER, row);
+   }
+   public double getZCenter(int row) {
+      return getDouble(ZCENTER, row);
+   }
+   public double getXOri(int row) {
+      return getDouble(XORI, row);
+   }
+   public double getYOri(int row) {
+      return getDouble(YORI, row);
+   }
+   public double getZOri(int row) {
+      return getDouble(ZORI, row);
+   }
+   public double getWidth(int row) {
+      return getDouble(WIDTH, row);
+   }
+   public double getA(int row) {
+      return getDouble(A, row);
+   }
+   public double getTheta(int row) {
+      return getDouble(THETA, row);
+   }
+   public double getSigma(int row) {
+      return getDouble(SIGMA, row);
+   }
+
+   public Set<String> getKeys() {
+      return values_.keySet();
+   }
+
+   /**
+    * Returns the column of values stored under the given key, which must not
+    * be modified.
+    *
+    * @param key - as used in SpotData.addKeyValue
+    * @return value of each spot, NaN for spots without the key, or null if
+    * no spot has the key
+    */
+   public double[] getValues(String key) {
+      return values_.get(key);
+   }
+
+   /**
+    * Assembles a SpotData object with all the data of the spot in the given row.
+    * Changes to it do not affect the table.
+    *
+    * @param row - index of the spot
+    * @return new SpotData
+    */
+   public SpotData getSpot(int row) {
+      SpotData spot = new SpotData(null, getChannel(row), getSlice(row),
+              getFrame(row), getPosition(row), getNr(row), getX(row), getY(row));
+      spot.setData(getIntensity(row), getBackground(row), getXCenter(row),
+              getYCenter(row), getZCenter(row), getWidth(row), getA(row),
+              getTheta(row), getSigma(row));
+      spot.setZCenter(getZCenter(row));
+      spot.setOriginalPosition(getXOri(row), getYOri(row), getZOri(row));
+      spot.nrLinks_ = getNrLinks(row);
+      spot.originalFrame_ = getOriginalFrame(row);
+      for (Map.Entry<String, double[]> entry : values_.entrySet()) {
+         double value = entry.getValue()[row];
+         if (!Double.isNaN(value)) {
+            spot.addKeyValue(entry.getKey(), value);
+         }
+      }
+      return spot;
+   }
+
+   /**
+    * @return read-only list of all spots in the table.  Spots are assembled
+    * as they are accessed.
+    */
+   public List<SpotData> asList() {
+      return new SpotList(this, null);
+   }
+
+   /**
+    * @param rows - indices of the spots to include, in the desired order
+    * @return read-only list of the spots in the given rows
+    */
+   public List<SpotData> asList(int[] rows) {
+      return new SpotList(this, rows);
+   }
+
+   /**
+    * Creates a new table with the spots in the given rows, in the order given.
+    *
+    * @param rows - indices of the spots to include
+    * @return new table
+    */
+   public SpotTable select(int[] rows) {
+      int[][] ints = new int[NR_INT_COLUMNS][];
+      for (int c = 0; c < NR_INT_COLUMNS; c++) {
+         if (ints_[c] != null) {
+            ints[c] = new int[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+               ints[c][i] = ints_[c][rows[i]];
+            }
+         }
+      }
+      double[][] doubles = new double[NR_DOUBLE_COLUMNS][];
+      for (int c = 0; c < NR_DOUBLE_COLUMNS; c++) {
+         if (doubles_[c] != null) {
+            doubles[c] = select(doubles_[c], rows);
+         }
+      }
+      Map<String, double[]> values = new LinkedHashMap<String, double[]>();
+      for (Map.Entry<String, double[]> entry : values_.entrySet()) {
+         values.put(entry.getKey(), select(entry.getValue(), rows));
+      }
+      return compact(rows.length, ints, intConstants_.clone(), doubles,
+              doubleConstants_.clone(), values);
+   }
+
+   private static double[] select(double[] column, int[] rows) {
+      double[] selected = new double[rows.length];
+      for (int i = 0; i < rows.length; i++) {
+         selected[i] = column[rows[i]];
+      }
+      return selected;
+   }
+
+   /**
+    * Creates a new table with different x and y centers, that shares all other
+    * data with this one.
+    *
+    * @param xCenters - new x center of each spot, not to be modified afterwards
+    * @param yCenters - new y center of each spot, not to be modified afterwards
+    * @return new table
+    */
+   public SpotTable withXYCenters(double[] xCenters, double[] yCenters) {
+      if (xCenters.length != size_ || yCenters.length != size_) {
+         throw new IllegalArgumentException("Need one x and y center for each spot");
+      }
+      double[][] doubles = doubles_.clone();
+      doubles[XCENTER] = xCenters;
+      doubles[YCENTER] = yCenters;
+      return new SpotTable(size_, ints_, intConstants_, doubles,
+              doubleConstants_, values_);
+   }
+
+   /**
+    * @return true if the spots are sorted by frame, so that the rows of
+    * each frame can be looked up
+    */
+   public boolean isSortedByFrame() {
+      return frames_ != null;
+   }
+
+   /**
+    * Returns a table with the spots sorted by frame.  The order of spots
+    * within a frame is kept.
+    *
+    * @return this table if it is already sorted, a sorted copy otherwise
+    */
+   public SpotTable sortedByFrame() {
+      if (isSortedByFrame()) {
+         return this;
+      }
+      // frame in the high bits, row in the low ones keeps the sort stable
+      long[] keys = new long[size_];
+      for (int i = 0; i < size_; i++) {
+         keys[i] = ((long) getFrame(i) << 32) | i;
+      }
+      Arrays.sort(keys);
+      int[] rows = new int[size_];
+      for (int i = 0; i < size_; i++) {
+         rows[i] = (int) keys[i];
+      }
+      return select(rows);
+   }
+
+   /**
+    * @return all frames that have spots, in ascending order
+    */
+   public int[] getFrames() {
+      checkSortedByFrame();
+      return frames_.clone();
+   }
+
+   /**
+    * @param frame - frame number
+    * @return index of the first spot in the given frame.  If there are no
+    * spots in the frame, the same as frameEnd
+    */
+   public int frameStart(int frame) {
+      checkSortedByFrame();
+      int f = Arrays.binarySearch(frames_, frame);
+      return f >= 0 ? frameStarts_[f] : frameStarts_[-f - 1];
+   }
+
+   /**
+    * @param frame - frame number
+    * @return index after the last spot in the given frame
+    */
+   public int frameEnd(int frame) {
+      checkSortedByFrame();
+      int f = Arrays.binarySearch(frames_, frame);
+      return f >= 0 ? frameStarts_[f + 1] : frameStarts_[-f - 1];
+   }
+
+   private void checkSortedByFrame() {
+      if (!isSortedByFrame()) {
+         throw new IllegalStateException("Spots are not sorted by frame");
+      }
+   }
+
+   /**
+    * Drops columns that have the same value in every row, and key/value
+    * columns without any values.
+    */
+   private static SpotTable compact(int size, int[][] ints, int[] intConstants,
+           double[][] doubles, double[] doubleConstants, Map<String, double[]> values) {
+      for (int c = 0; c < ints.length; c++) {
+         int[] column = ints[c];
+         if (column == null) {
+            continue;
+         }
+         boolean constant = true;
+         for (int i = 1; i < size && constant; i++) {
+            constant = column[i] == column[0];
+         }
+         if (constant) {
+            intConstants[c] = size > 0 ? column[0] : 0;
+            ints[c] = null;
+         } else if (column.length != size) {
+            ints[c] = Arrays.copyOf(column, size);
+         }
+      }
+      for (int c = 0; c < doubles.length; c++) {
+         double[] column = doubles[c];
+         if (column == null) {
+            continue;
+         }
+         boolean constant = true;
+         for (int i = 1; i < size && constant; i++) {
+            constant = Double.doubleToLongBits(column[i]) == Double.doubleToLongBits(column[0]);
+         }
+         if (constant) {
+            doubleConstants[c] = size > 0 ? column[0] : 0.0;
+            doubles[c] = null;
+         } else if (column.length != size) {
+            doubles[c] = Arrays.copyOf(column, size);
+         }
+      }
+      Map<String, double[]> compactValues = new LinkedHashMap<String, double[]>();
+      for (Map.Entry<String, double[]> entry : values.entrySet()) {
+         double[] column = entry.getValue();
+         boolean empty = true;
+         for (int i = 0; i < size && empty; i++) {
+            empty = Double.isNaN(column[i]);
+         }
+         if (!empty) {
+            compactValues.put(entry.getKey(),
+                    column.length == size ? column : Arrays.copyOf(column, size));
+         }
+      }
+      return new SpotTable(size, ints, intConstants, doubles, doubleConstants,
+              compactValues);
+   }
+
+   /**
+    * Appends spots to a new table
+    */
+   public static class Builder {
+
+      private int size_ = 0;
+      private int capacity_;
+      private final int[][] ints_ = new int[NR_INT_COLUMNS][];
+      private final double[][] doubles_ = new double[NR_DOUBLE_COLUMNS][];
+      private final Map<String, double[]> values_ = new LinkedHashMap<String, double[]>();
+
+      /**
+       * @param capacity - expected number of spots, tables grow beyond this
+       * as needed
+       */
+      public Builder(int capacity) {
+         capacity_ = Math.max(capacity, 16);
+         for (int c = 0; c < NR_INT_COLUMNS; c++) {
+            ints_[c] = new int[capacity_];
+         }
+         for (int c = 0; c < NR_DOUBLE_COLUMNS; c++) {
+            doubles_[c] = new double[capacity_];
+         }
+      }
+
+      private void ensureCapacity() {
+         if (size_ < capacity_) {
+            return;
+         }
+         int newCapacity = capacity_ + (capacity_ >> 1);
+         for (int c = 0; c < NR_INT_COLUMNS; c++) {
+            ints_[c] = Arrays.copyOf(ints_[c], newCapacity);
+         }
+         for (int c = 0; c < NR_DOUBLE_COLUMNS; c++) {
+            doubles_[c] = Arrays.copyOf(doubles_[c], newCapacity);
+         }
+         for (Map.Entry<String, double[]> entry : values_.entrySet()) {
+            double[] column = Arrays.copyOf(entry.getValue(), newCapacity);
+            Arrays.fill(column, capacity_, newCapacity, Double.NaN);
+            entry.setValue(column);
+         }
+         capacity_ = newCapacity;
+      }
+
+      private double[] valueColumn(String key) {
+         double[] column = values_.get(key);
+         if (column == null) {
+            column = new double[capacity_];
+            Arrays.fill(column, Double.NaN);
+            values_.put(key, column);
+         }
+         return column;
+      }
+
+      public Builder add(SpotData spot) {
+         ensureCapacity();
+         int i = size_;
+         ints_[FRAME][i] = spot.getFrame();
+         ints_[CHANNEL][i] = spot.getChannel();
+         ints_[SLICE][i] = spot.getSlice();
+         ints_[POSITION][i] = spot.getPosition();
+         ints_[NR][i] = spot.getNr();
+         ints_[X][i] = spot.getX();
+         ints_[Y][i] = spot.getY();
+         ints_[NRLINKS][i] = spot.nrLinks_;
+         ints_[ORIGINALFRAME][i] = spot.originalFrame_;
+         doubles_[INTENSITY][i] = spot.getIntensity();
+         doubles_[BACKGROUND][i] = spot.getBackground();
+         doubles_[XCENTER][i] = spot.getXCenter();
+         doubles_[YCENTER][i] = spot.getYCenter();
+         doubles_[ZCENTER][i] = spot.getZCenter();
+         doubles_[XORI][i] = spot.getXOri();
+         doubles_[YORI][i] = spot.geYOri();
+         doubles_[ZORI][i] = spot.getZOri();
+         doubles_[WIDTH][i] = spot.getWidth();
+         doubles_[A][i] = spot.getA();
+         doubles_[THETA][i] = spot.getTheta();
+         doubles_[SIGMA][i] = spot.getSigma();
+         for (String key : spot.getKeys()) {
+            valueColumn(key)[i] = spot.getValue(key);
+         }
+         size_++;
+         return this;
+      }
+
+      /**
+       * Copies a spot from another table
+       *
+       * @param table - table holding the spot
+       * @param row - index of the spot in the table
+       * @return this builder
+       */
+      public Builder add(SpotTable table, int row) {
+         ensureCapacity();
+         int i = size_;
+         for (int c = 0; c < NR_INT_COLUMNS; c++) {
+            ints_[c][i] = table.getInt(c, row);
+         }
+         for (int c = 0; c < NR_DOUBLE_COLUMNS; c++) {
+            doubles_[c][i] = table.getDouble(c, row);
+         }
+         for (Map.Entry<String, double[]> entry : table.values_.entrySet()) {
+            valueColumn(entry.getKey())[i] = entry.getValue()[row];
+         }
+         size_++;
+         return this;
+      }
+
+      public int size() {
+         return size_;
+      }
+
+      public SpotTable build() {
+         return compact(size_, ints_.clone(), new int[NR_INT_COLUMNS],
+                 doubles_.clone(), new double[NR_DOUBLE_COLUMNS], values_);
+      }
+   }
+
+   /**
+    * List view of the spots in a table
+    */
+   private static final class SpotList extends AbstractList<SpotData>
+           implements RandomAccess {
+
+      private final SpotTable table_;
+      private final int[] rows_; // null for all rows in order
+
+      SpotList(SpotTable table, int[] rows) {
+         table_ = table;
+         rows_ = rows;
+      }
+
+      @Override
+      public SpotData get(int index) {
+         return table_.getSpot(rows_ == null ? index : rows_[index]);
+      }
+
+      @Override
+      public int size() {
+         return rows_ == null ? table_.size() : rows_.length;
+      }
+
+      SpotTable toTable() {
+         return rows_ == null ? table_ : table_.select(rows_);
+      }
+   }
+
+}
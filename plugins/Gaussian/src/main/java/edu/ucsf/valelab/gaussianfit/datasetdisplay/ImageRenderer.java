@@ -33,7 +33,7 @@ either expressed or implied, of the FreeBSD Project.
 package edu.ucsf.valelab.gaussianfit.datasetdisplay;
 
 import edu.ucsf.valelab.gaussianfit.datasettransformations.SpotDataFilter;
-import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
 import edu.ucsf.valelab.gaussianfit.utils.GaussianUtils;
 import edu.ucsf.valelab.gaussianfit.data.RowData;
 import ij.ImageStack;
@@ -92,6 +92,8 @@ public class ImageRenderer {
       int endy = rect.y + rect.height;
       final int size = width * height;
       double factor = magnification / rowData.pixelSizeNm_;
+      final SpotTable spots = rowData.spotTable_;
+      final boolean[] accepted = sf.filter(spots);
 
 
       try {
@@ -100,10 +102,10 @@ public class ImageRenderer {
                ip = new ShortProcessor(width, height);
                short pixels[] = new short[size];
                ip.setPixels(pixels);
-               for (SpotData spot : rowData.spotList_) {
-                  if (sf.filter(spot)) {
-                     int x = (int) (factor * spot.getXCenter());
-                     int y = (int) (factor * spot.getYCenter());
+               for (int i = 0; i < spots.size(); i++) {
+                  if (accepted[i]) {
+                     int x = (int) (factor * spots.getXCenter(i));
+                     int y = (int) (factor * spots.getYCenter(i));
                      if (x > rect.x && x < endx && y > rect.y && y < endy) {
                         x -= rect.x;
                         y -= rect.y;
@@ -124,16 +126,16 @@ public class ImageRenderer {
                   sp[i].setPixels(pixels[i]);
                }
                double spread = rowData.maxZ_ - rowData.minZ_;
-               for (SpotData spot : rowData.spotList_) {
-                  if (sf.filter(spot)) {
-                     int x = (int) (factor * spot.getXCenter());
-                     int y = (int) (factor * spot.getYCenter());
+               for (int s = 0; s < spots.size(); s++) {
+                  if (accepted[s]) {
+                     int x = (int) (factor * spots.getXCenter(s));
+                     int y = (int) (factor * spots.getYCenter(s));
                      if (x > rect.x && x < endx && y > rect.y && y < endy) {
                         x -= rect.x;
                         y -= rect.y;
                         int index = (y * width) + x;
                         if (index < size && index > 0) {
-                           int zIndex = (int) (256 * (spot.getZCenter() - rowData.minZ_) / spread);
+                           int zIndex = (int) (256 * (spots.getZCenter(s) - rowData.minZ_) / spread);
                            if (zIndex < 0) {
                               zIndex = 0;
                            }
@@ -184,20 +186,20 @@ public class ImageRenderer {
             ip.setPixels(pixels);
 
             ij.IJ.showStatus("Rendering Image...");
-            int updateQuantum = rowData.spotList_.size() / 100;
+            int updateQuantum = spots.size() / 100;
             int counter = 0;
             int spotsUsed = 0;
-            for (SpotData spot : rowData.spotList_) {
+            for (int s = 0; s < spots.size(); s++) {
                if (counter % updateQuantum == 0) {
-                  ij.IJ.showProgress(counter, rowData.spotList_.size());
+                  ij.IJ.showProgress(counter, spots.size());
                }
 
 
-               if (sf.filter(spot)) {
+               if (accepted[s]) {
 
 
                   // cover 3 * precision
-                  int halfWidth = (int) (2 * spot.getSigma() / renderedPixelInNm);
+                  int halfWidth = (int) (2 * spots.getSigma(s) / renderedPixelInNm);
                   if (halfWidth == 0) {
                      halfWidth = 2;
                   }
@@ -211,8 +213,8 @@ public class ImageRenderer {
                    * sig = params[S]
                    * 
                    */
-                  int xc = (int) (factor * spot.getXCenter());
-                  int yc = (int) (factor * spot.getYCenter());
+                  int xc = (int) (factor * spots.getXCenter(s));
+                  int yc = (int) (factor * spots.getYCenter(s));
                   //int xc = (int) Math.round(spot.getXCenter() / renderedPixelInNm);
                   //int yc = (int) Math.round(spot.getYCenter() / renderedPixelInNm);
 
@@ -230,12 +232,12 @@ public class ImageRenderer {
                         int yStart = yc - halfWidth;
                         int yEnd = yc + halfWidth;
                         float[][] boxPixels = new float[xEnd - xStart][yEnd - yStart];
+                        double[] parms = {1.0, 0.0,
+                           spots.getXCenter(s) / renderedPixelInNm,
+                           spots.getYCenter(s) / renderedPixelInNm,
+                           spots.getSigma(s) / renderedPixelInNm};
                         for (int x = xStart; x < xEnd; x++) {
                            for (int y = yStart; y < yEnd; y++) {
-                              double[] parms = {1.0, 0.0,
-                                 spot.getXCenter() / renderedPixelInNm,
-                                 spot.getYCenter() / renderedPixelInNm,
-                                 spot.getSigma() / renderedPixelInNm};
                               double val = GaussianUtils.gaussian(parms, x, y);
                               totalInt += val;
                               if (normalize) {
@@ -345,11 +347,13 @@ public class ImageRenderer {
             is.addSlice(ip[i]);
          }
 
-         for (SpotData spot : rowData.spotList_) {
-            if (sf.filter(spot)) {
-               int x = (int) (factor * spot.getXCenter());
-               int y = (int) (factor * spot.getYCenter());
-               int z = (int) (factor * (spot.getZCenter() - rowData.minZ_) * 500.0);
+         final SpotTable spots = rowData.spotTable_;
+         final boolean[] accepted = sf.filter(spots);
+         for (int s = 0; s < spots.size(); s++) {
+            if (accepted[s]) {
+               int x = (int) (factor * spots.getXCenter(s));
+               int y = (int) (factor * spots.getYCenter(s));
+               int z = (int) (factor * (spots.getZCenter(s) - rowData.minZ_) * 500.0);
                if (x > rect.x && x < endx && y > rect.y && y < endy) {
                   x -= rect.x;
                   y -= rect.y;
@@ -30,11 +30,14 @@ import edu.ucsf.valelab.gaussianfit.DataCollectionForm;
 import edu.ucsf.valelab.gaussianfit.ResultsTableListener;
 import edu.ucsf.valelab.gaussianfit.Terms;
 import edu.ucsf.valelab.gaussianfit.data.GsSpotPair;
+import edu.ucsf.valelab.gaussianfit.data.RowData;
 import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
 import edu.ucsf.valelab.gaussianfit.fitting.FittingException;
 import edu.ucsf.valelab.gaussianfit.fitting.Gaussian1DFitter;
 import edu.ucsf.valelab.gaussianfit.fitting.P2DEcdfFitter;
 import edu.ucsf.valelab.gaussianfit.fitting.P2DFitter;
+import edu.ucsf.valelab.gaussianfit.spotoperations.ChannelPairFinder;
 import edu.ucsf.valelab.gaussianfit.spotoperations.NearestPoint2D;
 import edu.ucsf.valelab.gaussianfit.spotoperations.NearestPointByData;
 import edu.ucsf.valelab.gaussianfit.utils.GaussianUtils;
@@ -238,85 +241,40 @@ public class ParticlePairLister {
                Map<Integer, ArrayList<ArrayList<GsSpotPair>>> spotPairsByFrame
                        = new HashMap<Integer, ArrayList<ArrayList<GsSpotPair>>>();
 
-               // index spots by position
-               Map<Integer, ArrayList<SpotData>> spotListsByPosition = new HashMap<Integer, ArrayList<SpotData>>();
-               // and keep track of the positions that are actually used
+               final RowData rowData = dc.getSpotData(row);
+               final SpotTable spots = rowData.spotTable_;
+               // keep track of the positions that are actually used
                List<Integer> positions = new ArrayList<Integer>();
-               for (SpotData spot : dc.getSpotData(row).spotList_) {
-                  if (positions.indexOf(spot.getPosition()) == -1) {
-                     positions.add(spot.getPosition());
+               for (int i = 0; i < spots.size(); i++) {
+                  if (positions.indexOf(spots.getPosition(i)) == -1) {
+                     positions.add(spots.getPosition(i));
                   }
-                  if (spotListsByPosition.get(spot.getPosition()) == null) {
-                     spotListsByPosition.put(spot.getPosition(), new ArrayList<SpotData>());
-                  }
-                  spotListsByPosition.get(spot.getPosition()).add(spot);
                }
                Collections.sort(positions);
-               final int maxPos = positions.get(positions.size() - 1);
-
-               // First go through all frames to find all pairs, organize by position
                for (int pos : positions) {
                   spotPairsByFrame.put(pos, new ArrayList<ArrayList<GsSpotPair>>());
-
-                  for (int frame = 1; frame <= dc.getSpotData(row).nrFrames_; frame++) {
-                     
-                     ij.IJ.showProgress(pos * dc.getSpotData(row).nrFrames_ + frame, 
-                             maxPos * dc.getSpotData(row).nrFrames_);
-
+                  for (int frame = 1; frame <= rowData.nrFrames_; frame++) {
                      spotPairsByFrame.get(pos).add(new ArrayList<GsSpotPair>());
+                  }
+               }
 
-                     // Get points from both channels as ArrayLists   
-                     ArrayList<SpotData> gsCh1 = new ArrayList<SpotData>();
-                     ArrayList<SpotData> gsCh2 = new ArrayList<SpotData>();
-                     ArrayList<Point2D.Double> xyPointsCh2 = new ArrayList<Point2D.Double>();
-                     for (SpotData gs : spotListsByPosition.get(pos)) {
-                        if (gs.getFrame() == frame) {
-                           if (gs.getChannel() == 1) {
-                              gsCh1.add(gs);
-                           } else if (gs.getChannel() == 2) {
-                              gsCh2.add(gs);
-                              Point2D.Double point = new Point2D.Double(
-                                      gs.getXCenter(), gs.getYCenter());
-                              xyPointsCh2.add(point);
-                           }
-                        }
-                     }
-
-                     if (xyPointsCh2.isEmpty()) {
-                        //MMStudio.getInstance().alerts().postAlert("No points found error", null,
-                        //        "Pairs function in Localization plugin: no points found in second channel in frame "
-                        //        + frame);
-                        continue;
-                     }
-
-                     // Find matching points in the two ArrayLists
-                     Iterator it2 = gsCh1.iterator();
-                     NearestPoint2D np = new NearestPoint2D(xyPointsCh2, maxDistanceNm_);
-                     while (it2.hasNext()) {
-                        SpotData ch1Spot = (SpotData) it2.next();
-                        Point2D.Double pCh1 = new Point2D.Double(
-                                ch1Spot.getXCenter(), ch1Spot.getYCenter());
-                        Point2D.Double pCh2 = np.findKDWSE(pCh1);
-                        if (pCh2 != null) {
-                           // find this point in the ch2 spot list
-                           SpotData ch2Spot = null;
-                           for (int i = 0; i < gsCh2.size() && ch2Spot == null; i++) {
-                              if (pCh2.x == gsCh2.get(i).getXCenter()
-                                      && pCh2.y == gsCh2.get(i).getYCenter()) {
-                                 ch2Spot = gsCh2.get(i);
-                              }
-                           }
-                           if (ch2Spot != null) {
-                              GsSpotPair pair = new GsSpotPair(ch1Spot, ch2Spot, pCh1, pCh2);
-                              spotPairsByFrame.get(pos).get(frame - 1).add(pair);
-                           } else {
-                              // this should never happen!
-                              System.out.println("Failed to find spot");
-                           }
-                        }
-                     }
+               // First go through all frames to find all pairs, organize by position
+               ChannelPairFinder.FramePairs[] pairsByFrame = 
+                       ChannelPairFinder.findPairs(spots, rowData.nrFrames_, maxDistanceNm_);
+               for (int frame = 1; frame <= rowData.nrFrames_; frame++) {
+                  ij.IJ.showProgress(frame, rowData.nrFrames_);
+                  ChannelPairFinder.FramePairs pairs = pairsByFrame[frame - 1];
+                  for (int i = 0; i < pairs.size(); i++) {
+                     SpotData ch1Spot = spots.getSpot(pairs.ch1Rows_[i]);
+                     SpotData ch2Spot = spots.getSpot(pairs.ch2Rows_[i]);
+                     Point2D.Double pCh1 = new Point2D.Double(
+                             ch1Spot.getXCenter(), ch1Spot.getYCenter());
+                     Point2D.Double pCh2 = new Point2D.Double(
+                             ch2Spot.getXCenter(), ch2Spot.getYCenter());
+                     GsSpotPair pair = new GsSpotPair(ch1Spot, ch2Spot, pCh1, pCh2);
+                     spotPairsByFrame.get(ch1Spot.getPosition()).get(frame - 1).add(pair);
                   }
-               } // end of for (int pos : positions)
+               }
 
                if (showPairs_ ) {
                   ResultsTable pairTable = new ResultsTable();
@@ -31,16 +31,12 @@ package edu.ucsf.valelab.gaussianfit.datasettransformations;
 
 import edu.ucsf.valelab.gaussianfit.DataCollectionForm;
 import edu.ucsf.valelab.gaussianfit.data.RowData;
-import edu.ucsf.valelab.gaussianfit.data.SpotData;
-import edu.ucsf.valelab.gaussianfit.spotoperations.NearestPoint2D;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
+import edu.ucsf.valelab.gaussianfit.spotoperations.ChannelPairFinder;
 import edu.ucsf.valelab.gaussianfit.utils.ListUtils;
 import edu.ucsf.valelab.gaussianfit.utils.ReportingUtils;
-import java.awt.geom.Point2D;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -98,106 +94,50 @@ public class PairFilter {
          @Override
          public void run() {
             try {
-               List<SpotData> correctedData = new ArrayList<SpotData>();
+               final SpotTable spots = rowData.spotTable_;
+               ChannelPairFinder.FramePairs[] pairsByFrame = 
+                       ChannelPairFinder.findPairs(spots, rowData.nrFrames_, maxDistance);
+               SpotTable.Builder correctedData = new SpotTable.Builder(spots.size());
 
                for (int frame = 1; frame <= rowData.nrFrames_; frame++) {
                   ij.IJ.showProgress(frame, rowData.nrFrames_);
+                  ChannelPairFinder.FramePairs pairs = pairsByFrame[frame - 1];
 
-                  // Get points from both channels in each frame as ArrayLists 
-                  // split channel 1 into the nrQuadrants
-                  Map<Integer, List<SpotData>> gsCh1 = new HashMap<Integer, List<SpotData>>(nrQuadrants);
+                  // split the pairs over the quadrants, by their channel 1 spot
+                  List<List<Integer>> pairsByQuadrant = new ArrayList<List<Integer>>(nrQuadrants);
                   for (int q = 0; q < nrQuadrants; q++) {
-                     gsCh1.put(q, new ArrayList<SpotData>());
+                     pairsByQuadrant.add(new ArrayList<Integer>());
                   }
-                  // index channel 2 by position
-                  ArrayList<List<Point2D.Double>> xyPointsCh2 = 
-                          new ArrayList<List<Point2D.Double>>(rowData.nrPositions_);
-                  ArrayList<List<SpotData>> xySpotsCh2 = 
-                          new ArrayList<List<SpotData>>(rowData.nrPositions_);
-                  for (int position = 1; position <= rowData.nrPositions_; position++) {
-                     xyPointsCh2.add(position - 1, new ArrayList<Point2D.Double>());
-                     xySpotsCh2.add(position - 1, new ArrayList<SpotData>());
-                  }
-
-                  for (SpotData gs : rowData.spotList_) {
-                     if (gs.getFrame() == frame) {
-                        if (gs.getChannel() == 1) {
-                           int yOffset = (int) Math.floor(gs.getYCenter() / qSize);
-                           int xOffset = (int) Math.floor(gs.getXCenter() / qSize);
-                           int q = yOffset * sqrtNrQuadrants + xOffset;
-                           if (q >= 0 && q < nrQuadrants) {
-                              gsCh1.get(q).add(gs);
-                           }
-                        } else if (gs.getChannel() == 2) {
-                           xySpotsCh2.get(gs.getPosition() - 1).add(gs);
-                           Point2D.Double point = new Point2D.Double(gs.getXCenter(), gs.getYCenter());
-                           xyPointsCh2.get(gs.getPosition() - 1).add(point);
-                        }
+                  for (int i = 0; i < pairs.size(); i++) {
+                     int gs = pairs.ch1Rows_[i];
+                     int yOffset = (int) Math.floor(spots.getYCenter(gs) / qSize);
+                     int xOffset = (int) Math.floor(spots.getXCenter(gs) / qSize);
+                     int q = yOffset * sqrtNrQuadrants + xOffset;
+                     if (q >= 0 && q < nrQuadrants) {
+                        pairsByQuadrant.get(q).add(i);
                      }
                   }
 
-                  if (xyPointsCh2.isEmpty()) {
-                     ReportingUtils.logError("Pairs function in Localization plugin: no points found in second channel in frame " + frame);
-                     continue;
-                  }
-
-                  // we have the points of channel 1 in each quadrant
-                  // find each matching partner, and do statistics on each quadrant
+                  // do statistics on each quadrant
                   // only keep pairs that match what was requested
-                  
-                  // First set up the nearestPoint maps for all positions
-                  List<NearestPoint2D> npsByPosition = new ArrayList<NearestPoint2D>(rowData.nrPositions_);
-                  for (int position = 1; position <= rowData.nrPositions_; position++) {
-                     npsByPosition.add(position - 1, new NearestPoint2D(xyPointsCh2.get(position - 1), maxDistance));
-                  }
                   for (int q = 0; q < nrQuadrants; q++) {
-                     ij.IJ.showProgress( (q+1) * frame, (nrQuadrants + 1) * rowData.nrFrames_);
-                     // Find matching points in the two ArrayLists
-                     Iterator it2 = gsCh1.get(q).iterator();
-                     ArrayList<Double> distances = new ArrayList<Double>();
-                     ArrayList<Double> orientations = new ArrayList<Double>();
-
-                     while (it2.hasNext()) {
-                        SpotData gs = (SpotData) it2.next();
-                        Point2D.Double pCh1 = new Point2D.Double(gs.getXCenter(), gs.getYCenter());
-                        Point2D.Double pCh2 = npsByPosition.get(gs.getPosition() - 1).findKDWSE(pCh1);
-                        if (pCh2 != null) {
-                           double d2 = NearestPoint2D.distance2(pCh1, pCh2);
-                           double d = Math.sqrt(d2);
-                           distances.add(d);
-                           orientations.add(NearestPoint2D.orientation(pCh1, pCh2));
-                        }
+                     List<Integer> quadrantPairs = pairsByQuadrant.get(q);
+                     ArrayList<Double> distances = new ArrayList<Double>(quadrantPairs.size());
+                     for (int i : quadrantPairs) {
+                        distances.add(distance(spots, pairs.ch1Rows_[i], pairs.ch2Rows_[i]));
                      }
                      double distAvg = ListUtils.listAvg(distances);
                      double distStd = ListUtils.listStdDev(distances, distAvg);
-                     double orientationAvg = ListUtils.listAvg(orientations);
-                     double orientationStd = ListUtils.listStdDev(orientations,
-                             orientationAvg);
 
                      // now repeat going through the list and apply the criteria
-                     it2 = gsCh1.get(q).iterator();
-                     while (it2.hasNext()) {
-                        SpotData gs = (SpotData) it2.next();
-                        Point2D.Double pCh1 = new Point2D.Double(gs.getXCenter(), gs.getYCenter());
-                        Point2D.Double pCh2 = npsByPosition.get(gs.getPosition() - 1).findKDWSE(pCh1);
-                        if (pCh2 != null) {
-                           double d2 = NearestPoint2D.distance2(pCh1, pCh2);
-                           double d = Math.sqrt(d2);
-                           // we can possibly add the same criterium for orientation
-                           if (d > distAvg - deviationMax * distStd
-                                   && d < distAvg + deviationMax * distStd) {
-                              correctedData.add(gs);
-                              // we have to find the matching spot in channel 2!
-                              for (SpotData gsCh2 : xySpotsCh2.get(gs.getPosition() - 1)) {
-                                 if (gsCh2.getFrame() == frame) {
-                                    if (gsCh2.getChannel() == 2) {
-                                       if (gsCh2.getXCenter() == pCh2.x && gsCh2.getYCenter() == pCh2.y) {
-                                          correctedData.add(gsCh2);
-                                       }
-                                    }
-                                 }
-                              }
-                           }
+                     for (int j = 0; j < distances.size(); j++) {
+                        int i = quadrantPairs.get(j);
+                        double d = distances.get(j);
+                        // we can possibly add the same criterium for orientation
+                        if (d > distAvg - deviationMax * distStd
+                                && d < distAvg + deviationMax * distStd) {
+                           correctedData.add(spots, pairs.ch1Rows_[i]);
+                           correctedData.add(spots, pairs.ch2Rows_[i]);
                         }
                      }
                   }
@@ -206,7 +146,7 @@ public class PairFilter {
                // Add transformed data to data overview window
                RowData.Builder builder = rowData.copy();
                builder.setName(rowData.getName() + "-Pair-Corrected").
-                       setSpotList(correctedData);
+                       setSpotTable(correctedData.build());
                DataCollectionForm.getInstance().addSpotData(builder);
 
                ij.IJ.showStatus("Finished pair correction");
@@ -226,4 +166,10 @@ public class PairFilter {
       }
    }
 
+   private static double distance(SpotTable spots, int row1, int row2) {
+      double x = spots.getXCenter(row1) - spots.getXCenter(row2);
+      double y = spots.getYCenter(row1) - spots.getYCenter(row2);
+      return Math.sqrt(x * x + y * y);
+   }
+
 }
@@ -30,6 +30,8 @@ either expressed or implied, of the FreeBSD Project.
 package edu.ucsf.valelab.gaussianfit.datasettransformations;
 
 import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -121,6 +123,44 @@ public class SpotDataFilter {
       return true;
    }
    
+   /**
+    * Applies the filter to all spots in a table at once
+    * 
+    * @param table - spots to be tested
+    * @return for each row of the table, true if the spot is acceptable
+    */
+   public boolean[] filter(SpotTable table) {
+      boolean[] accepted = new boolean[table.size()];
+      Arrays.fill(accepted, true);
+      if (useSigma_) {
+         reject(table.getValues(SpotData.Keys.INTEGRALSIGMA), sigmaMin_, sigmaMax_, accepted);
+      }
+      if (useIntensity_) {
+         reject(table.getValues(SpotData.Keys.APERTUREINTENSITY), 
+                 intensityMin_, intensityMax_, accepted);
+      }
+      for (Map.Entry<String, Extremes> entry : itemFilter_.entrySet()) {
+         reject(table.getValues(entry.getKey()), entry.getValue().minimum_, 
+                 entry.getValue().maximum_, accepted);
+      }
+      return accepted;
+   }
    
+   /**
+    * Rejects spots whose value is outside of min and max.  As in 
+    * filter(SpotData), spots without the value are not rejected
+    */
+   private static void reject(double[] values, double min, double max, 
+           boolean[] accepted) {
+      if (values == null) {
+         return;
+      }
+      for (int i = 0; i < values.length; i++) {
+         // comparisons with NaN are false, so spots without values pass
+         if (values[i] < min || values[i] > max) {
+            accepted[i] = false;
+         }
+      }
+   }
    
 }
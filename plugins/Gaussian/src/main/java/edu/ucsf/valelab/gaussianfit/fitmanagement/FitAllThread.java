@@ -40,7 +40,6 @@ package edu.ucsf.valelab.gaussianfit.fitmanagement;
 
 import edu.ucsf.valelab.gaussianfit.DataCollectionForm;
 import edu.ucsf.valelab.gaussianfit.algorithm.FindLocalMaxima;
-import edu.ucsf.valelab.gaussianfit.utils.ProgressThread;
 import edu.ucsf.valelab.gaussianfit.data.GaussianInfo;
 import edu.ucsf.valelab.gaussianfit.data.RowData;
 import edu.ucsf.valelab.gaussianfit.data.SpotData;
@@ -48,7 +47,6 @@ import edu.ucsf.valelab.gaussianfit.fitting.ZCalibrator;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.gui.Roi;
-import ij.plugin.frame.RoiManager;
 import ij.process.ImageProcessor;
 import java.awt.Polygon;
 import java.text.DecimalFormat;
@@ -56,16 +54,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.concurrent.LinkedBlockingQueue;
 import edu.ucsf.valelab.gaussianfit.utils.ReportingUtils;
 import ij.ImageStack;
 import ij.plugin.HyperStackConverter;
 import ij.process.ShortProcessor;
 import java.io.IOException;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.micromanager.Studio;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Coords.CoordsBuilder;
@@ -79,25 +76,23 @@ import org.micromanager.display.DisplayWindow;
 public class FitAllThread extends GaussianInfo implements Runnable  {
    double[] params0_;
    double[] steps_ = new double[5];
-   GaussianFitStackThread[] gfsThreads_;
+   // spots found in a single image are fitted in batches of this size
+   private static final int SPOTS_PER_BATCH = 64;
    private volatile Thread t_ = null;
-   private static boolean running_ = false;
+   private static volatile boolean running_ = false;
    private final FindLocalMaxima.FilterType preFilterType_;
    private final String positionString_;
    private boolean showDataWindow_ = true;
    private final Studio studio_;
-   private final ExecutorService threadPool_;
-   private final int nrThreads_;
+   private final ForkJoinPool threadPool_;
 
    public FitAllThread(Studio studio, 
-           int nrThreads,
-           ExecutorService threadPool,
+           ForkJoinPool threadPool,
            FindLocalMaxima.FilterType preFilterType, 
            String positions) {
       studio_ = studio;
       preFilterType_ = preFilterType;
       positionString_ = positions;
-      nrThreads_ = nrThreads;
       threadPool_ = threadPool;
    }
 
@@ -118,13 +113,6 @@ public class FitAllThread extends GaussianInfo implements Runnable  {
    } 
 
    public synchronized void stop() {
-      if (gfsThreads_ != null) {
-         for (GaussianFitStackThread gfsThread : gfsThreads_) {
-            if (gfsThread != null) {
-               gfsThread.stop();
-            }
-         }
-      }
       t_ = null;
       running_ = false;
    }
@@ -144,8 +132,6 @@ public class FitAllThread extends GaussianInfo implements Runnable  {
    @Override
    public void run() {
 
-      // List with spot positions found through the Find Maxima command
-      sourceList_ = new LinkedBlockingQueue<SpotData>();
       resultList_ = Collections.synchronizedList(new ArrayList<SpotData>());
 
       // take the active ImageJ image
@@ -305,170 +291,201 @@ public class FitAllThread extends GaussianInfo implements Runnable  {
       running_ = false;
    }
 
-   @SuppressWarnings("unchecked")
+   /**
+    * Finds and fits the spots in all images of the ImagePlus.  Every image is
+    * a task of its own in the fork/join pool, and the spots found in an image
+    * are fitted in batches of SPOTS_PER_BATCH, again as separate tasks, so
+    * that all threads stay busy without sharing a queue of spots.
+    * 
+    * @return largest number of maxima found in a single image
+    */
    private int analyzeImagePlus(ImagePlus siPlus, int position, Roi originalRoi) {
-      int halfSize = super.getHalfBoxSize();
-      int nrSpots = 0;
-      // Start up IJ.Prefs.getThreads() threads for gaussian fitting
-      gfsThreads_ = new GaussianFitStackThread[nrThreads_];
-      Future<?>[] futures = new Future<?>[nrThreads_];
-      for (int i = 0; i < nrThreads_; i++) {
-         gfsThreads_[i] = new GaussianFitStackThread(sourceList_, resultList_, siPlus);
-         gfsThreads_[i].copy(this);
-         futures[i] = threadPool_.submit(gfsThreads_[i]);
-      }
-      int shownChannel = siPlus.getChannel();
-      int shownSlice = siPlus.getSlice();
-      int shownFrame = siPlus.getFrame();
-      
-      // work around strange bug that happens with freshly opened images
-      for (int i = 1; i <= siPlus.getNChannels(); i++) {
-         siPlus.setPosition(i, siPlus.getCurrentSlice(), siPlus.getFrame());
-      }
+      // holds the fit settings only, so it can be shared by all batches
+      GaussianFitStackThread fitter = new GaussianFitStackThread();
+      fitter.copy(this);
       
       int nrChannels = siPlus.getNChannels();
       if (skipChannels_) {
          nrChannels -= channelsToSkip_.length;
       }
       int nrImages = nrChannels * siPlus.getNSlices() * siPlus.getNFrames();
-      int imageCount = 0;
-      try {
-         for (int c = 1; c <= siPlus.getNChannels(); c++) {
-            if (!running_) {
-               break;
-            }
-            if (!skipChannels_ || !inArray(channelsToSkip_, c)) {
-               for (int z = 1; z <= siPlus.getNSlices(); z++) {
-                  if (!running_) {
-                     break;
-                  }
-                  for (int f = 1; f <= siPlus.getNFrames(); f++) {
-                     if (!running_) {
-                        break;
-                     }
-                     // to avoid making a gigantic sourceList and running out of memory
-                     // sleep a bit when the sourcesize gets too big
-                     // once we have very fast multi-core computers, this constant can be increased
-                     if (sourceList_.size() > 100000) {
-                        try {
-                           Thread.sleep(1000);
-                        } catch (InterruptedException ex) {
-                           // not sure what to do
-                        }
-                     }
-
-                     imageCount++;
-                     ij.IJ.showStatus("Processing image " + imageCount);
-
-                     ImageProcessor siProc = null;
-                     Polygon p = new Polygon();
-                     synchronized (SpotData.LOCK_IP) {
-                        siPlus.setPositionWithoutUpdate(c, z, f);
-                        // If ROI manager is used, use RoiManager Rois
-                        //  may be dangerous if the user is not aware
-                        RoiManager roiM = RoiManager.getInstance();
-                        Roi[] rois = null;
-                        //if (roiM != null && roiM.getSelectedIndex() > -1 ) {
-                        //   rois = roiM.getSelectedRoisAsArray();
-                        //}
-                        if (rois != null && rois.length > 0) {
-                           for (Roi roi : rois) {
-                              siPlus.setRoi(roi, false);
-                              siProc = siPlus.getProcessor();
-                              Polygon q = FindLocalMaxima.FindMax(siPlus, 
-                                      2 * super.getHalfBoxSize(), noiseTolerance_,
-                                      preFilterType_);
-                              for (int i = 0; i < q.npoints; i++) {
-                                 p.addPoint(q.xpoints[i], q.ypoints[i]);
-                              }
-                           }
-                        } else {  // no Rois in RoiManager
-                           siPlus.setRoi(originalRoi, false);
-                           siProc = siPlus.getProcessor();
-                           p = FindLocalMaxima.FindMax(siPlus, 2 * super.getHalfBoxSize(), noiseTolerance_,
-                                   preFilterType_);
-                        }
-                     }
-
-                     ij.IJ.showProgress(imageCount, nrImages);
-
-                     if (p.npoints > nrSpots) {
-                        nrSpots = p.npoints;
-                     }
-                     int[][] sC = new int[p.npoints][2];
-                     for (int j = 0; j < p.npoints; j++) {
-                        sC[j][0] = p.xpoints[j];
-                        sC[j][1] = p.ypoints[j];
-                     }
-
-                     Arrays.sort(sC, new SpotSortComparator());
-
-                     for (int j = 0; j < sC.length; j++) {
-                        // filter out spots too close to the edge
-                        if (sC[j][0] > halfSize && sC[j][0] < siPlus.getWidth() - halfSize
-                                && sC[j][1] > halfSize && sC[j][1] < siPlus.getHeight() - halfSize) {
-                           ImageProcessor sp = SpotData.getSpotProcessor(siProc,
-                                   halfSize, sC[j][0], sC[j][1]);
-                           if (sp == null) {
-                              continue;
-                           }
-                           int channel = c;
-
-                           SpotData thisSpot = new SpotData(sp, channel, z, f,
-                                   position, j, sC[j][0], sC[j][1]);
-                           try {
-                              sourceList_.put(thisSpot);
-                           } catch (InterruptedException iex) {
-                              Thread.currentThread().interrupt();
-                              throw new RuntimeException("Unexpected interruption");
-                           }
-                        }
-                     }
-                  }
+      AtomicInteger imageCount = new AtomicInteger(0);
+      ImageStack stack = siPlus.getStack();
+      
+      List<FindSpotsTask> tasks = new ArrayList<FindSpotsTask>(nrImages);
+      for (int c = 1; c <= siPlus.getNChannels() && running_; c++) {
+         if (!skipChannels_ || !inArray(channelsToSkip_, c)) {
+            for (int z = 1; z <= siPlus.getNSlices() && running_; z++) {
+               for (int f = 1; f <= siPlus.getNFrames() && running_; f++) {
+                  FindSpotsTask task = new FindSpotsTask(stack, 
+                          siPlus.getStackIndex(c, z, f), c, z, f, position, 
+                          originalRoi, fitter, imageCount, nrImages);
+                  tasks.add(task);
+                  threadPool_.execute(task);
                }
             }
          }
-         // start ProgresBar thread
-         ProgressThread pt = new ProgressThread(sourceList_);
-         pt.init();
-
+      }
 
+      // collect the results in image order
+      int nrSpots = 0;
+      try {
+         for (FindSpotsTask task : tasks) {
+            resultList_.addAll(task.join());
+            if (task.nrMaxima_ > nrSpots) {
+               nrSpots = task.nrMaxima_;
+            }
+         }
       } catch (OutOfMemoryError ome) {
+         running_ = false;
          ij.IJ.error("Out Of Memory");
+      } catch (RuntimeException ex) {
+         running_ = false;
+         ReportingUtils.logError(ex);
+         ReportingUtils.showError("Error while fitting spots: " + ex.getMessage());
+      } finally {
+         for (FindSpotsTask task : tasks) {
+            task.cancel(false);
+         }
       }
 
-      // Send working threads signal that we are done:
-      SpotData lastSpot = new SpotData(null, -1, 1, -1, -1, -1, -1, -1);
-      try {
-         sourceList_.put(lastSpot);
-      } catch (InterruptedException iex) {
-         Thread.currentThread().interrupt();
-         throw new RuntimeException("Unexpected interruption");
+      return nrSpots;
+   }
+   
+   
+   /**
+    * Finds the local maxima in an image, and cuts out a box around each of
+    * them.  Maxima too close to the edge of the image are left out.
+    * 
+    * @param siProc - image to search, limited to its ROI.  The ROI is changed
+    * @param info - settings, only the noise tolerance and box size are used
+    * @param preFilterType - filter applied to the image before searching
+    * @param channel - channel number, stored with the spots, as are the next 3
+    * @param slice - slice number
+    * @param frame - frame number
+    * @param position - position number
+    * @return spots ordered by position in the image, each with the pixels
+    *         of its box
+    */
+   public static List<SpotData> findSpots(ImageProcessor siProc, 
+           GaussianInfo info, FindLocalMaxima.FilterType preFilterType, 
+           int channel, int slice, int frame, int position) {
+      int halfSize = info.getHalfBoxSize();
+      Polygon p = FindLocalMaxima.FindMax(siProc, 2 * halfSize, 
+              info.getNoiseTolerance(), preFilterType);
+
+      int[][] sC = new int[p.npoints][2];
+      for (int j = 0; j < p.npoints; j++) {
+         sC[j][0] = p.xpoints[j];
+         sC[j][1] = p.ypoints[j];
       }
 
-      // wait for worker threads to finish
-      for (int i=0; i<nrThreads_; i++) {
-         try {
-            futures[i].get();
-            gfsThreads_[i] = null;
-         } catch (ExecutionException | InterruptedException ie) {
+      Arrays.sort(sC, new SpotSortComparator());
+
+      List<SpotData> spots = new ArrayList<SpotData>(sC.length);
+      for (int j = 0; j < sC.length; j++) {
+         // filter out spots too close to the edge
+         if (sC[j][0] > halfSize && sC[j][0] < siProc.getWidth() - halfSize
+                 && sC[j][1] > halfSize && sC[j][1] < siProc.getHeight() - halfSize) {
+            siProc.setRoi(sC[j][0] - halfSize, sC[j][1] - halfSize, 
+                    2 * halfSize, 2 * halfSize);
+            spots.add(new SpotData(siProc.crop(), channel, slice, frame,
+                    position, j, sC[j][0], sC[j][1]));
          }
       }
+      return spots;
+   }
+   
+   
+   /**
+    * Finds the spots in a single image and fits them
+    */
+   private class FindSpotsTask extends RecursiveTask<List<SpotData>> {
+      private static final long serialVersionUID = 1L;
+      private final ImageStack stack_;
+      private final int stackIndex_;
+      private final int channel_;
+      private final int slice_;
+      private final int frame_;
+      private final int position_;
+      private final Roi roi_;
+      private final GaussianFitStackThread fitter_;
+      private final AtomicInteger imageCount_;
+      private final int nrImages_;
+      private int nrMaxima_ = 0;
+
+      FindSpotsTask(ImageStack stack, int stackIndex, int channel, int slice, 
+              int frame, int position, Roi roi, GaussianFitStackThread fitter,
+              AtomicInteger imageCount, int nrImages) {
+         stack_ = stack;
+         stackIndex_ = stackIndex;
+         channel_ = channel;
+         slice_ = slice;
+         frame_ = frame;
+         position_ = position;
+         roi_ = roi;
+         fitter_ = fitter;
+         imageCount_ = imageCount;
+         nrImages_ = nrImages;
+      }
 
-      siPlus.setPosition(shownChannel, shownSlice, shownFrame);
-       
-      sourceList_.clear();
-      return nrSpots;
+      @Override
+      protected List<SpotData> compute() {
+         List<SpotData> results = new ArrayList<SpotData>();
+         if (!running_) {
+            return results;
+         }
+         // a processor of our own, so that the position and ROI of the 
+         // ImagePlus stay untouched, and no lock is needed to crop spots
+         ImageProcessor siProc = stack_.getProcessor(stackIndex_);
+         siProc.setRoi(roi_);
+         List<SpotData> spots = findSpots(siProc, FitAllThread.this, 
+                 preFilterType_, channel_, slice_, frame_, position_);
+         nrMaxima_ = spots.size();
+
+         int imageCount = imageCount_.incrementAndGet();
+         ij.IJ.showStatus("Processing image " + imageCount);
+         ij.IJ.showProgress(imageCount, nrImages_);
+
+         List<FitBatchTask> batches = new ArrayList<FitBatchTask>();
+         for (int start = 0; start < spots.size(); start += SPOTS_PER_BATCH) {
+            batches.add(new FitBatchTask(fitter_, spots.subList(start, 
+                    Math.min(start + SPOTS_PER_BATCH, spots.size()))));
+         }
+         invokeAll(batches);
+         for (FitBatchTask batch : batches) {
+            results.addAll(batch.join());
+         }
+         return results;
+      }
+   }
+   
+   
+   private class FitBatchTask extends RecursiveTask<List<SpotData>> {
+      private static final long serialVersionUID = 1L;
+      private final GaussianFitStackThread fitter_;
+      private final List<SpotData> spots_;
+
+      FitBatchTask(GaussianFitStackThread fitter, List<SpotData> spots) {
+         fitter_ = fitter;
+         spots_ = spots;
+      }
+
+      @Override
+      protected List<SpotData> compute() {
+         if (!running_) {
+            return new ArrayList<SpotData>();
+         }
+         return fitter_.fit(spots_);
+      }
    }
    
 
-   private class SpotSortComparator implements Comparator {
+   private static class SpotSortComparator implements Comparator<int[]> {
 
       // Return the result of comparing the two row arrays
       @Override
-      public int compare(Object o1, Object o2) {
-         int[] p1 = (int[]) o1;
-         int[] p2 = (int[]) o2;
+      public int compare(int[] p1, int[] p2) {
          if (p1[0] < p2[0]) {
             return -1;
          }
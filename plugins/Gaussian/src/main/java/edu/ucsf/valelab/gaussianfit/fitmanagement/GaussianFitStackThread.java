@@ -37,95 +37,49 @@ import edu.ucsf.valelab.gaussianfit.algorithm.GaussianFit;
 import edu.ucsf.valelab.gaussianfit.data.GaussianInfo;
 import edu.ucsf.valelab.gaussianfit.data.SpotData;
 import edu.ucsf.valelab.gaussianfit.fitting.ZCalibrator;
-import ij.ImagePlus;
 import ij.process.ImageProcessor;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import edu.ucsf.valelab.gaussianfit.utils.ReportingUtils;
 
 
 /**
- *
+ * Fits batches of spots whose pixels were cut out when they were found.
+ * Holds nothing but the fit settings, so a single instance can be used by
+ * any number of threads at once.  Every batch gets its own GaussianFit.
+ * 
  * @author nico
  */
-public class GaussianFitStackThread extends GaussianInfo implements Runnable {
-
-   Thread t_;
-   boolean stopNow_ = false;
-
-   public GaussianFitStackThread(BlockingQueue<SpotData> sourceList,
-           List<SpotData> resultList, ImagePlus siPlus) {
-      siPlus_ = siPlus;
-      sourceList_ = sourceList;
-      resultList_ = resultList;
-   }
-
-   public void listDone() {
-      stop_ = true;
-   }
-
-   public void init() {
-      stopNow_ = false;
-      t_ = new Thread(this);
-      t_.start();
-   }
-
-   public void stop() {
-      stopNow_ = true;
-   }
-
-   public void join() throws InterruptedException {
-      if (t_ != null)
-         t_.join();
-   }
-
-   @Override
-   public void run() {
-      GaussianFit gs_ = new GaussianFit(super.getShape(), super.getFitMode(),
+public class GaussianFitStackThread extends GaussianInfo {
+
+   /**
+    * Fits the given spots.
+    * 
+    * @param spots - spots to be fitted, each with a cached ImageProcessor
+    * @return spots that could be fitted and passed the width and intensity
+    *         filters, in the order they were given
+    */
+   public List<SpotData> fit(List<SpotData> spots) {
+      GaussianFit gs = new GaussianFit(super.getShape(), super.getFitMode(),
             super.getUseFixedWidth(), super.getFixedWidthNm() / super.getPixelSize() / 2);
       ZCalibrator zc = DataCollectionForm.zc_;
-
-      while (!stopNow_) {
-         SpotData spot;
-         synchronized (GFSLOCK) {
-            try {
-               spot = sourceList_.take();
-               // Look for signal that we are done, add back to queue if found
-               if (spot.getFrame() == -1) {
-                  sourceList_.add(spot);
-                  return;
-               }
-            } catch (InterruptedException iExp) {
-               ij.IJ.log("Thread interruped  " + Thread.currentThread().getName());
-               return;
-            }
-         }
-
-         try {
-            // Note: the implementation will try to return a cached version of the ImageProcessor
-            ImageProcessor ip = spot.getSpotProcessor(siPlus_, super.getHalfBoxSize());
-            GaussianFit.Data fitResult = gs_.dogaussianfit(ip, maxIterations_);
-            // Note that the copy constructor will not copy pixel data, so we loose 
-            // those when spot goes out of scope
-            SpotData spotData = SpotDataConverter.convert(spot, fitResult, this, zc);
-            
-            if ( fitResult.getParms().length > 1 &&
-                    (!useWidthFilter_ || 
-                    (spotData.getWidth() > widthMin_ && spotData.getWidth() < widthMax_))
-                    && (!useNrPhotonsFilter_ || 
-                    (spotData.getIntensity() > nrPhotonsMin_ && spotData.getIntensity() < nrPhotonsMax_))) {
-               resultList_.add(spotData);
-            }
-
-
-         } catch (Exception ex) {
-            ReportingUtils.logError(ex);
-            ReportingUtils.logError("Thread run out of memory  " + 
-                    Thread.currentThread().getName());
-            ReportingUtils.showError("Fitter out of memory.\n" +
-                    "Out of memory error");
-            return;
+      List<SpotData> results = new ArrayList<SpotData>(spots.size());
+
+      for (SpotData spot : spots) {
+         // the image processor was cached when the spot was found
+         ImageProcessor ip = spot.getImageProcessor();
+         GaussianFit.Data fitResult = gs.dogaussianfit(ip, maxIterations_);
+         // Note that the copy constructor will not copy pixel data, so we loose 
+         // those when spot goes out of scope
+         SpotData spotData = SpotDataConverter.convert(spot, fitResult, this, zc);
+
+         if ( fitResult.getParms().length > 1 &&
+                 (!useWidthFilter_ || 
+                 (spotData.getWidth() > widthMin_ && spotData.getWidth() < widthMax_))
+                 && (!useNrPhotonsFilter_ || 
+                 (spotData.getIntensity() > nrPhotonsMin_ && spotData.getIntensity() < nrPhotonsMax_))) {
+            results.add(spotData);
          }
       }
+      return results;
    }
 }
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2019, Regents the University of California
+ * Author: Nico Stuurman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucsf.valelab.gaussianfit.fitting;
+
+import java.util.Arrays;
+
+/**
+ * Levenberg-Marquardt fit of a 2D Gaussian to the pixels of a spot.
+ *
+ * Fits the same functions, with the same parameters, as
+ * ParametricGaussianFunction, but with the derivatives written out for each
+ * shape and summed straight into the normal equations, so that nothing is
+ * allocated while fitting.  Minimizes either the sum of squared residuals, or
+ * the Poisson likelihood of the pixel values (Laurence and Chromy,
+ * Nature Methods 7, 338 (2010)).
+ *
+ * Work buffers belong to the instance, so use one instance per thread.
+ *
+ * @author nico
+ */
+public class GaussianLMFitter {
+   // parameter order is the same as in GaussianFit
+   private static final int INT = 0;
+   private static final int BGR = 1;
+   private static final int XC = 2;
+   private static final int YC = 3;
+   private static final int S = 4;
+   private static final int S1 = 4;
+   private static final int S2 = 5;
+   private static final int S3 = 6;
+
+   private static final double INITIAL_LAMBDA = 0.001;
+   private static final double MAX_LAMBDA = 1.0e10;
+   // fit is done when the cost improves by less than this fraction
+   private static final double RELATIVE_TOLERANCE = 1.0e-9;
+
+   private final int shape_;
+   private final double s_;
+   private final boolean fitWidth_;
+   private final boolean mle_;
+   private final int nrParams_;
+
+   // parameters and normal equations at the current point and at the trial step
+   private double[] params_;
+   private double[] trialParams_;
+   private double[][] alpha_;
+   private double[][] trialAlpha_;
+   private double[] beta_;
+   private double[] trialBeta_;
+   // derivatives for a single pixel, damped matrix and step
+   private final double[] jacobian_;
+   private final double[][] curvature_;
+   private final double[] step_;
+
+   /**
+    *
+    * @param shape 1=circle, 2=width varies in x and y, 3=ellipse
+    * @param s - width of Gaussian in pixels, negative if it should be fitted.
+    *            Only used with shape 1
+    * @param mle - if true, maximize the Poisson likelihood, otherwise
+    *            minimize the squared residuals
+    */
+   public GaussianLMFitter(int shape, double s, boolean mle) {
+      shape_ = shape;
+      s_ = s;
+      fitWidth_ = shape != 1 || s <= 0.0;
+      mle_ = mle;
+      int nrParams = shape + 3;
+      if (fitWidth_) {
+         nrParams += 1;
+      }
+      nrParams_ = nrParams;
+      params_ = new double[nrParams_];
+      trialParams_ = new double[nrParams_];
+      alpha_ = new double[nrParams_][nrParams_];
+      trialAlpha_ = new double[nrParams_][nrParams_];
+      beta_ = new double[nrParams_];
+      trialBeta_ = new double[nrParams_];
+      jacobian_ = new double[nrParams_];
+      curvature_ = new double[nrParams_][nrParams_];
+      step_ = new double[nrParams_];
+   }
+
+   /**
+    * Number of parameters that are fitted
+    *
+    * @return 4 for a circle of fixed width, 5, 6 or 7 for shape 1, 2 or 3
+    */
+   public int getNrParams() {
+      return nrParams_;
+   }
+
+   /**
+    * Fits the Gaussian to the given pixels
+    *
+    * @param pixels - 16 bit pixel values, row by row
+    * @param width - width of the image in pixels
+    * @param height - height of the image in pixels
+    * @param start - initial parameters, not modified
+    * @param maxIterations - maximum number of Levenberg-Marquardt steps
+    * @return fitted parameters, or null if the fit did not converge
+    */
+   public double[] fit(short[] pixels, int width, int height, double[] start,
+           int maxIterations) {
+      System.arraycopy(start, 0, params_, 0, nrParams_);
+      double cost = evaluate(params_, pixels, width, height, alpha_, beta_);
+      if (Double.isInfinite(cost) || Double.isNaN(cost)) {
+         return null;
+      }
+      double lambda = INITIAL_LAMBDA;
+      for (int iteration = 0; iteration < maxIterations; iteration++) {
+         for (int k = 0; k < nrParams_; k++) {
+            System.arraycopy(alpha_[k], 0, curvature_[k], 0, nrParams_);
+            curvature_[k][k] *= 1.0 + lambda;
+         }
+         boolean solved = solve(curvature_, beta_, step_);
+         double trialCost = Double.POSITIVE_INFINITY;
+         if (solved) {
+            for (int k = 0; k < nrParams_; k++) {
+               trialParams_[k] = params_[k] + step_[k];
+            }
+            trialCost = evaluate(trialParams_, pixels, width, height,
+                    trialAlpha_, trialBeta_);
+         }
+         if (trialCost < cost) {
+            boolean converged = cost - trialCost <= RELATIVE_TOLERANCE * cost;
+            // the trial point becomes the current point
+            double[] tmp = params_;
+            params_ = trialParams_;
+            trialParams_ = tmp;
+            double[][] tmpAlpha = alpha_;
+            alpha_ = trialAlpha_;
+            trialAlpha_ = tmpAlpha;
+            tmp = beta_;
+            beta_ = trialBeta_;
+            trialBeta_ = tmp;
+            cost = trialCost;
+            lambda /= 10.0;
+            if (converged) {
+               return params_.clone();
+            }
+         } else {
+            lambda *= 10.0;
+            if (lambda > MAX_LAMBDA) {
+               // no step improves the fit, so we are at the minimum
+               return solved ? params_.clone() : null;
+            }
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Calculates the cost at the given parameters, and the normal equations
+    * alpha * step = beta for the next step
+    *
+    * @return sum of squared residuals, or twice the negative log likelihood
+    *         (up to a constant), infinite if the parameters are invalid
+    */
+   private double evaluate(double[] p, short[] pixels, int width, int height,
+           double[][] alpha, double[] beta) {
+      for (int k = 0; k < nrParams_; k++) {
+         Arrays.fill(alpha[k], 0, k + 1, 0.0);
+         beta[k] = 0.0;
+      }
+      double cost = 0.0;
+      double[] jac = jacobian_;
+      double amplitude = p[INT];
+      double background = p[BGR];
+      // exponent is -(a * dx^2 + c * dy^2) / 2 - b * dx * dy for all shapes
+      double a;
+      double b = 0.0;
+      double c;
+      if (shape_ == 1) {
+         double s = fitWidth_ ? p[S] : s_;
+         a = 1.0 / (s * s);
+         c = a;
+      } else if (shape_ == 2) {
+         a = 1.0 / (p[S1] * p[S1]);
+         c = 1.0 / (p[S2] * p[S2]);
+      } else {
+         a = p[S1];
+         b = p[S2];
+         c = p[S3];
+      }
+      for (int y = 0; y < height; y++) {
+         double dy = y - p[YC];
+         for (int x = 0; x < width; x++) {
+            double dx = x - p[XC];
+            double e = Math.exp(-0.5 * (a * dx * dx + c * dy * dy) - b * dx * dy);
+            double q = amplitude * e;
+            double model = q + background;
+            double data = pixels[y * width + x] & 0xffff;
+
+            jac[INT] = e;
+            jac[BGR] = 1.0;
+            switch (shape_) {
+               case 1:
+                  jac[XC] = dx * q * a;
+                  jac[YC] = dy * q * a;
+                  if (fitWidth_) {
+                     jac[S] = (dx * dx + dy * dy) * q * a / p[S];
+                  }
+                  break;
+               case 2:
+                  jac[XC] = dx * q * a;
+                  jac[YC] = dy * q * c;
+                  jac[S1] = dx * dx * q * a / p[S1];
+                  jac[S2] = dy * dy * q * c / p[S2];
+                  break;
+               default:
+                  jac[XC] = (a * dx + b * dy) * q;
+                  jac[YC] = (b * dx + c * dy) * q;
+                  jac[S1] = -0.5 * dx * dx * q;
+                  jac[S2] = -dx * dy * q;
+                  jac[S3] = -0.5 * dy * dy * q;
+                  break;
+            }
+
+            // weight of this pixel in alpha, and its contribution to beta
+            double weight;
+            double residual;
+            if (mle_) {
+               if (!(model > 0.0)) {
+                  return Double.POSITIVE_INFINITY;
+               }
+               if (data > 0.0) {
+                  cost += 2.0 * (model - data - data * Math.log(model / data));
+               } else {
+                  cost += 2.0 * model;
+               }
+               weight = data / (model * model);
+               residual = data / model - 1.0;
+            } else {
+               residual = data - model;
+               cost += residual * residual;
+               weight = 1.0;
+            }
+            for (int k = 0; k < nrParams_; k++) {
+               double wj = weight * jac[k];
+               double[] row = alpha[k];
+               for (int l = 0; l <= k; l++) {
+                  row[l] += wj * jac[l];
+               }
+               beta[k] += residual * jac[k];
+            }
+         }
+      }
+      if (Double.isNaN(cost)) {
+         return Double.POSITIVE_INFINITY;
+      }
+      // only the lower triangle was summed
+      for (int k = 0; k < nrParams_; k++) {
+         for (int l = 0; l < k; l++) {
+            alpha[l][k] = alpha[k][l];
+         }
+      }
+      return cost;
+   }
+
+   /**
+    * Solves m * x = v by Cholesky decomposition.  Overwrites m.
+    *
+    * @return false if m is not positive definite
+    */
+   private boolean solve(double[][] m, double[] v, double[] x) {
+      int n = nrParams_;
+      for (int j = 0; j < n; j++) {
+         double d = m[j][j];
+         for (int k = 0; k < j; k++) {
+            d -= m[j][k] * m[j][k];
+         }
+         if (!(d > 0.0)) {
+            return false;
+         }
+         d = Math.sqrt(d);
+         m[j][j] = d;
+         for (int i = j + 1; i < n; i++) {
+            double sum = m[i][j];
+            for (int k = 0; k < j; k++) {
+               sum -= m[i][k] * m[j][k];
+            }
+            m[i][j] = sum / d;
+         }
+      }
+      // forward substitution with L, then back substitution with L transposed
+      for (int i = 0; i < n; i++) {
+         double sum = v[i];
+         for (int k = 0; k < i; k++) {
+            sum -= m[i][k] * x[k];
+         }
+         x[i] = sum / m[i][i];
+      }
+      for (int i = n - 1; i >= 0; i--) {
+         double sum = x[i];
+         for (int k = i + 1; k < n; k++) {
+            sum -= m[k][i] * x[k];
+         }
+         x[i] = sum / m[i][i];
+      }
+      return true;
+   }
+
+}
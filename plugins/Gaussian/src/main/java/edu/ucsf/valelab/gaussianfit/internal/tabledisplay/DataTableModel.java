@@ -65,6 +65,22 @@ public class DataTableModel extends AbstractTableModel {
       rowData_.add(row);
    }
    
+   /**
+    * Puts a new dataset in the place of an old one
+    * @param oldRow dataset to be replaced
+    * @param newRow dataset that takes its place
+    * @return false if the old dataset is not in the table
+    */
+   public boolean replaceRowData(RowData oldRow, RowData newRow) {
+      int rowNr = rowData_.indexOf(oldRow);
+      if (rowNr < 0) {
+         return false;
+      }
+      rowData_.set(rowNr, newRow);
+      super.fireTableRowsUpdated(rowNr, rowNr);
+      return true;
+   }
+   
    public void fireRowInserted() {
       super.fireTableRowsInserted(rowData_.size()-1, rowData_.size() -1 );
    }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2019, Regents the University of California
+ * Author: Nico Stuurman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucsf.valelab.gaussianfit.live;
+
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+import net.miginfocom.swing.MigLayout;
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+import org.micromanager.Studio;
+import org.micromanager.data.ProcessorConfigurator;
+
+/**
+ * Settings of the live localization that are not fit settings.  The fit 
+ * settings are taken from the Localization Microscopy window.
+ * 
+ * @author nico
+ */
+public class LiveLocalizationConfigurator extends JFrame 
+        implements ProcessorConfigurator {
+   private final Studio studio_;
+   private final JSpinner nrThreadsSpinner_;
+   private final JSpinner maxFramesWaitingSpinner_;
+   private final JSpinner updateIntervalSpinner_;
+
+   public LiveLocalizationConfigurator(PropertyMap settings, Studio studio) {
+      studio_ = studio;
+      
+      nrThreadsSpinner_ = new JSpinner(new SpinnerNumberModel(
+              settings.getInteger(LiveLocalizationPlugin.NRTHREADS, 
+                      ij.Prefs.getThreads()), 1, 256, 1));
+      maxFramesWaitingSpinner_ = new JSpinner(new SpinnerNumberModel(
+              settings.getInteger(LiveLocalizationPlugin.MAXFRAMESWAITING, 
+                      LiveLocalizationPlugin.DEFAULT_MAXFRAMESWAITING), 
+              1, 100000, 10));
+      updateIntervalSpinner_ = new JSpinner(new SpinnerNumberModel(
+              settings.getInteger(LiveLocalizationPlugin.UPDATEINTERVALMS, 
+                      LiveLocalizationPlugin.DEFAULT_UPDATEINTERVALMS), 
+              100, 600000, 100));
+      
+      super.setTitle("Live Localization");
+      super.getContentPane().setLayout(new MigLayout("insets 8"));
+      super.add(new JLabel("<html>Spots are found and fitted with the settings "
+              + "of the<br>Localization Microscopy window</html>"), "span 2, wrap");
+      super.add(new JLabel("Threads"));
+      super.add(nrThreadsSpinner_, "wrap");
+      super.add(new JLabel("Max. images waiting"));
+      super.add(maxFramesWaitingSpinner_, "wrap");
+      super.add(new JLabel("Update Data window every (ms)"));
+      super.add(updateIntervalSpinner_, "wrap");
+      super.setDefaultCloseOperation(javax.swing.WindowConstants.DISPOSE_ON_CLOSE);
+      super.pack();
+   }
+
+   @Override
+   public void showGUI() {
+      pack();
+      setVisible(true);
+   }
+
+   @Override
+   public void cleanup() {
+      dispose();
+   }
+
+   @Override
+   public PropertyMap getSettings() {
+      PropertyMap.Builder builder = PropertyMaps.builder();
+      builder.putInteger(LiveLocalizationPlugin.NRTHREADS, 
+              (Integer) nrThreadsSpinner_.getValue());
+      builder.putInteger(LiveLocalizationPlugin.MAXFRAMESWAITING, 
+              (Integer) maxFramesWaitingSpinner_.getValue());
+      builder.putInteger(LiveLocalizationPlugin.UPDATEINTERVALMS, 
+              (Integer) updateIntervalSpinner_.getValue());
+      return builder.build();
+   }
+}
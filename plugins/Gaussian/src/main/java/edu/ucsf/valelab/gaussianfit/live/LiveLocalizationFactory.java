@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2019, Regents the University of California
+ * Author: Nico Stuurman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucsf.valelab.gaussianfit.live;
+
+import edu.ucsf.valelab.gaussianfit.MainForm;
+import edu.ucsf.valelab.gaussianfit.fitmanagement.GaussianFitStackThread;
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorFactory;
+
+/**
+ * Creates processors that use the fit settings of the Localization 
+ * Microscopy window at the time the acquisition starts.
+ * 
+ * @author nico
+ */
+public class LiveLocalizationFactory implements ProcessorFactory {
+   private final PropertyMap settings_;
+   private final Studio studio_;
+
+   public LiveLocalizationFactory(PropertyMap settings, Studio studio) {
+      settings_ = settings;
+      studio_ = studio;
+   }
+
+   @Override
+   public Processor createProcessor() {
+      GaussianFitStackThread fitter = new GaussianFitStackThread();
+      MainForm.getFitSettings(studio_, fitter);
+      return new LiveLocalizationProcessor(studio_, fitter,
+              MainForm.getPreFilterType(studio_),
+              settings_.getInteger(LiveLocalizationPlugin.NRTHREADS, 
+                      ij.Prefs.getThreads()),
+              settings_.getInteger(LiveLocalizationPlugin.MAXFRAMESWAITING, 
+                      LiveLocalizationPlugin.DEFAULT_MAXFRAMESWAITING),
+              settings_.getInteger(LiveLocalizationPlugin.UPDATEINTERVALMS, 
+                      LiveLocalizationPlugin.DEFAULT_UPDATEINTERVALMS));
+   }
+}
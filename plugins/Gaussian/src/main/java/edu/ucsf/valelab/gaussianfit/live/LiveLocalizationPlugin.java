@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2019, Regents the University of California
+ * Author: Nico Stuurman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucsf.valelab.gaussianfit.live;
+
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.data.ProcessorConfigurator;
+import org.micromanager.data.ProcessorFactory;
+import org.micromanager.data.ProcessorPlugin;
+import org.scijava.plugin.Plugin;
+import org.scijava.plugin.SciJavaPlugin;
+
+/**
+ * On-the-fly processor that localizes spots while images are acquired
+ * 
+ * @author nico
+ */
+@Plugin(type = ProcessorPlugin.class)
+public class LiveLocalizationPlugin implements ProcessorPlugin, SciJavaPlugin {
+   // keys in the processor settings
+   static final String NRTHREADS = "NrThreads";
+   static final String MAXFRAMESWAITING = "MaxFramesWaiting";
+   static final String UPDATEINTERVALMS = "UpdateIntervalMs";
+   
+   static final int DEFAULT_MAXFRAMESWAITING = 100;
+   static final int DEFAULT_UPDATEINTERVALMS = 1000;
+   
+   private Studio studio_;
+
+   @Override
+   public void setContext(Studio studio) {
+      studio_ = studio;
+   }
+
+   @Override
+   public ProcessorConfigurator createConfigurator(PropertyMap settings) {
+      return new LiveLocalizationConfigurator(settings, studio_);
+   }
+
+   @Override
+   public ProcessorFactory createFactory(PropertyMap settings) {
+      return new LiveLocalizationFactory(settings, studio_);
+   }
+
+   @Override
+   public String getName() {
+      return "Live Localization";
+   }
+
+   @Override
+   public String getHelpText() {
+      return "Finds and fits spots while images are acquired, using the "
+              + "settings of the Localization Microscopy plugin";
+   }
+
+   @Override
+   public String getVersion() {
+      return "0.1";
+   }
+
+   @Override
+   public String getCopyright() {
+      return "University of California, 2019";
+   }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2019, Regents the University of California
+ * Author: Nico Stuurman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucsf.valelab.gaussianfit.live;
+
+import edu.ucsf.valelab.gaussianfit.DataCollectionForm;
+import edu.ucsf.valelab.gaussianfit.algorithm.FindLocalMaxima;
+import edu.ucsf.valelab.gaussianfit.data.RowData;
+import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
+import edu.ucsf.valelab.gaussianfit.fitmanagement.FitAllThread;
+import edu.ucsf.valelab.gaussianfit.fitmanagement.GaussianFitStackThread;
+import edu.ucsf.valelab.gaussianfit.utils.ReportingUtils;
+import ij.process.ImageProcessor;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.swing.SwingUtilities;
+import org.micromanager.Studio;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.SummaryMetadata;
+
+/**
+ * Finds and fits spots in images while they are being acquired.
+ * 
+ * Images are passed on unchanged as soon as they arrive, so that the 
+ * acquisition never waits for the fitting.  Each image is localized on a 
+ * pool of worker threads, and the spots are added to a single table.  Every 
+ * so often the table is shown as a dataset in the Data window, replacing the 
+ * previous version of that dataset.  When more images are waiting than the 
+ * given maximum, new images are not localized, and counted as skipped.
+ * 
+ * @author nico
+ */
+public class LiveLocalizationProcessor extends Processor {
+   // building the dataset for the Data window takes at most 1 / this of
+   // the time of a single thread
+   private static final int PUBLISH_COST_FACTOR = 10;
+   
+   private final Studio studio_;
+   private final GaussianFitStackThread fitter_;
+   private final FindLocalMaxima.FilterType preFilterType_;
+   private final long updateIntervalMs_;
+   private final ExecutorService workers_;
+   private final ScheduledExecutorService publisher_;
+   private final Semaphore framesWaiting_;
+   
+   // all spots found so far, the range of their coordinates and their z 
+   // range, guarded by spots_
+   private final SpotTable.Builder spots_ = new SpotTable.Builder(1 << 16);
+   private int maxChannel_ = 1;
+   private int maxSlice_ = 1;
+   private int maxFrame_ = 1;
+   private int maxPosition_ = 1;
+   private double minZ_ = Double.MAX_VALUE;
+   private double maxZ_ = 0.0;
+   
+   private final AtomicInteger nrImages_ = new AtomicInteger(0);
+   private final AtomicInteger nrImagesDone_ = new AtomicInteger(0);
+   private final AtomicInteger nrImagesSkipped_ = new AtomicInteger(0);
+   private volatile String name_ = "Live localization";
+   private volatile int width_ = 0;
+   private volatile int height_ = 0;
+   private long startTime_ = 0;
+   
+   // only used on the publisher thread
+   private int publishedSize_ = 0;
+   private long nextPublishTime_ = 0;
+   // only used on the EDT
+   private RowData published_ = null;
+   
+
+   /**
+    * @param studio Instance of the Micro-Manager 2.0 api
+    * @param fitter - holds the fit settings
+    * @param preFilterType - filter applied to images before finding spots
+    * @param nrThreads - number of threads that localize images
+    * @param maxFramesWaiting - images that arrive while this many are waiting 
+    *                           or being localized are skipped
+    * @param updateIntervalMs - time between updates of the Data window
+    */
+   public LiveLocalizationProcessor(Studio studio, 
+           GaussianFitStackThread fitter,
+           FindLocalMaxima.FilterType preFilterType, int nrThreads,
+           int maxFramesWaiting, long updateIntervalMs) {
+      studio_ = studio;
+      fitter_ = fitter;
+      preFilterType_ = preFilterType;
+      updateIntervalMs_ = updateIntervalMs;
+      framesWaiting_ = new Semaphore(maxFramesWaiting);
+      workers_ = Executors.newFixedThreadPool(nrThreads, 
+              new NamedThreadFactory("Live localization"));
+      publisher_ = Executors.newSingleThreadScheduledExecutor(
+              new NamedThreadFactory("Live localization results"));
+      publisher_.scheduleWithFixedDelay(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               publish();
+            } catch (RuntimeException ex) {
+               ReportingUtils.logError(ex, "Live localization failed to show results");
+            }
+         }
+      }, updateIntervalMs, updateIntervalMs, TimeUnit.MILLISECONDS);
+   }
+   
+   @Override
+   public SummaryMetadata processSummaryMetadata(SummaryMetadata summary) {
+      if (summary.getPrefix() != null && !summary.getPrefix().isEmpty()) {
+         name_ = summary.getPrefix() + " (live)";
+      }
+      return summary;
+   }
+
+   @Override
+   public void processImage(final Image image, ProcessorContext context) {
+      context.outputImage(image);
+      
+      int imageNr = nrImages_.incrementAndGet();
+      if (imageNr == 1) {
+         startTime_ = System.nanoTime();
+      }
+      if (image.getNumComponents() != 1) {
+         return;
+      }
+      Coords coords = image.getCoords();
+      final int channel = Math.max(coords.getChannel(), 0) + 1;
+      if (fitter_.getSkipChannels() && inArray(fitter_.getChannelsToSkip(), channel)) {
+         return;
+      }
+      final int slice = Math.max(coords.getZ(), 0) + 1;
+      // without a time axis (as in live mode), images are numbered as they arrive
+      final int frame = coords.getT() >= 0 ? coords.getT() + 1 : imageNr;
+      final int position = Math.max(coords.getStagePosition(), 0) + 1;
+      if (!framesWaiting_.tryAcquire()) {
+         nrImagesSkipped_.incrementAndGet();
+         return;
+      }
+      workers_.execute(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               localize(image, channel, slice, frame, position);
+               nrImagesDone_.incrementAndGet();
+            } catch (RuntimeException ex) {
+               ReportingUtils.logError(ex, "Live localization failed on image " + frame);
+            } finally {
+               framesWaiting_.release();
+            }
+         }
+      });
+   }
+   
+   /**
+    * Finds and fits the spots in one image, and adds them to the table
+    */
+   private void localize(Image image, int channel, int slice, int frame, 
+           int position) {
+      width_ = image.getWidth();
+      height_ = image.getHeight();
+      ImageProcessor siProc = studio_.data().ij().createProcessor(image);
+      List<SpotData> spots = FitAllThread.findSpots(siProc, fitter_, 
+              preFilterType_, channel, slice, frame, position);
+      List<SpotData> fitted = fitter_.fit(spots);
+      boolean hasZ = DataCollectionForm.zc_.hasFitFunctions();
+      synchronized (spots_) {
+         for (SpotData spot : fitted) {
+            spots_.add(spot);
+            if (hasZ) {
+               double z = spot.getZCenter();
+               if (z > maxZ_) {
+                  maxZ_ = z;
+               }
+               if (z < minZ_ && z > 0.0) {
+                  minZ_ = z;
+               }
+            }
+         }
+         maxChannel_ = Math.max(maxChannel_, channel);
+         maxSlice_ = Math.max(maxSlice_, slice);
+         maxFrame_ = Math.max(maxFrame_, frame);
+         maxPosition_ = Math.max(maxPosition_, position);
+      }
+   }
+   
+   /**
+    * Shows the spots found so far in the Data window, unless nothing changed
+    * since the last time.  Building the dataset takes longer as the number 
+    * of spots grows, so the interval between updates grows with it.
+    */
+   private void publish() {
+      long now = System.nanoTime();
+      if (now < nextPublishTime_) {
+         return;
+      }
+      SpotTable table;
+      int nrChannels;
+      int nrSlices;
+      int nrFrames;
+      int nrPositions;
+      double minZ;
+      double maxZ;
+      synchronized (spots_) {
+         if (spots_.size() == publishedSize_) {
+            return;
+         }
+         publishedSize_ = spots_.size();
+         table = spots_.build();
+         nrChannels = maxChannel_;
+         nrSlices = maxSlice_;
+         nrFrames = maxFrame_;
+         nrPositions = maxPosition_;
+         minZ = minZ_ <= maxZ_ ? minZ_ : 0.0;
+         maxZ = maxZ_;
+      }
+      
+      ArrayList<Double> timePoints = new ArrayList<Double>();
+      // ugly code to deal with 1-based frame numbers and their relation to timePoints
+      timePoints.add(0.0);
+      for (int i = 1; i <= nrFrames; i++) {
+         timePoints.add((i - 1) * fitter_.getTimeIntervalMs());
+      }
+      
+      RowData.Builder builder = new RowData.Builder();
+      builder.setName(name_).setTitle(name_).
+              setWidth(width_).setHeight(height_).
+              setPixelSizeNm(fitter_.getPixelSize()).
+              setZStackStepSizeNm(fitter_.getZStackStepSize()).
+              setShape(fitter_.getShape()).setHalfSize(fitter_.getHalfBoxSize()).
+              setNrChannels(nrChannels).setNrFrames(nrFrames).
+              setNrSlices(nrSlices).setNrPositions(nrPositions).
+              setMaxNrSpots(table.size()).setSpotTable(table).
+              setTimePoints(timePoints).setIsTrack(false).
+              setCoordinate(DataCollectionForm.Coordinates.NM).
+              setHasZ(DataCollectionForm.zc_.hasFitFunctions()).
+              setMinZ(minZ).setMaxZ(maxZ);
+      final RowData row = builder.build();
+      
+      SwingUtilities.invokeLater(new Runnable() {
+         @Override
+         public void run() {
+            DataCollectionForm dcForm = DataCollectionForm.getInstance();
+            if (published_ == null) {
+               dcForm.setVisible(true);
+            }
+            dcForm.replaceSpotData(published_, row);
+            published_ = row;
+         }
+      });
+      
+      // the next update comes at least updateIntervalMs_ from now anyway
+      long end = System.nanoTime();
+      nextPublishTime_ = end + PUBLISH_COST_FACTOR * (end - now)
+              - TimeUnit.MILLISECONDS.toNanos(updateIntervalMs_);
+   }
+
+   /**
+    * Waits for the images that are still waiting to be localized, and shows
+    * the final results
+    */
+   @Override
+   public void cleanup(ProcessorContext context) {
+      workers_.shutdown();
+      try {
+         workers_.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+      }
+      workers_.shutdownNow();
+      publisher_.shutdown();
+      try {
+         publisher_.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+      }
+      // the last update can not be postponed
+      nextPublishTime_ = 0;
+      publish();
+      
+      int nrSpots;
+      synchronized (spots_) {
+         nrSpots = spots_.size();
+      }
+      double took = (System.nanoTime() - startTime_) / 1E9;
+      DecimalFormat df2 = new DecimalFormat("#.##");
+      DecimalFormat df0 = new DecimalFormat("#");
+      studio_.alerts().postAlert("Live localization results", 
+              LiveLocalizationProcessor.class, 
+              "Found " + nrSpots + " spots in " + nrImagesDone_.get() + 
+              " images in " + df2.format(took) + " seconds (" + 
+              df0.format(nrImagesDone_.get() / took) + " images/sec.), " + 
+              nrImagesSkipped_.get() + " images skipped");
+   }
+   
+   private static boolean inArray(int[] input, final int c) {
+      for (final int n : input) {
+         if (n == c) {
+            return true;
+         }
+      }
+      return false;
+   }
+   
+   private static class NamedThreadFactory implements ThreadFactory {
+      private final String name_;
+      
+      NamedThreadFactory(String name) {
+         name_ = name;
+      }
+      
+      @Override
+      public Thread newThread(Runnable r) {
+         Thread t = new Thread(r, name_);
+         t.setDaemon(true);
+         return t;
+      }
+   }
+
+}
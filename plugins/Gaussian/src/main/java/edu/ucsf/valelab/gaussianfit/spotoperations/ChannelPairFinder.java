@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2019, Regents the University of California
+ * Author: Nico Stuurman
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ * * Redistributions in binary form must reproduce the above copyright notice,
+ *   this list of conditions and the following disclaimer in the documentation
+ *   and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.ucsf.valelab.gaussianfit.spotoperations;
+
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Pairs each spot in channel 1 with the nearest spot in channel 2 of the same 
+ * frame and position.
+ * 
+ * The spots need to be sorted by frame, so that the spots of each frame are 
+ * found without looking at any other spots.  Within a frame, the channel 2 
+ * spots of each position go in a kd tree (NearestPoint2D), that returns the 
+ * row of the partner directly.  Frames are paired in parallel.
+ * 
+ * @author nico
+ */
+public class ChannelPairFinder {
+   // frames are handed out to the threads in groups of at most this size
+   private static final int FRAMES_PER_TASK = 16;
+   
+   /**
+    * Pairs found in a single frame.  The i-th pair consists of the spots in
+    * rows ch1Rows_[i] and ch2Rows_[i] of the table, in the order of the 
+    * channel 1 spots in the table.
+    */
+   public static class FramePairs {
+      public final int[] ch1Rows_;
+      public final int[] ch2Rows_;
+      
+      FramePairs(int[] ch1Rows, int[] ch2Rows) {
+         ch1Rows_ = ch1Rows;
+         ch2Rows_ = ch2Rows;
+      }
+      
+      public int size() {
+         return ch1Rows_.length;
+      }
+   }
+   
+   /**
+    * Finds the pairs in frames 1 to nrFrames
+    * 
+    * @param spots - spots, sorted by frame
+    * @param nrFrames - number of frames
+    * @param maxDistance - a channel 2 spot farther away than this is not
+    *                      a partner
+    * @return pairs in each frame, element 0 holds the pairs of frame 1
+    */
+   public static FramePairs[] findPairs(SpotTable spots, int nrFrames, 
+           double maxDistance) {
+      FramePairs[] pairs = new FramePairs[nrFrames];
+      ForkJoinPool.commonPool().invoke(
+              new PairTask(spots, maxDistance, pairs, 1, nrFrames + 1));
+      return pairs;
+   }
+   
+   /**
+    * Finds the pairs in a single frame
+    */
+   private static FramePairs findPairsInFrame(SpotTable spots, int frame, 
+           double maxDistance) {
+      int start = spots.frameStart(frame);
+      int end = spots.frameEnd(frame);
+      // channel 2 spots of each position
+      Map<Integer, List<Integer>> ch2RowsByPosition = 
+              new HashMap<Integer, List<Integer>>();
+      Map<Integer, List<Point2D.Double>> ch2PointsByPosition = 
+              new HashMap<Integer, List<Point2D.Double>>();
+      for (int row = start; row < end; row++) {
+         if (spots.getChannel(row) == 2) {
+            int position = spots.getPosition(row);
+            List<Integer> rows = ch2RowsByPosition.get(position);
+            if (rows == null) {
+               rows = new ArrayList<Integer>();
+               ch2RowsByPosition.put(position, rows);
+               ch2PointsByPosition.put(position, new ArrayList<Point2D.Double>());
+            }
+            rows.add(row);
+            ch2PointsByPosition.get(position).add(
+                    new Point2D.Double(spots.getXCenter(row), spots.getYCenter(row)));
+         }
+      }
+      
+      int[] ch1Rows = new int[end - start];
+      int[] ch2Rows = new int[end - start];
+      int nrPairs = 0;
+      Map<Integer, NearestPoint2D> npsByPosition = new HashMap<Integer, NearestPoint2D>();
+      for (int row = start; row < end; row++) {
+         if (spots.getChannel(row) == 1) {
+            int position = spots.getPosition(row);
+            List<Point2D.Double> ch2Points = ch2PointsByPosition.get(position);
+            if (ch2Points == null) {
+               continue;
+            }
+            NearestPoint2D np = npsByPosition.get(position);
+            if (np == null) {
+               np = new NearestPoint2D(ch2Points, maxDistance);
+               npsByPosition.put(position, np);
+            }
+            int index = np.findIndexKDWSE(new Point2D.Double(
+                    spots.getXCenter(row), spots.getYCenter(row)));
+            if (index >= 0) {
+               ch1Rows[nrPairs] = row;
+               ch2Rows[nrPairs] = ch2RowsByPosition.get(position).get(index);
+               nrPairs++;
+            }
+         }
+      }
+      return new FramePairs(Arrays.copyOf(ch1Rows, nrPairs), 
+              Arrays.copyOf(ch2Rows, nrPairs));
+   }
+   
+   /**
+    * Finds the pairs in frames startFrame up to endFrame, splitting the
+    * range until it is small enough
+    */
+   private static class PairTask extends RecursiveAction {
+      private final SpotTable spots_;
+      private final double maxDistance_;
+      private final FramePairs[] pairs_;
+      private final int startFrame_;
+      private final int endFrame_;
+      
+      PairTask(SpotTable spots, double maxDistance, FramePairs[] pairs, 
+              int startFrame, int endFrame) {
+         spots_ = spots;
+         maxDistance_ = maxDistance;
+         pairs_ = pairs;
+         startFrame_ = startFrame;
+         endFrame_ = endFrame;
+      }
+
+      @Override
+      protected void compute() {
+         if (endFrame_ - startFrame_ <= FRAMES_PER_TASK) {
+            for (int frame = startFrame_; frame < endFrame_; frame++) {
+               pairs_[frame - 1] = findPairsInFrame(spots_, frame, maxDistance_);
+            }
+            return;
+         }
+         int middle = (startFrame_ + endFrame_) >>> 1;
+         invokeAll(new PairTask(spots_, maxDistance_, pairs_, startFrame_, middle),
+                 new PairTask(spots_, maxDistance_, pairs_, middle, endFrame_));
+      }
+   }
+
+}
@@ -73,6 +73,22 @@ public class NearestPoint2D {
     * in the constructor
     */
    public Point2D.Double findKDWSE(Point2D.Double input) {
+      int index = findIndexKDWSE(input);
+      if (index < 0) {
+         return null;
+      }
+      return (Point2D.Double) theList_.get(index).clone();
+   }
+   
+   /**
+    * Same as findKDWSE, but returns the index of the point found, so that
+    * callers can find the data that belongs to the point without searching
+    * 
+    * @param input - point for which we want to find the nearest neighbor
+    * @return index of the point found in the list given to the constructor, 
+    * or -1 when it was farther away than the cutoff set in the constructor
+    */
+   public int findIndexKDWSE(Point2D.Double input) {
       // construct a new KD tree if needed
       if (we_ == null) {
          we_ = new SqrEuclid<Integer>(2, 50 * theList_.size());
@@ -85,18 +101,11 @@ public class NearestPoint2D {
       double[] testPoint = {input.x, input.y};
       List<Entry<Integer>> result = we_.nearestNeighbor(testPoint, 1, false);
 
-      if (result.size() > 0) {
-         Integer index = result.get(0).value;
-         double distance = result.get(0).distance;
-
-         Point2D.Double ret = (Point2D.Double) theList_.get(index).clone();
-
-         if (distance < maxDistanceSquared_) {
-            return ret;
-         }
+      if (result.size() > 0 && result.get(0).distance < maxDistanceSquared_) {
+         return result.get(0).value;
       }
       
-      return null;
+      return -1;
    }
    
    /**
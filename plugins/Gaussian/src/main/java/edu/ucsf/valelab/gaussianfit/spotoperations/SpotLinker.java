@@ -73,79 +73,8 @@ public class SpotLinker {
    public static void link(RowData rowData, double maxDistance) {
       try {
          ij.IJ.showStatus("Linking spotData...");
-         boolean useFrames = rowData.nrFrames_ > rowData.nrSlices_;
-         int nr = rowData.nrSlices_;
-         if (useFrames) {
-            nr = rowData.nrFrames_;
-         }
+         List<SpotData> destList = linkedSpots(rowData, maxDistance);
 
-         // linked spots go here:
-         List<SpotData> destList = new ArrayList<SpotData>();
-         // maintain active tracks here
-         List< List<SpotData>> tracks = 
-                 new ArrayList<List<SpotData>>();
-         for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
-            for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
-               for (int s = 1; s <= rowData.nrSlices_; s++) {
-                  for (int f = 1; f <= rowData.nrFrames_; f++) {
-                     List<SpotData> spots = rowData.get(f, s, ch, pos);
-                     if (spots != null) {
-                        // keep track of spots in this frame added to tracks 
-                        List<SpotData> markedSpots = new ArrayList<SpotData>();
-                        // go through all tracks to see if they can be extended
-                        if (tracks.size() > 0) {
-                           ArrayList<GsSpotPair> gsSpots = new ArrayList<GsSpotPair>();
-                           for (SpotData spot : spots) {
-                              gsSpots.add(new GsSpotPair(spot, null,
-                                      new Point2D.Double(spot.getXCenter(), spot.getYCenter()),
-                                      new Point2D.Double(0.0, 0.0)));
-                           }
-                           NearestPointByData nsp = new NearestPointByData(gsSpots, maxDistance);
-                           List<List<SpotData>> removedTracks = 
-                                   new ArrayList<List<SpotData>>();
-                           for (List<SpotData> track : tracks) {
-                              SpotData tSpot = track.get(track.size() - 1);
-                              // TODO: do we really need a copy here?
-                              GsSpotPair newSpot = ((GsSpotPair) nsp.findKDWSE(new Point2D.Double(
-                                      tSpot.getXCenter(), tSpot.getYCenter()))).copy();
-                              if (newSpot == null) {
-                                 // track could not be extended, finalize it
-                                 linkSpots(track, destList, useFrames);
-                                 // and remove from the list of tracks
-                                 // to avoid a concurrent modification exception
-                                 // the removal needs to be a two step process
-                                 removedTracks.add(track);
-                              } else {
-                                 track.add(newSpot.getFirstSpot());
-                                 markedSpots.add(newSpot.getFirstSpot());
-                              }
-                           }
-                           // second part of removing tracks
-                           for (List<SpotData> track : removedTracks) {
-                              tracks.remove(track);
-                           }
-                        }
-                        // go through spots and start a new track with any spot 
-                        // that was not part of a track
-                        for (SpotData spot : spots) {
-                           if (!markedSpots.contains(spot)) {
-                              List<SpotData> track = new ArrayList<SpotData>();
-                              track.add(spot);
-                              tracks.add(track);
-                           }
-                        }
-                     }
-                  }
-                  // add tracks that made it to the end to destination list
-                  for (List<SpotData> track : tracks) {
-                     linkSpots(track, destList, useFrames);
-                  }
-                  tracks.clear();
-               }
-            }
-         }
-
-      
          // Add destList to rowData
          RowData.Builder builder = rowData.copy();
          builder.setName(rowData.getName() + " Linked").
@@ -158,6 +87,84 @@ public class SpotLinker {
       }
    }
 
+   /**
+    * Finds the tracks for link and merges each of them into a single spot.
+    *
+    * @param rowData - spots to be linked
+    * @param maxDistance - maximum distance between spots in consecutive frames
+    * @return one (averaged) spot for every track
+    */
+   public static List<SpotData> linkedSpots(RowData rowData, double maxDistance) {
+      boolean useFrames = rowData.nrFrames_ > rowData.nrSlices_;
+
+      // linked spots go here:
+      List<SpotData> destList = new ArrayList<SpotData>();
+      // maintain active tracks here
+      List< List<SpotData>> tracks =
+              new ArrayList<List<SpotData>>();
+      for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
+         for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
+            for (int s = 1; s <= rowData.nrSlices_; s++) {
+               for (int f = 1; f <= rowData.nrFrames_; f++) {
+                  List<SpotData> spots = frameSpots(rowData, f, s, ch, pos);
+                  if (spots != null) {
+                     // keep track of spots in this frame added to tracks
+                     List<SpotData> markedSpots = new ArrayList<SpotData>();
+                     // go through all tracks to see if they can be extended
+                     if (tracks.size() > 0) {
+                        ArrayList<GsSpotPair> gsSpots = new ArrayList<GsSpotPair>();
+                        for (SpotData spot : spots) {
+                           gsSpots.add(new GsSpotPair(spot, null,
+                                   new Point2D.Double(spot.getXCenter(), spot.getYCenter()),
+                                   new Point2D.Double(0.0, 0.0)));
+                        }
+                        NearestPointByData nsp = new NearestPointByData(gsSpots, maxDistance);
+                        List<List<SpotData>> removedTracks =
+                                new ArrayList<List<SpotData>>();
+                        for (List<SpotData> track : tracks) {
+                           SpotData tSpot = track.get(track.size() - 1);
+                           GsSpotPair newSpot = (GsSpotPair) nsp.findKDWSE(new Point2D.Double(
+                                   tSpot.getXCenter(), tSpot.getYCenter()));
+                           if (newSpot == null) {
+                              // track could not be extended, finalize it
+                              linkSpots(track, destList, useFrames);
+                              // and remove from the list of tracks
+                              // to avoid a concurrent modification exception
+                              // the removal needs to be a two step process
+                              removedTracks.add(track);
+                           } else {
+                              track.add(newSpot.getFirstSpot());
+                              markedSpots.add(newSpot.getFirstSpot());
+                           }
+                        }
+                        // second part of removing tracks
+                        for (List<SpotData> track : removedTracks) {
+                           tracks.remove(track);
+                        }
+                     }
+                     // go through spots and start a new track with any spot 
+                     // that was not part of a track
+                     for (SpotData spot : spots) {
+                        if (!markedSpots.contains(spot)) {
+                           List<SpotData> track = new ArrayList<SpotData>();
+                           track.add(spot);
+                           tracks.add(track);
+                        }
+                     }
+                  }
+               }
+               // add tracks that made it to the end to destination list
+               for (List<SpotData> track : tracks) {
+                  linkSpots(track, destList, useFrames);
+               }
+               tracks.clear();
+            }
+         }
+      }
+
+      return destList;
+   }
+
    /**
     * Given a list of linked spots, create a single spot entry that will be
     * added to the destination list
@@ -270,108 +277,130 @@ public class SpotLinker {
       int trackNr = 0;
       try {
          ij.IJ.showStatus("Extracting tracks...");
+         List<List<SpotData>> tracks = findTracks(rowData, minNr, nrMissing,
+                 maxDistance, minTotalDistance, combineChannels, maxPairDistance);
+         for (List<SpotData> track : tracks) {
+            writeTrack(rowData, track, trackNr);
+            trackNr++;
+         }
+         ij.IJ.showStatus("Extracted " + trackNr + " tracks");
+      } catch (OutOfMemoryError oome) {
+         JOptionPane.showMessageDialog(getInstance(), "Out of memory");
+      }
+      
+      return trackNr;
+   }
 
-         // maintain active tracks here
-         List<Integer> trackIndex;
-         Map<List<Integer>, List<TrackData>> trackMap = new HashMap<List<Integer>, List<TrackData>>();
-         for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
-            for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
-               for (int s = 1; s <= rowData.nrSlices_; s++) {
-                  trackIndex = Collections.unmodifiableList(Arrays.asList(pos, ch, s));
-                  List<TrackData> tracks = 
-                        new ArrayList<TrackData>();
-                  for (int f = 1; f <= rowData.nrFrames_; f++) {
-                     List<SpotData> spots = rowData.get(f, s, ch, pos);
-                     if (spots != null) {
-                        // keep track of spots in this frame added to tracks 
-                        List<SpotData> markedSpots = new ArrayList<SpotData>();
-                        // go through all tracks to see if they can be extended
-                        if (tracks.size() > 0) {
-                           NearestPointByData nsp = new NearestPointByData(spots, maxDistance);
-                           List<TrackData> removedTracks = 
-                                   new ArrayList<TrackData>();
-                           for (TrackData track : tracks) {
-                              SpotData tSpot = track.get(track.size() - 1);
-                              // TODO: do we really need a copy here?
-                              SpotData newSpot = (SpotData) nsp.findKDWSE(new Point2D.Double(
-                                      tSpot.getXCenter(), tSpot.getYCenter()));
-                              if (newSpot == null || markedSpots.contains(newSpot)) {
-                                 track.addMissing();
-                                 if (track.missingMoreThan(nrMissing)) {
-                                    // track could not be extended, finalize it
-                                    // Write out the track:
-                                    if (track.size() > minNr && 
-                                             track.get(0).distance(track.get(track.size() - 1)) > minTotalDistance)  {
-                                       writeTrack(rowData, track.getList(), trackNr);
-                                       trackNr++;
-                                       // and remove from the list of tracks
-                                       // to avoid a concurrent modification exception
-                                       // the removal needs to be a two step process
-                                       removedTracks.add(track);
-                                    }
+   /**
+    * Finds the tracks for extractTracks.  Parameters are as for extractTracks.
+    *
+    * @return tracks that pass the minNr and minTotalDistance criteria, in the
+    *         order in which extractTracks numbers them
+    */
+   public static List<List<SpotData>> findTracks(final RowData rowData,
+           final int minNr, final int nrMissing, final double maxDistance,
+           final double minTotalDistance, final boolean combineChannels,
+           final double maxPairDistance) {
+      List<List<SpotData>> found = new ArrayList<List<SpotData>>();
+
+      // maintain active tracks here
+      List<Integer> trackIndex;
+      Map<List<Integer>, List<TrackData>> trackMap = new HashMap<List<Integer>, List<TrackData>>();
+      for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
+         for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
+            for (int s = 1; s <= rowData.nrSlices_; s++) {
+               trackIndex = Collections.unmodifiableList(Arrays.asList(pos, ch, s));
+               List<TrackData> tracks = 
+                     new ArrayList<TrackData>();
+               for (int f = 1; f <= rowData.nrFrames_; f++) {
+                  List<SpotData> spots = frameSpots(rowData, f, s, ch, pos);
+                  if (spots != null) {
+                     // keep track of spots in this frame added to tracks 
+                     List<SpotData> markedSpots = new ArrayList<SpotData>();
+                     // go through all tracks to see if they can be extended
+                     if (tracks.size() > 0) {
+                        NearestPointByData nsp = new NearestPointByData(spots, maxDistance);
+                        List<TrackData> removedTracks = 
+                                new ArrayList<TrackData>();
+                        for (TrackData track : tracks) {
+                           SpotData tSpot = track.get(track.size() - 1);
+                           SpotData newSpot = (SpotData) nsp.findKDWSE(new Point2D.Double(
+                                   tSpot.getXCenter(), tSpot.getYCenter()));
+                           if (newSpot == null || markedSpots.contains(newSpot)) {
+                              track.addMissing();
+                              if (track.missingMoreThan(nrMissing)) {
+                                 // track could not be extended, finalize it
+                                 // Write out the track:
+                                 if (track.size() > minNr && 
+                                          track.get(0).distance(track.get(track.size() - 1)) > minTotalDistance)  {
+                                    found.add(track.getList());
+                                    // and remove from the list of tracks
+                                    // to avoid a concurrent modification exception
+                                    // the removal needs to be a two step process
+                                    removedTracks.add(track);
                                  }
-                              } else {
-                                 track.resetMissing();
-                                 track.add(newSpot);
-                                 markedSpots.add(newSpot);
                               }
-                           }
-                           // second part of removing tracks
-                           for (TrackData track : removedTracks) {
-                              tracks.remove(track);
+                           } else {
+                              track.resetMissing();
+                              track.add(newSpot);
+                              markedSpots.add(newSpot);
                            }
                         }
-                        // go through spots and start a new track with any spot 
-                        // that was not part of a previous track
-                        for (SpotData spot : spots) {
-                           if (!markedSpots.contains(spot)) {
-                              TrackData track = new TrackData();
-                              track.add(spot);
-                              tracks.add(track);
-                           }
+                        // second part of removing tracks
+                        for (TrackData track : removedTracks) {
+                           tracks.remove(track);
+                        }
+                     }
+                     // go through spots and start a new track with any spot 
+                     // that was not part of a previous track
+                     for (SpotData spot : spots) {
+                        if (!markedSpots.contains(spot)) {
+                           TrackData track = new TrackData();
+                           track.add(spot);
+                           tracks.add(track);
                         }
                      }
                   }
-                  
-                  // add tracks that made it to the end to destination list 
-                  trackMap.put(trackIndex, tracks);
-                  
                }
+               
+               // add tracks that made it to the end to destination list 
+               trackMap.put(trackIndex, tracks);
+               
             }
          }
+      }
 
-         // take average position of track in first channel
-         // if average position of closest track in another channel is within
-         // maxPairDistance, combine the tracks 
-        if (combineChannels) {
-            for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
-               for (int s = 1; s <= rowData.nrSlices_; s++) {
-                  Map <Integer, List<TrackData>> tracksByChannel = 
-                          new HashMap<Integer, List<TrackData>>();
-                  Map <Integer, NearestPointByData> npsByChannel =
-                          new HashMap<Integer, NearestPointByData>();
-                  for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
-                     trackIndex = Collections.unmodifiableList(Arrays.asList(pos, ch, s));
-                     tracksByChannel.put(ch, trackMap.get(trackIndex));
-                     npsByChannel.put(ch, new NearestPointByData(
-                             trackMap.get(trackIndex), maxPairDistance));
-                  }
-                  for (TrackData track : tracksByChannel.get(1)) {
-                     if (track.size() > minNr
-                             && track.get(0).distance(track.get(track.size() - 1))
-                             > minTotalDistance) {
-                        for (int ch = 2; ch <= rowData.nrChannels_; ch++) {
-                           TrackData closestTrack = 
-                                   (TrackData) npsByChannel.get(ch).findKDWSE(track.getPoint());
-                           if (closestTrack != null) {
-                              if (closestTrack.size() > minNr
-                                      && closestTrack.get(0).distance(
-                                              closestTrack.get(closestTrack.size() - 1))
-                                      > minTotalDistance) {
-                                 track.add(closestTrack);
-                                 trackMap.remove(Collections.unmodifiableList(
-                                         Arrays.asList(pos, ch, s)));
-                              }
+      // take average position of track in first channel
+      // if average position of closest track in another channel is within
+      // maxPairDistance, combine the tracks 
+      if (combineChannels) {
+         for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
+            for (int s = 1; s <= rowData.nrSlices_; s++) {
+               Map <Integer, List<TrackData>> tracksByChannel = 
+                       new HashMap<Integer, List<TrackData>>();
+               Map <Integer, NearestPointByData> npsByChannel =
+                       new HashMap<Integer, NearestPointByData>();
+               for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
+                  trackIndex = Collections.unmodifiableList(Arrays.asList(pos, ch, s));
+                  tracksByChannel.put(ch, trackMap.get(trackIndex));
+                  npsByChannel.put(ch, new NearestPointByData(
+                          trackMap.get(trackIndex), maxPairDistance));
+               }
+               for (TrackData track : tracksByChannel.get(1)) {
+                  if (track.size() > minNr
+                          && track.get(0).distance(track.get(track.size() - 1))
+                          > minTotalDistance) {
+                     for (int ch = 2; ch <= rowData.nrChannels_; ch++) {
+                        TrackData closestTrack = 
+                                (TrackData) npsByChannel.get(ch).findKDWSE(track.getPoint());
+                        if (closestTrack != null) {
+                           if (closestTrack.size() > minNr
+                                   && closestTrack.get(0).distance(
+                                           closestTrack.get(closestTrack.size() - 1))
+                                   > minTotalDistance) {
+                              track.add(closestTrack);
+                              trackMap.remove(Collections.unmodifiableList(
+                                      Arrays.asList(pos, ch, s)));
                            }
                         }
                      }
@@ -379,33 +408,41 @@ public class SpotLinker {
                }
             }
          }
-         
-         
-         for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
-            for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
-               for (int s = 1; s <= rowData.nrSlices_; s++) {
-                  trackIndex = Collections.unmodifiableList(Arrays.asList(pos, ch, s));
-                  List<TrackData> tracks = trackMap.get(trackIndex);
-                  if (tracks != null) {
-                     for (TrackData track : tracks) {
-                        if (track.size() > minNr
-                                && track.get(0).distance(track.get(track.size() - 1))
-                                > minTotalDistance) {
-                           writeTrack(rowData, track.getList(), trackNr);
-                           trackNr++;
-                        }
+      }
+      
+      
+      for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
+         for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
+            for (int s = 1; s <= rowData.nrSlices_; s++) {
+               trackIndex = Collections.unmodifiableList(Arrays.asList(pos, ch, s));
+               List<TrackData> tracks = trackMap.get(trackIndex);
+               if (tracks != null) {
+                  for (TrackData track : tracks) {
+                     if (track.size() > minNr
+                             && track.get(0).distance(track.get(track.size() - 1))
+                             > minTotalDistance) {
+                        found.add(track.getList());
                      }
                   }
                }
             }
-         }         
-         
-         ij.IJ.showStatus("Extracted " + trackNr + " tracks");
-      } catch (OutOfMemoryError oome) {
-         JOptionPane.showMessageDialog(getInstance(), "Out of memory");
+         }
       }
-      
-      return trackNr;
+
+      return found;
+   }
+
+   /**
+    * RowData hands out a new SpotData on every get, so take a copy of the
+    * list once, and use the same SpotData objects for searching and marking.
+    */
+   private static List<SpotData> frameSpots(RowData rowData, int frame,
+           int slice, int channel, int position) {
+      List<SpotData> spots = rowData.get(frame, slice, channel, position);
+      if (spots == null) {
+         return null;
+      }
+      return new ArrayList<SpotData>(spots);
    }
 
    private static void writeTrack(RowData rowData, List<SpotData> track, int trackNr) {
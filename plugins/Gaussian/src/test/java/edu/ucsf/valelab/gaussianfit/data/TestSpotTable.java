@@ -0,0 +1,101 @@
+package edu.ucsf.valelab.gaussianfit.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author nico
+ */
+public class TestSpotTable {
+
+   private static List<SpotData> randomSpots(Random random, int nrSpots) {
+      List<SpotData> spots = new ArrayList<SpotData>();
+      for (int i = 0; i < nrSpots; i++) {
+         SpotData spot = new SpotData(null, 1, 1, 1 + random.nextInt(20), 0, i,
+                 random.nextInt(512), random.nextInt(512));
+         spot.setData(random.nextDouble() * 1000, random.nextDouble() * 100,
+                 random.nextDouble() * 10000, random.nextDouble() * 10000, 0.0,
+                 random.nextDouble() * 300, 1.0, 0.0, random.nextDouble() * 20);
+         spot.setZCenter(random.nextDouble());
+         spot.nrLinks_ = i % 3;
+         if (i % 2 == 0) {
+            spot.addKeyValue(SpotData.Keys.APERTUREINTENSITY, i);
+         }
+         spots.add(spot);
+      }
+      return spots;
+   }
+
+   private static void assertSameSpot(SpotData expected, SpotData actual) {
+      Assert.assertEquals(expected.getFrame(), actual.getFrame());
+      Assert.assertEquals(expected.getChannel(), actual.getChannel());
+      Assert.assertEquals(expected.getNr(), actual.getNr());
+      Assert.assertEquals(expected.getX(), actual.getX());
+      Assert.assertEquals(expected.getY(), actual.getY());
+      Assert.assertEquals(expected.nrLinks_, actual.nrLinks_);
+      Assert.assertEquals(expected.getIntensity(), actual.getIntensity(), 0.0);
+      Assert.assertEquals(expected.getXCenter(), actual.getXCenter(), 0.0);
+      Assert.assertEquals(expected.getYCenter(), actual.getYCenter(), 0.0);
+      Assert.assertEquals(expected.getZCenter(), actual.getZCenter(), 0.0);
+      Assert.assertEquals(expected.getA(), actual.getA(), 0.0);
+      Assert.assertEquals(expected.getSigma(), actual.getSigma(), 0.0);
+      Assert.assertEquals(expected.getValue(SpotData.Keys.APERTUREINTENSITY),
+              actual.getValue(SpotData.Keys.APERTUREINTENSITY));
+   }
+
+   @Test
+   public void testRoundTrip() {
+      List<SpotData> spots = randomSpots(new Random(0), 1000);
+      SpotTable table = SpotTable.fromList(spots);
+      Assert.assertEquals(spots.size(), table.size());
+      Assert.assertFalse(table.isSortedByFrame());
+      for (int i = 0; i < spots.size(); i++) {
+         assertSameSpot(spots.get(i), table.getSpot(i));
+      }
+      // a view is turned back into its own table
+      Assert.assertSame(table, SpotTable.fromList(table.asList()));
+   }
+
+   @Test
+   public void testFrameIndex() {
+      List<SpotData> spots = randomSpots(new Random(1), 1000);
+      SpotTable table = SpotTable.fromList(spots).sortedByFrame();
+      Assert.assertTrue(table.isSortedByFrame());
+      int total = 0;
+      for (int frame : table.getFrames()) {
+         int lastNr = -1;
+         for (int row = table.frameStart(frame); row < table.frameEnd(frame); row++) {
+            Assert.assertEquals(frame, table.getFrame(row));
+            // sorting keeps the original order within a frame
+            Assert.assertTrue(table.getNr(row) > lastNr);
+            lastNr = table.getNr(row);
+            total++;
+         }
+      }
+      Assert.assertEquals(spots.size(), total);
+      Assert.assertEquals(table.frameStart(100), table.frameEnd(100));
+   }
+
+   @Test
+   public void testWithXYCenters() {
+      List<SpotData> spots = randomSpots(new Random(2), 100);
+      SpotTable table = SpotTable.fromList(spots);
+      double[] x = new double[table.size()];
+      double[] y = new double[table.size()];
+      for (int i = 0; i < x.length; i++) {
+         x[i] = table.getXCenter(i) + 1.0;
+         y[i] = -table.getYCenter(i);
+      }
+      SpotTable moved = table.withXYCenters(x, y);
+      for (int i = 0; i < x.length; i++) {
+         Assert.assertEquals(x[i], moved.getXCenter(i), 0.0);
+         Assert.assertEquals(y[i], moved.getYCenter(i), 0.0);
+         Assert.assertEquals(table.getIntensity(i), moved.getIntensity(i), 0.0);
+         Assert.assertEquals(spots.get(i).getXCenter(), table.getXCenter(i), 0.0);
+      }
+   }
+}
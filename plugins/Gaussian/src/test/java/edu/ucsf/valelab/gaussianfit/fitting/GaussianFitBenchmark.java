@@ -0,0 +1,69 @@
+package edu.ucsf.valelab.gaussianfit.fitting;
+
+import edu.ucsf.valelab.gaussianfit.algorithm.GaussianFit;
+import ij.process.ShortProcessor;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fits noisy synthetic 16x16 spots with each fit mode: the existing
+ * Levenberg-Marquardt (2), Simplex-MLE (3) and LM-Weighted (4) modes, and
+ * the LM-Fast (5) and MLE-Fast (6) modes that use GaussianLMFitter.
+ *
+ * Not a unit test (excluded from the test run); run with
+ * {@code java -cp <test classpath> org.openjdk.jmh.Main GaussianFitBenchmark -prof gc}
+ * to see the allocation per fitted spot as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GaussianFitBenchmark {
+   // Distinct spots, fitted in turn
+   private static final int NUM_SPOTS = 64;
+   // Enough for Simplex-MLE to converge; the other modes stop long before
+   private static final int MAX_ITERATIONS = 5000;
+
+   @Param({"1", "3"})
+   public int shape;
+
+   @Param({"2", "3", "4", "5", "6"})
+   public int fitMode;
+
+   private ShortProcessor[] spots_;
+   private GaussianFit fitter_;
+   private int next_ = 0;
+
+   @Setup
+   public void setUp() {
+      Random random = new Random(0);
+      spots_ = new ShortProcessor[NUM_SPOTS];
+      for (int i = 0; i < NUM_SPOTS; i++) {
+         double xc = 7 + random.nextDouble() * 2;
+         double yc = 7 + random.nextDouble() * 2;
+         spots_[i] = TestGaussianLMFitter.spot(random, xc, yc, 1.3,
+                 shape == GaussianFit.CIRCLE ? 1.3 : 1.6);
+      }
+      fitter_ = new GaussianFit(shape, fitMode);
+   }
+
+   @Benchmark
+   public double[] fitSpot() {
+      ShortProcessor spot = spots_[next_];
+      next_ = (next_ + 1) % NUM_SPOTS;
+      return fitter_.dogaussianfit(spot, MAX_ITERATIONS).getParms();
+   }
+}
@@ -0,0 +1,86 @@
+package edu.ucsf.valelab.gaussianfit.fitting;
+
+import edu.ucsf.valelab.gaussianfit.algorithm.GaussianFit;
+import ij.process.ShortProcessor;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author nico
+ */
+public class TestGaussianLMFitter {
+   private static final int SIZE = 16;
+
+   /**
+    * Spot with the given center and widths on a background of 100, with 
+    * Poisson noise
+    */
+   static ShortProcessor spot(Random random, double xc, double yc, 
+           double sx, double sy) {
+      short[] pixels = new short[SIZE * SIZE];
+      for (int y = 0; y < SIZE; y++) {
+         for (int x = 0; x < SIZE; x++) {
+            double mean = 100 + 1000 * Math.exp(-0.5 * ((x - xc) * (x - xc) / (sx * sx)
+                    + (y - yc) * (y - yc) / (sy * sy)));
+            pixels[y * SIZE + x] = (short) poisson(random, mean);
+         }
+      }
+      return new ShortProcessor(SIZE, SIZE, pixels, null);
+   }
+
+   private static int poisson(Random random, double mean) {
+      // normal approximation is good enough at these counts
+      return (int) Math.max(0, Math.round(mean + Math.sqrt(mean) * random.nextGaussian()));
+   }
+
+   private static void compare(int shape, int referenceMode, int fastMode, 
+           double tolerance) {
+      Random random = new Random(shape);
+      GaussianFit reference = new GaussianFit(shape, referenceMode);
+      GaussianFit fast = new GaussianFit(shape, fastMode);
+      for (int i = 0; i < 50; i++) {
+         double xc = 7 + random.nextDouble() * 2;
+         double yc = 7 + random.nextDouble() * 2;
+         ShortProcessor ip = spot(random, xc, yc, 1.3, shape == GaussianFit.CIRCLE ? 1.3 : 1.6);
+         // the simplex needs many more iterations to converge
+         double[] expected = reference.dogaussianfit(ip, 5000).getParms();
+         double[] actual = fast.dogaussianfit(ip, 200).getParms();
+         Assert.assertEquals(expected.length, actual.length);
+         Assert.assertEquals(expected[GaussianFit.XC], actual[GaussianFit.XC], tolerance);
+         Assert.assertEquals(expected[GaussianFit.YC], actual[GaussianFit.YC], tolerance);
+         Assert.assertEquals(expected[GaussianFit.S], actual[GaussianFit.S], tolerance);
+         Assert.assertEquals(xc, actual[GaussianFit.XC], 0.1);
+         Assert.assertEquals(yc, actual[GaussianFit.YC], 0.1);
+      }
+   }
+
+   @Test
+   public void testLeastSquaresMatchesLevenbergMarquardt() {
+      compare(GaussianFit.CIRCLE, GaussianFit.LEVENBERGMARQUARD, 
+              GaussianFit.FASTLEVENBERGMARQUARD, 0.01);
+      compare(GaussianFit.ASYMMETRIC, GaussianFit.LEVENBERGMARQUARD, 
+              GaussianFit.FASTLEVENBERGMARQUARD, 0.01);
+      compare(GaussianFit.ELLIPSE, GaussianFit.LEVENBERGMARQUARD, 
+              GaussianFit.FASTLEVENBERGMARQUARD, 0.01);
+   }
+
+   @Test
+   public void testMLEMatchesSimplexMLE() {
+      compare(GaussianFit.CIRCLE, GaussianFit.NELDERMEADMLE, 
+              GaussianFit.FASTMLE, 0.01);
+   }
+
+   @Test
+   public void testFixedWidth() {
+      Random random = new Random(3);
+      GaussianFit fast = new GaussianFit(GaussianFit.CIRCLE, 
+              GaussianFit.FASTLEVENBERGMARQUARD, true, 1.3);
+      double[] parms = fast.dogaussianfit(spot(random, 7.6, 8.2, 1.3, 1.3), 200).getParms();
+      Assert.assertEquals(4, parms.length);
+      Assert.assertEquals(7.6, parms[GaussianFit.XC], 0.1);
+      Assert.assertEquals(8.2, parms[GaussianFit.YC], 0.1);
+      Assert.assertEquals(100, parms[GaussianFit.BGR], 5);
+   }
+}
@@ -0,0 +1,68 @@
+package edu.ucsf.valelab.gaussianfit.spotoperations;
+
+import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author nico
+ */
+public class TestChannelPairFinder {
+
+   @Test
+   public void testMatchesBruteForce() {
+      Random random = new Random(0);
+      int nrFrames = 100;
+      double maxDistance = 50.0;
+      List<SpotData> spots = new ArrayList<SpotData>();
+      for (int frame = 1; frame <= nrFrames; frame++) {
+         for (int i = 0; i < 40; i++) {
+            SpotData spot = new SpotData(null, 1 + random.nextInt(2), 1, frame,
+                    1 + random.nextInt(2), i, 0, 0);
+            spot.setData(1000.0, 100.0, random.nextDouble() * 5000, 
+                    random.nextDouble() * 5000, 0.0, 200.0, 1.0, 0.0, 10.0);
+            spots.add(spot);
+         }
+      }
+      SpotTable table = SpotTable.fromList(spots).sortedByFrame();
+      
+      ChannelPairFinder.FramePairs[] pairs = 
+              ChannelPairFinder.findPairs(table, nrFrames, maxDistance);
+      Assert.assertEquals(nrFrames, pairs.length);
+      int nrPairs = 0;
+      for (int frame = 1; frame <= nrFrames; frame++) {
+         int p = 0;
+         for (int row = table.frameStart(frame); row < table.frameEnd(frame); row++) {
+            if (table.getChannel(row) != 1) {
+               continue;
+            }
+            int nearest = -1;
+            double minDistance2 = maxDistance * maxDistance;
+            for (int other = table.frameStart(frame); other < table.frameEnd(frame); other++) {
+               if (table.getChannel(other) == 2 
+                       && table.getPosition(other) == table.getPosition(row)) {
+                  double dx = table.getXCenter(other) - table.getXCenter(row);
+                  double dy = table.getYCenter(other) - table.getYCenter(row);
+                  if (dx * dx + dy * dy < minDistance2) {
+                     minDistance2 = dx * dx + dy * dy;
+                     nearest = other;
+                  }
+               }
+            }
+            if (nearest >= 0) {
+               Assert.assertEquals(row, pairs[frame - 1].ch1Rows_[p]);
+               Assert.assertEquals(nearest, pairs[frame - 1].ch2Rows_[p]);
+               p++;
+            }
+         }
+         Assert.assertEquals(p, pairs[frame - 1].size());
+         nrPairs += p;
+      }
+      Assert.assertTrue(nrPairs > 0);
+   }
+}
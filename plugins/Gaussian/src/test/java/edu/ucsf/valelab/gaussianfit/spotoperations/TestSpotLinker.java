@@ -0,0 +1,73 @@
+package edu.ucsf.valelab.gaussianfit.spotoperations;
+
+import edu.ucsf.valelab.gaussianfit.data.RowData;
+import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author nico
+ */
+public class TestSpotLinker {
+
+   private static final int NR_FRAMES = 5;
+   private static final int NR_MOVING = 3;
+
+   /**
+    * Three spots that move 10 nm per frame through all frames, and one spot
+    * that is only seen in the first frame
+    */
+   private static RowData testData() {
+      List<SpotData> spots = new ArrayList<SpotData>();
+      for (int frame = 1; frame <= NR_FRAMES; frame++) {
+         for (int i = 0; i < NR_MOVING; i++) {
+            spots.add(spot(frame, i, 1000.0 * (i + 1) + 10.0 * frame));
+         }
+      }
+      spots.add(spot(1, NR_MOVING, 9000.0));
+      return new RowData.Builder().setNrFrames(NR_FRAMES).
+              setMaxNrSpots(spots.size()).setSpotList(spots).build();
+   }
+
+   private static SpotData spot(int frame, int nr, double xy) {
+      SpotData spot = new SpotData(null, 1, 1, frame, 1, nr, 0, 0);
+      spot.setData(1000.0, 100.0, xy, xy, 0.0, 200.0, 1.0, 0.0, 10.0);
+      return spot;
+   }
+
+   @Test
+   public void testLinkedSpots() {
+      List<SpotData> linked = SpotLinker.linkedSpots(testData(), 50.0);
+      Assert.assertEquals(NR_MOVING + 1, linked.size());
+      int nrFullTracks = 0;
+      for (SpotData spot : linked) {
+         if (spot.nrLinks_ == NR_FRAMES) {
+            nrFullTracks++;
+            Assert.assertEquals(1, spot.getFrame());
+         } else {
+            Assert.assertEquals(1, spot.nrLinks_);
+            Assert.assertEquals(9000.0, spot.getXCenter(), 0.0);
+         }
+      }
+      Assert.assertEquals(NR_MOVING, nrFullTracks);
+   }
+
+   @Test
+   public void testFindTracks() {
+      List<List<SpotData>> tracks = SpotLinker.findTracks(testData(), 1, 0, 
+              50.0, 0.0, false, 0.0);
+      Assert.assertEquals(NR_MOVING, tracks.size());
+      for (List<SpotData> track : tracks) {
+         Assert.assertEquals(NR_FRAMES, track.size());
+         for (int i = 0; i < NR_FRAMES; i++) {
+            Assert.assertEquals(i + 1, track.get(i).getFrame());
+            Assert.assertEquals(track.get(0).getXCenter() + 10.0 * i, 
+                    track.get(i).getXCenter(), 1.0e-9);
+         }
+      }
+   }
+
+}
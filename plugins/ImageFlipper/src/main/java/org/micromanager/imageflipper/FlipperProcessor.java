@@ -59,6 +59,12 @@ public class FlipperProcessor extends Processor {
       isMirrored_ = isMirrored;
    }
 
+   // Each image is transformed independently
+   @Override
+   public boolean isStateless() {
+      return true;
+   }
+
    /**
     * Process one image.
     */
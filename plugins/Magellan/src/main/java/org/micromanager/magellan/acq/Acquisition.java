@@ -35,6 +35,7 @@ import org.micromanager.magellan.channels.MagellanChannelSpec;
 import org.micromanager.magellan.coordinates.MagellanAffineUtils;
 import org.micromanager.magellan.coordinates.XYStagePosition;
 import org.micromanager.magellan.main.Magellan;
+import org.micromanager.magellan.api.zmq.ZMQImageStreamer;
 import org.micromanager.magellan.misc.Log;
 import org.micromanager.magellan.misc.MD;
 import mmcorej.CMMCore;
@@ -153,6 +154,7 @@ public abstract class Acquisition implements MagellanAcquisitionAPI {
       } else {
          //this method doesnt return until all images have been writtent to disk
          dataProvider_.putImage(image);
+         ZMQImageStreamer.offer(image);
       }
    }
    
@@ -429,6 +431,16 @@ public abstract class Acquisition implements MagellanAcquisitionAPI {
    
    public synchronized void togglePaused() {
       paused_ = !paused_;
+      notifyAll();
+   }
+
+   /**
+    * Block until the acquisition is not paused
+    */
+   public synchronized void waitWhilePaused() throws InterruptedException {
+      while (paused_) {
+         wait();
+      }
    }
    
    private static String getCurrentDateAndTime() {
@@ -42,6 +42,7 @@ public class AcquisitionEvent {
    public List<AcquisitionEvent> sequence_ = null;
    public boolean xySequenced_ = false, zSequenced_ = false, exposureSequenced_ = false, channelSequenced_ = false;
    public AcquisitionRunnable beforeHardwareHook_ = null, afterHardwareHook_ = null, afterImageSavedHook_ = null;
+   HardwareUpdateTiming hardwareTiming_ = null; //set once the hardware has been updated for this event
    
    private SpecialFlag specialFlag_;
 
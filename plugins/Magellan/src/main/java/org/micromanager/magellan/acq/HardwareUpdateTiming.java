@@ -0,0 +1,72 @@
+///////////////////////////////////////////////////////////////////////////////
+// COPYRIGHT:    University of California, San Francisco, 2019
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+package org.micromanager.magellan.acq;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * How long each hardware command of an acquisition event took. Commands for
+ * independent devices run concurrently, so the total wall time is less than
+ * the sum of the individual times by the amount saved
+ */
+final class HardwareUpdateTiming {
+
+   private final long zMs_, xyMs_, channelMs_, exposureMs_, wallMs_;
+
+   HardwareUpdateTiming(long zMs, long xyMs, long channelMs, long exposureMs, long wallMs) {
+      zMs_ = zMs;
+      xyMs_ = xyMs;
+      channelMs_ = channelMs;
+      exposureMs_ = exposureMs;
+      wallMs_ = wallMs;
+   }
+
+   long getSequentialMs() {
+      return zMs_ + xyMs_ + channelMs_ + exposureMs_;
+   }
+
+   long getWallMs() {
+      return wallMs_;
+   }
+
+   /**
+    * @return time saved compared to issuing the commands one after another
+    */
+   long getSavedMs() {
+      return Math.max(0, getSequentialMs() - wallMs_);
+   }
+
+   JSONObject toJSON() {
+      try {
+         JSONObject json = new JSONObject();
+         json.put("Z", zMs_);
+         json.put("XY", xyMs_);
+         json.put("Channel", channelMs_);
+         json.put("Exposure", exposureMs_);
+         json.put("Total", wallMs_);
+         json.put("Saved", getSavedMs());
+         return json;
+      } catch (JSONException ex) {
+         throw new RuntimeException(ex);
+      }
+   }
+
+   @Override
+   public String toString() {
+      return "Z: " + zMs_ + " ms\tXY: " + xyMs_ + " ms\tChannel: " + channelMs_
+              + " ms\tExposure: " + exposureMs_ + " ms\tTotal: " + wallMs_ + " ms\tSaved: " + getSavedMs() + " ms";
+   }
+}
@@ -26,6 +26,7 @@ import java.util.Calendar;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Callable;
@@ -40,6 +41,7 @@ import java.util.logging.Logger;
 import java.util.stream.Stream;
 import org.micromanager.magellan.channels.ChannelSetting;
 import org.micromanager.magellan.misc.Log;
+import org.micromanager.magellan.misc.MD;
 import mmcorej.CMMCore;
 import mmcorej.Configuration;
 import mmcorej.DoubleVector;
@@ -68,9 +70,12 @@ public class MagellanEngine {
    private AcquisitionEvent lastEvent_ = null;
    private final ExecutorService acqExecutor_;
    private final ThreadPoolExecutor savingExecutor_;
+   //notified whenever the saving executor takes a task off its queue
+   private final Object savingQueueLock_ = new Object();
    private AcqDurationEstimator acqDurationEstiamtor_; //get information about how much time different hardware moves take
    private LinkedList<AcquisitionEvent> eventQueue_ = new LinkedList<AcquisitionEvent>();
    private ExecutorService eventGeneratorExecutor_;
+   private final ExecutorService hardwareExecutor_;
 
    public MagellanEngine(CMMCore core, AcqDurationEstimator acqDurationEstiamtor) {
       singleton_ = this;
@@ -80,8 +85,22 @@ public class MagellanEngine {
          return new Thread(r, "Magellan Acquisition Engine Thread");
       });
       savingExecutor_ = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
-              (Runnable r) -> new Thread(r, "Magellan engine image saving thread"));
+              (Runnable r) -> new Thread(r, "Magellan engine image saving thread")) {
+         @Override
+         protected void beforeExecute(Thread t, Runnable r) {
+            super.beforeExecute(t, r);
+            synchronized (savingQueueLock_) {
+               savingQueueLock_.notifyAll();
+            }
+         }
+      };
       eventGeneratorExecutor_ = Executors.newSingleThreadExecutor((Runnable r) -> new Thread(r, "Magellan engine vent generator"));
+      //one thread each for Z, XY, channels and exposure
+      hardwareExecutor_ = Executors.newFixedThreadPool(4, (Runnable r) -> {
+         Thread t = new Thread(r, "Magellan engine hardware thread");
+         t.setDaemon(true);
+         return t;
+      });
       //subclasses are resonsible for submitting event streams to begin acquisiton
    }
 
@@ -97,6 +116,18 @@ public class MagellanEngine {
       return savingExecutor_.getQueue().size();
    }
 
+   /**
+    * Block until there is room in the saving queue, so events can't be
+    * submitted to the engine way faster than images can be written to disk
+    */
+   private void waitForSavingQueueSpace() throws InterruptedException {
+      synchronized (savingQueueLock_) {
+         while (getNumImagesWaitingToSave() > MAX_QUEUED_IMAGES_FOR_WRITE) {
+            savingQueueLock_.wait();
+         }
+      }
+   }
+
    /**
     * Check if two events can be sequenced into one
     *
@@ -219,13 +250,11 @@ public class MagellanEngine {
          Stream<AcquisitionEvent> streamWithPause = streamWithEnd.map(new Function<AcquisitionEvent, AcquisitionEvent>() {
             @Override
             public AcquisitionEvent apply(AcquisitionEvent t) {
-               while (t.acquisition_.isPaused()) {
-                  try {
-                     Thread.sleep(5);
-                  } catch (InterruptedException ex) {
-                     Log.log(ex);
-                     throw new RuntimeException(ex);
-                  }
+               try {
+                  t.acquisition_.waitWhilePaused();
+               } catch (InterruptedException ex) {
+                  Log.log(ex);
+                  throw new RuntimeException(ex);
                }
                return t;
             }
@@ -235,13 +264,11 @@ public class MagellanEngine {
          Stream<AcquisitionEvent> rateLimitedStream = streamWithPause.map(new Function<AcquisitionEvent, AcquisitionEvent>() {
             @Override
             public AcquisitionEvent apply(AcquisitionEvent t) {
-               while (MagellanEngine.getInstance().getNumImagesWaitingToSave() > MAX_QUEUED_IMAGES_FOR_WRITE) {
-                  try {
-                     Thread.sleep(2);
-                  } catch (InterruptedException ex) {
-                     ex.printStackTrace();
-                     throw new RuntimeException(ex); //must have beeen aborted
-                  }
+               try {
+                  MagellanEngine.getInstance().waitForSavingQueueSpace();
+               } catch (InterruptedException ex) {
+                  ex.printStackTrace();
+                  throw new RuntimeException(ex); //must have beeen aborted
                }
                return t;
             }
@@ -344,13 +371,11 @@ public class MagellanEngine {
     * @throws InterruptedException
     */
    private Future executeAcquisitionEvent(final AcquisitionEvent event) throws InterruptedException {
-      while (System.currentTimeMillis() < event.miniumumStartTime_) {
-         try {
-            Thread.sleep(1);
-         } catch (InterruptedException e) {
-            //Abort while waiting for next time point
-            return null;
-         }
+      try {
+         sleepUntil(event.miniumumStartTime_);
+      } catch (InterruptedException e) {
+         //Abort while waiting for next time point
+         return null;
       }
       if (event.isAcquisitionFinishedEvent()) {
          //signal to MagellanTaggedImageSink to finish saving thread and mark acquisition as finished
@@ -420,6 +445,14 @@ public class MagellanEngine {
             } catch (Exception ex) {
                throw new RuntimeException("Couldnt get exposure form core");
             }
+            if (i == 0) {
+               //no image can arrive before the first exposure is over
+               try {
+                  sleepUntil((long) startTime + (long) exposure);
+               } catch (InterruptedException ex) {
+                  Log.log("Unexpected interrupt on image savigng thread");
+               }
+            }
             for (int c = 0; c < core_.getNumberOfCameraChannels(); c++) {
                TaggedImage ti = null;
                while (ti == null) {
@@ -436,6 +469,9 @@ public class MagellanEngine {
 
                event.acquisition_.addImageMetadata(ti.tags, event, event.timeIndex_, c, currentTime - event.acquisition_.getStartTime_ms(),
                        exposure, core_.getNumberOfCameraChannels() > 1);
+               if (event.hardwareTiming_ != null) {
+                  MD.setHardwareUpdateTimes(ti.tags, event.hardwareTiming_.toJSON());
+               }
                images.add(ti);
             }
 
@@ -517,9 +553,11 @@ public class MagellanEngine {
       if (lastEvent_ != null && lastEvent_.acquisition_ != event.acquisition_) {
          lastEvent_ = null; //update all hardware if switching to a new acquisition
       }
+      //Z, XY and channel commands go to independent devices, so issue them
+      //concurrently and wait for all of them together
+      final long updateStartTime = System.currentTimeMillis();
       /////////////////////////////Z stage////////////////////////////////////////////
-      double startTime = System.currentTimeMillis();
-      loopHardwareCommandRetries(new Runnable() {
+      Future<Long> zFuture = hardwareExecutor_.submit(() -> timeHardwareCommand(new Runnable() {
          @Override
          public void run() {
             try {
@@ -542,13 +580,12 @@ public class MagellanEngine {
             }
 
          }
-      }, "Moving Z device");
-      acqDurationEstiamtor_.storeZMoveTime(System.currentTimeMillis() - startTime);
+      }, "Moving Z device"));
 
       /////////////////////////////XY Stage////////////////////////////////////////////////////
+      Future<Long> xyFuture = null;
       if (event.xyPosition_ != null) {
-         startTime = System.currentTimeMillis();
-         loopHardwareCommandRetries(new Runnable() {
+         xyFuture = hardwareExecutor_.submit(() -> timeHardwareCommand(new Runnable() {
             @Override
             public void run() {
                try {
@@ -572,12 +609,16 @@ public class MagellanEngine {
                }
 
             }
-         }, "Moving XY stage");
-         acqDurationEstiamtor_.storeXYMoveTime(System.currentTimeMillis() - startTime);
+         }, "Moving XY stage"));
+      }
+      //A channel preset that includes properties of the stages has to wait
+      //for the stage moves, or it could be overridden by them
+      if (channelConfigUsesDevice(event, zStage, xyStage)) {
+         awaitHardwareCommands(Arrays.asList(zFuture, xyFuture));
       }
       /////////////////////////////Channels//////////////////////////////////////////////////
-      startTime = System.currentTimeMillis();
-      loopHardwareCommandRetries(new Runnable() {
+      //Channels and exposure both set the camera, so they stay in order on one thread
+      Future<Long> channelFuture = hardwareExecutor_.submit(() -> timeHardwareCommand(new Runnable() {
          @Override
          public void run() {
             try {
@@ -610,35 +651,128 @@ public class MagellanEngine {
             }
 
          }
-      }, "Changing channels");
-      acqDurationEstiamtor_.storeChannelSwitchTime(System.currentTimeMillis() - startTime);
+      }, "Changing channels"));
 
       /////////////////////////////Camera exposure//////////////////////////////////////////////
-      startTime = System.currentTimeMillis();
-      loopHardwareCommandRetries(new Runnable() {
-         @Override
-         public void run() {
-            try {
-               if (event.exposureSequenced_) {
-                  core_.startExposureSequence(core_.getCameraDevice());
-               } else if (event.acquisition_.channels_ != null && event.acquisition_.channels_.getNumChannels() != 0
-                       && (lastEvent_ == null || lastEvent_.acquisition_ != event.acquisition_
-                       || ((lastEvent_.acquisition_.channels_.getChannelSetting(lastEvent_.channelName_).exposure_
-                       != event.acquisition_.channels_.getChannelSetting(event.channelName_).exposure_)))) {
-                  core_.setExposure(event.acquisition_.channels_.getChannelSetting(event.channelName_).exposure_);
+      Future<Long> exposureFuture = hardwareExecutor_.submit(() -> {
+         //wait for the channel to be set first, so its exposure doesnt override this one
+         awaitHardwareCommand(channelFuture);
+         return timeHardwareCommand(new Runnable() {
+            @Override
+            public void run() {
+               try {
+                  if (event.exposureSequenced_) {
+                     core_.startExposureSequence(core_.getCameraDevice());
+                  } else if (event.acquisition_.channels_ != null && event.acquisition_.channels_.getNumChannels() != 0
+                          && (lastEvent_ == null || lastEvent_.acquisition_ != event.acquisition_
+                          || ((lastEvent_.acquisition_.channels_.getChannelSetting(lastEvent_.channelName_).exposure_
+                          != event.acquisition_.channels_.getChannelSetting(event.channelName_).exposure_)))) {
+                     core_.setExposure(event.acquisition_.channels_.getChannelSetting(event.channelName_).exposure_);
+                  }
+               } catch (Exception ex) {
+                  throw new HardwareControlException(ex.getMessage());
                }
-            } catch (Exception ex) {
-               throw new HardwareControlException(ex.getMessage());
+
             }
+         }, "Changing exposure");
+      });
 
-         }
-      }, "Changing exposure");
+      long[] times = awaitHardwareCommands(Arrays.asList(zFuture, xyFuture, channelFuture, exposureFuture));
+      acqDurationEstiamtor_.storeZMoveTime(times[0]);
+      if (xyFuture != null) {
+         acqDurationEstiamtor_.storeXYMoveTime(times[1]);
+      }
+      acqDurationEstiamtor_.storeChannelSwitchTime(times[2]);
+      event.hardwareTiming_ = new HardwareUpdateTiming(times[0], times[1], times[2], times[3],
+              System.currentTimeMillis() - updateStartTime);
 
       //keep track of last event to know what state the hardware was in without having to query it
       lastEvent_ = event.sequence_ == null ? event : event.sequence_.get(event.sequence_.size() - 1);
 
    }
 
+   /**
+    * Check whether the channel preset of the event sets properties of either
+    * of the given devices
+    */
+   private static boolean channelConfigUsesDevice(AcquisitionEvent event, String... devices) {
+      if (event.acquisition_.channels_ == null || event.acquisition_.channels_.getNumChannels() == 0) {
+         return false;
+      }
+      ChannelSetting setting = event.acquisition_.channels_.getChannelSetting(event.channelName_);
+      if (setting == null || setting.config_ == null) {
+         return false;
+      }
+      try {
+         Configuration config = core_.getConfigData(setting.group_, setting.config_);
+         for (int i = 0; i < config.size(); i++) {
+            for (String device : devices) {
+               if (config.getSetting(i).getDeviceLabel().equals(device)) {
+                  return true;
+               }
+            }
+         }
+         return false;
+      } catch (Exception ex) {
+         //cant tell, so be safe
+         return true;
+      }
+   }
+
+   /**
+    * Run a hardware command with retries
+    *
+    * @return how long it took in ms
+    */
+   private long timeHardwareCommand(Runnable r, String commandName) throws InterruptedException, HardwareControlException {
+      long startTime = System.currentTimeMillis();
+      loopHardwareCommandRetries(r, commandName);
+      return System.currentTimeMillis() - startTime;
+   }
+
+   /**
+    * Wait for a hardware command submitted to the hardware executor
+    *
+    * @return how long it took in ms, or 0 if there was no command
+    */
+   private static long awaitHardwareCommand(Future<Long> future) throws InterruptedException, HardwareControlException {
+      if (future == null) {
+         return 0;
+      }
+      try {
+         return future.get();
+      } catch (ExecutionException ex) {
+         if (ex.getCause() instanceof HardwareControlException) {
+            throw (HardwareControlException) ex.getCause();
+         } else if (ex.getCause() instanceof InterruptedException) {
+            throw (InterruptedException) ex.getCause();
+         }
+         throw new HardwareControlException(ex.getCause().getMessage());
+      }
+   }
+
+   /**
+    * Wait for all of the hardware commands, so that every command is finished
+    * even if one failed, then throw the first failure
+    *
+    * @return how long each took in ms, or 0 for a missing command
+    */
+   private static long[] awaitHardwareCommands(List<Future<Long>> futures) throws InterruptedException, HardwareControlException {
+      HardwareControlException failure = null;
+      long[] times = new long[futures.size()];
+      for (int i = 0; i < futures.size(); i++) {
+         try {
+            times[i] = awaitHardwareCommand(futures.get(i));
+         } catch (HardwareControlException ex) {
+            failure = failure == null ? ex : failure;
+         }
+      }
+      if (failure != null) {
+         throw failure;
+      }
+      return times;
+   }
+
    private void loopHardwareCommandRetries(Runnable r, String commandName) throws InterruptedException, HardwareControlException {
       for (int i = 0; i < HARDWARE_ERROR_RETRIES; i++) {
          try {
@@ -654,6 +788,17 @@ public class MagellanEngine {
       throw new HardwareControlException();
    }
 
+   /**
+    * Sleep in one go until the given time, rather than waking up every ms to
+    * check
+    */
+   private static void sleepUntil(long timeMs) throws InterruptedException {
+      long remaining;
+      while ((remaining = timeMs - System.currentTimeMillis()) > 0) {
+         Thread.sleep(remaining);
+      }
+   }
+
    private static String getCurrentDateAndTime() {
       DateFormat df = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
       Calendar calobj = Calendar.getInstance();
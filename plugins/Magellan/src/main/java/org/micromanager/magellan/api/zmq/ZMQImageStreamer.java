@@ -0,0 +1,139 @@
+///////////////////////////////////////////////////////////////////////////////
+// COPYRIGHT:    University of California, San Francisco, 2019
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+package org.micromanager.magellan.api.zmq;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import mmcorej.TaggedImage;
+import org.micromanager.magellan.misc.Log;
+import org.zeromq.SocketType;
+
+/**
+ * PUSH socket that streams every image saved by an acquisition to a client as
+ * a multipart message: the image serialized to JSON as it would be returned by
+ * a method, then its pixels as a binary frame. Images are sent on a thread of
+ * their own so acquisition never waits on the client. If the client falls too
+ * far behind, the oldest unsent images are dropped.
+ */
+public class ZMQImageStreamer extends ZMQSocketWrapper {
+
+   public static final int DEFAULT_PORT_NUMBER = 4830;
+   private static final int MAX_QUEUED_IMAGES = 200;
+
+   private static volatile ZMQImageStreamer streamer_ = null;
+
+   private ThreadPoolExecutor executor_;
+
+   ZMQImageStreamer() {
+      super(ZMQImageStreamer.class, SocketType.PUSH);
+   }
+
+   /**
+    * Start streaming images, if not already doing so
+    *
+    * @throws RuntimeException if the socket can't be bound to its port
+    */
+   public static synchronized void start() {
+      if (streamer_ == null) {
+         streamer_ = new ZMQImageStreamer();
+      }
+   }
+
+   /**
+    * Stop streaming images, if doing so. Images already queued are still sent
+    */
+   public static synchronized void stop() {
+      if (streamer_ != null) {
+         streamer_.close();
+         streamer_ = null;
+      }
+   }
+
+   /**
+    * Send the image to the client, if anyone has asked for the image stream
+    */
+   public static void offer(TaggedImage image) {
+      ZMQImageStreamer streamer = streamer_;
+      if (streamer != null) {
+         streamer.push(image);
+      }
+   }
+
+   @Override
+   protected void initialize(int port) {
+      executor_ = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<Runnable>(MAX_QUEUED_IMAGES),
+              (Runnable r) -> new Thread(r, "ZMQ image streamer"),
+              (Runnable r, ThreadPoolExecutor e) -> {
+                 //make room by dropping the oldest image
+                 if (!e.isShutdown()) {
+                    e.getQueue().poll();
+                    Log.log("Image stream client too slow, dropping image", false);
+                    e.execute(r);
+                 }
+              });
+      //sockets are only used from the thread that creates them, but wait for
+      //the bind so that failing to get the port isn't silent
+      try {
+         executor_.submit(() -> {
+            socket_ = context_.createSocket(type_);
+            socket_.bind("tcp://127.0.0.1:" + port);
+         }).get();
+      } catch (InterruptedException | ExecutionException e) {
+         if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+         }
+         executor_.execute(() -> {
+            if (socket_ != null) {
+               socket_.close();
+            }
+         });
+         executor_.shutdown();
+         //the server logs this and passes it on to the client
+         throw new RuntimeException("Couldn't start image stream on port " + port, e);
+      }
+   }
+
+   void push(TaggedImage image) {
+      executor_.execute(() -> {
+         List<ByteBuffer> frames = serializeMultipart(image);
+         sendMultipart(frames);
+      });
+   }
+
+   /**
+    * Stop streaming and release the socket once queued images are sent
+    */
+   void close() {
+      executor_.execute(() -> {
+         socket_.close();
+      });
+      executor_.shutdown();
+   }
+
+   @Override
+   protected List<ByteBuffer> parseAndExecuteCommand(String message) throws Exception {
+      throw new RuntimeException("Image streamer doesn't take commands");
+   }
+
+   @Override
+   protected int getPort(Class<?> clazz) {
+      return DEFAULT_PORT_NUMBER;
+   }
+}
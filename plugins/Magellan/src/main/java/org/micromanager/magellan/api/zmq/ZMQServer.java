@@ -5,7 +5,9 @@
  */
 package org.micromanager.magellan.api.zmq;
 
+import java.nio.ByteBuffer;
 import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import mmcorej.CMMCore;
@@ -54,7 +56,7 @@ public class ZMQServer extends ZMQSocketWrapper {
 
             while (true) {
                String message = socket_.recvStr();
-               byte[] reply = null;
+               List<ByteBuffer> reply = null;
                try {
                   reply = parseAndExecuteCommand(message);
                } catch (Exception e) {
@@ -62,21 +64,21 @@ public class ZMQServer extends ZMQSocketWrapper {
                      JSONObject json = new JSONObject();
                      json.put("type", "exception");
                      json.put("value", e.getMessage());
-                     reply = json.toString().getBytes();
+                     reply = singleFrame(json);
                      e.printStackTrace();
                      Log.log(e.getMessage());
                   } catch (JSONException ex) {
                      //This wont happen
                   }
                }
-               socket_.send(reply);
+               sendMultipart(reply);
             }
          }
       });
    }
 
    @Override
-   protected byte[] parseAndExecuteCommand(String message) throws Exception {
+   protected List<ByteBuffer> parseAndExecuteCommand(String message) throws Exception {
       JSONObject json = new JSONObject(message);
 
       if (json.getString("command").equals("connect")) {
@@ -88,7 +90,7 @@ public class ZMQServer extends ZMQSocketWrapper {
             JSONObject reply = new JSONObject();
             reply.put("reply", "success");
             reply.put("version", Magellan.VERSION);
-            return reply.toString().getBytes();
+            return singleFrame(reply);
          } else if (server.equals("core")) {
             if (coreServer_ == null) {
                coreServer_ = new ZMQServer(CMMCore.class);
@@ -96,7 +98,7 @@ public class ZMQServer extends ZMQSocketWrapper {
             JSONObject reply = new JSONObject();
             reply.put("reply", "success");
             this.serialize(Magellan.getCore(), reply);
-            return reply.toString().getBytes();
+            return singleFrame(reply);
 
          } else if (server.equals("magellan")) {
             if (magellanServer_ == null) {
@@ -108,7 +110,21 @@ public class ZMQServer extends ZMQSocketWrapper {
             JSONObject reply = new JSONObject();
             reply.put("reply", "success");
             this.serialize(Magellan.getAPI(), reply);
-            return reply.toString().getBytes();
+            return singleFrame(reply);
+         } else if (server.equals("image-stream")) {
+            //images are pushed to the client as they are acquired
+            ZMQImageStreamer.start();
+            JSONObject reply = new JSONObject();
+            reply.put("reply", "success");
+            reply.put("port", ZMQImageStreamer.DEFAULT_PORT_NUMBER);
+            return singleFrame(reply);
+         }
+      } else if (json.getString("command").equals("disconnect")) {
+         if (json.getString("server").equals("image-stream")) {
+            ZMQImageStreamer.stop();
+            JSONObject reply = new JSONObject();
+            reply.put("reply", "success");
+            return singleFrame(reply);
          }
       } else if (json.getString("command").equals("run-method")) {
          String hashCode = json.getString("hash-code");
@@ -122,12 +138,12 @@ public class ZMQServer extends ZMQSocketWrapper {
 
          reply.put("reply", "success");
          this.serialize(Magellan.getAPI(), reply);
-         return reply.toString().getBytes();
+         return singleFrame(reply);
       }
       throw new RuntimeException("Unknown Command");
    }
 
-   protected int getPort(Class clazz) {
+   protected int getPort(Class<?> clazz) {
       if (clazz == null) {
          return DEFAULT_PORT_NUMBER;
       }
@@ -94,7 +94,7 @@ public abstract class ZMQSocketWrapper {
    protected abstract void initialize(int port);
    
    //Return the port number used by this class type
-   protected abstract int getPort(Class clazz);
+   protected abstract int getPort(Class<?> clazz);
 
    /**
     * send a command from a Java client to a python server and wait on response
@@ -105,9 +105,59 @@ public abstract class ZMQSocketWrapper {
       return deserialize(reply);
    }
 
-   protected abstract byte[] parseAndExecuteCommand(String message) throws Exception;
+   /**
+    * @return the frames of the reply, the first of which is JSON
+    */
+   protected abstract List<ByteBuffer> parseAndExecuteCommand(String message) throws Exception;
+
+   /**
+    * Send a message of one or more frames, all but the last flagged as having
+    * more to follow
+    */
+   protected void sendMultipart(List<ByteBuffer> frames) {
+      for (int i = 0; i < frames.size(); i++) {
+         int flags = i < frames.size() - 1 ? ZMQ.SNDMORE : 0;
+         ByteBuffer frame = frames.get(i);
+         if (frame.hasArray() && frame.arrayOffset() == 0 && frame.position() == 0
+                 && frame.remaining() == frame.array().length) {
+            //sent without copying the array
+            socket_.send(frame.array(), flags);
+         } else {
+            socket_.sendByteBuffer(frame, flags);
+         }
+      }
+   }
+
+   /**
+    * @return a message with the JSON as its only frame
+    */
+   protected static List<ByteBuffer> singleFrame(JSONObject json) {
+      List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+      frames.add(ByteBuffer.wrap(json.toString().getBytes()));
+      return frames;
+   }
+
+   /**
+    * Serialize the object into a multipart message. The first frame is JSON in
+    * the same format as serialize, except that the contents of arrays and image
+    * pixels are not base64 encoded into it. Each goes in a frame of its own
+    * with the raw bytes, and the JSON holds {"binary-frame": index} in its
+    * place
+    */
+   protected List<ByteBuffer> serializeMultipart(Object o) {
+      List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+      frames.add(null); //JSON, filled in once the binary frames are added
+      JSONObject json = new JSONObject();
+      serialize(o, json, frames);
+      frames.set(0, ByteBuffer.wrap(json.toString().getBytes()));
+      return frames;
+   }
 
-   protected byte[] runMethod(Object obj, JSONObject json) throws NoSuchMethodException, IllegalAccessException, JSONException {
+   /**
+    * Run a method and serialize its result. If the request has "binary": true,
+    * arrays in the result are sent as binary frames
+    */
+   protected List<ByteBuffer> runMethod(Object obj, JSONObject json) throws NoSuchMethodException, IllegalAccessException, JSONException {
       String methodName = json.getString("name");
 
       Class[] argClasses = new Class[json.getJSONArray("arguments").length()];
@@ -132,9 +182,12 @@ public abstract class ZMQSocketWrapper {
 
       }
 
+      if (json.optBoolean("binary", false)) {
+         return serializeMultipart(result);
+      }
       JSONObject serialized = new JSONObject();
       serialize(result, serialized);
-      return serialized.toString().getBytes();
+      return singleFrame(serialized);
    }
 
    protected Object deserialize(byte[] message) {
@@ -168,6 +221,14 @@ public abstract class ZMQSocketWrapper {
     * deserialize
     */
    protected void serialize(Object o, JSONObject json) {
+      serialize(o, json, null);
+   }
+
+   /**
+    * @param binaryFrames frames of a multipart message to add array contents
+    * to, or null to base64 encode them into the JSON
+    */
+   private void serialize(Object o, JSONObject json, List<ByteBuffer> binaryFrames) {
       try {
          if (o instanceof Exception) {
             json.put("type", "exception");
@@ -188,26 +249,26 @@ public abstract class ZMQSocketWrapper {
             json.put("value", new JSONObject());
             json.getJSONObject("value").put("pixel-type", (((TaggedImage) o).pix instanceof byte[]) ? "uint8" : "uint16");
             json.getJSONObject("value").put("tags", ((TaggedImage) o).tags);
-            json.getJSONObject("value").put("pix", encodeArray(((TaggedImage) o).pix));
+            json.getJSONObject("value").put("pix", encodeArray(((TaggedImage) o).pix, binaryFrames));
          } else if (o.getClass().equals(byte[].class)) {
             json.put("type", "byte-array");
-            json.put("value", encodeArray(o));
+            json.put("value", encodeArray(o, binaryFrames));
          } else if (o.getClass().equals(double[].class)) {
             json.put("type", "double-array");
-            json.put("value", encodeArray(o));
+            json.put("value", encodeArray(o, binaryFrames));
          } else if (o.getClass().equals(int[].class)) {
             json.put("type", "int-array");
-            json.put("value", encodeArray(o));
+            json.put("value", encodeArray(o, binaryFrames));
          } else if (o.getClass().equals(float[].class)) {
             json.put("type", "float-array");
-            json.put("value", encodeArray(o));
+            json.put("value", encodeArray(o, binaryFrames));
          } else if (Stream.of(o.getClass().getInterfaces()).anyMatch((Class t) -> t.equals(List.class))) {
             json.put("type", "list");
             json.put("value", new JSONArray());
             for (Object element : (List) o) {
                JSONObject e = new JSONObject();
                json.getJSONArray("value").put(e);
-               serialize(element, e);
+               serialize(element, e, binaryFrames);
             }
          } else {
             //Don't serialize the object, but rather send out its name so that python side
@@ -247,27 +308,48 @@ public abstract class ZMQSocketWrapper {
    }
 
    protected String encodeArray(Object array) {
-      byte[] byteArray = null;
+      return Base64.getEncoder().encodeToString(toByteBuffer(array).array());
+   }
+
+   /**
+    * Either base64 encode the array, or add it to the binary frames and return
+    * a reference to its frame
+    */
+   private Object encodeArray(Object array, List<ByteBuffer> binaryFrames) throws JSONException {
+      if (binaryFrames == null) {
+         return encodeArray(array);
+      }
+      binaryFrames.add(toByteBuffer(array));
+      JSONObject frameRef = new JSONObject();
+      frameRef.put("binary-frame", binaryFrames.size() - 1);
+      return frameRef;
+   }
+
+   /**
+    * @return the contents of the array in BYTE_ORDER, wrapping byte arrays
+    * rather than copying them
+    */
+   protected static ByteBuffer toByteBuffer(Object array) {
       if (array instanceof byte[]) {
-         byteArray = (byte[]) array;
+         return ByteBuffer.wrap((byte[]) array);
       } else if (array instanceof short[]) {
          ByteBuffer buffer = ByteBuffer.allocate((((short[]) array)).length * Short.BYTES);
          buffer.order(BYTE_ORDER).asShortBuffer().put((short[]) array);
-         byteArray = buffer.array();
+         return buffer;
       } else if (array instanceof int[]) {
          ByteBuffer buffer = ByteBuffer.allocate((((int[]) array)).length * Integer.BYTES);
          buffer.order(BYTE_ORDER).asIntBuffer().put((int[]) array);
-         byteArray = buffer.array();
+         return buffer;
       } else if (array instanceof double[]) {
          ByteBuffer buffer = ByteBuffer.allocate((((double[]) array)).length * Double.BYTES);
          buffer.order(BYTE_ORDER).asDoubleBuffer().put((double[]) array);
-         byteArray = buffer.array();
+         return buffer;
       } else if (array instanceof float[]) {
          ByteBuffer buffer = ByteBuffer.allocate((((float[]) array)).length * Float.BYTES);
          buffer.order(BYTE_ORDER).asFloatBuffer().put((float[]) array);
-         byteArray = buffer.array();
+         return buffer;
       }
-      return Base64.getEncoder().encodeToString(byteArray);
+      throw new IllegalArgumentException("Can't encode " + array.getClass().getName());
    }
 
    /**
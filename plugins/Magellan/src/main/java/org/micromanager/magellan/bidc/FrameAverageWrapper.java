@@ -2,7 +2,7 @@
 // AUTHOR:       Henry Pinkard, henry.pinkard@gmail.com
 //
 // COPYRIGHT:    University of California, San Francisco, 2015
-//
+//
 // LICENSE:      This file is distributed under the BSD license.
 //               License text is included with the source distribution.
 //
@@ -29,14 +29,16 @@ public class FrameAverageWrapper extends FrameIntegrationMethod {
 
    @Override
    public byte[] constructImage() {
-      //sort all lists and construct final image
+      //accumulate one whole frame at a time
+      int[] sums = new int[width_ * height_];
+      for (byte[] frame : getUnwarpedFrames()) {
+         for (int i = 0; i < sums.length; i++) {
+            sums[i] += frame[i] & 0xff;
+         }
+      }
       byte[] averagedPixels = new byte[width_ * height_];
       for (int i = 0; i < averagedPixels.length; i++) {
-         int sum = 0;
-         for (int f = 0; f < numFrames_; f++) {
-            sum += rawBuffers_.get(f).getUnwarpedImageValue(i % width_, i / width_);
-         }
-         averagedPixels[i] = (byte) (sum / numFrames_);
+         averagedPixels[i] = (byte) (sums[i] / numFrames_);
       }
       return averagedPixels;
    }
@@ -50,6 +50,18 @@ public abstract class FrameIntegrationMethod {
       rawBuffers_.add(new RawBufferWrapper(buffer, offset_, doubleWidth_));
    }
 
+   /**
+    * @return the unwarped pixels of the first numFrames_ frames, one array per
+    * frame
+    */
+   protected byte[][] getUnwarpedFrames() {
+      byte[][] frames = new byte[numFrames_][];
+      for (int f = 0; f < frames.length; f++) {
+         frames[f] = rawBuffers_.get(f).getUnwarpedImage(width_, height_);
+      }
+      return frames;
+   }
+
    public int getConstructedImageWidth() {
       return width_;
    }
@@ -2,7 +2,7 @@
 // AUTHOR:       Henry Pinkard, henry.pinkard@gmail.com
 //
 // COPYRIGHT:    University of California, San Francisco, 2015
-//
+//
 // LICENSE:      This file is distributed under the BSD license.
 //               License text is included with the source distribution.
 //
@@ -29,12 +29,11 @@ public class FrameSummationWrapper extends FrameIntegrationMethod {
 
    @Override
    public Object constructImage() {
-      //sort all lists and construct final image
+      //accumulate one whole frame at a time
       short[] summedPixels = new short[width_ * height_];
-      for (int i = 0; i < summedPixels.length; i++) {
-         int sum = 0;
-         for (int f = 0; f < numFrames_; f++) {
-            summedPixels[i] += rawBuffers_.get(f).getUnwarpedImageValue(i % width_, i / width_);
+      for (byte[] frame : getUnwarpedFrames()) {
+         for (int i = 0; i < summedPixels.length; i++) {
+            summedPixels[i] += frame[i] & 0xff;
          }
       }
       return summedPixels;
@@ -7,81 +7,123 @@ package org.micromanager.magellan.bidc;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Class that wraps rank filtering
  */
 public class RankFilterWrapper extends FrameIntegrationMethod{
 
-   //first index: pixel index, second index: 9*numFrames values to be sorted
-   //has to be short to get rid of signed byte for sorting
-   private short[][] pixelValues_;
+   private static final int NUM_LEVELS = 256;
+   private static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+   private static final ExecutorService filterExecutor_ = Executors.newFixedThreadPool(NUM_THREADS, (Runnable r) -> {
+      Thread t = new Thread(r, "Rank filter thread");
+      t.setDaemon(true);
+      return t;
+   });
+
    private double rank_; 
 
    public RankFilterWrapper(int offset, int doubleWidth, int numFrames, double rank) {
       super(doubleWidth, offset, numFrames);
-      pixelValues_ = new short[width_ * height_][numFrames_ * 9];
       rank_ = rank;
    }
 
 
     @Override
    public byte[] constructImage() {
-      //iterate through every pixel location in final image
-      for (int x = -1; x < width_ + 1; x++) {
-         for (int y = -1; y < height_ + 1; y++) {
-            for (int frame = 0; frame < numFrames_; frame++) {
-               //get value of pixel or value of relevant edge
-               short val = rawBuffers_.get(frame).getUnwarpedImageValue(Math.max(0, Math.min(width_ - 1, x)), Math.max(0, Math.min(height_ - 1, y)));
-               //add to all 9 positions at the appropriate index            
-               addValToRelevantArrays(frame, val, x, y);
-            }
-         }
-      }
-      //sort all lists and construct final image
+      byte[][] frames = getUnwarpedFrames();
       byte[] filteredPix = new byte[width_ * height_];
-      for (int i = 0; i < filteredPix.length; i++ ) {
-         Arrays.sort(pixelValues_[i]);
-         filteredPix[i] = (byte) pixelValues_[i][(int)((numFrames_*9 -1) *rank_)];
+      //each band of rows is filtered on its own thread
+      int numBands = Math.max(1, Math.min(height_, NUM_THREADS));
+      List<Future<?>> bands = new ArrayList<Future<?>>();
+      for (int band = 0; band < numBands; band++) {
+         final int rowStart = height_ * band / numBands;
+         final int rowEnd = height_ * (band + 1) / numBands;
+         bands.add(filterExecutor_.submit(() -> {
+            filterRows(frames, width_, height_, rank_, rowStart, rowEnd, filteredPix);
+         }));
       }
-      return filteredPix;
-   }
-   
-   private void addValToRelevantArrays(int frameIndex, short val, int x, int y) {
-      if (y > 0) {
-         if (x > 0) {
-            pixelValues_[x - 1 + (y - 1) * width_][frameIndex*9 + 0] = val;
-         }
-         if (x >= 0 && x < width_) {
-            pixelValues_[x + (y - 1) * width_][frameIndex*9 + 1] = val;
-         }
-         if (x < width_ - 1) {
-            pixelValues_[x + 1 + (y - 1) * width_][frameIndex*9 + 2] = val;
+      try {
+         for (Future<?> f : bands) {
+            f.get();
          }
+      } catch (InterruptedException | ExecutionException ex) {
+         throw new RuntimeException(ex);
       }
-      if (y >= 0 && y < height_) {
-         if (x > 0) {
-            pixelValues_[x - 1 + y * width_][frameIndex*9 + 3] = val;
-         }
-         if (x >= 0 && x < width_) {
-            pixelValues_[x + y * width_][frameIndex*9 + 4] = val;
-         }
-         if (x < width_ - 1) {
-            pixelValues_[x + 1 + y * width_][frameIndex*9 + 5] = val;
+      return filteredPix;
+   }
+
+   /**
+    * Set each pixel in rows rowStart to rowEnd (exclusive) to the value of
+    * the given rank among the pixels in the 3x3 neighborhood around it in all
+    * frames, with edge pixels repeated outside the image.
+    *
+    * The neighborhood is kept as a histogram of its 8 bit values, which is
+    * updated by one column of pixels on each step along a row, and the value
+    * of the rank is tracked from the previous pixel rather than found by
+    * sorting
+    */
+   static void filterRows(byte[][] frames, int width, int height, double rank,
+           int rowStart, int rowEnd, byte[] filtered) {
+      int numValues = frames.length * 9;
+      int k = (int) ((numValues - 1) * rank); //index of the rank in sorted order
+      int[] histogram = new int[NUM_LEVELS];
+      int[] rows = new int[3];
+      for (int y = rowStart; y < rowEnd; y++) {
+         rows[0] = Math.max(0, y - 1) * width;
+         rows[1] = y * width;
+         rows[2] = Math.min(height - 1, y + 1) * width;
+         Arrays.fill(histogram, 0);
+         //columns -1, 0 and 1 of the first pixel
+         addColumn(histogram, frames, rows, 0, 1);
+         addColumn(histogram, frames, rows, 0, 1);
+         addColumn(histogram, frames, rows, Math.min(width - 1, 1), 1);
+         //value of the rank and number of values below it
+         int level = 0;
+         int below = 0;
+         for (int x = 0; x < width; x++) {
+            if (x > 0) {
+               int removed = Math.max(0, x - 2);
+               int added = Math.min(width - 1, x + 1);
+               below -= countBelow(frames, rows, removed, level);
+               addColumn(histogram, frames, rows, removed, -1);
+               below += countBelow(frames, rows, added, level);
+               addColumn(histogram, frames, rows, added, 1);
+            }
+            //move level until k falls within its bin
+            while (below > k) {
+               level--;
+               below -= histogram[level];
+            }
+            while (below + histogram[level] <= k) {
+               below += histogram[level];
+               level++;
+            }
+            filtered[y * width + x] = (byte) level;
          }
       }
-      if (y < height_ - 1) {
-         if (x > 0) {
-            pixelValues_[x - 1 + (y + 1) * width_][frameIndex*9 + 6] = val;
-         }
-         if (x >= 0 && x < width_) {
-            pixelValues_[x + (y + 1) * width_][frameIndex*9 + 7] = val;
-         }
-         if (x < width_ - 1) {
-            pixelValues_[x + 1 + (y + 1) * width_][frameIndex*9 + 8] = val;
-         }
+   }
+
+   private static void addColumn(int[] histogram, byte[][] frames, int[] rows, int x, int count) {
+      for (byte[] frame : frames) {
+         histogram[frame[rows[0] + x] & 0xff] += count;
+         histogram[frame[rows[1] + x] & 0xff] += count;
+         histogram[frame[rows[2] + x] & 0xff] += count;
       }
    }
 
-  
+   private static int countBelow(byte[][] frames, int[] rows, int x, int level) {
+      int count = 0;
+      for (byte[] frame : frames) {
+         count += (frame[rows[0] + x] & 0xff) < level ? 1 : 0;
+         count += (frame[rows[1] + x] & 0xff) < level ? 1 : 0;
+         count += (frame[rows[2] + x] & 0xff) < level ? 1 : 0;
+      }
+      return count;
+   }
 }
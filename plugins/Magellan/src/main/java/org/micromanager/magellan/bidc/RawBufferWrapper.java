@@ -67,6 +67,24 @@ public class RawBufferWrapper {
     }
    
 
+   /**
+    * Unwarp the whole image in one pass, with the same result as calling
+    * getUnwarpedImageValue for every pixel
+    */
+   public byte[] getUnwarpedImage(int width, int height) {
+      byte[] pixels = new byte[width * height];
+      for (int y = 0; y < height; y++) {
+         int rowStart = (y / 2) * PIXELS_PER_LINE + offset_ / 2;
+         boolean oddRow = y % 2 == 1;
+         for (int x = 0; x < width; x++) {
+            int warpedX = unwarp_ ? warpedIndicesFromUnwarped_[x] : x;
+            int flatIndex = (oddRow ? (PIXELS_PER_LINE - warpedX + offset_ % 2) : warpedX) + rowStart;
+            pixels[y * width + x] = buffer_[Math.max(0, Math.min(flatIndex, buffer_.length - 1))];
+         }
+      }
+      return pixels;
+   }
+
    public static int getWidth() {
       if (warpedIndicesFromUnwarped_ == null) {
          warpedIndicesFromUnwarped_ = getCosineWarpLUT();
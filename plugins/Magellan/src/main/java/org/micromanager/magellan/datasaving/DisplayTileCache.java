@@ -0,0 +1,148 @@
+///////////////////////////////////////////////////////////////////////////////
+// COPYRIGHT:    University of California, San Francisco, 2019
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+package org.micromanager.magellan.datasaving;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import mmcorej.TaggedImage;
+
+/**
+ * Least recently used cache of tiles read for display, bounded by the total
+ * size of their pixels, so that panning and zooming do not read and parse the
+ * same tiles from disk over and over
+ */
+final class DisplayTileCache {
+
+   private static final class Key {
+
+      private final int channel_, slice_, frame_, resIndex_;
+      private final long row_, col_;
+
+      Key(int channel, int slice, int frame, int resIndex, long row, long col) {
+         channel_ = channel;
+         slice_ = slice;
+         frame_ = frame;
+         resIndex_ = resIndex;
+         row_ = row;
+         col_ = col;
+      }
+
+      @Override
+      public boolean equals(Object other) {
+         if (!(other instanceof Key)) {
+            return false;
+         }
+         Key k = (Key) other;
+         return channel_ == k.channel_ && slice_ == k.slice_ && frame_ == k.frame_
+                 && resIndex_ == k.resIndex_ && row_ == k.row_ && col_ == k.col_;
+      }
+
+      @Override
+      public int hashCode() {
+         int h = channel_;
+         h = 31 * h + slice_;
+         h = 31 * h + frame_;
+         h = 31 * h + resIndex_;
+         h = 31 * h + (int) (row_ ^ (row_ >>> 32));
+         h = 31 * h + (int) (col_ ^ (col_ >>> 32));
+         return h;
+      }
+   }
+
+   private final long maxBytes_;
+   //all guarded by monitor on this
+   private final LinkedHashMap<Key, TaggedImage> tiles_ = new LinkedHashMap<Key, TaggedImage>(16, 0.75f, true);
+   private long bytes_;
+   private long hits_, misses_;
+
+   DisplayTileCache(long maxBytes) {
+      maxBytes_ = maxBytes;
+   }
+
+   static long getPixelBytes(TaggedImage tile) {
+      if (tile.pix instanceof byte[]) {
+         return ((byte[]) tile.pix).length;
+      } else if (tile.pix instanceof short[]) {
+         return 2L * ((short[]) tile.pix).length;
+      }
+      return 0;
+   }
+
+   /**
+    * return the cached tile, or null, counting a hit or a miss
+    */
+   synchronized TaggedImage get(int channel, int slice, int frame, int resIndex, long row, long col) {
+      TaggedImage tile = tiles_.get(new Key(channel, slice, frame, resIndex, row, col));
+      if (tile != null) {
+         hits_++;
+      } else {
+         misses_++;
+      }
+      return tile;
+   }
+
+   synchronized boolean contains(int channel, int slice, int frame, int resIndex, long row, long col) {
+      return tiles_.containsKey(new Key(channel, slice, frame, resIndex, row, col));
+   }
+
+   synchronized void put(int channel, int slice, int frame, int resIndex, long row, long col, TaggedImage tile) {
+      long tileBytes = getPixelBytes(tile);
+      if (tileBytes > maxBytes_) {
+         return;
+      }
+      TaggedImage previous = tiles_.put(new Key(channel, slice, frame, resIndex, row, col), tile);
+      if (previous != null) {
+         bytes_ -= getPixelBytes(previous);
+      }
+      bytes_ += tileBytes;
+      Iterator<Map.Entry<Key, TaggedImage>> it = tiles_.entrySet().iterator();
+      while (bytes_ > maxBytes_ && it.hasNext()) {
+         bytes_ -= getPixelBytes(it.next().getValue());
+         it.remove();
+      }
+   }
+
+   /**
+    * Forget a tile whose pixels have changed
+    */
+   synchronized void invalidate(int channel, int slice, int frame, int resIndex, long row, long col) {
+      TaggedImage previous = tiles_.remove(new Key(channel, slice, frame, resIndex, row, col));
+      if (previous != null) {
+         bytes_ -= getPixelBytes(previous);
+      }
+   }
+
+   synchronized void clear() {
+      tiles_.clear();
+      bytes_ = 0;
+   }
+
+   synchronized long getHitCount() {
+      return hits_;
+   }
+
+   synchronized long getMissCount() {
+      return misses_;
+   }
+
+   synchronized double getHitRate() {
+      return hits_ + misses_ == 0 ? 0.0 : hits_ / (double) (hits_ + misses_);
+   }
+
+   synchronized long getSizeBytes() {
+      return bytes_;
+   }
+}
@@ -0,0 +1,132 @@
+///////////////////////////////////////////////////////////////////////////////
+// COPYRIGHT:    University of California, San Francisco, 2019
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+package org.micromanager.magellan.datasaving;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONObject;
+import org.micromanager.magellan.misc.MD;
+
+/**
+ * Channel, slice, frame and position indices of an image packed into a long,
+ * used instead of "c_s_f_p" label strings to index images.
+ *
+ * Fields are signed, with 8 bits for the channel, 16 for the slice, 20 for
+ * the frame and 20 for the position index. Indices that do not fit (and
+ * channel index -128) are given a key from a table of such indices instead,
+ * so any indices can be packed. Keys are only valid within one run of the
+ * program; they are never written to disk.
+ */
+public final class ImageKey {
+
+   private static final int CHANNEL_BITS = 8, SLICE_BITS = 16, FRAME_BITS = 20, POSITION_BITS = 20;
+   private static final int POSITION_SHIFT = 0;
+   private static final int FRAME_SHIFT = POSITION_SHIFT + POSITION_BITS;
+   private static final int SLICE_SHIFT = FRAME_SHIFT + FRAME_BITS;
+   private static final int CHANNEL_SHIFT = SLICE_SHIFT + SLICE_BITS;
+   //channel field of keys from the table, whose other bits are the table index
+   private static final int TABLE_CHANNEL = -(1 << (CHANNEL_BITS - 1));
+
+   //indices that do not fit in the fields, by label and by table index
+   private static final Map<String, Long> tableKeys_ = new HashMap<String, Long>();
+   private static final List<int[]> tableIndices_ = new ArrayList<int[]>();
+
+   private ImageKey() {
+   }
+
+   private static boolean fitsInBits(int value, int bits) {
+      return value >= -(1 << (bits - 1)) && value < (1 << (bits - 1));
+   }
+
+   private static boolean fitsInFields(int channel, int slice, int frame, int position) {
+      return channel != TABLE_CHANNEL && fitsInBits(channel, CHANNEL_BITS)
+              && fitsInBits(slice, SLICE_BITS) && fitsInBits(frame, FRAME_BITS)
+              && fitsInBits(position, POSITION_BITS);
+   }
+
+   public static long pack(int channel, int slice, int frame, int position) {
+      if (!fitsInFields(channel, slice, frame, position)) {
+         return tableKey(channel, slice, frame, position);
+      }
+      return ((long) channel << CHANNEL_SHIFT)
+              | (((long) slice & ((1L << SLICE_BITS) - 1)) << SLICE_SHIFT)
+              | (((long) frame & ((1L << FRAME_BITS) - 1)) << FRAME_SHIFT)
+              | (((long) position & ((1L << POSITION_BITS) - 1)) << POSITION_SHIFT);
+   }
+
+   private static synchronized long tableKey(int channel, int slice, int frame, int position) {
+      String label = MD.generateLabel(channel, slice, frame, position);
+      Long key = tableKeys_.get(label);
+      if (key == null) {
+         key = ((long) TABLE_CHANNEL << CHANNEL_SHIFT) | tableIndices_.size();
+         tableIndices_.add(new int[]{channel, slice, frame, position});
+         tableKeys_.put(label, key);
+      }
+      return key;
+   }
+
+   private static synchronized int[] tableIndices(long key) {
+      return tableIndices_.get((int) (key & ((1L << CHANNEL_SHIFT) - 1)));
+   }
+
+   private static boolean isTableKey(long key) {
+      return unpack(key, CHANNEL_SHIFT, CHANNEL_BITS) == TABLE_CHANNEL;
+   }
+
+   public static long fromTags(JSONObject tags) {
+      return pack(MD.getChannelIndex(tags), MD.getSliceIndex(tags),
+              MD.getFrameIndex(tags), MD.getPositionIndex(tags));
+   }
+
+   private static int unpack(long key, int shift, int bits) {
+      //shift the field to the top, then back down to sign extend it
+      return (int) ((key << (64 - shift - bits)) >> (64 - bits));
+   }
+
+   public static int getChannel(long key) {
+      return isTableKey(key) ? tableIndices(key)[0] : unpack(key, CHANNEL_SHIFT, CHANNEL_BITS);
+   }
+
+   public static int getSlice(long key) {
+      return isTableKey(key) ? tableIndices(key)[1] : unpack(key, SLICE_SHIFT, SLICE_BITS);
+   }
+
+   public static int getFrame(long key) {
+      return isTableKey(key) ? tableIndices(key)[2] : unpack(key, FRAME_SHIFT, FRAME_BITS);
+   }
+
+   public static int getPosition(long key) {
+      return isTableKey(key) ? tableIndices(key)[3] : unpack(key, POSITION_SHIFT, POSITION_BITS);
+   }
+
+   /**
+    * @return array with entries channel, slice, frame and position index
+    */
+   public static int[] toIndices(long key) {
+      if (isTableKey(key)) {
+         return tableIndices(key).clone();
+      }
+      return new int[]{getChannel(key), getSlice(key), getFrame(key), getPosition(key)};
+   }
+
+   /**
+    * @return the "c_s_f_p" label of the image
+    */
+   public static String toLabel(long key) {
+      return MD.generateLabel(getChannel(key), getSlice(key), getFrame(key), getPosition(key));
+   }
+}
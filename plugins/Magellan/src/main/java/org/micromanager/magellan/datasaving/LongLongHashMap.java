@@ -0,0 +1,129 @@
+///////////////////////////////////////////////////////////////////////////////
+// COPYRIGHT:    University of California, San Francisco, 2019
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+package org.micromanager.magellan.datasaving;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long keys to non-negative long values (such
+ * as image keys to file offsets). It uses 16 bytes per slot and 1.5 to 3
+ * slots per entry, where a HashMap with boxed or string keys needs around 100
+ * bytes per entry. Entries cannot be removed. Thread safe.
+ */
+final class LongLongHashMap {
+
+   private static final long NO_VALUE = -1;
+   private static final int MIN_CAPACITY = 16;
+
+   //guarded by monitor on this
+   private long[] keys_;
+   private long[] values_; //NO_VALUE marks an empty slot
+   private int size_;
+
+   LongLongHashMap() {
+      allocate(MIN_CAPACITY);
+   }
+
+   private void allocate(int capacity) {
+      keys_ = new long[capacity];
+      values_ = new long[capacity];
+      Arrays.fill(values_, NO_VALUE);
+   }
+
+   private static int hash(long key) {
+      //finalizer of MurmurHash3
+      key ^= key >>> 33;
+      key *= 0xff51afd7ed558ccdL;
+      key ^= key >>> 33;
+      key *= 0xc4ceb9fe1a85ec53L;
+      key ^= key >>> 33;
+      return (int) key;
+   }
+
+   /**
+    * return the slot holding key, or the empty slot where it would go
+    */
+   private int findSlot(long key) {
+      int mask = keys_.length - 1;
+      int slot = hash(key) & mask;
+      while (values_[slot] != NO_VALUE && keys_[slot] != key) {
+         slot = (slot + 1) & mask;
+      }
+      return slot;
+   }
+
+   /**
+    * @return the value, or -1 if the key is not present
+    */
+   synchronized long get(long key) {
+      return values_[findSlot(key)];
+   }
+
+   synchronized boolean containsKey(long key) {
+      return values_[findSlot(key)] != NO_VALUE;
+   }
+
+   synchronized void put(long key, long value) {
+      if (value < 0) {
+         throw new IllegalArgumentException("Negative value: " + value);
+      }
+      int slot = findSlot(key);
+      if (values_[slot] == NO_VALUE) {
+         //keep the table at most 2/3 full
+         if (3 * (size_ + 1) > 2 * keys_.length) {
+            rehash(2 * keys_.length);
+            slot = findSlot(key);
+         }
+         size_++;
+      }
+      keys_[slot] = key;
+      values_[slot] = value;
+   }
+
+   private void rehash(int capacity) {
+      long[] oldKeys = keys_;
+      long[] oldValues = values_;
+      allocate(capacity);
+      for (int i = 0; i < oldKeys.length; i++) {
+         if (oldValues[i] != NO_VALUE) {
+            int slot = findSlot(oldKeys[i]);
+            keys_[slot] = oldKeys[i];
+            values_[slot] = oldValues[i];
+         }
+      }
+   }
+
+   synchronized int size() {
+      return size_;
+   }
+
+   synchronized boolean isEmpty() {
+      return size_ == 0;
+   }
+
+   /**
+    * @return a copy of all keys, in no particular order
+    */
+   synchronized long[] keys() {
+      long[] keys = new long[size_];
+      int n = 0;
+      for (int i = 0; i < keys_.length; i++) {
+         if (values_[i] != NO_VALUE) {
+            keys[n++] = keys_[i];
+         }
+      }
+      return keys;
+   }
+}
@@ -25,14 +25,22 @@ import java.awt.geom.Point2D;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -62,6 +70,11 @@ public class MultiResMultipageTiffStorage {
 
    private static final String FULL_RES_SUFFIX = "Full resolution";
    private static final String DOWNSAMPLE_SUFFIX = "Downsampled_x";
+   private static final int PYRAMID_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+   //number of tiles computed before writing when a resolution level is added
+   private static final int PYRAMID_BATCH_SIZE = 64;
+   private static final long LOW_RES_TILE_CACHE_BYTES = Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 8);
+   private static final long DISPLAY_TILE_CACHE_BYTES = Math.min(512L << 20, Runtime.getRuntime().maxMemory() / 4);
    private TaggedImageStorageMultipageTiff fullResStorage_;
    private TreeMap<Integer, TaggedImageStorageMultipageTiff> lowResStorages_; //map of resolution index to storage instance
    private String directory_;
@@ -78,6 +91,25 @@ public class MultiResMultipageTiffStorage {
    private boolean rgb_;
    private ThreadPoolExecutor writingExecutor_;
    private volatile int maxResolutionLevel_ = 0;
+   private TileDownsampler downsampler_;
+   //computes lower resolution tiles in parallel when resolution levels are added
+   private ExecutorService pyramidExecutor_;
+   //recently used lower resolution tiles of each level, by ImageKey, so that adding to them does not
+   //require reading them from disk
+   private final Map<Integer, Map<Long, TaggedImage>> lowResTileCaches_ = new HashMap<Integer, Map<Long, TaggedImage>>();
+   private int maxCachedTiles_;
+   private final DisplayTileCache displayTileCache_ = new DisplayTileCache(DISPLAY_TILE_CACHE_BYTES);
+   private final ExecutorService prefetchExecutor_ = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+         Thread t = new Thread(r, "Magellan tile prefetch thread");
+         t.setDaemon(true);
+         return t;
+      }
+   });
+   private volatile Future<?> prefetchFuture_;
+   //channel, slice, frame, resolution, first col, first row, last col, last row
+   private volatile long[] lastDisplayedTiles_;
 
    /**
     * Constructor to load existing storage from disk dir --top level saving
@@ -108,9 +140,9 @@ public class MultiResMultipageTiffStorage {
       //create position manager
       try {
          TreeMap<Integer, XYStagePosition> positions = new TreeMap<Integer, XYStagePosition>();
-         for (String key : fullResStorage_.imageKeys()) {
+         for (long key : fullResStorage_.imageKeys()) {
             // array with entires channelIndex, sliceIndex, frameIndex, positionIndex
-            int[] indices = MD.getIndices(key);
+            int[] indices = ImageKey.toIndices(key);
             int posIndex = indices[3];
             if (!positions.containsKey(posIndex)) {
                //read rowIndex, colIndex, stageX, stageY from per image metadata
@@ -145,6 +177,16 @@ public class MultiResMultipageTiffStorage {
          Log.log("Couldnt copy summary metadata", true);
       }
       processSummaryMetadata();
+      downsampler_ = new TileDownsampler(tileWidth_, tileHeight_, rgb_, byteDepth_);
+      pyramidExecutor_ = Executors.newFixedThreadPool(PYRAMID_THREADS, new ThreadFactory() {
+         @Override
+         public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Magellan pyramid thread");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+      maxCachedTiles_ = (int) Math.max(16, LOW_RES_TILE_CACHE_BYTES / downsampler_.getTileBytes());
 
       //prefix is provided by summary metadata
       try {
@@ -330,6 +372,11 @@ public class MultiResMultipageTiffStorage {
       }
    }
 
+   public TaggedImage getImageForDisplay(int channel, int slice, int frame, int dsIndex, long x, long y,
+           int width, int height) {
+      return getImageForDisplay(channel, slice, frame, dsIndex, x, y, width, height, null);
+   }
+
    /**
     * Return a subimage of the larger stitched image at the appropriate zoom
     * level, loading only the tiles neccesary to form the subimage
@@ -343,72 +390,55 @@ public class MultiResMultipageTiffStorage {
     * @param y coordinate of topmost pixel in requested resolution
     * @param width pixel width of image at requested resolution
     * @param height pixel height of image at requested resolution
+    * @param reusePixels pixels of a previously returned image that are no
+    * longer needed, to be reused if they have the right size (may be null)
     * @return Tagged image or taggeded image with background pixels and null
     * tags if no pixel data is present
     */
    public TaggedImage getImageForDisplay(int channel, int slice, int frame, int dsIndex, long x, long y,
-           int width, int height) {
+           int width, int height, Object reusePixels) {
+      int multiplier = rgb_ ? 4 : 1;
       Object pixels;
-      if (rgb_) {
-         pixels = new byte[width * height * 4];
-      } else if (byteDepth_ == 1) {
-         pixels = new byte[width * height];
+      if (rgb_ || byteDepth_ == 1) {
+         if (reusePixels instanceof byte[] && ((byte[]) reusePixels).length == width * height * multiplier) {
+            pixels = reusePixels;
+            Arrays.fill((byte[]) pixels, (byte) 0);
+         } else {
+            pixels = new byte[width * height * multiplier];
+         }
       } else {
-         pixels = new short[width * height];
+         if (reusePixels instanceof short[] && ((short[]) reusePixels).length == width * height) {
+            pixels = reusePixels;
+            Arrays.fill((short[]) pixels, (short) 0);
+         } else {
+            pixels = new short[width * height];
+         }
+      }
+      if (width <= 0 || height <= 0) {
+         return new TaggedImage(pixels, null);
       }
       //go line by line through one column of tiles at a time, then move to next column
       JSONObject topLeftMD = null;
       //first calculate how many columns and rows of tiles are relevant and the number of pixels
       //of each tile to copy into the returned image
-      long previousCol = tileIndexFromPixelIndex(x, true) - 1; //make it one less than the first col in loop
-      LinkedList<Integer> lineWidths = new LinkedList<Integer>();
-      for (long i = x; i < x + width; i++) { //Iterate through every column of pixels in the image to be returned
-         long colIndex = tileIndexFromPixelIndex(i, true);
-         if (colIndex != previousCol) {
-            lineWidths.add(0);
-         }
-         //Increment current width
-         lineWidths.add(lineWidths.removeLast() + 1);
-         previousCol = colIndex;
-      }
-      //do the same thing for rows
-      long previousRow = tileIndexFromPixelIndex(y, false) - 1; //one less than first row in loop?
-      LinkedList<Integer> lineHeights = new LinkedList<Integer>();
-      for (long i = y; i < y + height; i++) {
-         long rowIndex = tileIndexFromPixelIndex(i, false);
-         if (rowIndex != previousRow) {
-            lineHeights.add(0);
-         }
-         //add one to pixel count of current height
-         lineHeights.add(lineHeights.removeLast() + 1);
-         previousRow = rowIndex;
-      }
-      //get starting row and column
-      long rowStart = tileIndexFromPixelIndex(y, false);
       long colStart = tileIndexFromPixelIndex(x, true);
+      long rowStart = tileIndexFromPixelIndex(y, false);
+      int[] lineWidths = getLineLengths(x, width, colStart, tileIndexFromPixelIndex(x + width - 1, true), tileWidth_);
+      int[] lineHeights = getLineLengths(y, height, rowStart, tileIndexFromPixelIndex(y + height - 1, false), tileHeight_);
       //xOffset and y offset are the distance from the top left of the display image into which 
       //we are copying data
       int xOffset = 0;
-      for (long col = colStart; col < colStart + lineWidths.size(); col++) {
+      for (int colIndex = 0; colIndex < lineWidths.length; colIndex++) {
+         long col = colStart + colIndex;
+         int lineWidth = lineWidths[colIndex];
          int yOffset = 0;
-         for (long row = rowStart; row < rowStart + lineHeights.size(); row++) {
-            TaggedImage tile = null;
-            if (dsIndex == 0) {
-               tile = fullResStorage_.getImage(channel, slice, frame, posManager_.getPositionIndexFromTilePosition(dsIndex, row, col));
-            } else {
-               tile = lowResStorages_.get(dsIndex) == null ? null
-                       : lowResStorages_.get(dsIndex).getImage(channel, slice, frame, posManager_.getPositionIndexFromTilePosition(dsIndex, row, col));
-            }
+         for (int rowIndex = 0; rowIndex < lineHeights.length; rowIndex++) {
+            long row = rowStart + rowIndex;
+            int lineHeight = lineHeights[rowIndex];
+            TaggedImage tile = getTileForDisplay(channel, slice, frame, dsIndex, row, col, true);
             if (tile == null) {
-               yOffset += lineHeights.get((int) (row - rowStart)); //increment y offset so new tiles appear in correct position
+               yOffset += lineHeight; //increment y offset so new tiles appear in correct position
                continue; //If no data present for this tile go on to next one
-            } else if ((tile.pix instanceof byte[] && ((byte[]) tile.pix).length == 0)
-                    || (tile.pix instanceof short[] && ((short[]) tile.pix).length == 0)) {
-               //Somtimes an inability to read IFDs soon after they are written results in an image being read 
-               //with 0 length pixels. Can't figure out why this happens, but it is rare and will result at worst with
-               //a black flickering during acquisition
-               yOffset += lineHeights.get((int) (row - rowStart)); //increment y offset so new tiles appear in correct position
-               continue;
             }
             //take top left tile for metadata
             if (topLeftMD == null) {
@@ -416,39 +446,145 @@ public class MultiResMultipageTiffStorage {
             }
             //Copy pixels into the image to be returned
             //yOffset is how many rows from top of viewable area, y is top of image to top of area
-            for (int line = yOffset; line < lineHeights.get((int) (row - rowStart)) + yOffset; line++) {
-               int tileYPix = (int) ((y + line) % tileHeight_);
-               int tileXPix = (int) ((x + xOffset) % tileWidth_);
-               //make sure tile pixels are positive
-               while (tileXPix < 0) {
-                  tileXPix += tileWidth_;
-               }
-               while (tileYPix < 0) {
-                  tileYPix += tileHeight_;
-               }
-               try {
-                  int multiplier = rgb_ ? 4 : 1;
+            int tileXPix = (int) Math.floorMod(x + xOffset, (long) tileWidth_);
+            int sourceWidth = tileWidth_;
+            if (dsIndex == 0) {
+               //account for overlaps when viewing full resolution tiles
+               tileXPix += xOverlap_ / 2;
+               sourceWidth = fullResTileWidthIncludingOverlap_;
+            }
+            try {
+               for (int line = yOffset; line < lineHeight + yOffset; line++) {
+                  int tileYPix = (int) Math.floorMod(y + line, (long) tileHeight_);
                   if (dsIndex == 0) {
-                     //account for overlaps when viewing full resolution tiles
                      tileYPix += yOverlap_ / 2;
-                     tileXPix += xOverlap_ / 2;
-                     System.arraycopy(tile.pix, multiplier * (tileYPix * fullResTileWidthIncludingOverlap_ + tileXPix), pixels, (xOffset + width * line) * multiplier, multiplier * lineWidths.get((int) (col - colStart)));
-                  } else {
-                     System.arraycopy(tile.pix, multiplier * (tileYPix * tileWidth_ + tileXPix), pixels, multiplier * (xOffset + width * line), multiplier * lineWidths.get((int) (col - colStart)));
                   }
-               } catch (Exception e) {
-                  e.printStackTrace();
-                  Log.log("Problem copying pixels");
+                  System.arraycopy(tile.pix, multiplier * (tileYPix * sourceWidth + tileXPix),
+                          pixels, multiplier * (xOffset + width * line), multiplier * lineWidth);
                }
+            } catch (Exception e) {
+               e.printStackTrace();
+               Log.log("Problem copying pixels");
             }
-            yOffset += lineHeights.get((int) (row - rowStart));
-
+            yOffset += lineHeight;
          }
-         xOffset += lineWidths.get((int) (col - colStart));
+         xOffset += lineWidth;
       }
+      prefetchTilesForDisplay(channel, slice, frame, dsIndex, colStart, rowStart,
+              colStart + lineWidths.length - 1, rowStart + lineHeights.length - 1);
       return new TaggedImage(pixels, topLeftMD);
    }
 
+   /**
+    * return the number of pixels of the given range that fall into each tile
+    * from firstTile to lastTile
+    */
+   private static int[] getLineLengths(long start, int length, long firstTile, long lastTile, int tileSize) {
+      int[] lengths = new int[(int) (lastTile - firstTile + 1)];
+      for (int i = 0; i < lengths.length; i++) {
+         long tileStart = Math.max(start, (firstTile + i) * tileSize);
+         long tileEnd = Math.min(start + length, (firstTile + i + 1) * tileSize);
+         lengths[i] = (int) (tileEnd - tileStart);
+      }
+      return lengths;
+   }
+
+   /**
+    * return a tile from the display cache, or read it from disk and cache it
+    *
+    * @return the tile, or null if there is no (readable) data for it
+    */
+   private TaggedImage getTileForDisplay(int channel, int slice, int frame, int dsIndex, long row, long col,
+           boolean countHit) {
+      TaggedImage tile = countHit ? displayTileCache_.get(channel, slice, frame, dsIndex, row, col) : null;
+      if (tile != null) {
+         return tile;
+      }
+      TaggedImageStorageMultipageTiff storage = dsIndex == 0 ? fullResStorage_ : lowResStorages_.get(dsIndex);
+      if (storage == null) {
+         return null;
+      }
+      tile = storage.getImage(channel, slice, frame, posManager_.getPositionIndexFromTilePosition(dsIndex, row, col));
+      if (tile == null || DisplayTileCache.getPixelBytes(tile) == 0) {
+         //Somtimes an inability to read IFDs soon after they are written results in an image being read 
+         //with 0 length pixels. Can't figure out why this happens, but it is rare and will result at worst with
+         //a black flickering during acquisition
+         return null;
+      }
+      displayTileCache_.put(channel, slice, frame, dsIndex, row, col, tile);
+      return tile;
+   }
+
+   /**
+    * Load the row or column of tiles just outside the given range in the
+    * direction the view is moving, so that they are cached when needed
+    */
+   private void prefetchTilesForDisplay(final int channel, final int slice, final int frame, final int dsIndex,
+           long firstCol, long firstRow, long lastCol, long lastRow) {
+      long[] previous = lastDisplayedTiles_;
+      lastDisplayedTiles_ = new long[]{channel, slice, frame, dsIndex, firstCol, firstRow, lastCol, lastRow};
+      if (previous == null || previous[0] != channel || previous[1] != slice
+              || previous[2] != frame || previous[3] != dsIndex) {
+         return;
+      }
+      final List<long[]> tiles = new ArrayList<long[]>();
+      if (firstCol > previous[4] || lastCol > previous[6]) {
+         for (long row = firstRow; row <= lastRow; row++) {
+            tiles.add(new long[]{row, lastCol + 1});
+         }
+      } else if (firstCol < previous[4] || lastCol < previous[6]) {
+         for (long row = firstRow; row <= lastRow; row++) {
+            tiles.add(new long[]{row, firstCol - 1});
+         }
+      }
+      if (firstRow > previous[5] || lastRow > previous[7]) {
+         for (long col = firstCol; col <= lastCol; col++) {
+            tiles.add(new long[]{lastRow + 1, col});
+         }
+      } else if (firstRow < previous[5] || lastRow < previous[7]) {
+         for (long col = firstCol; col <= lastCol; col++) {
+            tiles.add(new long[]{firstRow - 1, col});
+         }
+      }
+      if (tiles.isEmpty()) {
+         return;
+      }
+      Future<?> pending = prefetchFuture_;
+      if (pending != null) {
+         //only the latest direction of movement is of interest
+         pending.cancel(false);
+      }
+      prefetchFuture_ = prefetchExecutor_.submit(new Runnable() {
+         @Override
+         public void run() {
+            for (long[] tile : tiles) {
+               if (!displayTileCache_.contains(channel, slice, frame, dsIndex, tile[0], tile[1])) {
+                  getTileForDisplay(channel, slice, frame, dsIndex, tile[0], tile[1], false);
+               }
+            }
+         }
+      });
+   }
+
+   /**
+    * Forget display tiles that contain the given full resolution tile, after
+    * it has been written at all resolution levels
+    */
+   private void invalidateDisplayTiles(int channel, int slice, int frame, int fullResPositionIndex) {
+      for (int res = 0; res <= maxResolutionLevel_; res++) {
+         displayTileCache_.invalidate(channel, slice, frame, res,
+                 posManager_.getGridRow(fullResPositionIndex, res), posManager_.getGridCol(fullResPositionIndex, res));
+      }
+   }
+
+   /**
+    * @return fraction of tiles requested for display that were found in
+    * memory
+    */
+   public double getDisplayTileCacheHitRate() {
+      return displayTileCache_.getHitRate();
+   }
+
 //   /**
 //    * Called before any images have been added to initialize the resolution to
 //    * the specifiec zoom level
@@ -465,7 +601,7 @@ public class MultiResMultipageTiffStorage {
    /**
     * create an additional lower resolution levels for zooming purposes
     */
-   private void addResolutionsUpTo(int index) throws InterruptedException, ExecutionException {
+   private void addResolutionsUpTo(int index) throws InterruptedException, ExecutionException, IOException {
       if (index <= maxResolutionLevel_) {
          return;
       }
@@ -486,102 +622,149 @@ public class MultiResMultipageTiffStorage {
       //Determine which position in 2x2 this tile sits in
       int xPos = (int) Math.abs((posManager_.getGridCol(fullResPositionIndex, resolutionIndex - 1) % 2));
       int yPos = (int) Math.abs((posManager_.getGridRow(fullResPositionIndex, resolutionIndex - 1) % 2));
-      //Add one if top or left so border pixels from an odd length image gets added in
-      for (int x = 0; x < tileWidth_; x += 2) { //iterate over previous res level pixels
-         for (int y = 0; y < tileHeight_; y += 2) {
-            //average a square of 4 pixels from previous level
-            //edges: if odd number of pixels in tile, round to determine which
-            //tiles pixels make it to next res level
-
-            //these are the indices of pixels at the previous res level, which are offset
-            //when moving from res level 0 to one as we throw away the overlapped image edges
-            int pixelX, pixelY, previousLevelWidth, previousLevelHeight;
-            if (resolutionIndex == 1) {
-               //add offsets to account for overlap pixels at resolution level 0
-               pixelX = x + xOverlap_ / 2;
-               pixelY = y + yOverlap_ / 2;
-               previousLevelWidth = fullResTileWidthIncludingOverlap_;
-               previousLevelHeight = fullResTileHeightIncludingOverlap_;
-            } else {
-               pixelX = x;
-               pixelY = y;
-               previousLevelWidth = tileWidth_;
-               previousLevelHeight = tileHeight_;
+      downsample(currentLevelPix, previousLevelPix, xPos, yPos, resolutionIndex);
+   }
 
-            }
-            int rgbMultiplier_ = rgb_ ? 4 : 1;
-            for (int compIndex = 0; compIndex < (rgb_ ? 3 : 1); compIndex++) {
-               int count = 1; //count is number of pixels (out of 4) used to create a pixel at this level
-               //always take top left pixel, maybe take others depending on whether at image edge
-               int sum = 0;
-               if (byteDepth_ == 1 || rgb_) {
-                  sum += ((byte[]) previousLevelPix)[(pixelY * previousLevelWidth + pixelX) * rgbMultiplier_ + compIndex] & 0xff;
-               } else {
-                  sum += ((short[]) previousLevelPix)[(pixelY * previousLevelWidth + pixelX) * rgbMultiplier_ + compIndex] & 0xffff;
-               }
+   private void downsample(Object currentLevelPix, Object previousLevelPix, int xPos, int yPos, int resolutionIndex) {
+      if (resolutionIndex == 1) {
+         //skip the overlap pixels at resolution level 0
+         downsampler_.downsample(currentLevelPix, previousLevelPix,
+                 fullResTileWidthIncludingOverlap_, fullResTileHeightIncludingOverlap_,
+                 xOverlap_ / 2, yOverlap_ / 2, xPos, yPos);
+      } else {
+         downsampler_.downsample(currentLevelPix, previousLevelPix,
+                 tileWidth_, tileHeight_, 0, 0, xPos, yPos);
+      }
+   }
 
-               //pixel index can be different from index in tile at resolution level 0 if there is nonzero overlap
-               if (x < previousLevelWidth - 1 && y < previousLevelHeight - 1) { //if not bottom right corner, add three more pix
-                  count += 3;
-                  if (byteDepth_ == 1 || rgb_) {
-                     sum += (((byte[]) previousLevelPix)[((pixelY + 1) * previousLevelWidth + pixelX + 1) * rgbMultiplier_ + compIndex] & 0xff)
-                             + (((byte[]) previousLevelPix)[(pixelY * previousLevelWidth + pixelX + 1) * rgbMultiplier_ + compIndex] & 0xff)
-                             + (((byte[]) previousLevelPix)[((pixelY + 1) * previousLevelWidth + pixelX) * rgbMultiplier_ + compIndex] & 0xff);
-                  } else {
-                     sum += (((short[]) previousLevelPix)[((pixelY + 1) * previousLevelWidth + pixelX + 1) * rgbMultiplier_ + compIndex] & 0xffff)
-                             + (((short[]) previousLevelPix)[(pixelY * previousLevelWidth + pixelX + 1) * rgbMultiplier_ + compIndex] & 0xffff)
-                             + (((short[]) previousLevelPix)[((pixelY + 1) * previousLevelWidth + pixelX) * rgbMultiplier_ + compIndex] & 0xffff);
-                  }
-               } else if (x < previousLevelWidth - 1) { //if not right edge, add one more pix
-                  count++;
-                  if (byteDepth_ == 1 || rgb_) {
-                     sum += ((byte[]) previousLevelPix)[(pixelY * previousLevelWidth + pixelX + 1) * rgbMultiplier_ + compIndex] & 0xff;
-                  } else {
-                     sum += ((short[]) previousLevelPix)[(pixelY * previousLevelWidth + pixelX + 1) * rgbMultiplier_ + compIndex] & 0xffff;
-                  }
-               } else if (y < previousLevelHeight - 1) { // if not bottom edge, add one more pix
-                  count++;
-                  if (byteDepth_ == 1 || rgb_) {
-                     sum += ((byte[]) previousLevelPix)[((pixelY + 1) * previousLevelWidth + pixelX) * rgbMultiplier_ + compIndex] & 0xff;
-                  } else {
-                     sum += ((short[]) previousLevelPix)[((pixelY + 1) * previousLevelWidth + pixelX) * rgbMultiplier_ + compIndex] & 0xffff;
-                  }
-               } else {
-                  //it is the bottom right corner, no more pix to add
-               }
-               //add averaged pixel into appropriate quadrant of current res level
-               //if full res tile has an odd number of pix, the last one gets chopped off
-               //to make it fit into tile containers
-               try {
-                  int index = (((y + yPos * tileHeight_) / 2) * tileWidth_ + (x + xPos * tileWidth_) / 2) * rgbMultiplier_ + compIndex;
-                  if (byteDepth_ == 1 || rgb_) {
-                     ((byte[]) currentLevelPix)[index] = (byte) Math.round(sum / count);
-                  } else {
-                     ((short[]) currentLevelPix)[index] = (short) Math.round(sum / count);
-                  }
-               } catch (Exception e) {
-                  Log.log("Couldn't copy pixels to lower resolution");
-                  e.printStackTrace();
-                  throw new RuntimeException(e);
-               }
+   /**
+    * Build a new resolution level from all tiles of the level above it. Each
+    * tile of the new level is computed on the pyramid executor; they are
+    * written to disk in batches from this thread
+    */
+   private void populateNewResolutionLevel(List<Future> writeFinishedList, final int resolutionIndex)
+           throws InterruptedException, ExecutionException, IOException {
+      createDownsampledStorage(resolutionIndex);
+      final TaggedImageStorageMultipageTiff previousLevelStorage
+              = resolutionIndex == 1 ? fullResStorage_ : lowResStorages_.get(resolutionIndex - 1);
+      //group tiles of the previous level by the tile they are averaged into
+      //entries are channel, slice, frame, position, full res position, x and y position in 2x2
+      Map<Long, List<int[]>> sourcesByTile = new LinkedHashMap<Long, List<int[]>>();
+      for (long key : previousLevelStorage.imageKeys()) {
+         int[] indices = ImageKey.toIndices(key);
+         int fullResPositionIndex = posManager_.getFullResPositionIndex(indices[3], resolutionIndex - 1);
+         long tileKey = ImageKey.pack(indices[0], indices[1], indices[2],
+                 posManager_.getLowResPositionIndex(fullResPositionIndex, resolutionIndex));
+         List<int[]> sources = sourcesByTile.get(tileKey);
+         if (sources == null) {
+            sources = new ArrayList<int[]>(4);
+            sourcesByTile.put(tileKey, sources);
+         }
+         sources.add(new int[]{indices[0], indices[1], indices[2], indices[3], fullResPositionIndex,
+            (int) Math.abs(posManager_.getGridCol(fullResPositionIndex, resolutionIndex - 1) % 2),
+            (int) Math.abs(posManager_.getGridRow(fullResPositionIndex, resolutionIndex - 1) % 2)});
+      }
 
+      List<List<int[]>> tiles = new ArrayList<List<int[]>>(sourcesByTile.values());
+      for (int start = 0; start < tiles.size(); start += PYRAMID_BATCH_SIZE) {
+         List<Future<TaggedImage>> batch = new ArrayList<Future<TaggedImage>>();
+         for (final List<int[]> sources : tiles.subList(start, Math.min(tiles.size(), start + PYRAMID_BATCH_SIZE))) {
+            batch.add(pyramidExecutor_.submit(new Callable<TaggedImage>() {
+               @Override
+               public TaggedImage call() {
+                  return downsampleTiles(previousLevelStorage, resolutionIndex, sources);
+               }
+            }));
+         }
+         for (int i = 0; i < batch.size(); i++) {
+            TaggedImage source = batch.get(i).get();
+            if (source.tags == null) {
+               continue; //previous level tiles could not be read
             }
+            int[] firstSource = tiles.get(start + i).get(0);
+            int fullResPositionIndex = firstSource[4];
+            TaggedImage tile = new TaggedImage(source.pix,
+                    createLowResTags(source.tags, fullResPositionIndex, resolutionIndex));
+            //storages are not thread safe, so write from this thread only
+            writeFinishedList.add(lowResStorages_.get(resolutionIndex).putImage(tile));
+            lowResTileCache(resolutionIndex).put(ImageKey.pack(firstSource[0], firstSource[1], firstSource[2],
+                    posManager_.getLowResPositionIndex(fullResPositionIndex, resolutionIndex)), tile);
          }
       }
    }
 
-   private void populateNewResolutionLevel(List<Future> writeFinishedList, int resolutionIndex) {
-      createDownsampledStorage(resolutionIndex);
-      //add all tiles from existing resolution levels to this new one            
-      TaggedImageStorageMultipageTiff previousLevelStorage
-              = resolutionIndex == 1 ? fullResStorage_ : lowResStorages_.get(resolutionIndex - 1);
-      Set<String> imageKeys = previousLevelStorage.imageKeys();
-      for (String key : imageKeys) {
-         String[] indices = key.split("_");
-         TaggedImage ti = previousLevelStorage.getImage(Integer.parseInt(indices[0]), Integer.parseInt(indices[1]),
-                 Integer.parseInt(indices[2]), Integer.parseInt(indices[3]));
-         writeFinishedList.addAll(addToLowResStorage(ti, resolutionIndex - 1,
-                 posManager_.getFullResPositionIndex(Integer.parseInt(indices[3]), resolutionIndex - 1)));
+   /**
+    * Average the given tiles of the previous level into a new tile. Called on
+    * the pyramid executor
+    *
+    * @return the pixels of the new tile, with the tags of the first source tile
+    */
+   private TaggedImage downsampleTiles(TaggedImageStorageMultipageTiff previousLevelStorage,
+           int resolutionIndex, List<int[]> sources) {
+      Object pix = downsampler_.createTilePixels();
+      JSONObject tags = null;
+      for (int[] source : sources) {
+         TaggedImage previous = null;
+         if (resolutionIndex > 1) {
+            previous = lowResTileCache(resolutionIndex - 1).get(
+                    ImageKey.pack(source[0], source[1], source[2], source[3]));
+         }
+         if (previous == null) {
+            previous = previousLevelStorage.getImage(source[0], source[1], source[2], source[3]);
+         }
+         if (previous == null) {
+            continue;
+         }
+         downsample(pix, previous.pix, source[5], source[6], resolutionIndex);
+         if (tags == null) {
+            tags = previous.tags;
+         }
+      }
+      return new TaggedImage(pix, tags);
+   }
+
+   /**
+    * return a copy of the tags of a tile, modified for the tile containing it
+    * at the given resolution level
+    */
+   private JSONObject createLowResTags(JSONObject sourceTags, int fullResPositionIndex, int resolutionIndex) {
+      try {
+         //create a copy of tags so tags from a different res level arent inadverntanly modified
+         // while waiting for being written to disk
+         JSONObject tags = new JSONObject(sourceTags.toString());
+         //modify tags to reflect image size, and correct position index
+         MD.setWidth(tags, tileWidth_);
+         MD.setHeight(tags, tileHeight_);
+         long gridRow = posManager_.getGridRow(fullResPositionIndex, resolutionIndex);
+         long gridCol = posManager_.getGridCol(fullResPositionIndex, resolutionIndex);
+         MD.setPositionName(tags, "Grid_" + gridRow + "_" + gridCol);
+         MD.setPositionIndex(tags, posManager_.getLowResPositionIndex(fullResPositionIndex, resolutionIndex));
+         return tags;
+      } catch (JSONException e) {
+         Log.log("Couldnt modify tags for lower resolution level");
+         throw new RuntimeException(e);
+      }
+   }
+
+   /**
+    * return the cache of recently used tiles of a lower resolution level. Each
+    * level has a quarter of the tiles of the level above it, and gets a quarter
+    * of its share of the cache
+    */
+   private Map<Long, TaggedImage> lowResTileCache(int resolutionIndex) {
+      synchronized (lowResTileCaches_) {
+         Map<Long, TaggedImage> cache = lowResTileCaches_.get(resolutionIndex);
+         if (cache == null) {
+            final int maxTiles = Math.max(16, (3 * maxCachedTiles_ / 4) >> Math.min(30, 2 * (resolutionIndex - 1)));
+            cache = Collections.synchronizedMap(new LinkedHashMap<Long, TaggedImage>(16, 0.75f, true) {
+               @Override
+               protected boolean removeEldestEntry(Map.Entry<Long, TaggedImage> eldest) {
+                  return size() > maxTiles;
+               }
+            });
+            lowResTileCaches_.put(resolutionIndex, cache);
+         }
+         return cache;
       }
    }
 
@@ -599,61 +782,55 @@ public class MultiResMultipageTiffStorage {
       int resolutionIndex = previousResIndex + 1;
 
       while (resolutionIndex <= maxResolutionLevel_) {
-         //Create this storage level if needed and add all existing tiles form the previous one
-         if (!lowResStorages_.containsKey(resolutionIndex)) {
-            //re add all tiles from previous res level
-            populateNewResolutionLevel(writeFinishedList, resolutionIndex);
-            //its been re added, so can return here and previous call will get to the code below
-            return writeFinishedList;
-         }
+         try {
+            //Create this storage level if needed and add all existing tiles form the previous one
+            if (!lowResStorages_.containsKey(resolutionIndex)) {
+               //re add all tiles from previous res level
+               populateNewResolutionLevel(writeFinishedList, resolutionIndex);
+               //its been re added, so can return here
+               return writeFinishedList;
+            }
 
-         //Create pixels or get appropriate pixels to add to
-         TaggedImage existingImage = lowResStorages_.get(resolutionIndex).getImage(channel, slice, frame,
-                 posManager_.getLowResPositionIndex(fullResPositionIndex, resolutionIndex));
-         Object currentLevelPix;
-         if (existingImage == null) {
-            if (rgb_) {
-               currentLevelPix = new byte[tileWidth_ * tileHeight_ * 4];
-            } else if (byteDepth_ == 1) {
-               currentLevelPix = new byte[tileWidth_ * tileHeight_];
+            //Get pixels to add to, from memory if possible, or create them
+            int lowResPositionIndex = posManager_.getLowResPositionIndex(fullResPositionIndex, resolutionIndex);
+            long key = ImageKey.pack(channel, slice, frame, lowResPositionIndex);
+            Map<Long, TaggedImage> tileCache = lowResTileCache(resolutionIndex);
+            TaggedImage existingImage = tileCache.get(key);
+            if (existingImage == null) {
+               existingImage = lowResStorages_.get(resolutionIndex).getImage(channel, slice, frame,
+                       lowResPositionIndex);
+            }
+            Object currentLevelPix;
+            if (existingImage == null) {
+               currentLevelPix = downsampler_.createTilePixels();
             } else {
-               currentLevelPix = new short[tileWidth_ * tileHeight_];
+               currentLevelPix = existingImage.pix;
             }
-         } else {
-            currentLevelPix = existingImage.pix;
-         }
 
-         downsample(currentLevelPix, previousLevelPix, fullResPositionIndex, resolutionIndex);
+            downsample(currentLevelPix, previousLevelPix, fullResPositionIndex, resolutionIndex);
 
-         //store this tile in the storage class correspondign to this resolution
-         try {
+            //store this tile in the storage class correspondign to this resolution
             if (existingImage == null) {     //Image doesn't yet exist at this level, so add it
-               //create a copy of tags so tags from a different res level arent inadverntanly modified
-               // while waiting for being written to disk
-               JSONObject tags = new JSONObject(img.tags.toString());
-               //modify tags to reflect image size, and correct position index
-               MD.setWidth(tags, tileWidth_);
-               MD.setHeight(tags, tileHeight_);
-               long gridRow = posManager_.getGridRow(fullResPositionIndex, resolutionIndex);
-               long gridCol = posManager_.getGridCol(fullResPositionIndex, resolutionIndex);
-               MD.setPositionName(tags, "Grid_" + gridRow + "_" + gridCol);
-               MD.setPositionIndex(tags, posManager_.getLowResPositionIndex(fullResPositionIndex, resolutionIndex));
-               Future f = lowResStorages_.get(resolutionIndex).putImage(new TaggedImage(currentLevelPix, tags));
+               TaggedImage tile = new TaggedImage(currentLevelPix,
+                       createLowResTags(img.tags, fullResPositionIndex, resolutionIndex));
+               Future f = lowResStorages_.get(resolutionIndex).putImage(tile);
                //need to make sure this one gets written before others can be overwritten
                f.get();
+               tileCache.put(key, tile);
             } else {
                //Image already exists, only overwrite pixels to include new tiles
+               //(the pixels are modified in place, so the cached copy is up to date)
                writeFinishedList.addAll(lowResStorages_.get(resolutionIndex).overwritePixels(currentLevelPix,
-                       channel, slice, frame, posManager_.getLowResPositionIndex(fullResPositionIndex, resolutionIndex)));
+                       channel, slice, frame, lowResPositionIndex));
+               tileCache.put(key, existingImage);
             }
+            //go on to next level of downsampling
+            previousLevelPix = currentLevelPix;
          } catch (Exception e) {
             e.printStackTrace();
-            Log.log("Couldnt modify tags for lower resolution level");
+            Log.log("Couldnt add tile to lower resolution level");
             throw new RuntimeException(e);
          }
-
-         //go on to next level of downsampling
-         previousLevelPix = currentLevelPix;
          resolutionIndex++;
       }
       return writeFinishedList;
@@ -697,6 +874,8 @@ public class MultiResMultipageTiffStorage {
          for (Future f : writeFinishedList) {
             f.get();
          }
+         invalidateDisplayTiles(MD.getChannelIndex(MagellanTaggedImage.tags), MD.getSliceIndex(MagellanTaggedImage.tags),
+                 MD.getFrameIndex(MagellanTaggedImage.tags), MD.getPositionIndex(MagellanTaggedImage.tags));
       } catch (IOException | ExecutionException | InterruptedException ex) {
          Log.log(ex.toString());
          throw new RuntimeException(ex);
@@ -720,10 +899,17 @@ public class MultiResMultipageTiffStorage {
       return getImage(channelIndex, sliceIndex, frameIndex, positionIndex).tags;
    }
 
-   public Set<String> imageKeys() {
+   /**
+    * @return the keys (see ImageKey) of all full resolution images
+    */
+   public long[] imageKeys() {
       return fullResStorage_.imageKeys();
    }
 
+   public int getNumImages() {
+      return fullResStorage_.getNumImages();
+   }
+
    public void finishedWriting() {
       if (finished_) {
          return;
@@ -736,6 +922,10 @@ public class MultiResMultipageTiffStorage {
             s.finished();
          }
       }
+      pyramidExecutor_.shutdown();
+      synchronized (lowResTileCaches_) {
+         lowResTileCaches_.clear();
+      }
       writingExecutor_.shutdown();
       //shut down writing executor--pause here until all tasks have finished writing
       //so that no attempt is made to close the dataset (and thus the FileChannel)
@@ -777,6 +967,11 @@ public class MultiResMultipageTiffStorage {
                   throw new RuntimeException("closing thread interrupted");
                }
             }
+            prefetchExecutor_.shutdownNow();
+            Log.log(String.format("Display tile cache: %d hits, %d misses (%.1f%% hit rate)",
+                    displayTileCache_.getHitCount(), displayTileCache_.getMissCount(),
+                    100 * displayTileCache_.getHitRate()), false);
+            displayTileCache_.clear();
             fullResStorage_.close();
             for (TaggedImageStorageMultipageTiff s : lowResStorages_.values()) {
                if (s != null) { //this only happens if the viewer requested new resolution levels that were never filled in because no iamges arrived                  
@@ -870,9 +1065,8 @@ public class MultiResMultipageTiffStorage {
             return 0;
          }
       });
-      Set<String> keys = new TreeSet<String>(imageKeys());
-      for (String s : keys) {
-         int[] indices = MD.getIndices(s);
+      for (long key : imageKeys()) {
+         int[] indices = ImageKey.toIndices(key);
          if (indices[1] == sliceIndex) {
             exploredTiles.add(new Point((int) posManager_.getGridCol(indices[3], 0), (int) posManager_.getGridRow(indices[3], 0)));
          }
@@ -898,18 +1092,15 @@ public class MultiResMultipageTiffStorage {
    }
 
    public List<String> getChannelNames() {
-      List<String> channelNames = new ArrayList<>();
-      Set<String> channelIndices = new TreeSet<String>();
-      for (String key : imageKeys()) {
-         String[] indices = key.split("_");
-         if (!channelIndices.contains(indices[0])) {
-            channelIndices.add(indices[0]);
-            channelNames.add(MD.getChannelName(getImageTags(
-                    Integer.parseInt(indices[0]), Integer.parseInt(indices[1]),
-                    Integer.parseInt(indices[2]), Integer.parseInt(indices[3]))));
-         }
-      }
-      return channelNames;
+      TreeMap<Integer, String> channelNames = new TreeMap<Integer, String>();
+      for (long key : imageKeys()) {
+         int[] indices = ImageKey.toIndices(key);
+         if (!channelNames.containsKey(indices[0])) {
+            channelNames.put(indices[0], MD.getChannelName(getImageTags(
+                    indices[0], indices[1], indices[2], indices[3])));
+         }
+      }
+      return new ArrayList<String>(channelNames.values());
    }
 
 }
@@ -30,8 +30,6 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.util.HashMap;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import mmcorej.TaggedImage;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -64,7 +62,7 @@ public class MultipageTiffReader {
    private int byteDepth_ = 0;
    private boolean rgb_;
    
-   private ConcurrentHashMap<String,Long> indexMap_;
+   private LongLongHashMap indexMap_;
    
    /**
     * This constructor is used for a file that is currently being written
@@ -75,7 +73,7 @@ public class MultipageTiffReader {
       getRGBAndByteDepth(summaryMD);
    }
    
-   public void setIndexMap(ConcurrentHashMap<String,Long> indexMap) {
+   public void setIndexMap(LongLongHashMap indexMap) {
       indexMap_ = indexMap;
    }
    
@@ -210,15 +208,14 @@ public class MultipageTiffReader {
       return displaySettings_;
    }
    
-   public TaggedImage readImage(String label) {
-      if (indexMap_.containsKey(label)) {
+   public TaggedImage readImage(long key) {
+      long byteOffset = indexMap_.get(key);
+      if (byteOffset >= 0) {
          if (fileChannel_ == null) {
             Log.log("Attempted to read image on FileChannel that is null", false); //can happen on acquiition abort
             return null;
          }
          try {
-            long byteOffset = indexMap_.get(label);
-            
             IFDData data = readIFD(byteOffset);
             return readTaggedImage(data);
          } catch (IOException ex) {
@@ -232,10 +229,13 @@ public class MultipageTiffReader {
       }
    }  
    
-   public Set<String> getIndexKeys() {
+   /**
+    * @return the keys (see ImageKey) of all images in the file
+    */
+   public long[] getIndexKeys() {
       if (indexMap_ == null)
          return null;
-      return indexMap_.keySet();
+      return indexMap_.keys();
    }
 
    private JSONObject readSummaryMD() {
@@ -299,7 +299,7 @@ public class MultipageTiffReader {
          throw new RuntimeException("Error reading index map header");
       }
       int numMappings = header.getInt(4);
-      indexMap_ = new ConcurrentHashMap<String, Long>();
+      indexMap_ = new LongLongHashMap();
       ByteBuffer mapBuffer = readIntoBuffer(offset+8, 20*numMappings);     
       for (int i = 0; i < numMappings; i++) {
          int channel = mapBuffer.getInt(i*20);
@@ -312,7 +312,7 @@ public class MultipageTiffReader {
          }
          //If a duplicate label is read, forget about the previous one
          //if data has been intentionally overwritten, this gives the most current version
-         indexMap_.put(MD.generateLabel(channel, slice, frame, position), imageOffset);
+         indexMap_.put(ImageKey.pack(channel, slice, frame, position), imageOffset);
       }
    }
 
@@ -36,7 +36,6 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.util.LinkedList;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -95,7 +94,7 @@ public class MultipageTiffWriter {
    private long indexMapPosition_; //current position of the dynamically written index map
    private long indexMapFirstEntry_; // mark position of first entry so that number of entries can be written at end
    private int bufferPosition_;
-   private ConcurrentHashMap<String, Long> indexMap_;
+   private LongLongHashMap indexMap_;
    private long nextIFDOffsetLocation_ = -1;
    private boolean rgb_ = false;
    private int byteDepth_, imageWidth_, imageHeight_, bytesPerImagePixels_;
@@ -147,7 +146,7 @@ public class MultipageTiffWriter {
       }
       fileChannel_ = raFile_.getChannel();
       writingExecutor_ = writingExecutor;
-      indexMap_ = new ConcurrentHashMap<String, Long>();
+      indexMap_ = new LongLongHashMap();
       reader_.setFileChannel(fileChannel_);
       reader_.setIndexMap(indexMap_);
       buffers_ = new LinkedList<ByteBuffer>();
@@ -221,7 +220,7 @@ public class MultipageTiffWriter {
       return reader_;
    }
 
-   public ConcurrentHashMap<String, Long> getIndexMap() {
+   public LongLongHashMap getIndexMap() {
       return indexMap_;
    }
 
@@ -359,7 +358,7 @@ public class MultipageTiffWriter {
       long offset = filePosition_;
       boolean shiftByByte = writeIFD(img);
       Future f = writeBuffers();
-      addToIndexMap(MD.getLabel(img.tags), offset);
+      addToIndexMap(ImageKey.fromTags(img.tags), offset);
       //Make IFDs start on word
       if (shiftByByte) {
          f = executeWritingTask(new Runnable() {
@@ -376,18 +375,18 @@ public class MultipageTiffWriter {
       return f;
    }
 
-   private void addToIndexMap(String label, long offset) {
+   private void addToIndexMap(long key, long offset) {
       //If a duplicate label is received, forget about the previous one
       //this allows overwriting of images without loss of data
       ByteBuffer buffer = allocateByteBuffer(20);
-      String[] indices = label.split("_");
-      for (int i = 0; i < 4; i++) {
-         buffer.putInt(4 * i, Integer.parseInt(indices[i]));
-      }
+      buffer.putInt(0, ImageKey.getChannel(key));
+      buffer.putInt(4, ImageKey.getSlice(key));
+      buffer.putInt(8, ImageKey.getFrame(key));
+      buffer.putInt(12, ImageKey.getPosition(key));
       buffer.putInt(16, new Long(offset).intValue());
       fileChannelWrite(buffer, indexMapPosition_);
       indexMapPosition_ += 20;
-      indexMap_.put(label, offset);
+      indexMap_.put(key, offset);
    }
 
    private Future writeBuffers() throws IOException {
@@ -408,7 +407,7 @@ public class MultipageTiffWriter {
 
     public Future overwritePixels(Object pixels, int channel, int slice, int frame, int position) throws IOException {
 
-        long byteOffset = indexMap_.get(MD.generateLabel(channel, slice, frame, position));
+        long byteOffset = indexMap_.get(ImageKey.pack(channel, slice, frame, position));
         ByteBuffer buffer = ByteBuffer.allocate(2).order(BYTE_ORDER);
         fileChannel_.read(buffer, byteOffset);
         int numEntries = buffer.getChar(0);
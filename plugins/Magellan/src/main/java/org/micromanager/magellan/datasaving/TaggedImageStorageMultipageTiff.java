@@ -28,12 +28,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -63,12 +62,13 @@ public final class TaggedImageStorageMultipageTiff {
    // returned upon request via getImage()). The data structure must be
    // synchronized because the write completion is detected on a background
    // thread.
-   private ConcurrentHashMap<String, TaggedImage> writePendingImages_
-           = new ConcurrentHashMap<String, TaggedImage>();
+   private ConcurrentHashMap<Long, TaggedImage> writePendingImages_
+           = new ConcurrentHashMap<Long, TaggedImage>();
    //map of position indices to objects associated with each
    private volatile HashMap<Integer, FileSet> fileSets_;
-   //Map of image labels to file 
-   private HashMap<String, MultipageTiffReader> tiffReadersByLabel_;
+   //Map of image keys (see ImageKey) to index of file in tiffReaders_
+   private LongLongHashMap tiffReaderIndicesByKey_;
+   private final List<MultipageTiffReader> tiffReaders_ = new CopyOnWriteArrayList<MultipageTiffReader>();
    private static boolean showProgressBars_ = true;
    private MultiResMultipageTiffStorage masterMultiResStorage_;
 
@@ -81,7 +81,7 @@ public final class TaggedImageStorageMultipageTiff {
 
       newDataSet_ = newDataSet;
       directory_ = dir;
-      tiffReadersByLabel_ = new HashMap<String, MultipageTiffReader>();
+      tiffReaderIndicesByKey_ = new LongLongHashMap();
       setSummaryMetadata(summaryMetadata);
 
       if (!newDataSet_) {
@@ -137,13 +137,13 @@ public final class TaggedImageStorageMultipageTiff {
             try {
                //this is where fixing dataset code occurs
                reader = new MultipageTiffReader(f);
-               Set<String> labels = reader.getIndexKeys();
-               for (String label : labels) {
-                  tiffReadersByLabel_.put(label, reader);
-                  maxChannelIndex_ = Math.max(maxChannelIndex_, Integer.parseInt(label.split("_")[0]));
-                  maxSliceIndex_ = Math.max(maxSliceIndex_, Integer.parseInt(label.split("_")[1]));
-                  minSliceIndex_ = Math.min(minSliceIndex_, Integer.parseInt(label.split("_")[1]));
-                  maxFrameIndex_ = Math.max(maxFrameIndex_, Integer.parseInt(label.split("_")[2]));
+               int readerIndex = addReader(reader);
+               for (long key : reader.getIndexKeys()) {
+                  tiffReaderIndicesByKey_.put(key, readerIndex);
+                  maxChannelIndex_ = Math.max(maxChannelIndex_, ImageKey.getChannel(key));
+                  maxSliceIndex_ = Math.max(maxSliceIndex_, ImageKey.getSlice(key));
+                  minSliceIndex_ = Math.min(minSliceIndex_, ImageKey.getSlice(key));
+                  maxFrameIndex_ = Math.max(maxFrameIndex_, ImageKey.getFrame(key));
                }
                if (reader.getDisplaySettings() != null) {
                   masterMultiResStorage_.setDisplaySettings(reader.getDisplaySettings());
@@ -163,7 +163,7 @@ public final class TaggedImageStorageMultipageTiff {
       }
 
       if (reader != null) {
-         setSummaryMetadata(reader.getSummaryMetadata(), true);
+         setSummaryMetadata(reader.getSummaryMetadata());
       }
       if (showProgressBars_) {
          progressBar.setProgress(1);
@@ -183,19 +183,32 @@ public final class TaggedImageStorageMultipageTiff {
       return minSliceIndex_;
    }
 
+   /**
+    * @return the index of the reader in tiffReaders_, adding it if needed
+    */
+   private int addReader(MultipageTiffReader reader) {
+      //readers are added file by file, so it can only be the last one
+      int last = tiffReaders_.size() - 1;
+      if (last >= 0 && tiffReaders_.get(last) == reader) {
+         return last;
+      }
+      tiffReaders_.add(reader);
+      return last + 1;
+   }
+
    public TaggedImage getImage(int channelIndex, int sliceIndex, int frameIndex, int positionIndex) {
-      String label = MD.generateLabel(channelIndex, sliceIndex, frameIndex, positionIndex);
+      long key = ImageKey.pack(channelIndex, sliceIndex, frameIndex, positionIndex);
 
-      TaggedImage image = writePendingImages_.get(label);
+      TaggedImage image = writePendingImages_.get(key);
       if (image != null) {
          return image;
       }
 
-      MultipageTiffReader reader = tiffReadersByLabel_.get(label);
-      if (reader == null) {
+      long readerIndex = tiffReaderIndicesByKey_.get(key);
+      if (readerIndex < 0) {
          return null;
       }
-      return reader.readImage(label);
+      return tiffReaders_.get((int) readerIndex).readImage(key);
    }
 
    public JSONObject getImageTags(int channelIndex, int sliceIndex, int frameIndex, int positionIndex) {
@@ -220,20 +233,20 @@ public final class TaggedImageStorageMultipageTiff {
    }
 
    public Future putImage(TaggedImage MagellanTaggedImage) throws IOException {
-      final String label = MD.getLabel(MagellanTaggedImage.tags);
+      final long key = ImageKey.fromTags(MagellanTaggedImage.tags);
       // Now, we must hold on to MagellanTaggedImage, so that we can return it if
       // somebody calls getImage() before the writing is finished.
       // There is a data race if the MagellanTaggedImage is modified by other code, but
       // that would be a bad thing to do anyway (will break the writer) and is
       // considered forbidden.
-      maxChannelIndex_ = Math.max(maxChannelIndex_, Integer.parseInt(label.split("_")[0]));
-      writePendingImages_.put(label, MagellanTaggedImage);
-      Future f = startWritingTask(label, MagellanTaggedImage);
+      maxChannelIndex_ = Math.max(maxChannelIndex_, ImageKey.getChannel(key));
+      writePendingImages_.put(key, MagellanTaggedImage);
+      Future f = startWritingTask(key, MagellanTaggedImage);
 
       writingExecutor_.submit(new Runnable() {
          @Override
          public void run() {
-            writePendingImages_.remove(label);
+            writePendingImages_.remove(key);
          }
       });
       return f;
@@ -243,7 +256,7 @@ public final class TaggedImageStorageMultipageTiff {
     * Sets up and kicks off the writing of a new image. This, in an indirect
     * way, ends up submitting the writing task to writingExecutor_.
     */
-   private Future startWritingTask(String label, TaggedImage ti)
+   private Future startWritingTask(long key, TaggedImage ti)
            throws IOException {
       if (!newDataSet_) {
          Log.log("Tried to write image to a finished data set");
@@ -269,7 +282,7 @@ public final class TaggedImageStorageMultipageTiff {
       FileSet set = fileSets_.get(fileSetIndex);
       try {
          Future f = set.writeImage(ti);
-         tiffReadersByLabel_.put(label, set.getCurrentReader());
+         tiffReaderIndicesByKey_.put(key, addReader(set.getCurrentReader()));
          return f;
       } catch (IOException ex) {
          Log.log("problem writing image to file");
@@ -277,8 +290,15 @@ public final class TaggedImageStorageMultipageTiff {
       }
    }
 
-   public Set<String> imageKeys() {
-      return tiffReadersByLabel_.keySet();
+   /**
+    * @return the keys (see ImageKey) of all images, in no particular order
+    */
+   public long[] imageKeys() {
+      return tiffReaderIndicesByKey_.keys();
+   }
+
+   public int getNumImages() {
+      return tiffReaderIndicesByKey_.size();
    }
 
    /**
@@ -350,14 +370,15 @@ public final class TaggedImageStorageMultipageTiff {
     * Disposes of the tagged images in the imagestorage
     */
    public void close() {
-      for (MultipageTiffReader r : new HashSet<MultipageTiffReader>(tiffReadersByLabel_.values())) {
+      for (MultipageTiffReader r : tiffReaders_) {
          try {
             r.close();
          } catch (IOException ex) {
             Log.log(ex);
          }
       }
-      tiffReadersByLabel_ = null;
+      tiffReaders_.clear();
+      tiffReaderIndicesByKey_ = null;
    }
 
    public boolean isFinished() {
@@ -365,31 +386,10 @@ public final class TaggedImageStorageMultipageTiff {
    }
 
    public void setSummaryMetadata(JSONObject md) {
-      setSummaryMetadata(md, false);
-   }
-
-   private void setSummaryMetadata(JSONObject md, boolean showProgress) {
       summaryMetadata_ = md;
       summaryMetadataString_ = null;
       if (summaryMetadata_ != null) {
          summaryMetadataString_ = md.toString();
-         HashMap<String, MultipageTiffReader> oldImageMap = tiffReadersByLabel_;
-         tiffReadersByLabel_ = new HashMap<String, MultipageTiffReader>();
-         if (showProgress && showProgressBars_) {
-            ProgressBar progressBar = new ProgressBar("Building image location map", 0, oldImageMap.keySet().size());
-            progressBar.setProgress(0);
-            progressBar.setVisible(true);
-            int i = 1;
-            for (String label : oldImageMap.keySet()) {
-               tiffReadersByLabel_.put(label, oldImageMap.get(label));
-               progressBar.setProgress(i);
-               i++;
-            }
-            progressBar.setVisible(false);
-         } else {
-            tiffReadersByLabel_.putAll(oldImageMap);
-         }
-
       }
    }
 
@@ -507,7 +507,7 @@ public final class TaggedImageStorageMultipageTiff {
       public List<Future> overwritePixels(Object pixels, int channel, int slice, int frame, int position) throws IOException {
          ArrayList<Future> list = new ArrayList<Future>();
          for (MultipageTiffWriter w : tiffWriters_) {
-            if (w.getIndexMap().containsKey(MD.generateLabel(channel, slice, frame, position))) {
+            if (w.getIndexMap().containsKey(ImageKey.pack(channel, slice, frame, position))) {
                list.add(w.overwritePixels(pixels, channel, slice, frame, position));
             }
          }
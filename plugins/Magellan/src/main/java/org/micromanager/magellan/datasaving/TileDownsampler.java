@@ -0,0 +1,181 @@
+///////////////////////////////////////////////////////////////////////////////
+// COPYRIGHT:    University of California, San Francisco, 2019
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+package org.micromanager.magellan.datasaving;
+
+/**
+ * 2x2 box averaging of one tile into a quadrant of the tile at the next lower
+ * resolution.
+ *
+ * The inner loops have no per-pixel branches or type checks, so that the JIT
+ * can unroll and vectorize them; the last column and row of an odd-sized
+ * source are handled separately. Results are the truncated mean of the
+ * available pixels (2x2, 2x1, 1x2 or 1x1 at the edges).
+ */
+final class TileDownsampler {
+
+   private final int tileWidth_, tileHeight_;
+   private final boolean rgb_;
+   private final int byteDepth_;
+
+   /**
+    * @param tileWidth width of destination tiles (and of the area of each
+    * source tile that is used)
+    * @param tileHeight height of destination tiles
+    * @param rgb true for 4-byte BGRA pixels (alpha is left untouched)
+    * @param byteDepth 1 for byte[] pixels, 2 for short[] (ignored for RGB)
+    */
+   TileDownsampler(int tileWidth, int tileHeight, boolean rgb, int byteDepth) {
+      tileWidth_ = tileWidth;
+      tileHeight_ = tileHeight;
+      rgb_ = rgb;
+      byteDepth_ = byteDepth;
+   }
+
+   /**
+    * Create the pixel array for an empty destination tile.
+    */
+   Object createTilePixels() {
+      if (rgb_) {
+         return new byte[tileWidth_ * tileHeight_ * 4];
+      } else if (byteDepth_ == 1) {
+         return new byte[tileWidth_ * tileHeight_];
+      } else {
+         return new short[tileWidth_ * tileHeight_];
+      }
+   }
+
+   long getTileBytes() {
+      return (long) tileWidth_ * tileHeight_ * (rgb_ ? 4 : byteDepth_);
+   }
+
+   /**
+    * Average the tileWidth x tileHeight area of src starting at (srcOffsetX,
+    * srcOffsetY) into the given quadrant of dst.
+    *
+    * @param srcWidth full width of the source tile (including any overlap)
+    * @param srcHeight full height of the source tile
+    * @param quadrantX 0 for the left half of dst, 1 for the right half
+    * @param quadrantY 0 for the top half of dst, 1 for the bottom half
+    */
+   void downsample(Object dst, Object src, int srcWidth, int srcHeight,
+           int srcOffsetX, int srcOffsetY, int quadrantX, int quadrantY) {
+      int dstX0 = (quadrantX * tileWidth_) / 2;
+      int dstY0 = (quadrantY * tileHeight_) / 2;
+      if (rgb_) {
+         downsampleRGB((byte[]) dst, (byte[]) src, srcWidth, srcHeight,
+                 srcOffsetX, srcOffsetY, dstX0, dstY0);
+      } else if (byteDepth_ == 1) {
+         downsample8((byte[]) dst, (byte[]) src, srcWidth, srcHeight,
+                 srcOffsetX, srcOffsetY, dstX0, dstY0);
+      } else {
+         downsample16((short[]) dst, (short[]) src, srcWidth, srcHeight,
+                 srcOffsetX, srcOffsetY, dstX0, dstY0);
+      }
+   }
+
+   private void downsample8(byte[] dst, byte[] src, int srcWidth,
+           int srcHeight, int offsetX, int offsetY, int dstX0, int dstY0) {
+      // Columns x < xEnd have a right-hand neighbor
+      int xEnd = Math.min(tileWidth_, srcWidth - 1);
+      for (int y = 0; y < tileHeight_; y += 2) {
+         int s0 = (y + offsetY) * srcWidth + offsetX;
+         int d = (dstY0 + y / 2) * tileWidth_ + dstX0;
+         int x = 0;
+         if (y < srcHeight - 1) {
+            int s1 = s0 + srcWidth;
+            for (; x < xEnd; x += 2, d++) {
+               dst[d] = (byte) (((src[s0 + x] & 0xff) + (src[s0 + x + 1] & 0xff)
+                       + (src[s1 + x] & 0xff) + (src[s1 + x + 1] & 0xff)) >> 2);
+            }
+            if (x < tileWidth_) {
+               dst[d] = (byte) (((src[s0 + x] & 0xff) + (src[s1 + x] & 0xff)) >> 1);
+            }
+         } else {
+            for (; x < xEnd; x += 2, d++) {
+               dst[d] = (byte) (((src[s0 + x] & 0xff) + (src[s0 + x + 1] & 0xff)) >> 1);
+            }
+            if (x < tileWidth_) {
+               dst[d] = src[s0 + x];
+            }
+         }
+      }
+   }
+
+   private void downsample16(short[] dst, short[] src, int srcWidth,
+           int srcHeight, int offsetX, int offsetY, int dstX0, int dstY0) {
+      int xEnd = Math.min(tileWidth_, srcWidth - 1);
+      for (int y = 0; y < tileHeight_; y += 2) {
+         int s0 = (y + offsetY) * srcWidth + offsetX;
+         int d = (dstY0 + y / 2) * tileWidth_ + dstX0;
+         int x = 0;
+         if (y < srcHeight - 1) {
+            int s1 = s0 + srcWidth;
+            for (; x < xEnd; x += 2, d++) {
+               dst[d] = (short) (((src[s0 + x] & 0xffff) + (src[s0 + x + 1] & 0xffff)
+                       + (src[s1 + x] & 0xffff) + (src[s1 + x + 1] & 0xffff)) >> 2);
+            }
+            if (x < tileWidth_) {
+               dst[d] = (short) (((src[s0 + x] & 0xffff) + (src[s1 + x] & 0xffff)) >> 1);
+            }
+         } else {
+            for (; x < xEnd; x += 2, d++) {
+               dst[d] = (short) (((src[s0 + x] & 0xffff) + (src[s0 + x + 1] & 0xffff)) >> 1);
+            }
+            if (x < tileWidth_) {
+               dst[d] = src[s0 + x];
+            }
+         }
+      }
+   }
+
+   private void downsampleRGB(byte[] dst, byte[] src, int srcWidth,
+           int srcHeight, int offsetX, int offsetY, int dstX0, int dstY0) {
+      int xEnd = Math.min(tileWidth_, srcWidth - 1);
+      for (int y = 0; y < tileHeight_; y += 2) {
+         int s0 = ((y + offsetY) * srcWidth + offsetX) * 4;
+         int d = ((dstY0 + y / 2) * tileWidth_ + dstX0) * 4;
+         int x = 0;
+         if (y < srcHeight - 1) {
+            int s1 = s0 + srcWidth * 4;
+            for (; x < xEnd; x += 2, d += 4) {
+               int s = x * 4;
+               for (int c = 0; c < 3; c++) {
+                  dst[d + c] = (byte) (((src[s0 + s + c] & 0xff) + (src[s0 + s + 4 + c] & 0xff)
+                          + (src[s1 + s + c] & 0xff) + (src[s1 + s + 4 + c] & 0xff)) >> 2);
+               }
+            }
+            if (x < tileWidth_) {
+               int s = x * 4;
+               for (int c = 0; c < 3; c++) {
+                  dst[d + c] = (byte) (((src[s0 + s + c] & 0xff) + (src[s1 + s + c] & 0xff)) >> 1);
+               }
+            }
+         } else {
+            for (; x < xEnd; x += 2, d += 4) {
+               int s = x * 4;
+               for (int c = 0; c < 3; c++) {
+                  dst[d + c] = (byte) (((src[s0 + s + c] & 0xff) + (src[s0 + s + 4 + c] & 0xff)) >> 1);
+               }
+            }
+            if (x < tileWidth_) {
+               int s = x * 4;
+               for (int c = 0; c < 3; c++) {
+                  dst[d + c] = src[s0 + s + c];
+               }
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,159 @@
+package org.micromanager.magellan.imagedisplaynew;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Pixel loops for building the RGB display image. Each channel is mapped
+ * straight from raw pixel values to packed RGB through a single lookup table
+ * that combines contrast scaling and the color LUT, and channels are added
+ * together with each color component saturating at 255. Large images are
+ * split into bands of pixels that are processed on separate threads
+ */
+final class ImageCompositor {
+
+   //images with fewer pixels than this are processed on the calling thread
+   static final int MIN_PIXELS_TO_SPLIT = 512 * 512;
+   private static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+   private static final ExecutorService compositeExecutor_ = Executors.newFixedThreadPool(NUM_THREADS, (Runnable r) -> {
+      Thread t = new Thread(r, "Image compositing thread");
+      t.setDaemon(true);
+      return t;
+   });
+
+   interface BandTask {
+
+      /**
+       * Process pixels start (inclusive) to end (exclusive)
+       */
+      void run(int start, int end);
+   }
+
+   private ImageCompositor() {
+   }
+
+   /**
+    * Run the task over all pixels, in parallel bands if there are enough of
+    * them. Returns once every band is done
+    */
+   static void forEachBand(int numPixels, BandTask task) throws InterruptedException {
+      int numBands = numPixels < MIN_PIXELS_TO_SPLIT ? 1 : NUM_THREADS;
+      if (numBands == 1) {
+         task.run(0, numPixels);
+         return;
+      }
+      List<Future<?>> bands = new ArrayList<Future<?>>();
+      for (int band = 0; band < numBands; band++) {
+         final int start = (int) ((long) numPixels * band / numBands);
+         final int end = (int) ((long) numPixels * (band + 1) / numBands);
+         bands.add(compositeExecutor_.submit(() -> {
+            task.run(start, end);
+         }));
+      }
+      try {
+         for (Future<?> f : bands) {
+            f.get();
+         }
+      } catch (ExecutionException ex) {
+         throw new RuntimeException(ex.getCause());
+      } finally {
+         for (Future<?> f : bands) {
+            f.cancel(true);
+         }
+      }
+   }
+
+   /**
+    * Build the table from raw pixel value to packed RGB: values are scaled
+    * so contrastMin to contrastMax spans 0 to 255, then looked up in the
+    * color LUT
+    *
+    * @param reds, greens, blues color LUT with 256 entries, already shifted
+    * into place in the packed pixel
+    * @param lut table to reuse if it has the right size (may be null)
+    */
+   static int[] makeDisplayLUT(int numValues, int contrastMin, int contrastMax,
+           int[] reds, int[] greens, int[] blues, int[] lut) {
+      if (lut == null || lut.length != numValues) {
+         lut = new int[numValues];
+      }
+      double scale = 256.0 / (contrastMax - contrastMin + 1);
+      for (int pixVal = 0; pixVal < numValues; pixVal++) {
+         int value = Math.max(0, pixVal - contrastMin);
+         value = Math.min(255, (int) (value * scale + 0.5));
+         lut[pixVal] = reds[value] | greens[value] | blues[value];
+      }
+      return lut;
+   }
+
+   /**
+    * Add counts of the first numPixels pixels to the histogram, which must
+    * have an entry for every possible pixel value
+    */
+   static void accumulateHistogram(Object pixels, int numPixels, int[] histogram) throws InterruptedException {
+      if (numPixels < MIN_PIXELS_TO_SPLIT) {
+         accumulateHistogram(pixels, 0, numPixels, histogram);
+         return;
+      }
+      //each band counts into its own histogram, then adds it to the total
+      forEachBand(numPixels, (int start, int end) -> {
+         int[] bandHistogram = new int[histogram.length];
+         accumulateHistogram(pixels, start, end, bandHistogram);
+         synchronized (histogram) {
+            for (int i = 0; i < histogram.length; i++) {
+               histogram[i] += bandHistogram[i];
+            }
+         }
+      });
+   }
+
+   private static void accumulateHistogram(Object pixels, int start, int end, int[] histogram) {
+      if (pixels instanceof short[]) {
+         short[] pix = (short[]) pixels;
+         for (int i = start; i < end; i++) {
+            histogram[pix[i] & 0xffff]++;
+         }
+      } else {
+         byte[] pix = (byte[]) pixels;
+         for (int i = start; i < end; i++) {
+            histogram[pix[i] & 0xff]++;
+         }
+      }
+   }
+
+   /**
+    * Map pixels start to end through the display LUT
+    */
+   static void applyLUT(Object pixels, int[] lut, int[] rgb, int start, int end) {
+      if (pixels instanceof short[]) {
+         short[] pix = (short[]) pixels;
+         for (int i = start; i < end; i++) {
+            rgb[i] = lut[pix[i] & 0xffff];
+         }
+      } else {
+         byte[] pix = (byte[]) pixels;
+         for (int i = start; i < end; i++) {
+            rgb[i] = lut[pix[i] & 0xff];
+         }
+      }
+   }
+
+   /**
+    * Add pixels start to end of one channel's RGB image to the composite,
+    * clamping each component
+    */
+   static void addSaturating(int[] channelRGB, int[] composite, int start, int end) {
+      for (int i = start; i < end; i++) {
+         int a = composite[i];
+         int b = channelRGB[i];
+         int red = Math.min((a & 0xff0000) + (b & 0xff0000), 0xff0000);
+         int green = Math.min((a & 0xff00) + (b & 0xff00), 0xff00);
+         int blue = Math.min((a & 0xff) + (b & 0xff), 0xff);
+         composite[i] = red | green | blue;
+      }
+   }
+}
@@ -9,8 +9,10 @@ import java.awt.image.IndexColorModel;
 import java.awt.Image;
 import java.awt.Toolkit;
 import java.awt.image.MemoryImageSource;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.TreeMap;
 import mmcorej.TaggedImage;
 import org.json.JSONObject;
@@ -55,9 +57,11 @@ class ImageMaker {
    /**
     * Do neccesary calcualtion to get image for display
     *
+    * @param reloadPixels false if only contrast settings have changed since
+    * the last call, so pixels of channels already loaded can be reused
     * @return
     */
-   public Image makeOrGetImage(MagellanDataViewCoords viewCoords) {
+   public Image makeOrGetImage(MagellanDataViewCoords viewCoords, boolean reloadPixels) {
       boolean remakeDisplayImage = false; //remake the acutal Imge object if size has changed, otherwise just set pixels
       if (viewCoords.getDisplayImageSizeAtResLevel().x != imageWidth_
               || viewCoords.getDisplayImageSizeAtResLevel().y != imageHeight_) {
@@ -65,76 +69,69 @@ class ImageMaker {
          imageHeight_ = (int) viewCoords.getDisplayImageSizeAtResLevel().y;
          rgbPixels_ = new int[imageWidth_ * imageHeight_];
          remakeDisplayImage = true;
+         reloadPixels = true;
       }
 
-      //update pixels
-      for (Integer c : viewCoords.getChannelIndices()) {
-         //create channel processors as needed
-         synchronized (this) {
-            if (!channelProcessors_.containsKey(c)) {
-               channelProcessors_.put(c, new MagellanImageProcessor(imageWidth_, imageHeight_, viewCoords.getChannelName(c)));
+      try {
+         //update pixels
+         List<MagellanImageProcessor> activeProcessors = new ArrayList<MagellanImageProcessor>();
+         for (Integer c : viewCoords.getChannelIndices()) {
+            //create channel processors as needed
+            synchronized (this) {
+               if (!channelProcessors_.containsKey(c)) {
+                  channelProcessors_.put(c, new MagellanImageProcessor(imageWidth_, imageHeight_, viewCoords.getChannelName(c)));
+               }
+            }
+            MagellanImageProcessor processor = channelProcessors_.get(c);
+            if (!displaySettings_.isActive(viewCoords.getChannelName(c))) {
+               if (reloadPixels) {
+                  processor.pixelsValid_ = false;
+               }
+               continue;
+            }
+            activeProcessors.add(processor);
+            if (!reloadPixels && processor.pixelsValid_) {
+               continue;
             }
-         }
-         if (!displaySettings_.isActive(viewCoords.getChannelName(c))) {
-            continue;
-         }
 
-         TaggedImage imageForDisplay = imageCache_.getImageForDisplay(c, viewCoords);
-         if (viewCoords.getAxisPosition("c") == c) {
-            latestTags_ = imageForDisplay.tags;
+            //the previous pixels of this channel are replaced, so their buffer can be reused
+            TaggedImage imageForDisplay = imageCache_.getImageForDisplay(c, viewCoords, processor.pixels);
+            if (viewCoords.getAxisPosition("c") == c) {
+               latestTags_ = imageForDisplay.tags;
+            }
+            processor.changePixels(imageForDisplay.pix, imageWidth_, imageHeight_);
          }
-         channelProcessors_.get(c).changePixels(imageForDisplay.pix, imageWidth_, imageHeight_);
 
-      }
+         //contrast and LUTs, which only invalidate a channel's RGB image if they changed
+         for (MagellanImageProcessor processor : activeProcessors) {
+            processor.recompute();
+         }
 
-      try {
-         boolean firstActive = true;
-         Arrays.fill(rgbPixels_, 0);
-         int redValue, greenValue, blueValue;
-         for (Integer c : channelProcessors_.keySet()) {
-            if (!displaySettings_.isActive(viewCoords.getChannelName(c))) {
-               continue;
+         //map channels that changed through their LUTs, and add up all of them
+         final int numPixels = imageWidth_ * imageHeight_;
+         final int[] rgbPixels = rgbPixels_;
+         ImageCompositor.forEachBand(numPixels, (int start, int end) -> {
+            if (activeProcessors.isEmpty()) {
+               Arrays.fill(rgbPixels, start, end, 0);
             }
-            String channelName = viewCoords.getChannelName(c);
-            if (displaySettings_.isActive(channelName)) {
-               //get the appropriate pixels from the data view
-
-               //recompute 8 bit image
-               channelProcessors_.get(c).recompute();
-               byte[] bytes;
-               bytes = channelProcessors_.get(c).eightBitImage;
-               if (firstActive) {
-                  for (int p = 0; p < imageWidth_ * imageHeight_; p++) {
-                     redValue = channelProcessors_.get(c).reds[bytes[p] & 0xff];
-                     greenValue = channelProcessors_.get(c).greens[bytes[p] & 0xff];
-                     blueValue = channelProcessors_.get(c).blues[bytes[p] & 0xff];
-                     rgbPixels_[p] = redValue | greenValue | blueValue;
-                  }
-                  firstActive = false;
+            for (int i = 0; i < activeProcessors.size(); i++) {
+               MagellanImageProcessor processor = activeProcessors.get(i);
+               if (!processor.rgbValid_) {
+                  ImageCompositor.applyLUT(processor.pixels, processor.displayLUT_,
+                          processor.rgbPixels_, start, end);
+               }
+               if (i == 0) {
+                  System.arraycopy(processor.rgbPixels_, start, rgbPixels, start, end - start);
                } else {
-                  int pixel;
-                  for (int p = 0; p < imageWidth_ * imageHeight_; p++) {
-                     pixel = rgbPixels_[p];
-                     redValue = (pixel & 0x00ff0000) + channelProcessors_.get(c).reds[bytes[p] & 0xff];
-                     greenValue = (pixel & 0x0000ff00) + channelProcessors_.get(c).greens[bytes[p] & 0xff];
-                     blueValue = (pixel & 0x000000ff) + channelProcessors_.get(c).blues[bytes[p] & 0xff];
-
-                     if (redValue > 16711680) {
-                        redValue = 16711680;
-                     }
-                     if (greenValue > 65280) {
-                        greenValue = 65280;
-                     }
-                     if (blueValue > 255) {
-                        blueValue = 255;
-                     }
-                     rgbPixels_[p] = redValue | greenValue | blueValue;
-
-                  }
+                  ImageCompositor.addSaturating(processor.rgbPixels_, rgbPixels, start, end);
                }
             }
-
+         });
+         for (MagellanImageProcessor processor : activeProcessors) {
+            processor.rgbValid_ = true;
          }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
       } catch (Exception e) {
          e.printStackTrace();
          Log.log(e, true);
@@ -213,13 +210,22 @@ class ImageMaker {
       Object pixels;
       int width, height;
       int pixelMin_, pixelMax_, minAfterRejectingOutliers_, maxAfterRejectingOutliers_;
-      byte[] eightBitImage = null;
       int[] reds = null;
       int[] blues = null;
       int[] greens = null;
       int[] rawHistogram = null;
       final String channelName_;
       int[] displayHistogram_;
+      //raw pixel value to packed RGB, with contrast and color applied
+      int[] displayLUT_ = null;
+      //settings displayLUT_ was made with
+      int lutMin_, lutMax_;
+      double lutGamma_;
+      Color lutColor_;
+      //pixels mapped through displayLUT_, kept so unchanged channels needn't be redone
+      int[] rgbPixels_ = null;
+      boolean pixelsValid_ = false;
+      boolean rgbValid_ = false;
 
       public MagellanImageProcessor(int w, int h, String name) {
          width = w;
@@ -227,18 +233,27 @@ class ImageMaker {
          channelName_ = name;
       }
 
-      public void changePixels(Object pix, int w, int h) {
+      public void changePixels(Object pix, int w, int h) throws InterruptedException {
          pixels = pix;
-         rawHistogram = pixels instanceof short[] ? new int[65536] : new int[256];
+         int histSize = pixels instanceof short[] ? 65536 : 256;
+         if (rawHistogram == null || rawHistogram.length != histSize) {
+            rawHistogram = new int[histSize];
+         } else {
+            Arrays.fill(rawHistogram, 0);
+         }
          width = w;
          height = h;
-         eightBitImage = null;
+         ImageCompositor.accumulateHistogram(pixels, width * height, rawHistogram);
+         if (rgbPixels_ == null || rgbPixels_.length != width * height) {
+            rgbPixels_ = new int[width * height];
+         }
+         pixelsValid_ = true;
+         rgbValid_ = false;
       }
 
       public void recompute() {
          contrastMin_ = displaySettings_.getContrastMin(channelName_);
          contrastMax_ = displaySettings_.getContrastMax(channelName_);
-         create8BitImage();
          processHistogram();
          if (displaySettings_.getAutoscale()) {
             if (displaySettings_.ignoreFractionOn()) {
@@ -250,12 +265,22 @@ class ImageMaker {
             }
             displaySettings_.setContrastMin(channelName_, contrastMin_);
             displaySettings_.setContrastMax(channelName_, contrastMax_);
-            //need to redo this with autoscaled contrast now
-            create8BitImage();
-            processHistogram();
          }
-         lut = makeLUT(displaySettings_.getColor(channelName_), displaySettings_.getContrastGamma(channelName_));
+         Color color = displaySettings_.getColor(channelName_);
+         double gamma = displaySettings_.getContrastGamma(channelName_);
+         if (displayLUT_ != null && displayLUT_.length == rawHistogram.length && lutMin_ == contrastMin_
+                 && lutMax_ == contrastMax_ && lutGamma_ == gamma && color.equals(lutColor_)) {
+            return; //nothing changed
+         }
+         lut = makeLUT(color, gamma);
          splitLUTRGB();
+         displayLUT_ = ImageCompositor.makeDisplayLUT(rawHistogram.length, contrastMin_, contrastMax_,
+                 reds, greens, blues, displayLUT_);
+         lutMin_ = contrastMin_;
+         lutMax_ = contrastMax_;
+         lutGamma_ = gamma;
+         lutColor_ = color;
+         rgbValid_ = false;
       }
 
       private void processHistogram() {
@@ -321,36 +346,6 @@ class ImageMaker {
          }
       }
 
-      //Create grayscale image with LUT min and max applied, but no color mapping
-      //Also compute histogram in the process
-      private void create8BitImage() {
-         int size = width * height;
-         if (eightBitImage == null) {
-            eightBitImage = new byte[size];
-         }
-         int value;
-         double scale = 256.0 / (contrastMax_ - contrastMin_ + 1);
-         for (int i = 0; i < size; i++) {
-            if (pixels instanceof short[]) {
-               int pixVal = (((short[]) pixels)[i] & 0xffff);
-               value = pixVal - contrastMin_;
-               rawHistogram[pixVal]++;
-            } else {
-               int pixVal = (((byte[]) pixels)[i] & 0xffff);
-               value = pixVal - contrastMin_;
-               rawHistogram[pixVal]++;
-            }
-            if (value < 0) {
-               value = 0;
-            }
-            value = (int) (value * scale + 0.5);
-            if (value > 255) {
-               value = 255;
-            }
-            eightBitImage[i] = (byte) value;
-         }
-      }
-
    }
 
 }
@@ -386,7 +386,8 @@ public final class MagellanDisplayController {
     */
    @Subscribe
    public void onContrastUpdated(final ContrastUpdatedEvent event) {
-      recomputeDisplayedImage();
+      //pixels are unchanged, only their mapping to the display
+      displayCalculationExecutor_.invokeAsLateAsPossibleWithCoalescence(new DisplayImageComputationRunnable(false));
    }
 
    @Subscribe
@@ -407,7 +408,7 @@ public final class MagellanDisplayController {
    }
 
    public void recomputeDisplayedImage() {
-      displayCalculationExecutor_.invokeAsLateAsPossibleWithCoalescence(new DisplayImageComputationRunnable());
+      displayCalculationExecutor_.invokeAsLateAsPossibleWithCoalescence(new DisplayImageComputationRunnable(true));
    }
 
    public MagellanCanvas getCanvas() {
@@ -581,7 +582,7 @@ public final class MagellanDisplayController {
 
    void redrawOverlay() {
       //this will automatically trigger overlay redrawing in a coalescent fashion
-      displayCalculationExecutor_.invokeAsLateAsPossibleWithCoalescence(new DisplayImageComputationRunnable());
+      displayCalculationExecutor_.invokeAsLateAsPossibleWithCoalescence(new DisplayImageComputationRunnable(true));
    }
 
    boolean anythingAcquired() {
@@ -795,9 +796,16 @@ public final class MagellanDisplayController {
    private class DisplayImageComputationRunnable implements CoalescentRunnable {
 
       MagellanDataViewCoords view_;
+      final boolean reloadPixels_;
 
-      public DisplayImageComputationRunnable() {
+      public DisplayImageComputationRunnable(boolean reloadPixels) {
          view_ = viewCoords_.copy();
+         reloadPixels_ = reloadPixels;
+      }
+
+      private DisplayImageComputationRunnable(MagellanDataViewCoords view, boolean reloadPixels) {
+         view_ = view;
+         reloadPixels_ = reloadPixels;
       }
 
       @Override
@@ -807,13 +815,15 @@ public final class MagellanDisplayController {
 
       @Override
       public CoalescentRunnable coalesceWith(CoalescentRunnable later) {
-         return later; //Always update with newest image 
+         //Always update with newest image, but reload pixels if either needed to
+         DisplayImageComputationRunnable newer = (DisplayImageComputationRunnable) later;
+         return new DisplayImageComputationRunnable(newer.view_, reloadPixels_ || newer.reloadPixels_);
       }
 
       @Override
       public void run() {
          //This is where most of the calculation of creating a display image happens
-         Image img = imageMaker_.makeOrGetImage(view_);
+         Image img = imageMaker_.makeOrGetImage(view_, reloadPixels_);
          JSONObject tags = imageMaker_.getLatestTags();
          Overlay cheapOverlay = overlayer_.createEasyPartsOfOverlay(view_);
 
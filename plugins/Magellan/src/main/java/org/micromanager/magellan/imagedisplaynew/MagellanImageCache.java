@@ -182,6 +182,14 @@ public class MagellanImageCache {
    }
 
    public TaggedImage getImageForDisplay(int channel, MagellanDataViewCoords dataCoords) {
+      return getImageForDisplay(channel, dataCoords, null);
+   }
+
+   /**
+    * @param reusePixels pixels previously returned for this channel that are
+    * no longer needed (may be null)
+    */
+   public TaggedImage getImageForDisplay(int channel, MagellanDataViewCoords dataCoords, Object reusePixels) {
       int imagePixelWidth = (int) (dataCoords.getSourceDataSize().x / dataCoords.getDownsampleFactor());
       int imagePixelHeight = (int) (dataCoords.getSourceDataSize().y / dataCoords.getDownsampleFactor());
       long viewOffsetAtResX = (long) (dataCoords.getViewOffset().x / dataCoords.getDownsampleFactor());
@@ -192,7 +200,7 @@ public class MagellanImageCache {
               dataCoords.getAxisPosition("t"),
               dataCoords.getResolutionIndex(),
               viewOffsetAtResX, viewOffsetAtResY,
-              imagePixelWidth, imagePixelHeight);
+              imagePixelWidth, imagePixelHeight, reusePixels);
    }
 
    public void registerForEvents(Object obj) {
@@ -204,7 +212,7 @@ public class MagellanImageCache {
    }
 
    public boolean anythingAcquired() {
-      return !imageStorage_.imageKeys().isEmpty();
+      return imageStorage_.getNumImages() > 0;
    }
 
    public String getUniqueAcqName() {
@@ -73,6 +73,7 @@ public class MD {
    private static final String IJ_TYPE = "IJType";
    private static final String CORE_XYSTAGE = "Core-XYStage";
    private static final String CORE_FOCUS = "Core-Focus";
+   private static final String HARDWARE_UPDATE_TIMES = "HardwareUpdateTimes-ms";
    private static final String FIXED_SURFACE_POINTS = "DistanceFromFixedSurfacePoints";
    
    
@@ -681,6 +682,14 @@ public class MD {
          throw new RuntimeException();
       }
    }
+   public static void setHardwareUpdateTimes(JSONObject map, JSONObject times) {
+      try {
+         map.put(HARDWARE_UPDATE_TIMES, times);
+      } catch (JSONException ex) {
+         Log.log("Couldn't set hardware update times");
+      }
+   }
+
    public static void setElapsedTimeMs(JSONObject map, long val) {
       try {
          map.put(ELAPSED_TIME_MS, val);
@@ -0,0 +1,173 @@
+///////////////////////////////////////////////////////////////////////////////
+// COPYRIGHT:    University of California, San Francisco, 2019
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+package org.micromanager.magellan.surfacesandregions;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
+
+/**
+ * Convex hull as a plain array of vertices, for point and tile tests that
+ * are much cheaper than the equivalent operations on a BSP tree Region.
+ * Vertices may be in either winding order. Hulls with fewer than 3 vertices
+ * contain and intersect nothing
+ */
+final class ConvexHullIndex {
+
+   //distance within which points count as on the boundary, same as the hull generator
+   private static final double TOLERANCE = 1e-10;
+
+   private final double[] xs_, ys_;
+   private final double orientation_; //1 for counterclockwise, -1 for clockwise
+
+   ConvexHullIndex(Vector2D[] vertices) {
+      xs_ = new double[vertices.length];
+      ys_ = new double[vertices.length];
+      for (int i = 0; i < vertices.length; i++) {
+         xs_[i] = vertices[i].getX();
+         ys_[i] = vertices[i].getY();
+      }
+      orientation_ = computeOrientation();
+   }
+
+   private ConvexHullIndex(double[] xs, double[] ys) {
+      xs_ = xs;
+      ys_ = ys;
+      orientation_ = computeOrientation();
+   }
+
+   private double computeOrientation() {
+      double area = 0;
+      for (int i = 0; i < xs_.length; i++) {
+         int j = (i + 1) % xs_.length;
+         area += xs_[i] * ys_[j] - xs_[j] * ys_[i];
+      }
+      return area < 0 ? -1 : 1;
+   }
+
+   private boolean isDegenerate() {
+      return xs_.length < 3;
+   }
+
+   /**
+    * @return the hull with every vertex mapped through the transform, which
+    * is still convex
+    */
+   ConvexHullIndex transform(AffineTransform transform) {
+      double[] xs = new double[xs_.length];
+      double[] ys = new double[ys_.length];
+      Point2D.Double p = new Point2D.Double();
+      for (int i = 0; i < xs_.length; i++) {
+         transform.transform(new Point2D.Double(xs_[i], ys_[i]), p);
+         xs[i] = p.x;
+         ys[i] = p.y;
+      }
+      return new ConvexHullIndex(xs, ys);
+   }
+
+   /**
+    * @return true if the point is inside the hull or on its boundary
+    */
+   boolean contains(double x, double y) {
+      if (isDegenerate()) {
+         return false;
+      }
+      for (int i = 0; i < xs_.length; i++) {
+         int j = (i + 1) % xs_.length;
+         double ex = xs_[j] - xs_[i], ey = ys_[j] - ys_[i];
+         double cross = ex * (y - ys_[i]) - ey * (x - xs_[i]);
+         if (orientation_ * cross < -TOLERANCE * Math.sqrt(ex * ex + ey * ey)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Test whether a convex polygon, such as the corners of a tile, overlaps
+    * the hull by more than just touching it
+    */
+   boolean intersects(Point2D.Double[] polygon) {
+      if (isDegenerate() || polygon.length < 3) {
+         return false;
+      }
+      double[] pxs = new double[polygon.length];
+      double[] pys = new double[polygon.length];
+      for (int i = 0; i < polygon.length; i++) {
+         pxs[i] = polygon[i].x;
+         pys[i] = polygon[i].y;
+      }
+      //separating axis theorem: disjoint convex polygons can be separated
+      //along the normal of one of their edges
+      return !hasSeparatingAxis(xs_, ys_, pxs, pys) && !hasSeparatingAxis(pxs, pys, xs_, ys_);
+   }
+
+   private static boolean hasSeparatingAxis(double[] edgeXs, double[] edgeYs, double[] otherXs, double[] otherYs) {
+      for (int i = 0; i < edgeXs.length; i++) {
+         int j = (i + 1) % edgeXs.length;
+         double axisX = edgeYs[i] - edgeYs[j];
+         double axisY = edgeXs[j] - edgeXs[i];
+         double length = Math.sqrt(axisX * axisX + axisY * axisY);
+         if (length == 0) {
+            continue;
+         }
+         double min1 = Double.MAX_VALUE, max1 = -Double.MAX_VALUE;
+         for (int k = 0; k < edgeXs.length; k++) {
+            double d = axisX * edgeXs[k] + axisY * edgeYs[k];
+            min1 = Math.min(min1, d);
+            max1 = Math.max(max1, d);
+         }
+         double min2 = Double.MAX_VALUE, max2 = -Double.MAX_VALUE;
+         for (int k = 0; k < otherXs.length; k++) {
+            double d = axisX * otherXs[k] + axisY * otherYs[k];
+            min2 = Math.min(min2, d);
+            max2 = Math.max(max2, d);
+         }
+         if (Math.min(max1, max2) - Math.max(min1, min2) <= TOLERANCE * length) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Range of x covered by the hull between two values of y
+    *
+    * @return {xMin, xMax}, or null if the hull does not reach between them
+    */
+   double[] getXRange(double yMin, double yMax) {
+      if (isDegenerate()) {
+         return null;
+      }
+      double xMin = Double.MAX_VALUE, xMax = -Double.MAX_VALUE;
+      for (int i = 0; i < xs_.length; i++) {
+         //vertices within the band
+         if (ys_[i] >= yMin && ys_[i] <= yMax) {
+            xMin = Math.min(xMin, xs_[i]);
+            xMax = Math.max(xMax, xs_[i]);
+         }
+         //edges crossing its top or bottom
+         int j = (i + 1) % xs_.length;
+         for (double y : new double[]{yMin, yMax}) {
+            if ((ys_[i] < y && ys_[j] > y) || (ys_[i] > y && ys_[j] < y)) {
+               double x = xs_[i] + (y - ys_[i]) / (ys_[j] - ys_[i]) * (xs_[j] - xs_[i]);
+               xMin = Math.min(xMin, x);
+               xMax = Math.max(xMax, x);
+            }
+         }
+      }
+      return xMin > xMax ? null : new double[]{xMin, xMax};
+   }
+}
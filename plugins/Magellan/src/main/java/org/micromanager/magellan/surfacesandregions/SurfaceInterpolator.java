@@ -36,13 +36,9 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.micromanager.magellan.main.Magellan;
 import org.micromanager.magellan.misc.Log;
-import org.apache.commons.math3.geometry.euclidean.twod.Euclidean2D;
-import org.apache.commons.math3.geometry.euclidean.twod.PolygonsSet;
 import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
 import org.apache.commons.math3.geometry.euclidean.twod.hull.ConvexHull2D;
 import org.apache.commons.math3.geometry.euclidean.twod.hull.MonotoneChain;
-import org.apache.commons.math3.geometry.partitioning.Region;
-import org.apache.commons.math3.geometry.partitioning.RegionFactory;
 
 /**
  *
@@ -60,9 +56,8 @@ public abstract class SurfaceInterpolator extends XYFootprint {
    private final boolean towardsSampleIsPositive_;
    protected volatile TreeSet<Point3d> points_;
    private MonotoneChain mChain_;
-   private final RegionFactory<Euclidean2D> regionFacotry_ = new RegionFactory<Euclidean2D>();
    protected volatile Vector2D[] convexHullVertices_;
-   protected volatile Region<Euclidean2D> convexHullRegion_;
+   protected volatile ConvexHullIndex convexHullIndex_;
    private volatile int numRows_, numCols_;
    private volatile List<XYStagePosition> xyPositions_;
    protected volatile double boundXMin_, boundXMax_, boundYMin_, boundYMax_;
@@ -212,15 +207,9 @@ public abstract class SurfaceInterpolator extends XYFootprint {
    }
    
    public boolean isDefinedAtPosition(XYStagePosition position) {
-      //create square region correpsonding to stage pos
-      Region<Euclidean2D> square = getStagePositionRegion(position);
-      //if convex hull and position have no intersection, delete
-      Region<Euclidean2D> intersection = regionFacotry_.intersection(square, convexHullRegion_);
-      if (intersection.isEmpty()) {
-         return false;
-      } else {
-         return true;
-      }
+      //defined if the square of the stage pos overlaps the convex hull
+      ConvexHullIndex hull = convexHullIndex_;
+      return hull != null && hull.intersects(position.getDisplayedTileCorners());
    }
 
    /**
@@ -314,23 +303,6 @@ public abstract class SurfaceInterpolator extends XYFootprint {
       return true;
    }
    
-   /**
-    * Create a 2D square region corresponding to the the stage position + any extra padding
-    * @param pos
-    * @return 
-    */
-   private Region<Euclidean2D> getStagePositionRegion(XYStagePosition pos) {
-       Region<Euclidean2D> square;
-       Point2D.Double[] corners = pos.getDisplayedTileCorners();
-      square = new PolygonsSet(0.0001, new Vector2D[]{
-         new Vector2D(corners[0].x, corners[0].y),
-         new Vector2D(corners[1].x, corners[1].y),
-         new Vector2D(corners[2].x, corners[2].y),
-         new Vector2D(corners[3].x, corners[3].y)});
-
-      return square.checkPoint(new Vector2D(pos.getCenter().x, pos.getCenter().y)) == Region.Location.OUTSIDE ? regionFacotry_.getComplement(square) : square;
-   }
-
    private void calculateConvexHullBounds() {
       //convert convex hull vertices to pixel offsets in an arbitrary pixel space
       AffineTransform transform = MagellanAffineUtils.getAffineTransform(0, 0);
@@ -372,6 +344,48 @@ public abstract class SurfaceInterpolator extends XYFootprint {
     */
    public abstract float getExtrapolatedValue(double x, double y);
 
+   /**
+    * Scan one row of the tile grid, in the pixel space of the grid, for the
+    * columns whose displayed tiles overlap the hull. The tiles at the ends are
+    * tested exactly, since the hull may only touch them
+    */
+   private void findColumnsOverlappingHull(ConvexHullIndex pixelHull, int row, double yPixelOffset,
+           int tileWidthMinusOverlap, int tileHeightMinusOverlap, int[] firstCol, int[] lastCol) {
+      //same extent as the displayed tile corners of XYStagePosition
+      int halfWidth = tileWidthMinusOverlap / 2;
+      int halfHeight = tileHeightMinusOverlap / 2;
+      double[] xRange = pixelHull.getXRange(yPixelOffset - halfHeight, yPixelOffset + halfHeight);
+      if (xRange == null) {
+         firstCol[row] = 0;
+         lastCol[row] = -1;
+         return;
+      }
+      //columns with a tile center within half a tile of the hull
+      double centerCol = (numCols_ - 1) / 2.0;
+      int first = Math.max(0, (int) Math.floor((xRange[0] - halfWidth) / tileWidthMinusOverlap + centerCol) + 1);
+      int last = Math.min(numCols_ - 1, (int) Math.ceil((xRange[1] + halfWidth) / tileWidthMinusOverlap + centerCol) - 1);
+      while (first <= last && !pixelHull.intersects(getPixelTileCorners(first, centerCol, yPixelOffset,
+              tileWidthMinusOverlap, halfWidth, halfHeight))) {
+         first++;
+      }
+      while (last >= first && !pixelHull.intersects(getPixelTileCorners(last, centerCol, yPixelOffset,
+              tileWidthMinusOverlap, halfWidth, halfHeight))) {
+         last--;
+      }
+      firstCol[row] = first;
+      lastCol[row] = last;
+   }
+
+   private static Point2D.Double[] getPixelTileCorners(int col, double centerCol, double yPixelOffset,
+           int tileWidthMinusOverlap, int halfWidth, int halfHeight) {
+      double xPixelOffset = (col - centerCol) * tileWidthMinusOverlap;
+      return new Point2D.Double[]{
+         new Point2D.Double(xPixelOffset - halfWidth, yPixelOffset - halfHeight),
+         new Point2D.Double(xPixelOffset - halfWidth, yPixelOffset + halfHeight),
+         new Point2D.Double(xPixelOffset + halfWidth, yPixelOffset + halfHeight),
+         new Point2D.Double(xPixelOffset + halfWidth, yPixelOffset - halfHeight)};
+   }
+
    private void fitXYPositionsToConvexHull(double overlap) throws InterruptedException {
       int fullTileWidth = (int) Magellan.getCore().getImageWidth();
       int fullTileHeight = (int) Magellan.getCore().getImageHeight();
@@ -399,7 +413,26 @@ public abstract class SurfaceInterpolator extends XYFootprint {
       transformMaxtrix[5] = gridCenterStageCoords.y;
       //create new transform with translation applied
       transform = new AffineTransform(transformMaxtrix);
-      //add all positions of rectangle around convex hull
+      //find the range of columns in each row whose tiles overlap the convex hull,
+      //so that only those positions get created
+      ConvexHullIndex pixelHull;
+      try {
+         pixelHull = convexHullIndex_.transform(transform.createInverse());
+      } catch (NoninvertibleTransformException ex) {
+         Log.log("Problem inverting affine transform");
+         throw new RuntimeException(ex);
+      }
+      int[] firstCol = new int[numRows_];
+      int[] lastCol = new int[numRows_];
+      for (int row = 0; row < numRows_; row++) {
+         if (Thread.interrupted()) {
+            throw new InterruptedException();
+         }
+         double yPixelOffset = (row - (numRows_ - 1) / 2.0) * (tileHeightMinusOverlap);
+         findColumnsOverlappingHull(pixelHull, row, yPixelOffset, tileWidthMinusOverlap, tileHeightMinusOverlap,
+                 firstCol, lastCol);
+      }
+      //add positions of rectangle around convex hull that overlap it
       for (int col = 0; col < numCols_; col++) {
          double xPixelOffset = (col - (numCols_ - 1) / 2.0) * (tileWidthMinusOverlap);
          //snaky pattern
@@ -408,6 +441,9 @@ public abstract class SurfaceInterpolator extends XYFootprint {
                  if (Thread.interrupted()) {
                      throw new InterruptedException();
                  }
+                 if (col < firstCol[row] || col > lastCol[row]) {
+                    continue;
+                 }
                  double yPixelOffset = (row - (numRows_ - 1) / 2.0) * (tileHeightMinusOverlap);
                  Point2D.Double pixelPos = new Point2D.Double(xPixelOffset, yPixelOffset);
                  Point2D.Double stagePos = new Point2D.Double();
@@ -421,6 +457,9 @@ public abstract class SurfaceInterpolator extends XYFootprint {
                  if (Thread.interrupted()) {
                      throw new InterruptedException();
                  }
+                 if (col < firstCol[row] || col > lastCol[row]) {
+                    continue;
+                 }
                  double yPixelOffset = (row - (numRows_ - 1) / 2.0) * (tileHeightMinusOverlap);
                  Point2D.Double pixelPos = new Point2D.Double(xPixelOffset, yPixelOffset);
                  Point2D.Double stagePos = new Point2D.Double();
@@ -431,21 +470,6 @@ public abstract class SurfaceInterpolator extends XYFootprint {
              }     
          }
       }
-      //delete positions squares (+padding) that do not overlap convex hull
-      for (int i = positions.size() - 1; i >= 0; i--) {
-         if (Thread.interrupted()) {
-            throw new InterruptedException();
-         }
-         XYStagePosition pos = positions.get(i);
-         //create square region correpsonding to stage pos
-         Region<Euclidean2D> square = getStagePositionRegion(pos);     
-         //if convex hull and position have no intersection, delete
-         Region<Euclidean2D> intersection = regionFacotry_.intersection(square, convexHullRegion_);
-         if (intersection.isEmpty()) {
-            positions.remove(i);
-         }
-         square.getBoundarySize();
-      }
       if (Thread.interrupted()) {
          throw new InterruptedException();
       }
@@ -538,7 +562,7 @@ public abstract class SurfaceInterpolator extends XYFootprint {
       //don't want one of the get methods returning a null object thinking it has a value
       synchronized (convexHullLock_) {
          convexHullVertices_ = null;
-         convexHullRegion_ = null;
+         convexHullIndex_ = null;
       }
       synchronized (interpolationLock_) {
          currentInterpolation_ = null;
@@ -572,7 +596,7 @@ public abstract class SurfaceInterpolator extends XYFootprint {
                   if (Thread.interrupted()) {
                      throw new InterruptedException();
                   }
-                  convexHullRegion_ = hull.createRegion();
+                  convexHullIndex_ = new ConvexHullIndex(hull.getVertices());
                   if (Thread.interrupted()) {
                      throw new InterruptedException();
                   }
@@ -19,17 +19,21 @@ package org.micromanager.magellan.surfacesandregions;
 import delaunay_triangulation.Delaunay_Triangulation;
 import delaunay_triangulation.Point_dt;
 import delaunay_triangulation.Triangle_dt;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.micromanager.magellan.main.Magellan;
 import org.apache.commons.math3.geometry.euclidean.threed.Line;
 import org.apache.commons.math3.geometry.euclidean.threed.Plane;
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
-import org.apache.commons.math3.geometry.partitioning.Region;
 import java.util.Iterator;
 import java.util.List;
 
@@ -41,11 +45,69 @@ import java.util.List;
 public class SurfaceInterpolatorSimple extends SurfaceInterpolator {
 
    private static final double TOLERANCE = 0.01;
+   private static final int RASTER_THREADS = Runtime.getRuntime().availableProcessors();
+   private static final ExecutorService rasterExecutor_ = Executors.newFixedThreadPool(RASTER_THREADS, (Runnable r) -> {
+      Thread t = new Thread(r, "Surface interpolation thread");
+      t.setDaemon(true);
+      return t;
+   });
+
+   //Kept between interpolations so that adding points only inserts the new
+   //ones. Only accessed on the interpolation thread
+   private Delaunay_Triangulation triangulation_;
+   private final Set<Point3d> triangulatedPoints_ = Collections.newSetFromMap(new IdentityHashMap<Point3d, Boolean>());
 
    public SurfaceInterpolatorSimple(String xyName, String zName) {
       super(xyName, zName);
    }
 
+   /**
+    * Bring the triangulation up to date with the current points, inserting
+    * new points into the existing one when points have only been added
+    */
+   private Delaunay_Triangulation updateTriangulation(LinkedList<Point3d> points) throws InterruptedException {
+      Set<Point3d> current = Collections.newSetFromMap(new IdentityHashMap<Point3d, Boolean>());
+      current.addAll(points);
+      if (triangulation_ == null || !current.containsAll(triangulatedPoints_)) {
+         //points removed, start over
+         triangulation_ = new Delaunay_Triangulation();
+         triangulatedPoints_.clear();
+      }
+      for (Point3d p : points) {
+         if (Thread.interrupted()) {
+            throw new InterruptedException();
+         }
+         if (triangulatedPoints_.add(p)) {
+            triangulation_.insertPoint(new Point_dt(p.x, p.y, p.z));
+         }
+      }
+      return triangulation_;
+   }
+
+   /**
+    * @return x, y and z of the vertices of all bounded triangles
+    */
+   private static double[] getTriangleVertices(Delaunay_Triangulation dTri) {
+      ArrayList<Triangle_dt> triangles = new ArrayList<Triangle_dt>();
+      Iterator<Triangle_dt> it = dTri.trianglesIterator();
+      while (it.hasNext()) {
+         Triangle_dt tri = it.next();
+         if (!tri.isHalfplane()) {
+            triangles.add(tri);
+         }
+      }
+      double[] vertices = new double[9 * triangles.size()];
+      for (int t = 0; t < triangles.size(); t++) {
+         Point_dt[] corners = {triangles.get(t).p1(), triangles.get(t).p2(), triangles.get(t).p3()};
+         for (int k = 0; k < 3; k++) {
+            vertices[9 * t + 3 * k] = corners[k].x();
+            vertices[9 * t + 3 * k + 1] = corners[k].y();
+            vertices[9 * t + 3 * k + 2] = corners[k].z();
+         }
+      }
+      return vertices;
+   }
+
    protected void interpolateSurface(LinkedList<Point3d> points) throws InterruptedException {
 
       double pixSize = Magellan.getCore().getPixelSizeUm();
@@ -53,11 +115,7 @@ public class SurfaceInterpolatorSimple extends SurfaceInterpolator {
           throw new RuntimeException("Pixel size is 0");
       }
       //provide interpolator with current list of data points
-      Point_dt triangulationPoints[] = new Point_dt[points.size()];
-      for (int i = 0; i < points.size(); i++) {
-         triangulationPoints[i] = new Point_dt(points.get(i).x, points.get(i).y, points.get(i).z);
-      }
-      Delaunay_Triangulation dTri = new Delaunay_Triangulation(triangulationPoints);
+      SurfaceRasterizer rasterizer = new SurfaceRasterizer(getTriangleVertices(updateTriangulation(points)));
 
       int maxPixelDimension = (int) (Math.max(boundXMax_ - boundXMin_, boundYMax_ - boundYMin_) / pixSize);
       //Start with at least 20 interp points and go smaller and smaller until every pixel interped?
@@ -84,40 +142,14 @@ public class SurfaceInterpolatorSimple extends SurfaceInterpolator {
          float[][] interpVals = new float[numInterpPointsY][numInterpPointsX];
          float[][] interpNormals = new float[numInterpPointsY][numInterpPointsX];
          boolean[][] interpDefined = new boolean[numInterpPointsY][numInterpPointsX];
-         for (int yInd = 0; yInd < interpVals.length; yInd++) {
-            for (int xInd = 0; xInd < interpVals[0].length; xInd++) {
-               if (Thread.interrupted()) {
-                  throw new InterruptedException();
-               }
-               double xVal = boundXMin_ + dx * xInd;
-               double yVal = boundYMin_ + dy * yInd;
-               boolean inHull = convexHullRegion_.checkPoint(new Vector2D(xVal, yVal)) == Region.Location.INSIDE;
-               if (inHull) {
-                  Triangle_dt tri = dTri.find(new Point_dt(xVal, yVal));
-                  //convert to apache commons coordinates to make a plane
-                  Vector3D v1 = new Vector3D(tri.p1().x(), tri.p1().y(), tri.p1().z());
-                  Vector3D v2 = new Vector3D(tri.p2().x(), tri.p2().y(), tri.p2().z());
-                  Vector3D v3 = new Vector3D(tri.p3().x(), tri.p3().y(), tri.p3().z());
-                  Plane plane = new Plane(v1, v2, v3, TOLERANCE);
-                  //intersetion of vertical line at these x+y values with plane gives point in plane
-                  Vector3D pointInPlane = plane.intersection(new Line(new Vector3D(xVal, yVal, 0), new Vector3D(xVal, yVal, 1), TOLERANCE));
-                  float zVal = (float) pointInPlane.getZ();
-                  interpVals[yInd][xInd] = zVal;
-                  float angle = (float) (Vector3D.angle(plane.getNormal(), new Vector3D(0, 0, 1)) / Math.PI * 180.0);
-                  interpNormals[yInd][xInd] = angle;
-                  interpDefined[yInd][xInd] = true;
-               } else {
-                  interpDefined[yInd][xInd] = false;
-               }
-            }
-         }
+         rasterize(rasterizer, dx, dy, interpVals, interpNormals, interpDefined);
          if (Thread.interrupted()) {
             throw new InterruptedException();
          }
          synchronized (interpolationLock_) {
             currentInterpolation_ = new SingleResolutionInterpolation(pixelsPerInterpPoint, interpDefined, interpVals, interpNormals,
                     boundXMin_, boundXMax_, boundYMin_, boundYMax_,
-                    convexHullRegion_, convexHullVertices_, getPoints());
+                    convexHullIndex_, convexHullVertices_, getPoints());
             interpolationLock_.notifyAll();
             manager_.SurfaceInterpolationUpdated(this);
          }
@@ -126,6 +158,37 @@ public class SurfaceInterpolatorSimple extends SurfaceInterpolator {
       }
    }
 
+   /**
+    * Fill the grid in bands of rows on the raster threads
+    */
+   private void rasterize(SurfaceRasterizer rasterizer, double dx, double dy,
+           float[][] interpVals, float[][] interpNormals, boolean[][] interpDefined) throws InterruptedException {
+      int numRows = interpVals.length;
+      int numBands = Math.min(numRows, RASTER_THREADS);
+      List<Future<?>> bands = new ArrayList<Future<?>>();
+      for (int band = 0; band < numBands; band++) {
+         final int rowStart = (int) ((long) numRows * band / numBands);
+         final int rowEnd = (int) ((long) numRows * (band + 1) / numBands);
+         bands.add(rasterExecutor_.submit(() -> {
+            rasterizer.rasterizeRows(rowStart, rowEnd, boundXMin_, boundYMin_, dx, dy,
+                    interpVals, interpNormals, interpDefined);
+            return null;
+         }));
+      }
+      try {
+         for (Future<?> f : bands) {
+            f.get();
+         }
+      } catch (InterruptedException e) {
+         for (Future<?> f : bands) {
+            f.cancel(true);
+         }
+         throw e;
+      } catch (ExecutionException e) {
+         throw new RuntimeException(e.getCause());
+      }
+   }
+
    @Override
    public float getExtrapolatedValue(double x, double y) {
       //If there are only three points, assume that user wants to extrapolate to do a tilted plane acquistion
@@ -0,0 +1,141 @@
+///////////////////////////////////////////////////////////////////////////////
+// COPYRIGHT:    University of California, San Francisco, 2019
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+//
+package org.micromanager.magellan.surfacesandregions;
+
+/**
+ * Fills a regular grid with the z values of a triangulated surface. Rather
+ * than locating the triangle containing every grid point, each triangle
+ * visits the grid rows it spans and fills the run of points between its
+ * edges with the plane through its vertices. Distinct row ranges can be
+ * filled concurrently.
+ */
+final class SurfaceRasterizer {
+
+   //grid points this close to an edge, in grid units, count as inside, so
+   //points on edges shared by two triangles are not missed to rounding
+   private static final double EDGE_EPSILON = 1e-9;
+   private static final double MIN_NORMAL_Z = 1e-12;
+
+   //per triangle: x1, y1, x2, y2, x3, y3
+   private final double[] vertices_;
+   //per triangle: z = a * x + b * y + c, and the angle of the normal to vertical in degrees
+   private final double[] planes_;
+   private final int numTriangles_;
+
+   /**
+    * @param triangles x, y and z of the three vertices of each triangle, 9
+    * values per triangle
+    */
+   SurfaceRasterizer(double[] triangles) {
+      int n = triangles.length / 9;
+      vertices_ = new double[6 * n];
+      planes_ = new double[4 * n];
+      int count = 0;
+      for (int t = 0; t < n; t++) {
+         int i = 9 * t;
+         double x1 = triangles[i], y1 = triangles[i + 1], z1 = triangles[i + 2];
+         double x2 = triangles[i + 3], y2 = triangles[i + 4], z2 = triangles[i + 5];
+         double x3 = triangles[i + 6], y3 = triangles[i + 7], z3 = triangles[i + 8];
+         //normal is the cross product of two edges
+         double ux = x2 - x1, uy = y2 - y1, uz = z2 - z1;
+         double vx = x3 - x1, vy = y3 - y1, vz = z3 - z1;
+         double nx = uy * vz - uz * vy;
+         double ny = uz * vx - ux * vz;
+         double nz = ux * vy - uy * vx;
+         double norm = Math.sqrt(nx * nx + ny * ny + nz * nz);
+         if (Math.abs(nz) <= MIN_NORMAL_Z * norm || norm == 0) {
+            continue; //collinear in xy, covers no area
+         }
+         double a = -nx / nz;
+         double b = -ny / nz;
+         for (int k = 0; k < 3; k++) {
+            vertices_[6 * count + 2 * k] = triangles[i + 3 * k];
+            vertices_[6 * count + 2 * k + 1] = triangles[i + 3 * k + 1];
+         }
+         planes_[4 * count] = a;
+         planes_[4 * count + 1] = b;
+         planes_[4 * count + 2] = z1 - a * x1 - b * y1;
+         planes_[4 * count + 3] = Math.toDegrees(Math.acos(Math.abs(nz) / norm));
+         count++;
+      }
+      numTriangles_ = count;
+   }
+
+   int getNumTriangles() {
+      return numTriangles_;
+   }
+
+   /**
+    * Fill rows rowStart (inclusive) to rowEnd (exclusive) of the grid with
+    * point (xInd, yInd) at (xMin + dx * xInd, yMin + dy * yInd). Points not
+    * covered by any triangle are left untouched
+    */
+   void rasterizeRows(int rowStart, int rowEnd, double xMin, double yMin, double dx, double dy,
+           float[][] interpVals, float[][] interpNormals, boolean[][] interpDefined) throws InterruptedException {
+      int numCols = interpVals[0].length;
+      double[] u = new double[3];
+      double[] v = new double[3];
+      for (int t = 0; t < numTriangles_; t++) {
+         if (Thread.interrupted()) {
+            throw new InterruptedException();
+         }
+         //vertices in grid units
+         double vMin = Double.MAX_VALUE, vMax = -Double.MAX_VALUE;
+         for (int k = 0; k < 3; k++) {
+            u[k] = (vertices_[6 * t + 2 * k] - xMin) / dx;
+            v[k] = (vertices_[6 * t + 2 * k + 1] - yMin) / dy;
+            vMin = Math.min(vMin, v[k]);
+            vMax = Math.max(vMax, v[k]);
+         }
+         int firstRow = Math.max(rowStart, (int) Math.ceil(vMin - EDGE_EPSILON));
+         int lastRow = Math.min(rowEnd - 1, (int) Math.floor(vMax + EDGE_EPSILON));
+         double a = planes_[4 * t], b = planes_[4 * t + 1], c = planes_[4 * t + 2];
+         float angle = (float) planes_[4 * t + 3];
+         for (int row = firstRow; row <= lastRow; row++) {
+            //intersect the row with the edges of the triangle
+            double uMin = Double.MAX_VALUE, uMax = -Double.MAX_VALUE;
+            for (int k = 0; k < 3; k++) {
+               double u0 = u[k], v0 = v[k];
+               double u1 = u[(k + 1) % 3], v1 = v[(k + 1) % 3];
+               if (Math.min(v0, v1) - EDGE_EPSILON > row || Math.max(v0, v1) + EDGE_EPSILON < row) {
+                  continue;
+               }
+               if (Math.abs(v1 - v0) <= EDGE_EPSILON) {
+                  //edge along the row
+                  uMin = Math.min(uMin, Math.min(u0, u1));
+                  uMax = Math.max(uMax, Math.max(u0, u1));
+               } else {
+                  double frac = Math.max(0, Math.min(1, (row - v0) / (v1 - v0)));
+                  double uCross = u0 + frac * (u1 - u0);
+                  uMin = Math.min(uMin, uCross);
+                  uMax = Math.max(uMax, uCross);
+               }
+            }
+            int firstCol = Math.max(0, (int) Math.ceil(uMin - EDGE_EPSILON));
+            int lastCol = Math.min(numCols - 1, (int) Math.floor(uMax + EDGE_EPSILON));
+            double yVal = yMin + dy * row;
+            float[] rowVals = interpVals[row];
+            float[] rowNormals = interpNormals[row];
+            boolean[] rowDefined = interpDefined[row];
+            for (int col = firstCol; col <= lastCol; col++) {
+               double xVal = xMin + dx * col;
+               rowVals[col] = (float) (a * xVal + b * yVal + c);
+               rowNormals[col] = angle;
+               rowDefined[col] = true;
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,79 @@
+package org.micromanager.magellan.api.zmq;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import mmcorej.TaggedImage;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.zeromq.SocketType;
+import org.zeromq.ZContext;
+import org.zeromq.ZMQ;
+
+public class ZMQImageStreamerTest {
+
+   private static final int WIDTH = 512, HEIGHT = 512, NUM_IMAGES = 200;
+
+   private static TaggedImage createImage(int index) throws Exception {
+      short[] pix = new short[WIDTH * HEIGHT];
+      for (int i = 0; i < pix.length; i++) {
+         pix[i] = (short) (i * 7 + index);
+      }
+      JSONObject tags = new JSONObject();
+      tags.put("Index", index);
+      return new TaggedImage(pix, tags);
+   }
+
+   @Test
+   public void testStreamsBinaryFramesToLocalClient() throws Exception {
+      ZMQImageStreamer streamer = new ZMQImageStreamer();
+      ZMQ.Socket client = ZMQSocketWrapper.context_.createSocket(SocketType.PULL);
+      try {
+         client.connect("tcp://127.0.0.1:" + ZMQImageStreamer.DEFAULT_PORT_NUMBER);
+         TaggedImage[] images = new TaggedImage[NUM_IMAGES];
+         for (int i = 0; i < NUM_IMAGES; i++) {
+            images[i] = createImage(i);
+         }
+         for (TaggedImage image : images) {
+            streamer.push(image);
+         }
+         for (int i = 0; i < NUM_IMAGES; i++) {
+            JSONObject json = new JSONObject(client.recvStr());
+            assertTrue(client.hasReceiveMore());
+            byte[] pixels = client.recv();
+            assertFalse(client.hasReceiveMore());
+            JSONObject value = json.getJSONObject("value");
+            assertEquals("uint16", value.getString("pixel-type"));
+            assertEquals(i, value.getJSONObject("tags").getInt("Index"));
+            assertEquals(1, value.getJSONObject("pix").getInt("binary-frame"));
+            short[] expected = (short[]) images[i].pix;
+            ByteBuffer buffer = ByteBuffer.wrap(pixels).order(ByteOrder.BIG_ENDIAN);
+            assertEquals(2 * expected.length, pixels.length);
+            assertEquals(expected[0], buffer.getShort(0));
+            assertEquals(expected[expected.length - 1], buffer.getShort(pixels.length - 2));
+         }
+      } finally {
+         client.close();
+         streamer.close();
+      }
+   }
+
+   @Test
+   public void testBindFailureIsReported() {
+      ZContext otherContext = new ZContext();
+      otherContext.createSocket(SocketType.PUSH).bind(
+              "tcp://127.0.0.1:" + ZMQImageStreamer.DEFAULT_PORT_NUMBER);
+      try {
+         ZMQImageStreamer.start();
+         fail("Port in use, but the image stream started");
+      } catch (RuntimeException e) {
+         //expected
+      } finally {
+         //closes the socket and waits for the port to be released
+         otherContext.destroy();
+      }
+      //nothing is left running, so the stream can start once the port is free
+      ZMQImageStreamer.start();
+      ZMQImageStreamer.stop();
+   }
+}
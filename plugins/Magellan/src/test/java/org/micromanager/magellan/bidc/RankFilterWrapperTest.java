@@ -0,0 +1,60 @@
+package org.micromanager.magellan.bidc;
+
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class RankFilterWrapperTest {
+
+   /**
+    * Rank filter by sorting every neighborhood, as it used to be done
+    */
+   private static byte[] sortFilter(byte[][] frames, int width, int height, double rank) {
+      byte[] filtered = new byte[width * height];
+      short[] values = new short[frames.length * 9];
+      for (int y = 0; y < height; y++) {
+         for (int x = 0; x < width; x++) {
+            int n = 0;
+            for (byte[] frame : frames) {
+               for (int dy = -1; dy <= 1; dy++) {
+                  for (int dx = -1; dx <= 1; dx++) {
+                     int xx = Math.max(0, Math.min(width - 1, x + dx));
+                     int yy = Math.max(0, Math.min(height - 1, y + dy));
+                     values[n++] = (short) (frame[yy * width + xx] & 0xff);
+                  }
+               }
+            }
+            Arrays.sort(values);
+            filtered[y * width + x] = (byte) values[(int) ((values.length - 1) * rank)];
+         }
+      }
+      return filtered;
+   }
+
+   @Test
+   public void testMatchesSorting() {
+      Random random = new Random(0);
+      int[][] sizes = {{37, 23}, {1, 5}, {6, 1}, {2, 2}};
+      double[] ranks = {0, 0.1, 0.5, 0.8, 1};
+      for (int[] size : sizes) {
+         int width = size[0], height = size[1];
+         for (int numFrames : new int[]{1, 3, 10}) {
+            byte[][] frames = new byte[numFrames][width * height];
+            for (byte[] frame : frames) {
+               // Mostly dim pixels with bright spots, like real data
+               for (int i = 0; i < frame.length; i++) {
+                  frame[i] = (byte) (random.nextInt(10) == 0 ? 128 + random.nextInt(128) : random.nextInt(40));
+               }
+            }
+            for (double rank : ranks) {
+               byte[] filtered = new byte[width * height];
+               // Two bands of rows, as on two filter threads
+               RankFilterWrapper.filterRows(frames, width, height, rank, 0, height / 2, filtered);
+               RankFilterWrapper.filterRows(frames, width, height, rank, height / 2, height, filtered);
+               assertArrayEquals(sortFilter(frames, width, height, rank), filtered);
+            }
+         }
+      }
+   }
+}
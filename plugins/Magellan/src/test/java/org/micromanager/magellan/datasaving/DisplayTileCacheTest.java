@@ -0,0 +1,41 @@
+package org.micromanager.magellan.datasaving;
+
+import mmcorej.TaggedImage;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class DisplayTileCacheTest {
+
+   private static TaggedImage tile(int numPixels) {
+      return new TaggedImage(new short[numPixels], null);
+   }
+
+   @Test
+   public void testEvictsLeastRecentlyUsedBeyondByteLimit() {
+      DisplayTileCache cache = new DisplayTileCache(3 * 200);
+      cache.put(0, 0, 0, 0, 0, 0, tile(100));
+      cache.put(0, 0, 0, 0, 0, 1, tile(100));
+      cache.put(0, 0, 0, 0, 0, 2, tile(100));
+      assertEquals(600, cache.getSizeBytes());
+      // Use the first tile, so that the second one is evicted
+      assertNotNull(cache.get(0, 0, 0, 0, 0, 0));
+      cache.put(0, 0, 0, 1, 0, 0, tile(100));
+      assertEquals(600, cache.getSizeBytes());
+      assertTrue(cache.contains(0, 0, 0, 0, 0, 0));
+      assertFalse(cache.contains(0, 0, 0, 0, 0, 1));
+      assertTrue(cache.contains(0, 0, 0, 1, 0, 0));
+   }
+
+   @Test
+   public void testInvalidateAndHitRate() {
+      DisplayTileCache cache = new DisplayTileCache(1 << 20);
+      cache.put(1, 2, 3, 0, -5, 7, tile(10));
+      assertNotNull(cache.get(1, 2, 3, 0, -5, 7));
+      cache.invalidate(1, 2, 3, 0, -5, 7);
+      assertEquals(0, cache.getSizeBytes());
+      assertNull(cache.get(1, 2, 3, 0, -5, 7));
+      assertEquals(1, cache.getHitCount());
+      assertEquals(1, cache.getMissCount());
+      assertEquals(0.5, cache.getHitRate(), 0.0);
+   }
+}
@@ -0,0 +1,126 @@
+package org.micromanager.magellan.datasaving;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.micromanager.magellan.misc.MD;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the image index of a storage keyed by "c_s_f_p" label strings
+ * (a ConcurrentHashMap from label to file offset, and a HashMap from label
+ * to reader) with the packed ImageKey index (two LongLongHashMaps), for 1M
+ * synthetic tiles: 4 channels x 50 slices x 5000 positions.
+ *
+ * Not a unit test (excluded from the test run). Lookup times, including
+ * building the key, are measured with
+ * {@code java -cp <test classpath> org.openjdk.jmh.Main ImageIndexBenchmark};
+ * the memory taken by each index is printed by
+ * {@code java -cp <test classpath> org.micromanager.magellan.datasaving.ImageIndexBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageIndexBenchmark {
+   private static final int CHANNELS = 4;
+   private static final int SLICES = 50;
+   private static final int POSITIONS = 5000;
+   private static final int TILES = CHANNELS * SLICES * POSITIONS;
+
+   private Map<String, Long> labelIndex_;
+   private LongLongHashMap keyIndex_;
+   private int next_ = 0;
+
+   private static int channel(int tile) {
+      return tile % CHANNELS;
+   }
+
+   private static int slice(int tile) {
+      return tile / CHANNELS % SLICES;
+   }
+
+   private static int position(int tile) {
+      return tile / (CHANNELS * SLICES);
+   }
+
+   private static Object[] labelIndex() {
+      Map<String, Long> offsets = new ConcurrentHashMap<String, Long>();
+      Map<String, Object> readers = new HashMap<String, Object>();
+      Object reader = new Object();
+      for (int tile = 0; tile < TILES; tile++) {
+         String label = MD.generateLabel(channel(tile), slice(tile), 0, position(tile));
+         offsets.put(label, 8L + 1000L * tile);
+         readers.put(label, reader);
+      }
+      return new Object[]{offsets, readers};
+   }
+
+   private static LongLongHashMap[] keyIndex() {
+      LongLongHashMap offsets = new LongLongHashMap();
+      LongLongHashMap readerIndices = new LongLongHashMap();
+      for (int tile = 0; tile < TILES; tile++) {
+         long key = ImageKey.pack(channel(tile), slice(tile), 0, position(tile));
+         offsets.put(key, 8L + 1000L * tile);
+         readerIndices.put(key, 0);
+      }
+      return new LongLongHashMap[]{offsets, readerIndices};
+   }
+
+   @Setup
+   @SuppressWarnings("unchecked")
+   public void setUp() {
+      labelIndex_ = (Map<String, Long>) labelIndex()[0];
+      keyIndex_ = keyIndex()[0];
+   }
+
+   @Benchmark
+   public Long lookupLabel() {
+      int tile = next_;
+      next_ = (next_ + 7919) % TILES;
+      return labelIndex_.get(MD.generateLabel(channel(tile), slice(tile), 0, position(tile)));
+   }
+
+   @Benchmark
+   public long lookupKey() {
+      int tile = next_;
+      next_ = (next_ + 7919) % TILES;
+      return keyIndex_.get(ImageKey.pack(channel(tile), slice(tile), 0, position(tile)));
+   }
+
+   private static long usedMemory() throws InterruptedException {
+      Runtime runtime = Runtime.getRuntime();
+      for (int i = 0; i < 5; i++) {
+         System.gc();
+         Thread.sleep(100);
+      }
+      return runtime.totalMemory() - runtime.freeMemory();
+   }
+
+   public static void main(String[] args) throws InterruptedException {
+      long before = usedMemory();
+      Object[] labelIndex = labelIndex();
+      long labelBytes = usedMemory() - before;
+      System.out.println("Label index: " + labelBytes / 1000000 + " MB for "
+              + ((Map<?, ?>) labelIndex[0]).size() + " images");
+      labelIndex = null;
+
+      before = usedMemory();
+      LongLongHashMap[] keyIndex = keyIndex();
+      long keyBytes = usedMemory() - before;
+      System.out.println("Key index: " + keyBytes / 1000000 + " MB for "
+              + keyIndex[0].size() + " images");
+   }
+}
@@ -0,0 +1,46 @@
+package org.micromanager.magellan.datasaving;
+
+import java.util.HashSet;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ImageKeyTest {
+
+   private static final int[][] CASES = {{0, 0, 0, 0}, {3, -5, 17, 123456},
+      {127, 32767, 524287, 524287}, {-127, -32768, -524288, -524288}, {0, 0, 0, -1},
+      // do not fit in the fields of a key
+      {-128, 0, 0, 0}, {128, 0, 0, 0}, {0, 32768, 0, 0}, {0, 0, 524288, 0},
+      {0, 0, 0, 524288}, {1, 2, 100000, 3},
+      {Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE}};
+
+   @Test
+   public void testRoundTrip() {
+      for (int[] c : CASES) {
+         long key = ImageKey.pack(c[0], c[1], c[2], c[3]);
+         assertArrayEquals(c, ImageKey.toIndices(key));
+         assertEquals(c[0], ImageKey.getChannel(key));
+         assertEquals(c[1], ImageKey.getSlice(key));
+         assertEquals(c[2], ImageKey.getFrame(key));
+         assertEquals(c[3], ImageKey.getPosition(key));
+         assertEquals(c[0] + "_" + c[1] + "_" + c[2] + "_" + c[3], ImageKey.toLabel(key));
+      }
+   }
+
+   @Test
+   public void testKeysAreUnique() {
+      Set<Long> keys = new HashSet<Long>();
+      for (int[] c : CASES) {
+         assertTrue(keys.add(ImageKey.pack(c[0], c[1], c[2], c[3])));
+      }
+      assertNotEquals(ImageKey.pack(1, 0, 0, 0), ImageKey.pack(0, 0, 0, 1));
+   }
+
+   @Test
+   public void testSameIndicesGiveSameKey() {
+      for (int[] c : CASES) {
+         assertEquals(ImageKey.pack(c[0], c[1], c[2], c[3]),
+                 ImageKey.pack(c[0], c[1], c[2], c[3]));
+      }
+   }
+}
@@ -0,0 +1,41 @@
+package org.micromanager.magellan.datasaving;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class LongLongHashMapTest {
+
+   @Test
+   public void testMatchesHashMap() {
+      LongLongHashMap map = new LongLongHashMap();
+      Map<Long, Long> expected = new HashMap<Long, Long>();
+      Random random = new Random(0);
+      for (int i = 0; i < 100000; i++) {
+         // Include duplicate keys, which replace the previous value
+         long key = ImageKey.pack(random.nextInt(4), random.nextInt(200) - 100,
+                 random.nextInt(10), random.nextInt(1000));
+         long value = random.nextInt(Integer.MAX_VALUE);
+         map.put(key, value);
+         expected.put(key, value);
+      }
+      assertEquals(expected.size(), map.size());
+      for (Map.Entry<Long, Long> e : expected.entrySet()) {
+         assertTrue(map.containsKey(e.getKey()));
+         assertEquals((long) e.getValue(), map.get(e.getKey()));
+      }
+      assertEquals(-1, map.get(ImageKey.pack(5, 0, 0, 0)));
+      long[] keys = map.keys();
+      Arrays.sort(keys);
+      long[] expectedKeys = new long[expected.size()];
+      int i = 0;
+      for (long key : expected.keySet()) {
+         expectedKeys[i++] = key;
+      }
+      Arrays.sort(expectedKeys);
+      assertArrayEquals(expectedKeys, keys);
+   }
+}
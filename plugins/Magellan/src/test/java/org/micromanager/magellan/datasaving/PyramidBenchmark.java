@@ -0,0 +1,138 @@
+package org.micromanager.magellan.datasaving;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Builds all lower resolution levels of a synthetic 100x100-tile grid in
+ * memory, the way MultiResMultipageTiffStorage does when resolution levels
+ * are added (without the disk I/O), comparing TileDownsampler with the
+ * previous per-pixel loop and serial with parallel computation.
+ *
+ * Not a unit test (excluded from the test run); run with
+ * {@code java -cp <test classpath> org.openjdk.jmh.Main PyramidBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PyramidBenchmark {
+   private static final int GRID_SIZE = 100;
+   private static final int TILE_SIZE = 128;
+   private static final int OVERLAP = 8;
+   // Distinct full resolution tiles, reused across the grid
+   private static final int NUM_SOURCE_TILES = 16;
+
+   @Param({"1", "2"})
+   public int byteDepth;
+
+   @Param({"true", "false"})
+   public boolean useKernel;
+
+   @Param({"1", "4"})
+   public int threads;
+
+   private Object[] fullResTiles_;
+   private TileDownsampler downsampler_;
+   private ExecutorService executor_;
+
+   @Setup
+   public void setUp() {
+      Random random = new Random(0);
+      int fullResSize = TILE_SIZE + OVERLAP;
+      fullResTiles_ = new Object[NUM_SOURCE_TILES];
+      for (int i = 0; i < NUM_SOURCE_TILES; i++) {
+         if (byteDepth == 1) {
+            byte[] pix = new byte[fullResSize * fullResSize];
+            random.nextBytes(pix);
+            fullResTiles_[i] = pix;
+         } else {
+            short[] pix = new short[fullResSize * fullResSize];
+            for (int j = 0; j < pix.length; j++) {
+               pix[j] = (short) random.nextInt(4096);
+            }
+            fullResTiles_[i] = pix;
+         }
+      }
+      downsampler_ = new TileDownsampler(TILE_SIZE, TILE_SIZE, false, byteDepth);
+      executor_ = Executors.newFixedThreadPool(threads);
+   }
+
+   @TearDown
+   public void tearDown() {
+      executor_.shutdown();
+   }
+
+   private Object downsampleTile(Object[][] previousLevel, int row, int col,
+           int resolutionIndex) {
+      Object pix = downsampler_.createTilePixels();
+      int srcSize = resolutionIndex == 1 ? TILE_SIZE + OVERLAP : TILE_SIZE;
+      int offset = resolutionIndex == 1 ? OVERLAP / 2 : 0;
+      for (int r = 2 * row; r < Math.min(previousLevel.length, 2 * row + 2); r++) {
+         for (int c = 2 * col; c < Math.min(previousLevel[r].length, 2 * col + 2); c++) {
+            if (useKernel) {
+               downsampler_.downsample(pix, previousLevel[r][c], srcSize,
+                       srcSize, offset, offset, c % 2, r % 2);
+            } else {
+               TileDownsamplerTest.referenceDownsample(pix, previousLevel[r][c],
+                       TILE_SIZE, TILE_SIZE, srcSize, srcSize, offset, offset,
+                       c % 2, r % 2, false, byteDepth);
+            }
+         }
+      }
+      return pix;
+   }
+
+   @Benchmark
+   public Object buildPyramid() throws Exception {
+      Object[][] level = new Object[GRID_SIZE][GRID_SIZE];
+      for (int r = 0; r < GRID_SIZE; r++) {
+         for (int c = 0; c < GRID_SIZE; c++) {
+            level[r][c] = fullResTiles_[(r * GRID_SIZE + c) % NUM_SOURCE_TILES];
+         }
+      }
+      for (int resolutionIndex = 1; level.length > 1 || level[0].length > 1; resolutionIndex++) {
+         final Object[][] previousLevel = level;
+         final int res = resolutionIndex;
+         int rows = (previousLevel.length + 1) / 2;
+         int cols = (previousLevel[0].length + 1) / 2;
+         List<Future<Object>> tiles = new ArrayList<Future<Object>>();
+         for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+               final int row = r, col = c;
+               tiles.add(executor_.submit(new Callable<Object>() {
+                  @Override
+                  public Object call() {
+                     return downsampleTile(previousLevel, row, col, res);
+                  }
+               }));
+            }
+         }
+         level = new Object[rows][cols];
+         for (int i = 0; i < tiles.size(); i++) {
+            level[i / cols][i % cols] = tiles.get(i).get();
+         }
+      }
+      return level[0][0];
+   }
+}
@@ -0,0 +1,111 @@
+package org.micromanager.magellan.datasaving;
+
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TileDownsamplerTest {
+
+   /**
+    * The per-pixel loop previously used by MultiResMultipageTiffStorage.
+    */
+   static void referenceDownsample(Object dst, Object src, int tileWidth,
+           int tileHeight, int srcWidth, int srcHeight, int offsetX,
+           int offsetY, int xPos, int yPos, boolean rgb, int byteDepth) {
+      int mult = rgb ? 4 : 1;
+      for (int x = 0; x < tileWidth; x += 2) {
+         for (int y = 0; y < tileHeight; y += 2) {
+            int pixelX = x + offsetX;
+            int pixelY = y + offsetY;
+            for (int c = 0; c < (rgb ? 3 : 1); c++) {
+               int[] dx, dy;
+               if (x < srcWidth - 1 && y < srcHeight - 1) {
+                  dx = new int[]{0, 1, 0, 1};
+                  dy = new int[]{0, 0, 1, 1};
+               } else if (x < srcWidth - 1) {
+                  dx = new int[]{0, 1};
+                  dy = new int[]{0, 0};
+               } else if (y < srcHeight - 1) {
+                  dx = new int[]{0, 0};
+                  dy = new int[]{0, 1};
+               } else {
+                  dx = new int[]{0};
+                  dy = new int[]{0};
+               }
+               int sum = 0;
+               for (int i = 0; i < dx.length; i++) {
+                  int index = ((pixelY + dy[i]) * srcWidth + pixelX + dx[i]) * mult + c;
+                  sum += byteDepth == 1 || rgb ? ((byte[]) src)[index] & 0xff
+                          : ((short[]) src)[index] & 0xffff;
+               }
+               int index = (((y + yPos * tileHeight) / 2) * tileWidth
+                       + (x + xPos * tileWidth) / 2) * mult + c;
+               if (byteDepth == 1 || rgb) {
+                  ((byte[]) dst)[index] = (byte) (sum / dx.length);
+               } else {
+                  ((short[]) dst)[index] = (short) (sum / dx.length);
+               }
+            }
+         }
+      }
+   }
+
+   private static Object randomPixels(Random random, int numPixels,
+           boolean rgb, int byteDepth) {
+      if (rgb || byteDepth == 1) {
+         byte[] pix = new byte[numPixels * (rgb ? 4 : 1)];
+         random.nextBytes(pix);
+         return pix;
+      }
+      short[] pix = new short[numPixels];
+      for (int i = 0; i < pix.length; i++) {
+         pix[i] = (short) random.nextInt(65536);
+      }
+      return pix;
+   }
+
+   private static void assertMatchesReference(int tileWidth, int tileHeight,
+           int overlapX, int overlapY, boolean rgb, int byteDepth) {
+      Random random = new Random(tileWidth * 31 + tileHeight);
+      int srcWidth = tileWidth + overlapX;
+      int srcHeight = tileHeight + overlapY;
+      TileDownsampler downsampler = new TileDownsampler(tileWidth, tileHeight,
+              rgb, byteDepth);
+      Object expected = downsampler.createTilePixels();
+      Object actual = downsampler.createTilePixels();
+      for (int quadrant = 0; quadrant < 4; quadrant++) {
+         Object src = randomPixels(random, srcWidth * srcHeight, rgb, byteDepth);
+         referenceDownsample(expected, src, tileWidth, tileHeight, srcWidth,
+                 srcHeight, overlapX / 2, overlapY / 2, quadrant % 2,
+                 quadrant / 2, rgb, byteDepth);
+         downsampler.downsample(actual, src, srcWidth, srcHeight, overlapX / 2,
+                 overlapY / 2, quadrant % 2, quadrant / 2);
+      }
+      if (expected instanceof byte[]) {
+         assertArrayEquals((byte[]) expected, (byte[]) actual);
+      } else {
+         assertArrayEquals((short[]) expected, (short[]) actual);
+      }
+   }
+
+   @Test
+   public void testMatchesReference8Bit() {
+      assertMatchesReference(64, 48, 0, 0, false, 1);
+      assertMatchesReference(33, 17, 0, 0, false, 1);
+      assertMatchesReference(32, 32, 6, 4, false, 1);
+   }
+
+   @Test
+   public void testMatchesReference16Bit() {
+      assertMatchesReference(64, 48, 0, 0, false, 2);
+      assertMatchesReference(33, 17, 0, 0, false, 2);
+      assertMatchesReference(31, 32, 5, 3, false, 2);
+   }
+
+   @Test
+   public void testMatchesReferenceRGB() {
+      assertMatchesReference(64, 48, 0, 0, true, 1);
+      assertMatchesReference(33, 17, 0, 0, true, 1);
+      assertMatchesReference(32, 31, 4, 8, true, 1);
+   }
+}
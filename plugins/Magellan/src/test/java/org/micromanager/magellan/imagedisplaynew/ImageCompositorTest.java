@@ -0,0 +1,101 @@
+package org.micromanager.magellan.imagedisplaynew;
+
+import java.awt.Color;
+import java.awt.image.IndexColorModel;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ImageCompositorTest {
+
+   /**
+    * Color LUT split into packed components, as ImageMaker does
+    */
+   private static int[][] splitLUT(Color color, double gamma) {
+      IndexColorModel icm = ImageMaker.makeLUT(color, gamma);
+      int[][] rgb = new int[3][256];
+      for (int i = 0; i < 256; i++) {
+         rgb[0][i] = icm.getRed(i) << 16;
+         rgb[1][i] = icm.getGreen(i) << 8;
+         rgb[2][i] = icm.getBlue(i);
+      }
+      return rgb;
+   }
+
+   /**
+    * Conversion to 8 bits, then color lookup, then clamped addition of each
+    * channel, one pixel at a time
+    */
+   private static int[] composite(short[][] channels, int[] mins, int[] maxs, int[][][] luts) {
+      int[] rgb = new int[channels[0].length];
+      for (int c = 0; c < channels.length; c++) {
+         double scale = 256.0 / (maxs[c] - mins[c] + 1);
+         for (int p = 0; p < rgb.length; p++) {
+            int value = Math.max(0, (channels[c][p] & 0xffff) - mins[c]);
+            value = Math.min(255, (int) (value * scale + 0.5));
+            int red = ((rgb[p] & 0xff0000) + luts[c][0][value]);
+            int green = ((rgb[p] & 0xff00) + luts[c][1][value]);
+            int blue = ((rgb[p] & 0xff) + luts[c][2][value]);
+            rgb[p] = Math.min(red, 0xff0000) | Math.min(green, 0xff00) | Math.min(blue, 0xff);
+         }
+      }
+      return rgb;
+   }
+
+   @Test
+   public void testMatchesPerPixelComposite() throws InterruptedException {
+      Random random = new Random(0);
+      // Large enough to be split into bands
+      int numPixels = ImageCompositor.MIN_PIXELS_TO_SPLIT + 1001;
+      Color[] colors = {Color.red, Color.green, Color.magenta};
+      double[] gammas = {1, 0.5, 2};
+      int[] mins = {100, 0, 3000};
+      int[] maxs = {4000, 65535, 3100};
+      short[][] channels = new short[colors.length][numPixels];
+      int[][][] luts = new int[colors.length][][];
+      int[] histogram = new int[65536];
+      int[] composite = new int[numPixels];
+      for (int c = 0; c < colors.length; c++) {
+         for (int p = 0; p < numPixels; p++) {
+            channels[c][p] = (short) random.nextInt(c == 1 ? 65536 : 5000);
+         }
+         luts[c] = splitLUT(colors[c], gammas[c]);
+         int[] displayLUT = ImageCompositor.makeDisplayLUT(65536, mins[c], maxs[c],
+                 luts[c][0], luts[c][1], luts[c][2], null);
+         int[] channelRGB = new int[numPixels];
+         final int channel = c;
+         ImageCompositor.forEachBand(numPixels, (int start, int end) -> {
+            ImageCompositor.applyLUT(channels[channel], displayLUT, channelRGB, start, end);
+            if (channel == 0) {
+               System.arraycopy(channelRGB, start, composite, start, end - start);
+            } else {
+               ImageCompositor.addSaturating(channelRGB, composite, start, end);
+            }
+         });
+         if (c == 0) {
+            ImageCompositor.accumulateHistogram(channels[c], numPixels, histogram);
+         }
+      }
+      assertArrayEquals(composite(channels, mins, maxs, luts), composite);
+
+      int[] expectedHistogram = new int[65536];
+      for (short pix : channels[0]) {
+         expectedHistogram[pix & 0xffff]++;
+      }
+      assertArrayEquals(expectedHistogram, histogram);
+   }
+
+   @Test
+   public void testEightBit() throws InterruptedException {
+      byte[] pixels = {0, 10, 127, (byte) 128, (byte) 255};
+      int[][] lut = splitLUT(Color.white, 1);
+      int[] displayLUT = ImageCompositor.makeDisplayLUT(256, 0, 255, lut[0], lut[1], lut[2], null);
+      int[] rgb = new int[pixels.length];
+      ImageCompositor.applyLUT(pixels, displayLUT, rgb, 0, pixels.length);
+      assertArrayEquals(new int[]{0, 0x0a0a0a, 0x7f7f7f, 0x808080, 0xffffff}, rgb);
+      int[] histogram = new int[256];
+      ImageCompositor.accumulateHistogram(pixels, pixels.length, histogram);
+      assertEquals(1, histogram[255]);
+      assertEquals(1, histogram[128]);
+   }
+}
@@ -0,0 +1,91 @@
+package org.micromanager.magellan.surfacesandregions;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.apache.commons.math3.geometry.euclidean.twod.Euclidean2D;
+import org.apache.commons.math3.geometry.euclidean.twod.PolygonsSet;
+import org.apache.commons.math3.geometry.euclidean.twod.Vector2D;
+import org.apache.commons.math3.geometry.euclidean.twod.hull.ConvexHull2D;
+import org.apache.commons.math3.geometry.euclidean.twod.hull.MonotoneChain;
+import org.apache.commons.math3.geometry.partitioning.Region;
+import org.apache.commons.math3.geometry.partitioning.RegionFactory;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class ConvexHullIndexTest {
+
+   private static ConvexHull2D randomHull(Random random) {
+      List<Vector2D> points = new ArrayList<Vector2D>();
+      for (int i = 0; i < 30; i++) {
+         points.add(new Vector2D(random.nextGaussian() * 100, random.nextGaussian() * 60));
+      }
+      return new MonotoneChain().generate(points);
+   }
+
+   /**
+    * Square of the given size, rotated and centered at (x, y)
+    */
+   private static Point2D.Double[] square(double x, double y, double size, double angle) {
+      AffineTransform t = new AffineTransform();
+      t.translate(x, y);
+      t.rotate(angle);
+      Point2D.Double[] corners = new Point2D.Double[4];
+      double[][] offsets = {{-1, -1}, {-1, 1}, {1, 1}, {1, -1}};
+      for (int i = 0; i < 4; i++) {
+         corners[i] = new Point2D.Double();
+         t.transform(new Point2D.Double(offsets[i][0] * size / 2, offsets[i][1] * size / 2), corners[i]);
+      }
+      return corners;
+   }
+
+   @Test
+   public void testMatchesRegion() {
+      Random random = new Random(0);
+      RegionFactory<Euclidean2D> factory = new RegionFactory<Euclidean2D>();
+      for (int h = 0; h < 20; h++) {
+         ConvexHull2D hull = randomHull(random);
+         Region<Euclidean2D> region = hull.createRegion();
+         ConvexHullIndex index = new ConvexHullIndex(hull.getVertices());
+         for (int i = 0; i < 200; i++) {
+            double x = random.nextDouble() * 600 - 300, y = random.nextDouble() * 400 - 200;
+            assertEquals(region.checkPoint(new Vector2D(x, y)) != Region.Location.OUTSIDE, index.contains(x, y));
+
+            Point2D.Double[] corners = square(x, y, random.nextDouble() * 50 + 1, random.nextDouble());
+            Region<Euclidean2D> squareRegion = new PolygonsSet(0.0001, new Vector2D[]{
+               new Vector2D(corners[0].x, corners[0].y), new Vector2D(corners[1].x, corners[1].y),
+               new Vector2D(corners[2].x, corners[2].y), new Vector2D(corners[3].x, corners[3].y)});
+            if (squareRegion.checkPoint(new Vector2D(x, y)) == Region.Location.OUTSIDE) {
+               squareRegion = factory.getComplement(squareRegion);
+            }
+            assertEquals(!factory.intersection(squareRegion, region).isEmpty(), index.intersects(corners));
+         }
+      }
+   }
+
+   @Test
+   public void testTouchingSquaresDoNotIntersect() {
+      ConvexHullIndex index = new ConvexHullIndex(new Vector2D[]{
+         new Vector2D(0, 0), new Vector2D(10, 0), new Vector2D(10, 10), new Vector2D(0, 10)});
+      assertFalse(index.intersects(square(15, 5, 10, 0)));
+      assertTrue(index.intersects(square(14.9, 5, 10, 0)));
+      assertTrue(index.contains(10, 5));
+      assertFalse(index.contains(10.001, 5));
+   }
+
+   @Test
+   public void testXRangeAndTransform() {
+      // Diamond with corners at (0, +-10) and (+-10, 0), clockwise
+      ConvexHullIndex index = new ConvexHullIndex(new Vector2D[]{
+         new Vector2D(0, 10), new Vector2D(10, 0), new Vector2D(0, -10), new Vector2D(-10, 0)});
+      assertArrayEquals(new double[]{-10, 10}, index.getXRange(-1, 1), 1e-9);
+      assertArrayEquals(new double[]{-5, 5}, index.getXRange(5, 20), 1e-9);
+      assertNull(index.getXRange(11, 12));
+      ConvexHullIndex scaled = index.transform(AffineTransform.getScaleInstance(2, -1));
+      assertArrayEquals(new double[]{-10, 10}, scaled.getXRange(5, 20), 1e-9);
+      assertTrue(scaled.contains(19, 0));
+      assertFalse(index.contains(19, 0));
+   }
+}
@@ -0,0 +1,112 @@
+package org.micromanager.magellan.surfacesandregions;
+
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class SurfaceRasterizerTest {
+
+   /**
+    * Mesh of a jittered 6x5 lattice of random heights over [0, 100] x [0, 80],
+    * split into two triangles per cell
+    */
+   private static double[] createMesh(Random random) {
+      int nx = 6, ny = 5;
+      double[][] x = new double[ny][nx], y = new double[ny][nx], z = new double[ny][nx];
+      for (int j = 0; j < ny; j++) {
+         for (int i = 0; i < nx; i++) {
+            boolean interior = i > 0 && j > 0 && i < nx - 1 && j < ny - 1;
+            x[j][i] = 20 * i + (interior ? random.nextDouble() * 6 - 3 : 0);
+            y[j][i] = 20 * j + (interior ? random.nextDouble() * 6 - 3 : 0);
+            z[j][i] = random.nextDouble() * 50;
+         }
+      }
+      double[] mesh = new double[2 * 9 * (nx - 1) * (ny - 1)];
+      int n = 0;
+      for (int j = 0; j < ny - 1; j++) {
+         for (int i = 0; i < nx - 1; i++) {
+            int[][] tris = {{j, i, j, i + 1, j + 1, i}, {j, i + 1, j + 1, i + 1, j + 1, i}};
+            for (int[] tri : tris) {
+               for (int k = 0; k < 3; k++) {
+                  mesh[n++] = x[tri[2 * k]][tri[2 * k + 1]];
+                  mesh[n++] = y[tri[2 * k]][tri[2 * k + 1]];
+                  mesh[n++] = z[tri[2 * k]][tri[2 * k + 1]];
+               }
+            }
+         }
+      }
+      return mesh;
+   }
+
+   /**
+    * z of the point in the triangle by barycentric coordinates, or NaN if it
+    * is outside
+    */
+   private static double barycentricZ(double[] mesh, int t, double px, double py) {
+      double x1 = mesh[9 * t], y1 = mesh[9 * t + 1], z1 = mesh[9 * t + 2];
+      double x2 = mesh[9 * t + 3], y2 = mesh[9 * t + 4], z2 = mesh[9 * t + 5];
+      double x3 = mesh[9 * t + 6], y3 = mesh[9 * t + 7], z3 = mesh[9 * t + 8];
+      double det = (y2 - y3) * (x1 - x3) + (x3 - x2) * (y1 - y3);
+      double l1 = ((y2 - y3) * (px - x3) + (x3 - x2) * (py - y3)) / det;
+      double l2 = ((y3 - y1) * (px - x3) + (x1 - x3) * (py - y3)) / det;
+      double l3 = 1 - l1 - l2;
+      double eps = 1e-6;
+      if (l1 < -eps || l2 < -eps || l3 < -eps) {
+         return Double.NaN;
+      }
+      return l1 * z1 + l2 * z2 + l3 * z3;
+   }
+
+   @Test
+   public void testMatchesPointInTriangle() throws InterruptedException {
+      double[] mesh = createMesh(new Random(0));
+      SurfaceRasterizer rasterizer = new SurfaceRasterizer(mesh);
+      // Grid extends past the mesh on all sides
+      double xMin = -10, yMin = -10, dx = 0.7, dy = 0.9;
+      int numCols = 180, numRows = 115;
+      float[][] vals = new float[numRows][numCols];
+      float[][] normals = new float[numRows][numCols];
+      boolean[][] defined = new boolean[numRows][numCols];
+      // Fill in uneven bands, as the raster threads do
+      rasterizer.rasterizeRows(0, 37, xMin, yMin, dx, dy, vals, normals, defined);
+      rasterizer.rasterizeRows(37, numRows, xMin, yMin, dx, dy, vals, normals, defined);
+
+      for (int row = 0; row < numRows; row++) {
+         for (int col = 0; col < numCols; col++) {
+            double x = xMin + dx * col, y = yMin + dy * row;
+            boolean inside = x >= 0 && x <= 100 && y >= 0 && y <= 80;
+            assertEquals("point " + x + ", " + y, inside, defined[row][col]);
+            if (inside) {
+               double expected = Double.NaN;
+               for (int t = 0; t < mesh.length / 9 && Double.isNaN(expected); t++) {
+                  expected = barycentricZ(mesh, t, x, y);
+               }
+               assertEquals(expected, vals[row][col], 1e-3);
+               assertTrue(normals[row][col] >= 0 && normals[row][col] < 90);
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testPlaneAngleAndDegenerateTriangles() throws InterruptedException {
+      // z = x rises at 45 degrees whichever way round the vertices go; the
+      // collinear triangle is skipped
+      double[] triangles = {0, 0, 0, 10, 0, 10, 0, 10, 0,
+         10, 0, 10, 10, 10, 10, 0, 10, 0,
+         0, 0, 0, 5, 5, 1, 10, 10, 2};
+      SurfaceRasterizer rasterizer = new SurfaceRasterizer(triangles);
+      assertEquals(2, rasterizer.getNumTriangles());
+      float[][] vals = new float[11][11];
+      float[][] normals = new float[11][11];
+      boolean[][] defined = new boolean[11][11];
+      rasterizer.rasterizeRows(0, 11, 0, 0, 1, 1, vals, normals, defined);
+      for (int row = 0; row <= 10; row++) {
+         for (int col = 0; col <= 10; col++) {
+            assertTrue(defined[row][col]);
+            assertEquals(col, vals[row][col], 1e-5);
+            assertEquals(45, normals[row][col], 1e-4);
+         }
+      }
+   }
+}
@@ -93,6 +93,12 @@ public class SplitViewProcessor extends Processor {
       return summary.copyBuilder().channelNames(newNames).build();
    }
 
+   // Each image is transformed independently
+   @Override
+   public boolean isStateless() {
+      return true;
+   }
+
    @Override
    public void processImage(Image image, ProcessorContext context) {
       ImageProcessor proc = studio_.data().ij().createProcessor(image);